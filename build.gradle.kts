@@ -21,4 +21,95 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// Hand-rolled multi-threaded benchmarks live in their own source set so they are
+// compiled against the main classes but never run as part of `test`.
+// Run one with: ./gradlew benchmark -Pbench=ExposureLimiterBenchmark
+sourceSets {
+    create("benchmark") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+    // Concurrency stress tests and the linearizability checker; slow, so not part of `test`.
+    create("stress") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+configurations["stressImplementation"].extendsFrom(configurations.testImplementation.get())
+configurations["stressRuntimeOnly"].extendsFrom(configurations.testRuntimeOnly.get())
+
+tasks.register<JavaExec>("benchmark") {
+    group = "verification"
+    description = "Runs a benchmark from src/benchmark (select with -Pbench=<ClassName>)."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("ie.ronanodea.unitTesting." + (project.findProperty("bench") ?: "ExposureLimiterBenchmark"))
+    args = (project.findProperty("benchArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+// Run with: ./gradlew stressTest [-PstressRounds=2000] [-PstressMillis=10000]
+tasks.register<Test>("stressTest") {
+    group = "verification"
+    description = "Runs the concurrency stress tests and linearizability checks from src/stress."
+    testClassesDirs = sourceSets["stress"].output.classesDirs
+    classpath = sourceSets["stress"].runtimeClasspath
+    useJUnitPlatform()
+    systemProperty("stress.rounds", project.findProperty("stressRounds") ?: "500")
+    systemProperty("stress.millis", project.findProperty("stressMillis") ?: "2000")
+    shouldRunAfter(tasks.test)
+}
+
+// Launcher profile for short-lived BankingApp batch jobs: a runnable jar, an application
+// class-data-sharing archive dumped from a training run so classes load pre-parsed, and
+// optionally a GraalVM native image.
+// Build with: ./gradlew launcher [-Pnative]
+// The archive only matches the JDK that dumped it and the jar path it was dumped with, so
+// run the jar from the project directory with the JDK Gradle runs on:
+//   java -XX:SharedArchiveFile=build/launcher/bankingapp.jsa -jar build/launcher/bankingapp.jar <ledger> <operations>
+val launcherDir = layout.buildDirectory.dir("launcher")
+
+val launcherJar = tasks.register<Jar>("launcherJar") {
+    group = "launcher"
+    description = "Builds build/launcher/bankingapp.jar, runnable with java -jar."
+    from(sourceSets.main.get().output)
+    archiveFileName.set("bankingapp.jar")
+    destinationDirectory.set(launcherDir)
+    manifest {
+        attributes("Main-Class" to "ie.ronanodea.unitTesting.BankingApp")
+    }
+}
+
+tasks.register<Exec>("cdsArchive") {
+    group = "launcher"
+    description = "Dumps build/launcher/bankingapp.jsa from a training run of the launcher jar."
+    dependsOn(launcherJar)
+    workingDir(projectDir)
+    commandLine(File(System.getProperty("java.home"), "bin/java").path,
+        "-XX:ArchiveClassesAtExit=build/launcher/bankingapp.jsa",
+        "-jar", "build/launcher/bankingapp.jar", "--train")
+    inputs.file(launcherJar.flatMap { it.archiveFile })
+    outputs.file(launcherDir.map { it.file("bankingapp.jsa") })
+}
+
+tasks.register<Exec>("nativeImage") {
+    group = "launcher"
+    description = "Builds build/launcher/bankingapp with GraalVM native-image, from GRAALVM_HOME or the PATH."
+    dependsOn(launcherJar)
+    workingDir(projectDir)
+    val graalHome = System.getenv("GRAALVM_HOME")
+    executable(if (graalHome != null) "$graalHome/bin/native-image" else "native-image")
+    args("--no-fallback", "-jar", "build/launcher/bankingapp.jar", "-o", "build/launcher/bankingapp")
+    inputs.file(launcherJar.flatMap { it.archiveFile })
+    outputs.file(launcherDir.map { it.file("bankingapp") })
+}
+
+tasks.register("launcher") {
+    group = "launcher"
+    description = "Builds the launcher jar and its CDS archive, and with -Pnative the native image."
+    dependsOn("cdsArchive")
+    if (project.hasProperty("native")) {
+        dependsOn("nativeImage")
+    }
+}
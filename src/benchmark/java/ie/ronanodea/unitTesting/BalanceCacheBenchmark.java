@@ -0,0 +1,103 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Compares {@link AccountManager#getBalance(String)} latency and hit rate with and
+ * without a {@link BalanceCache}, over a store that simulates a slow backend, using
+ * Zipfian-distributed holder lookups.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=BalanceCacheBenchmark [-PbenchArgs="<accounts> <cacheEntries> <storeMicros>"]}
+ */
+public class BalanceCacheBenchmark {
+
+    /**
+     * An in-memory store that spins for a fixed time on every lookup, standing in for a
+     * journal, off-heap or disk-backed store.
+     */
+    static final class SlowAccountStore implements AccountStore {
+        private final InMemoryAccountStore delegate = new InMemoryAccountStore();
+        private final long delayNanos;
+
+        SlowAccountStore(long delayNanos) {
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public Account get(String accountHolder) {
+            long until = System.nanoTime() + delayNanos;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            return delegate.get(accountHolder);
+        }
+
+        @Override
+        public boolean putIfAbsent(Account account) {
+            return delegate.putIfAbsent(account);
+        }
+
+        @Override
+        public void forEach(Consumer<Account> action) {
+            delegate.forEach(action);
+        }
+
+        @Override
+        public long size() {
+            return delegate.size();
+        }
+    }
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional account count, cache entries and simulated store latency in microseconds.
+     */
+    public static void main(String[] args) {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int cacheEntries = args.length > 1 ? Integer.parseInt(args[1]) : accounts / 100;
+        long storeMicros = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        int lookups = 200_000;
+
+        String[] holders = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+        }
+        ZipfianGenerator zipf = new ZipfianGenerator(accounts);
+
+        System.out.printf("%d accounts, %d cache entries, %dus store, %d Zipfian lookups%n",
+                accounts, cacheEntries, storeMicros, lookups);
+        for (boolean cached : new boolean[] {false, true}) {
+            SlowAccountStore store = new SlowAccountStore(storeMicros * 1000);
+            AccountManager accountManager = new AccountManager(store, null);
+            for (String holder : holders) {
+                accountManager.addAccount(holder, 100);
+            }
+            BalanceCache cache = cached ? BalanceCache.ofEntries(cacheEntries) : null;
+            accountManager.setBalanceCache(cache);
+
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < lookups / 4; i++) { // warm up the JIT and the cache
+                accountManager.getBalance(holders[(int) zipf.next(random)]);
+            }
+            long[] latencies = new long[lookups];
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                String holder = holders[(int) zipf.next(random)];
+                long t0 = System.nanoTime();
+                accountManager.getBalance(holder);
+                latencies[i] = System.nanoTime() - t0;
+            }
+            long elapsed = System.nanoTime() - start;
+            Arrays.sort(latencies);
+            System.out.printf("%-9s hit rate %5.1f%%  mean %7.0fns  p50 %7dns  p99 %7dns  %9.0f lookups/s%n",
+                    cached ? "cache" : "no cache",
+                    cache != null ? cache.getHitRate() * 100 : 0.0,
+                    (double) elapsed / lookups,
+                    BenchmarkSupport.percentile(latencies, lookups, 50),
+                    BenchmarkSupport.percentile(latencies, lookups, 99),
+                    lookups * 1e9 / elapsed);
+        }
+    }
+}
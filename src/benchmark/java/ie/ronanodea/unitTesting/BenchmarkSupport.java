@@ -0,0 +1,108 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Small helpers shared by the hand-rolled benchmarks.
+ * <p>
+ * Each benchmark warms up, then runs a fixed number of worker threads for a fixed
+ * time and reports operations per second. This is far simpler than a full harness
+ * such as JMH, but is enough to compare designs against each other on one machine.
+ */
+final class BenchmarkSupport {
+
+    static final long WARMUP_MILLIS = Long.getLong("bench.warmup", 1000);
+    static final long MEASURE_MILLIS = Long.getLong("bench.measure", 2000);
+
+    private BenchmarkSupport() {
+        // Static helpers only
+    }
+
+    /**
+     * Runs an operation on several threads and measures the combined throughput.
+     * @param threads Number of worker threads.
+     * @param operation Creates the operation for a worker, given its index.
+     * @return Operations per second, after a warm-up run.
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    static double throughput(int threads, IntFunction<Runnable> operation) throws InterruptedException {
+        run(threads, WARMUP_MILLIS, operation);
+        long ops = run(threads, MEASURE_MILLIS, operation);
+        return ops * 1000.0 / MEASURE_MILLIS;
+    }
+
+    /**
+     * Gets the thread counts to sweep: powers of two up to the given maximum.
+     * @param max The largest thread count.
+     * @return The thread counts.
+     */
+    static int[] threadCounts(int max) {
+        int n = 32 - Integer.numberOfLeadingZeros(max);
+        int[] counts = new int[n];
+        for (int i = 0; i < n; i++) {
+            counts[i] = 1 << i;
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the value at a percentile of sorted samples.
+     * @param sorted Sorted samples.
+     * @param count Number of valid samples.
+     * @param percentile Percentile between 0 and 100.
+     * @return The sample at that percentile.
+     */
+    static long percentile(long[] sorted, int count, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * Gets the used heap after requesting a garbage collection.
+     * @return Used heap bytes.
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long run(int threads, long millis, IntFunction<Runnable> operation) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Runnable op = operation.apply(t);
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long local = 0;
+                while (running.get()) {
+                    op.run();
+                    local++;
+                }
+                ops.add(local);
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.sum();
+    }
+}
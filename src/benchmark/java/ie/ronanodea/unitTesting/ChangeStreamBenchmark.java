@@ -0,0 +1,91 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the cost change capture adds to {@link AccountManager#deposit(String, double)}
+ * and the end-to-end latency from a deposit to a subscriber seeing its record.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=ChangeStreamBenchmark [-PbenchArgs=<records>]}
+ */
+public class ChangeStreamBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional number of records for the latency run.
+     * @throws InterruptedException if interrupted while waiting for the subscriber
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        AccountManager plain = new AccountManager();
+        plain.addAccount("Alice", 1);
+        double plainOps = BenchmarkSupport.throughput(1, t -> () -> plain.deposit("Alice", 1));
+
+        AccountManager captured = new AccountManager();
+        captured.addAccount("Alice", 1);
+        ChangeStream stream = new ChangeStream(1 << 16, ChangeStream.Backpressure.DROP, null);
+        captured.setChangeStream(stream);
+        ChangeStream.Subscriber drain = stream.subscribe();
+        AtomicBoolean draining = new AtomicBoolean(true);
+        Thread drainer = new Thread(() -> {
+            while (draining.get()) {
+                if (drain.poll((s, type, holder, amount, balance, loan) -> { }, 1024) == 0) {
+                    Thread.onSpinWait();
+                }
+            }
+        });
+        drainer.start();
+        double capturedOps = BenchmarkSupport.throughput(1, t -> () -> captured.deposit("Alice", 1));
+        draining.set(false);
+        drainer.join();
+
+        System.out.printf("deposit without capture: %8.1f ns/op%n", 1e9 / plainOps);
+        System.out.printf("deposit with capture:    %8.1f ns/op (dropped %d)%n", 1e9 / capturedOps, stream.getDroppedCount());
+
+        latency(records);
+    }
+
+    private static void latency(int records) throws InterruptedException {
+        AccountManager accountManager = new AccountManager();
+        accountManager.addAccount("Alice", 1);
+        ChangeStream stream = new ChangeStream(1 << 16);
+        accountManager.setChangeStream(stream);
+        ChangeStream.Subscriber subscriber = stream.subscribe();
+        long base = stream.getCursor();
+
+        long[] sentAt = new long[records];
+        long[] latencies = new long[records];
+        int[] seen = new int[1];
+        Thread consumer = new Thread(() -> {
+            while (seen[0] < records) {
+                int n = subscriber.poll((sequence, type, holder, amount, balance, loan) -> {
+                    int i = (int) (sequence - base);
+                    latencies[i] = System.nanoTime() - sentAt[i];
+                }, 256);
+                if (n == 0) {
+                    Thread.onSpinWait();
+                }
+                seen[0] += n;
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < records; i++) {
+            sentAt[i] = System.nanoTime();
+            accountManager.deposit("Alice", 1);
+            long until = sentAt[i] + 1_000; // pace at roughly one record per microsecond
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+        }
+        consumer.join();
+
+        Arrays.sort(latencies);
+        System.out.printf("propagation latency over %d records: p50=%dns p99=%dns p99.9=%dns max=%dns%n", records,
+                BenchmarkSupport.percentile(latencies, records, 50),
+                BenchmarkSupport.percentile(latencies, records, 99),
+                BenchmarkSupport.percentile(latencies, records, 99.9),
+                latencies[records - 1]);
+    }
+}
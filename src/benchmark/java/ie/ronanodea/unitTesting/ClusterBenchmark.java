@@ -0,0 +1,155 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures a partitioned ledger with each node started as its own process on this
+ * machine: throughput of single operations, batched operations and transfers through
+ * one router as the node count grows, then how long adding a node takes with every
+ * account in place and transfers running.
+ * <p>
+ * The nodes share this machine's processors, so the figures show how the router and
+ * protocol scale rather than what separate machines would add up to.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=ClusterBenchmark [-PbenchArgs="<max nodes> <accounts> <threads>"]}
+ */
+public class ClusterBenchmark {
+
+    private static final int BATCH = 64;
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional maximum node count, account count and thread count.
+     * @throws Exception if a node can't be started or a worker is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 2 * Runtime.getRuntime().availableProcessors();
+        String[] holders = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+        }
+
+        System.out.printf("%d accounts, %d threads%n", accounts, threads);
+        for (int nodeCount = 1; nodeCount <= maxNodes; nodeCount *= 2) {
+            List<Process> processes = new ArrayList<>();
+            try (ClusterRouter router = new ClusterRouter(128, 2)) {
+                for (int i = 0; i < nodeCount; i++) {
+                    addNode(router, processes);
+                }
+                open(router, holders);
+                double single = BenchmarkSupport.throughput(threads, t -> {
+                    SplittableRandom random = new SplittableRandom(t);
+                    return () -> router.tryDeposit(holders[random.nextInt(accounts)], 1);
+                });
+                double batched = BATCH * BenchmarkSupport.throughput(threads, t -> {
+                    SplittableRandom random = new SplittableRandom(t);
+                    return () -> {
+                        ClusterRouter.Batch batch = router.newBatch();
+                        for (int i = 0; i < BATCH; i++) {
+                            batch.deposit(holders[random.nextInt(accounts)], 1);
+                        }
+                        batch.execute();
+                    };
+                });
+                double transfers = BenchmarkSupport.throughput(threads, t -> transfer(router, holders, t));
+                System.out.printf("%d nodes: deposits %,10.0f ops/s, batched %,10.0f ops/s, transfers %,10.0f ops/s%n",
+                        nodeCount, single, batched, transfers);
+            } finally {
+                stop(processes);
+            }
+        }
+
+        List<Process> processes = new ArrayList<>();
+        try (ClusterRouter router = new ClusterRouter(128, 2)) {
+            addNode(router, processes);
+            addNode(router, processes);
+            open(router, holders);
+            double before = router.getTotalDeposits();
+            Thread[] workers = new Thread[threads];
+            long[] completed = new long[threads];
+            AtomicBoolean running = new AtomicBoolean(true);
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Runnable transfer = transfer(router, holders, t);
+                workers[t] = new Thread(() -> {
+                    while (running.get()) {
+                        transfer.run();
+                        completed[thread]++;
+                    }
+                });
+                workers[t].start();
+            }
+            long start = System.nanoTime();
+            addNode(router, processes);
+            long elapsed = System.nanoTime() - start;
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long total = 0;
+            for (long count : completed) {
+                total += count;
+            }
+            System.out.printf("Adding a third node: %d ms with %,d transfers meanwhile, totals %s%n",
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), total,
+                    before == router.getTotalDeposits() ? "conserved" : "NOT conserved");
+        } finally {
+            stop(processes);
+        }
+    }
+
+    /**
+     * Starts a node process and adds it to the router.
+     */
+    private static void addNode(ClusterRouter router, List<Process> processes) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                LedgerNode.class.getName(), "0").redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        processes.add(process);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Node exited before listening");
+        }
+        router.addNode("localhost", Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1)));
+    }
+
+    /**
+     * Opens every account in batches.
+     */
+    private static void open(ClusterRouter router, String[] holders) {
+        ClusterRouter.Batch batch = router.newBatch();
+        for (int i = 0; i < holders.length; i++) {
+            batch.addAccount(holders[i], 1_000_000);
+            if (i % 1024 == 1023) {
+                batch.execute();
+                batch = router.newBatch();
+            }
+        }
+        batch.execute();
+    }
+
+    private static Runnable transfer(ClusterRouter router, String[] holders, int thread) {
+        SplittableRandom random = new SplittableRandom(thread);
+        return () -> router.tryTransfer(holders[random.nextInt(holders.length)],
+                holders[random.nextInt(holders.length)], 1);
+    }
+
+    private static void stop(List<Process> processes) throws InterruptedException {
+        for (Process process : processes) {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+}
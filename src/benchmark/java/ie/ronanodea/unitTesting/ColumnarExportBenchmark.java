@@ -0,0 +1,135 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares pulling the whole ledger out row by row, with {@link AccountManager#getBalance(String)}
+ * and {@link AccountManager#getLoan(String)} per holder, against taking a
+ * {@link AccountManager#snapshotColumns()} snapshot, writing it to a file and summing a
+ * column from the file memory-mapped. It then takes snapshots while writers deposit and
+ * withdraw, and reports how much writer throughput drops while a snapshot is taken.
+ * <p>
+ * Every account costs a few hundred bytes of heap, so 50 million accounts need a heap
+ * of about 16 GB, for example with {@code JAVA_TOOL_OPTIONS=-Xmx16g}.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=ColumnarExportBenchmark [-PbenchArgs="<accounts> <writer threads>"]}
+ */
+public class ColumnarExportBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional account count and number of writer threads.
+     * @throws IOException if the snapshot file can't be written or read
+     * @throws InterruptedException if a writer is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String[] holders = new String[accounts];
+        AccountManager accountManager = new AccountManager();
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+            accountManager.addAccount(holders[i], 1000);
+        }
+        System.out.printf("%,d accounts%n", accounts);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            double total = 0;
+            for (String holder : holders) {
+                total += accountManager.getBalance(holder) - accountManager.getLoan(holder);
+            }
+            long rowByRow = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ColumnarSnapshot snapshot = accountManager.snapshotColumns();
+            long export = System.nanoTime() - start;
+
+            Path file = Files.createTempFile("ledger", ".col");
+            try {
+                start = System.nanoTime();
+                snapshot.writeTo(file);
+                long write = System.nanoTime() - start;
+                long bytes = Files.size(file);
+
+                start = System.nanoTime();
+                ColumnarSnapshot mapped = ColumnarSnapshot.map(file);
+                DoubleBuffer balances = mapped.getBalances();
+                DoubleBuffer loans = mapped.getLoans();
+                double mappedTotal = 0;
+                for (int row = 0; row < mapped.getRowCount(); row++) {
+                    mappedTotal += balances.get(row) - loans.get(row);
+                }
+                long scan = System.nanoTime() - start;
+                if (mappedTotal != total) {
+                    throw new IllegalStateException("Snapshot total " + mappedTotal + " != " + total);
+                }
+
+                System.out.printf("Round %d: row by row %,6d ms (%,12.0f rows/s), snapshot %,6d ms (%,12.0f rows/s), "
+                        + "write %,6d ms (%,6.0f MB/s, %,d MB), map and sum %,5d ms%n", round,
+                        rowByRow / 1_000_000, accounts * 1e9 / rowByRow, export / 1_000_000, accounts * 1e9 / export,
+                        write / 1_000_000, bytes * 1e3 / write, bytes / 1_000_000, scan / 1_000_000);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        if (writers > 0) {
+            writersDuringSnapshot(accountManager, holders, writers);
+        }
+    }
+
+    /**
+     * Runs writers for a second on their own, then while snapshots are taken back to back,
+     * and prints their throughput in each case.
+     */
+    private static void writersDuringSnapshot(AccountManager accountManager, String[] holders, int writers)
+            throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            threads[t] = new Thread(() -> {
+                while (!stop.get()) {
+                    String holder = holders[random.nextInt(holders.length)];
+                    if (random.nextBoolean()) {
+                        accountManager.deposit(holder, 1);
+                    } else {
+                        accountManager.withdraw(holder, 1);
+                    }
+                    operations.increment();
+                }
+            });
+            threads[t].start();
+        }
+        Thread.sleep(BenchmarkSupport.WARMUP_MILLIS);
+        long before = operations.sum();
+        long start = System.nanoTime();
+        Thread.sleep(BenchmarkSupport.MEASURE_MILLIS);
+        double idle = (operations.sum() - before) * 1e9 / (System.nanoTime() - start);
+
+        before = operations.sum();
+        start = System.nanoTime();
+        int snapshots = 0;
+        long rows = 0;
+        while (System.nanoTime() - start < BenchmarkSupport.MEASURE_MILLIS * 1_000_000) {
+            rows += accountManager.snapshotColumns().getRowCount();
+            snapshots++;
+        }
+        long elapsed = System.nanoTime() - start;
+        double during = (operations.sum() - before) * 1e9 / elapsed;
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("%d writers: %,12.0f ops/s alone, %,12.0f ops/s during %d snapshots (%,.0f rows/s)%n",
+                writers, idle, during, snapshots, rows * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,90 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares loan approval throughput of the striped {@link ExposureLimiter} against a
+ * single counter guarded by one global lock.
+ * <p>
+ * Every worker repeatedly reserves and then releases a small loan for its own account
+ * holder, so the only shared state is the global (and, optionally, segment) cap.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=ExposureLimiterBenchmark [-PbenchArgs=<maxThreads>]}
+ */
+public class ExposureLimiterBenchmark {
+
+    /**
+     * Baseline: the same per-account and global caps, all guarded by one lock.
+     */
+    static final class GlobalLockLimiter {
+        private final double globalCap;
+        private final double perAccountCap;
+        private final Map<String, Double> accountExposure = new HashMap<>();
+        private double exposure;
+
+        GlobalLockLimiter(double globalCap, double perAccountCap) {
+            this.globalCap = globalCap;
+            this.perAccountCap = perAccountCap;
+        }
+
+        synchronized boolean tryReserve(String accountHolder, double amount) {
+            double account = accountExposure.getOrDefault(accountHolder, 0.0);
+            if (account + amount > perAccountCap || exposure + amount > globalCap) {
+                return false;
+            }
+            accountExposure.put(accountHolder, account + amount);
+            exposure += amount;
+            return true;
+        }
+
+        synchronized void release(String accountHolder, double amount) {
+            accountExposure.merge(accountHolder, -amount, Double::sum);
+            exposure -= amount;
+        }
+    }
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional maximum thread count.
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-8s %18s %18s %18s%n", "threads", "global lock op/s", "striped op/s", "striped+seg op/s");
+        for (int threads : BenchmarkSupport.threadCounts(maxThreads)) {
+            GlobalLockLimiter locked = new GlobalLockLimiter(1e12, 1e12);
+            double lockedOps = BenchmarkSupport.throughput(threads, t -> {
+                String holder = "Holder" + t;
+                return () -> {
+                    if (locked.tryReserve(holder, 10)) {
+                        locked.release(holder, 10);
+                    }
+                };
+            });
+
+            ExposureLimiter striped = new ExposureLimiter(1e12, 1e12, 10_000);
+            double stripedOps = BenchmarkSupport.throughput(threads, t -> {
+                String holder = "Holder" + t;
+                return () -> {
+                    if (striped.tryReserve(holder, 10)) {
+                        striped.release(holder, 10);
+                    }
+                };
+            });
+
+            ExposureLimiter segmented = new ExposureLimiter(1e12, 1e12, 10_000);
+            segmented.setSegmentCap("retail", 1e11);
+            double segmentedOps = BenchmarkSupport.throughput(threads, t -> {
+                String holder = "Holder" + t;
+                segmented.assignSegment(holder, "retail");
+                return () -> {
+                    if (segmented.tryReserve(holder, 10)) {
+                        segmented.release(holder, 10);
+                    }
+                };
+            });
+            System.out.printf("%-8d %18.0f %18.0f %18.0f%n", threads, lockedOps, stripedOps, segmentedOps);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * Measures deposit throughput into a single hot account from 1 to 64 threads, with
+ * every deposit taking the account lock and with adaptive splitting enabled.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=HotAccountBenchmark [-PbenchArgs=<maxThreads>]}
+ */
+public class HotAccountBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional maximum thread count (default 64).
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        System.out.printf("%-8s %16s %16s %8s%n", "threads", "locked op/s", "adaptive op/s", "split");
+        for (int threads : BenchmarkSupport.threadCounts(maxThreads)) {
+            AccountManager locked = new AccountManager();
+            locked.addAccount("Hot Corp", 1);
+            double lockedOps = BenchmarkSupport.throughput(threads, t -> () -> locked.deposit("Hot Corp", 1));
+
+            AccountManager adaptive = new AccountManager();
+            adaptive.setAdaptiveSplitting(true);
+            adaptive.addAccount("Hot Corp", 1);
+            double adaptiveOps = BenchmarkSupport.throughput(threads, t -> () -> adaptive.deposit("Hot Corp", 1));
+
+            System.out.printf("%-8d %16.0f %16.0f %8s%n", threads, lockedOps, adaptiveOps, adaptive.isSplit("Hot Corp"));
+        }
+    }
+}
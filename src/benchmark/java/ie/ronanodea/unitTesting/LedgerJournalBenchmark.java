@@ -0,0 +1,105 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long recovery takes from a long journal of raw segments compared with the
+ * same journal after compaction, and how fast mutations are appended with and without the
+ * background compactor running alongside.
+ * <p>
+ * Mutations are deposits and withdrawals spread over the accounts with a Zipf skew, fed
+ * straight to the journal's {@code onChange}, so the figures are the journal's own rather
+ * than the manager's. Each mutation takes about 20 bytes on disk, so a billion needs about
+ * 20 GB of free space in the temporary directory.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=LedgerJournalBenchmark [-PbenchArgs="<mutations> <accounts> <segment MB> <compaction MB/s>"]},
+ * for example {@code -PbenchArgs="1000000000 1000000 256 200"}.
+ */
+public class LedgerJournalBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional mutation count, account count, segment size in MB and compaction rate in MB/s.
+     * @throws IOException if the journal can't be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        long mutations = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        long segmentBytes = (args.length > 2 ? Long.parseLong(args[2]) : 16) << 20;
+        long rate = (args.length > 3 ? Long.parseLong(args[3]) : 200) << 20;
+
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            try (LedgerJournal journal = LedgerJournal.open(directory, segmentBytes, rate)) {
+                double perSecond = append(journal, 0, mutations / 2, accounts);
+                System.out.printf("Append, no compactor:              %,.0f mutations/s%n", perSecond);
+                long compactions = journal.getCompactionCount();
+                journal.startCompactor(4, 100);
+                perSecond = append(journal, mutations / 2, mutations - mutations / 2, accounts);
+                journal.roll();
+                System.out.printf("Append, with compactor:            %,.0f mutations/s (%d compactions meanwhile)%n",
+                        perSecond, journal.getCompactionCount() - compactions);
+            }
+            System.out.printf("Journal on disk:                   %.1f MB%n", size(directory) / 1e6);
+
+            // Recover from the uncompacted tail plus whatever the compactor had done, then compact everything
+            recover(directory, "Recovery before final compaction");
+            long begin = System.nanoTime();
+            try (LedgerJournal journal = LedgerJournal.open(directory, segmentBytes, Long.MAX_VALUE)) {
+                journal.compact();
+            }
+            System.out.printf("Final compaction:                  %.1f s, journal now %.1f MB%n",
+                    (System.nanoTime() - begin) / 1e9, size(directory) / 1e6);
+            recover(directory, "Recovery after compaction");
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static double append(LedgerJournal journal, long first, long count, int accounts) {
+        SplittableRandom random = new SplittableRandom(first);
+        ZipfianGenerator zipf = new ZipfianGenerator(accounts);
+        String[] holders = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+        }
+        if (first == 0) {
+            for (int i = 0; i < accounts; i++) {
+                journal.onChange(i, ChangeType.ACCOUNT_OPENED, holders[i], 1_000_000, 1_000_000, 0);
+            }
+        }
+        long begin = System.nanoTime();
+        for (long i = first; i < first + count; i++) {
+            String holder = holders[(int) zipf.next(random)];
+            ChangeType type = (i & 1) == 0 ? ChangeType.DEPOSIT : ChangeType.WITHDRAWAL;
+            journal.onChange(i, type, holder, 1 + random.nextInt(100), Double.NaN, Double.NaN);
+        }
+        return count / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private static void recover(Path directory, String label) throws IOException {
+        long begin = System.nanoTime();
+        InMemoryAccountStore store = new InMemoryAccountStore();
+        long recovered = LedgerJournal.recover(directory, store);
+        System.out.printf("%-34s %.2f s for %d accounts%n", label + ":", (System.nanoTime() - begin) / 1e9, recovered);
+    }
+
+    private static long size(Path directory) throws IOException {
+        long total = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                total += Files.size(file);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,148 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures a replicated ledger with every node in this process on localhost: write
+ * throughput with asynchronous and quorum acknowledgement, replication lag under
+ * asynchronous load, and read throughput with reads on the leader alone compared with
+ * reads spread over the followers while the leader takes writes.
+ * <p>
+ * All nodes share this machine's processors, so the read figures show how much work
+ * moves off the leader rather than what separate machines would add up to.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=ReplicationBenchmark [-PbenchArgs="<followers> <accounts> <max threads>"]}
+ */
+public class ReplicationBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional follower count, account count and maximum thread count.
+     * @throws Exception if a node can't be started or a worker is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int followerCount = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String[] holders = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+        }
+
+        System.out.printf("%d followers, %d accounts%n", followerCount, accounts);
+        for (int quorum = 0; quorum <= followerCount; quorum++) {
+            try (Cluster cluster = new Cluster(quorum, followerCount, holders)) {
+                for (int threads : BenchmarkSupport.threadCounts(maxThreads)) {
+                    double perSecond = BenchmarkSupport.throughput(threads, t -> cluster.writer(t));
+                    System.out.printf("Writes, quorum %d, %2d threads: %,12.0f ops/s%n", quorum, threads, perSecond);
+                }
+                if (quorum == 0) {
+                    cluster.measureLag();
+                }
+            }
+        }
+
+        try (Cluster cluster = new Cluster(0, followerCount, holders)) {
+            AtomicBoolean writing = new AtomicBoolean(true);
+            Thread writer = new Thread(() -> {
+                Runnable write = cluster.writer(0);
+                while (writing.get()) {
+                    write.run();
+                }
+            });
+            writer.start();
+            for (int threads : BenchmarkSupport.threadCounts(maxThreads)) {
+                double onLeader = BenchmarkSupport.throughput(threads, t -> {
+                    SplittableRandom random = new SplittableRandom(t);
+                    AccountManager accountManager = cluster.leader.getManager();
+                    return () -> accountManager.getBalance(holders[random.nextInt(holders.length)]);
+                });
+                double onFollowers = BenchmarkSupport.throughput(threads, t -> {
+                    SplittableRandom random = new SplittableRandom(t);
+                    ReplicationFollower follower = cluster.followers[t % cluster.followers.length];
+                    return () -> follower.getBalance(holders[random.nextInt(holders.length)]);
+                });
+                System.out.printf("Reads with writes, %2d threads: leader %,12.0f ops/s, followers %,12.0f ops/s%n",
+                        threads, onLeader, onFollowers);
+            }
+            writing.set(false);
+            writer.join();
+        }
+    }
+
+    /**
+     * A leader and its followers, with accounts opened and replicated.
+     */
+    private static final class Cluster implements AutoCloseable {
+        final ReplicationLeader leader;
+        final ReplicationFollower[] followers;
+        final String[] holders;
+
+        Cluster(int quorum, int followerCount, String[] holders) throws IOException {
+            this.holders = holders;
+            leader = ReplicationLeader.start(new AccountManager(), 0, quorum, 10_000);
+            followers = new ReplicationFollower[followerCount];
+            for (int i = 0; i < followerCount; i++) {
+                followers[i] = ReplicationFollower.connect("localhost", leader.getPort());
+            }
+            while (leader.getFollowerCount() < followerCount) {
+                Thread.onSpinWait();
+            }
+            for (String holder : holders) {
+                leader.tryAddAccount(holder, 1_000_000);
+            }
+        }
+
+        Runnable writer(int thread) {
+            SplittableRandom random = new SplittableRandom(thread);
+            return () -> {
+                String holder = holders[random.nextInt(holders.length)];
+                if (random.nextBoolean()) {
+                    leader.tryDeposit(holder, 1);
+                } else {
+                    leader.tryWithdraw(holder, 1);
+                }
+            };
+        }
+
+        /**
+         * Writes flat out on one thread while another samples how long each write takes
+         * to become visible on the first follower.
+         */
+        void measureLag() throws InterruptedException {
+            AtomicBoolean writing = new AtomicBoolean(true);
+            Thread writer = new Thread(() -> {
+                Runnable write = writer(0);
+                while (writing.get()) {
+                    write.run();
+                }
+            });
+            writer.start();
+            long[] lags = new long[2000];
+            for (int i = 0; i < lags.length; i++) {
+                long start = System.nanoTime();
+                followers[0].awaitSequence(leader.getSequence(), TimeUnit.SECONDS.toNanos(10));
+                lags[i] = System.nanoTime() - start;
+                Thread.sleep(1);
+            }
+            writing.set(false);
+            writer.join();
+            Arrays.sort(lags);
+            System.out.printf("Replication lag under async writes: p50 %d us, p99 %d us, max %d us%n",
+                    BenchmarkSupport.percentile(lags, lags.length, 50) / 1000,
+                    BenchmarkSupport.percentile(lags, lags.length, 99) / 1000, lags[lags.length - 1] / 1000);
+        }
+
+        @Override
+        public void close() {
+            for (ReplicationFollower follower : followers) {
+                follower.close();
+            }
+            leader.close();
+        }
+    }
+}
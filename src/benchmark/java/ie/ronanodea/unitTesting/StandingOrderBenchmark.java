@@ -0,0 +1,101 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.SplittableRandom;
+
+/**
+ * Measures a {@link StandingOrderScheduler}: how fast orders are scheduled and how much
+ * heap each takes, how fast they fire when spread over a month, and how a spike of
+ * orders all due at midnight is spread out by the rate limit, compared with running the
+ * same payments as one direct call each.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=StandingOrderBenchmark [-PbenchArgs="<orders> <accounts> <spike rate per second>"]},
+ * for example {@code -PbenchArgs="30000000 1000000 500000"} (needs about a 3 GB heap).
+ */
+public class StandingOrderBenchmark {
+
+    private static final long SECOND = 1000;
+    private static final long DAY = 24 * 60 * 60 * SECOND;
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional order count, account count and spike rate limit.
+     */
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        double spikeRate = args.length > 2 ? Double.parseDouble(args[2]) : 500_000;
+        String[] holders = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+        }
+
+        AccountManager accountManager = newManager(holders);
+        long before = BenchmarkSupport.usedHeap();
+        StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, SECOND, Double.POSITIVE_INFINITY, 0);
+        SplittableRandom random = new SplittableRandom(11);
+        long begin = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            String holder = holders[random.nextInt(accounts)];
+            long first = 1 + random.nextLong(30 * DAY);
+            if (i % 4 < 2) {
+                scheduler.scheduleDeposit(holder, 10, first, 30 * DAY, StandingOrderScheduler.UNTIL_CANCELLED);
+            } else if (i % 4 == 2) {
+                scheduler.scheduleRepayment(holder, 1, first, 30 * DAY, StandingOrderScheduler.UNTIL_CANCELLED);
+            } else {
+                scheduler.scheduleTransfer(holder, holders[random.nextInt(accounts)], 5, first, 30 * DAY,
+                        StandingOrderScheduler.UNTIL_CANCELLED);
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.printf("Scheduled %,d orders over %,d accounts: %.0f ns per order, %.0f bytes per order%n",
+                orders, accounts, (double) elapsed / orders, (double) (BenchmarkSupport.usedHeap() - before) / orders);
+
+        begin = System.nanoTime();
+        for (long now = 0; now <= 30 * DAY; now += 60 * SECOND) {
+            scheduler.advanceTo(now);
+        }
+        elapsed = System.nanoTime() - begin;
+        System.out.printf("Fired a month of orders: %,d payments in %.2f s, %,.0f payments/s, %,d refused%n",
+                scheduler.getFiredCount(), elapsed / 1e9, scheduler.getFiredCount() / (elapsed / 1e9),
+                scheduler.getFailedCount());
+        scheduler = null;
+
+        int spike = Math.min(orders, 2_000_000);
+        accountManager = newManager(holders);
+        begin = System.nanoTime();
+        for (int i = 0; i < spike; i++) {
+            accountManager.tryDeposit(holders[i % accounts], 10);
+        }
+        elapsed = System.nanoTime() - begin;
+        System.out.printf("Midnight spike of %,d deposits, one direct call each: %,.0f payments/s, all at once%n",
+                spike, spike / (elapsed / 1e9));
+
+        for (double rate : new double[] {Double.POSITIVE_INFINITY, spikeRate}) {
+            accountManager = newManager(holders);
+            StandingOrderScheduler spiky = new StandingOrderScheduler(accountManager, SECOND, rate, 0);
+            for (int i = 0; i < spike; i++) {
+                spiky.scheduleDeposit(holders[i % accounts], 10, DAY, DAY, 1);
+            }
+            int ticks = 0;
+            int largest = 0;
+            long busy = 0;
+            for (long now = DAY; spiky.getFiredCount() < spike; now += SECOND) {
+                long start = System.nanoTime();
+                largest = Math.max(largest, spiky.advanceTo(now));
+                busy += System.nanoTime() - start;
+                ticks++;
+            }
+            System.out.printf("Midnight spike through the scheduler, limit %,.0f/s: %,.0f payments/s while running, "
+                    + "spread over %d ticks, at most %,d in a tick%n", rate, spike / (busy / 1e9), ticks, largest);
+        }
+    }
+
+    private static AccountManager newManager(String[] holders) {
+        AccountManager accountManager = new AccountManager();
+        for (String holder : holders) {
+            accountManager.addAccount(holder, 1_000_000);
+            accountManager.approveLoan(holder, 1_000_000);
+        }
+        return accountManager;
+    }
+}
@@ -0,0 +1,132 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how quickly a {@link BankingApp} batch job gets going in each launcher mode
+ * built by {@code ./gradlew launcher}: a plain JVM, the JVM with the application
+ * class-data-sharing archive, that again limited to the C1 compiler, and the GraalVM
+ * native image if it was built. Each run starts a new process that preloads a ledger of
+ * the given size and applies a batch of operations; the benchmark reports the median
+ * time from starting the process to the first operation being done, the median total
+ * run time and the median peak resident set size. Modes whose files are missing are
+ * skipped.
+ * <p>
+ * Run from the project directory, so the jar path matches the one the archive was dumped with.
+ * <p>
+ * Usage: {@code ./gradlew launcher benchmark -Pbench=StartupBenchmark [-PbenchArgs="<accounts> <runs> <launcher dir>"]}
+ */
+public class StartupBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional ledger size in accounts, runs per mode and launcher directory.
+     * @throws IOException if a file can't be written or a process can't be started
+     * @throws InterruptedException if interrupted while waiting for a process
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String launcher = args.length > 2 ? args[2] : "build" + File.separator + "launcher";
+        String jar = launcher + File.separator + "bankingapp.jar";
+        String archive = launcher + File.separator + "bankingapp.jsa";
+        String nativeImage = launcher + File.separator + "bankingapp";
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        Path directory = Files.createTempDirectory("startup");
+        Path ledger = directory.resolve("ledger.col");
+        Path operations = directory.resolve("operations.txt");
+        try {
+            AccountManager accountManager = new AccountManager();
+            for (int i = 0; i < accounts; i++) {
+                accountManager.addAccount("Holder" + i, 1000);
+            }
+            accountManager.snapshotColumns().writeTo(ledger);
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                String holder = "Holder" + (i * 7919 % Math.max(accounts, 1));
+                batch.append("deposit ").append(holder).append(" 10\n")
+                        .append("withdraw ").append(holder).append(" 10\n");
+            }
+            Files.write(operations, batch.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.printf("Ledger of %,d accounts (%,d KB), 2,000 operations, median of %d runs%n",
+                    accounts, Files.size(ledger) / 1024, runs);
+
+            if (!new File(jar).isFile()) {
+                System.out.println("No " + jar + "; build it with ./gradlew launcher");
+                return;
+            }
+            measure("JVM", runs, ledger, operations, java, "-jar", jar);
+            if (new File(archive).isFile()) {
+                measure("JVM + CDS archive", runs, ledger, operations, java, "-XX:SharedArchiveFile=" + archive, "-jar", jar);
+                measure("JVM + CDS archive, C1 only", runs, ledger, operations, java, "-XX:SharedArchiveFile=" + archive,
+                        "-XX:TieredStopAtLevel=1", "-jar", jar);
+            } else {
+                System.out.println("No " + archive + "; build it with ./gradlew launcher");
+            }
+            if (new File(nativeImage).canExecute()) {
+                measure("Native image", runs, ledger, operations, nativeImage);
+            } else {
+                System.out.println("No " + nativeImage + "; build it with ./gradlew launcher -Pnative");
+            }
+        } finally {
+            Files.deleteIfExists(ledger);
+            Files.deleteIfExists(operations);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Runs the batch job once to warm the page cache, then {@code runs} times, and prints the medians.
+     */
+    private static void measure(String mode, int runs, Path ledger, Path operations, String... command)
+            throws IOException, InterruptedException {
+        List<String> arguments = new ArrayList<>(Arrays.asList(command));
+        arguments.add("--stats");
+        arguments.add(ledger.toString());
+        arguments.add(operations.toString());
+        long[] firstOperation = new long[runs];
+        long[] total = new long[runs];
+        long[] peakRss = new long[runs];
+        for (int run = -1; run < runs; run++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(arguments).redirectErrorStream(true).start();
+            long first = -1;
+            long rss = -1;
+            try (BufferedReader output = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    if (first < 0 && line.startsWith("First operation")) {
+                        first = System.nanoTime() - start;
+                    } else if (line.startsWith("Peak RSS: ")) {
+                        rss = Long.parseLong(line.substring(10, line.length() - 3));
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || first < 0) {
+                throw new IllegalStateException(mode + " run failed: " + arguments);
+            }
+            if (run >= 0) {
+                firstOperation[run] = first;
+                total[run] = System.nanoTime() - start;
+                peakRss[run] = rss;
+            }
+        }
+        Arrays.sort(firstOperation);
+        Arrays.sort(total);
+        Arrays.sort(peakRss);
+        System.out.printf("%-28s first operation %6.1f ms, total %6.1f ms, peak RSS %,8d KB%n", mode,
+                firstOperation[runs / 2] / 1e6, total[runs / 2] / 1e6, peakRss[runs / 2]);
+    }
+}
@@ -0,0 +1,88 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.SplittableRandom;
+
+/**
+ * Compares the exception/boolean/null API of {@link AccountManager} with its status code
+ * API when half of all requests are invalid: a quarter carry a negative amount and a
+ * quarter name an unknown account holder.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=StatusCodeBenchmark [-PbenchArgs=<maxThreads>]}
+ */
+public class StatusCodeBenchmark {
+
+    private static final int ACCOUNTS = 1024;
+    private static final int REQUESTS = 1 << 16;
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional maximum thread count.
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String[] holders = new String[REQUESTS];
+        double[] amounts = new double[REQUESTS];
+        int[] operations = new int[REQUESTS];
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < REQUESTS; i++) {
+            int kind = random.nextInt(4);
+            holders[i] = kind == 1 ? "Stranger" + random.nextInt(ACCOUNTS) : "Holder" + random.nextInt(ACCOUNTS);
+            amounts[i] = kind == 0 ? -1 - random.nextInt(100) : 1 + random.nextInt(100);
+            operations[i] = random.nextInt(3); // deposit, withdraw or read
+        }
+
+        AccountManager accountManager = new AccountManager();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountManager.addAccount("Holder" + i, 1_000_000);
+        }
+        LedgerResult[] results = new LedgerResult[maxThreads];
+
+        System.out.printf("%-8s %16s %16s%n", "threads", "exceptions op/s", "status op/s");
+        for (int threads : BenchmarkSupport.threadCounts(maxThreads)) {
+            double legacy = BenchmarkSupport.throughput(threads, t -> {
+                int[] next = {t * 997};
+                return () -> {
+                    int i = next[0]++ & (REQUESTS - 1);
+                    try {
+                        switch (operations[i]) {
+                            case 0:
+                                accountManager.deposit(holders[i], amounts[i]);
+                                break;
+                            case 1:
+                                accountManager.withdraw(holders[i], amounts[i]);
+                                break;
+                            default:
+                                if (amounts[i] < 0) {
+                                    throw new IllegalArgumentException("Invalid request"); // as a caller would validate
+                                }
+                                accountManager.getBalance(holders[i]);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // rejected
+                    }
+                };
+            });
+            double status = BenchmarkSupport.throughput(threads, t -> {
+                int[] next = {t * 997};
+                LedgerResult result = results[t] = new LedgerResult();
+                return () -> {
+                    int i = next[0]++ & (REQUESTS - 1);
+                    switch (operations[i]) {
+                        case 0:
+                            accountManager.tryDeposit(holders[i], amounts[i]);
+                            break;
+                        case 1:
+                            accountManager.tryWithdraw(holders[i], amounts[i]);
+                            break;
+                        default:
+                            if (amounts[i] >= 0) {
+                                accountManager.tryReadAccount(holders[i], result);
+                            }
+                    }
+                };
+            });
+            System.out.printf("%-8d %16.0f %16.0f%n", threads, legacy, status);
+        }
+    }
+}
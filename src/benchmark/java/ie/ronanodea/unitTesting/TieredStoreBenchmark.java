@@ -0,0 +1,94 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the heap used by a {@link TieredAccountStore} holding many dormant accounts
+ * with a small active set, compared with keeping every account live, and the latency of
+ * cold lookups (loaded from the segment file) and warm lookups (already live).
+ * <p>
+ * The in-memory baseline is measured on at most a million accounts and scaled up, since
+ * a hundred million live accounts would not fit on most heaps. Cold lookups read the
+ * segment file through the operating system's page cache, which the load has just
+ * warmed; on a machine with less memory than the file they also include disk reads.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=TieredStoreBenchmark [-PbenchArgs="<accounts> <active percent> <lookups>"]},
+ * for example {@code -PbenchArgs="100000000 5 2000000"} (needs about 5 GB of disk and a 2 GB heap).
+ */
+public class TieredStoreBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional account count, active set percentage and number of lookups.
+     * @throws IOException if the segment file can't be created
+     */
+    public static void main(String[] args) throws IOException {
+        long accounts = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+        double activePercent = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        int active = (int) (accounts * activePercent / 100);
+
+        int sample = (int) Math.min(accounts, 1_000_000);
+        long before = BenchmarkSupport.usedHeap();
+        InMemoryAccountStore inMemory = new InMemoryAccountStore();
+        for (int i = 0; i < sample; i++) {
+            inMemory.putIfAbsent(new Account("Holder" + i, 1000));
+        }
+        double perAccount = (double) (BenchmarkSupport.usedHeap() - before) / sample;
+        System.out.printf("All live:  %.0f bytes per account, %.1f MB for %d accounts (%d measured)%n",
+                perAccount, perAccount * accounts / 1e6, accounts, inMemory.size());
+        inMemory = null;
+
+        Path file = Files.createTempFile("accounts", ".seg");
+        Files.delete(file);
+        long budget = (long) (active * (TieredAccountStore.RESIDENT_OVERHEAD_BYTES + 16) * 1.1);
+        before = BenchmarkSupport.usedHeap();
+        long begin = System.nanoTime();
+        try (TieredAccountStore store = TieredAccountStore.create(file, accounts, 23, budget)) {
+            for (long i = 0; i < accounts; i++) {
+                store.addDormant("Holder" + i, 1000, 0);
+            }
+            System.out.printf("Loaded %d dormant accounts in %.1f s, segment file %.1f MB%n",
+                    accounts, (System.nanoTime() - begin) / 1e9, Files.size(file) / 1e6);
+            AccountManager accountManager = new AccountManager(store, null);
+
+            SplittableRandom random = new SplittableRandom(5);
+            String[] activeSet = new String[active];
+            for (int i = 0; i < active; i++) {
+                activeSet[i] = "Holder" + random.nextLong(accounts);
+            }
+            long[] cold = new long[active];
+            for (int i = 0; i < active; i++) {
+                long start = System.nanoTime();
+                accountManager.getBalance(activeSet[i]);
+                cold[i] = System.nanoTime() - start;
+            }
+            long hydrated = store.getHydrationCount();
+            long[] warm = new long[lookups];
+            for (int i = 0; i < lookups; i++) {
+                String holder = activeSet[random.nextInt(active)];
+                long start = System.nanoTime();
+                accountManager.getBalance(holder);
+                warm[i] = System.nanoTime() - start;
+            }
+            long heap = BenchmarkSupport.usedHeap() - before;
+            System.out.printf("Tiered:    %.1f MB heap with %d live accounts (%d evicted, %d reloaded during warm lookups)%n",
+                    heap / 1e6, store.getResidentCount(), store.getEvictionCount(), store.getHydrationCount() - hydrated);
+            report("Cold lookups", cold, cold.length);
+            report("Warm lookups", warm, warm.length);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(String label, long[] samples, int count) {
+        Arrays.sort(samples, 0, count);
+        System.out.printf("%-13s p50 %6d ns  p99 %7d ns  p99.9 %8d ns  max %9d ns%n", label,
+                BenchmarkSupport.percentile(samples, count, 50), BenchmarkSupport.percentile(samples, count, 99),
+                BenchmarkSupport.percentile(samples, count, 99.9), samples[count - 1]);
+    }
+}
@@ -0,0 +1,83 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.SplittableRandom;
+
+import jdk.jfr.Recording;
+
+/**
+ * Measures what an {@link OperationTracer} costs: deposit and withdrawal throughput with
+ * no tracer, then tracing one operation in 1000, in 100 and every operation, and finally
+ * every operation with a Flight Recorder recording taking the events. The configurations
+ * take turns for several rounds and the best throughput of each is reported, as a single
+ * run varies more than the cost being measured. The slowest traced operations are printed
+ * at the end.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=TracingBenchmark [-PbenchArgs="<accounts> <max threads> <rounds>"]}
+ */
+public class TracingBenchmark {
+    private static final int[] SAMPLE_RATES = {0, 1000, 100, 1, 1}; // 0 is no tracer, the last 1 records with JFR
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional account count, maximum thread count and number of rounds.
+     * @throws InterruptedException if a worker is interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String[] holders = new String[accounts];
+        AccountManager accountManager = new AccountManager();
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+            accountManager.addAccount(holders[i], 1e12);
+        }
+
+        System.out.printf("%,d accounts, best of %d rounds%n", accounts, rounds);
+        OperationTracer all = null;
+        for (int threads : BenchmarkSupport.threadCounts(maxThreads)) {
+            double[] best = new double[SAMPLE_RATES.length];
+            for (int round = 0; round < rounds; round++) {
+                for (int config = 0; config < SAMPLE_RATES.length; config++) {
+                    OperationTracer tracer = SAMPLE_RATES[config] == 0 ? null : new OperationTracer(SAMPLE_RATES[config], 100_000, 64);
+                    accountManager.setOperationTracer(tracer);
+                    double throughput;
+                    if (config == SAMPLE_RATES.length - 1) {
+                        try (Recording recording = new Recording()) {
+                            recording.enable("ie.ronanodea.LedgerOperation");
+                            recording.start();
+                            throughput = BenchmarkSupport.throughput(threads, t -> operations(accountManager, holders, t));
+                        }
+                    } else {
+                        throughput = BenchmarkSupport.throughput(threads, t -> operations(accountManager, holders, t));
+                        if (SAMPLE_RATES[config] == 1) {
+                            all = tracer;
+                        }
+                    }
+                    best[config] = Math.max(best[config], throughput);
+                }
+            }
+            System.out.printf("%2d threads: no tracer       %,12.0f ops/s%n", threads, best[0]);
+            for (int config = 1; config < SAMPLE_RATES.length; config++) {
+                String label = config == SAMPLE_RATES.length - 1 ? "all + JFR" : "1 in " + SAMPLE_RATES[config] + " traced";
+                System.out.printf("%2d threads: %-17s %,12.0f ops/s, %+6.0f ns per operation%n", threads, label,
+                        best[config], (1e9 / best[config] - 1e9 / best[0]) * threads);
+            }
+        }
+        accountManager.setOperationTracer(null);
+        System.out.printf("%,d of %,d traced operations took 100 us or more; slowest:%n", all.getSlowCount(), all.getTracedCount());
+        all.getSlowOperations().stream().limit(5).forEach(operation -> System.out.println("  " + operation));
+    }
+
+    private static Runnable operations(AccountManager accountManager, String[] holders, int thread) {
+        SplittableRandom random = new SplittableRandom(thread);
+        return () -> {
+            String holder = holders[random.nextInt(holders.length)];
+            if (random.nextBoolean()) {
+                accountManager.tryDeposit(holder, 1);
+            } else {
+                accountManager.tryWithdraw(holder, 1);
+            }
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.SplittableRandom;
+
+/**
+ * Measures what a {@link VelocityLimiter} adds to every withdrawal: throughput of
+ * {@link AccountManager#tryWithdraw(String, double)} with and without the check, with
+ * limits high enough that nothing is refused, and the heap taken per tracked account
+ * holder.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=VelocityLimiterBenchmark [-PbenchArgs="<accounts> <max threads> <tracked accounts>"]}
+ */
+public class VelocityLimiterBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional account count, maximum thread count and number of holders to track for the memory figure.
+     * @throws InterruptedException if a worker is interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int tracked = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        String[] holders = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            holders[i] = "Holder" + i;
+        }
+
+        System.out.printf("%d accounts%n", accounts);
+        AccountManager plain = newManager(holders, null);
+        AccountManager checked = newManager(holders, new VelocityLimiter(Integer.MAX_VALUE, Double.POSITIVE_INFINITY, 60_000));
+        for (int threads : BenchmarkSupport.threadCounts(maxThreads)) {
+            double without = BenchmarkSupport.throughput(threads, t -> withdrawals(plain, holders, t));
+            double with = BenchmarkSupport.throughput(threads, t -> withdrawals(checked, holders, t));
+            System.out.printf("%2d threads: without check %,12.0f ops/s, with velocity check %,12.0f ops/s, "
+                    + "%+.0f ns per withdrawal%n", threads, without, with, (1e9 / with - 1e9 / without) * threads);
+        }
+
+        String[] names = new String[tracked];
+        for (int i = 0; i < tracked; i++) {
+            names[i] = "Tracked" + i;
+        }
+        long before = BenchmarkSupport.usedHeap();
+        VelocityLimiter limiter = new VelocityLimiter(10, 10_000, 60_000);
+        for (String name : names) {
+            limiter.tryReserve(name, 1);
+        }
+        long used = BenchmarkSupport.usedHeap() - before;
+        System.out.printf("Tracking %,d account holders: %.1f MB, %.0f bytes each (names not counted)%n",
+                limiter.getTrackedCount(), used / 1e6, (double) used / tracked);
+    }
+
+    private static AccountManager newManager(String[] holders, WithdrawalCheck check) {
+        AccountManager accountManager = new AccountManager();
+        for (String holder : holders) {
+            accountManager.addAccount(holder, 1e15);
+        }
+        accountManager.setWithdrawalCheck(check);
+        return accountManager;
+    }
+
+    private static Runnable withdrawals(AccountManager accountManager, String[] holders, int thread) {
+        SplittableRandom random = new SplittableRandom(thread);
+        return () -> accountManager.tryWithdraw(holders[random.nextInt(holders.length)], 1);
+    }
+}
@@ -0,0 +1,57 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates a production-shaped workload, records it to a trace file, reads it back and
+ * replays it against several manager configurations, both back to back and at the
+ * recorded arrival rate.
+ * <p>
+ * Every configuration replays the same trace on a fresh manager, so the checksums printed
+ * must all match; a mismatch means a configuration changed the ledger's behaviour.
+ * <p>
+ * Usage: {@code ./gradlew benchmark -Pbench=WorkloadBenchmark [-PbenchArgs="<operations> <accounts> <opsPerSecond> [trace file]"]}
+ */
+public class WorkloadBenchmark {
+
+    /**
+     * Benchmark entry point.
+     * @param args Optional operation count, account count, arrival rate and trace file.
+     * @throws IOException if the trace file can't be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 200_000;
+        Path file = args.length > 3 ? Path.of(args[3]) : Files.createTempFile("ledger", ".trace");
+
+        WorkloadGenerator generator = new WorkloadGenerator(2024, accounts);
+        generator.setArrivalRate(rate);
+        generator.setBursts(5, 100_000_000L, 0.1);
+        long begin = System.nanoTime();
+        generator.generate(operations).write(file);
+        System.out.printf("Recorded %d operations over %d accounts to %s (%d bytes) in %.0f ms%n",
+                operations, accounts, file, Files.size(file), (System.nanoTime() - begin) / 1e6);
+        WorkloadTrace trace = WorkloadTrace.read(file);
+        if (args.length <= 3) {
+            Files.delete(file);
+        }
+
+        for (boolean realTime : new boolean[] {false, true}) {
+            System.out.println(realTime ? "Real time:" : "Full speed:");
+            report("  plain   ", new AccountManager(), trace, realTime);
+            AccountManager cached = new AccountManager();
+            cached.setBalanceCache(BalanceCache.ofEntries(accounts / 10));
+            report("  cached  ", cached, trace, realTime);
+            AccountManager adaptive = new AccountManager();
+            adaptive.setAdaptiveSplitting(true);
+            report("  adaptive", adaptive, trace, realTime);
+        }
+    }
+
+    private static void report(String label, AccountManager accountManager, WorkloadTrace trace, boolean realTime) {
+        System.out.println(label + " " + new WorkloadReplayer(accountManager).replay(trace, realTime));
+    }
+}
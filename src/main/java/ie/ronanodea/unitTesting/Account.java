@@ -1,5 +1,9 @@
 package ie.ronanodea.unitTesting;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * Represents a single bank account with an account holder name, balance, and loan amount.
  * <p>
@@ -11,6 +15,16 @@ package ie.ronanodea.unitTesting;
  * implemented using {@link IllegalArgumentException} to ensure valid input values. 
  * A {@link NullPointerException} was also implemented to demonstrate prohibiting null values
  * for certain fields. 
+ * <p>
+ * <b>Concurrency:</b> Balance and loan updates are made while holding the account's lock,
+ * so an account may be shared between threads without lost updates.
+ * <p>
+ * <b>Hot accounts:</b> With adaptive splitting enabled, an account whose lock is found to
+ * be contended is promoted to split mode. Deposits then skip the lock and are added to
+ * striped sub-balances (a {@link DoubleAdder}, which gives each contending thread its own
+ * cell). The cells are summed for reads and folded into the balance, under the lock,
+ * before a withdrawal is checked, so the balance can never be overdrawn. An account is
+ * demoted again once sampled deposit traffic drops.
  * 
  * @see Account
  * @see AccountManager
@@ -25,6 +39,22 @@ public class Account {
         private double balance;       // Current account balance
         private double loan;          // Outstanding loan amount
 
+        // Hot account tuning: promote after this many contended lock acquisitions in one
+        // window, demote when fewer than this many sampled deposits arrive in one window.
+        static final long CONTENTION_WINDOW_NANOS = 50_000_000L;
+        static final int PROMOTE_CONTENDED = 64;
+        static final int DEMOTE_SAMPLE_RATE = 64;
+        static final int DEMOTE_SAMPLES = 16;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private DoubleAdder depositCells;     // Split sub-balances, created on first promotion
+        private volatile boolean split;       // True while deposits bypass the lock
+        private volatile boolean adaptive;    // True if the account may promote itself
+        private long windowStart;             // Start of the current contention window (guarded by lock)
+        private int windowEvents;             // Contended acquisitions, or sampled split deposits, in the window
+        private volatile boolean evicted;     // True once a tiered store has written this instance back to disk
+        private int snapshotEpoch;            // Last columnar snapshot that has this account's row (guarded by lock)
+
         
        /**
         * Initial constructor, creates an individual account.
@@ -50,6 +80,18 @@ public class Account {
             this.loan = 0; // new accounts start with no loan balance. 
         }
 
+        /**
+         * Restores an account from storage, with its balance and loan as they were saved.
+         * @param accountHolder Account holder's name.
+         * @param balance Saved balance.
+         * @param loan Saved loan amount.
+         */
+        Account(String accountHolder, double balance, double loan) {
+            this.accountHolder = accountHolder;
+            this.balance = balance;
+            this.loan = loan;
+        }
+
         /**
          * Getter for the account holder's name
          * @return String accountHolder
@@ -63,7 +105,12 @@ public class Account {
          * @return double balance
          */
         public double getBalance() {
-            return balance;
+            lock();
+            try {
+                return depositCells == null ? balance : balance + depositCells.sum();
+            } finally {
+                unlock();
+            }
         }
 
         /**
@@ -71,7 +118,12 @@ public class Account {
          * @return double loan
          */
         public double getLoan() {
-            return loan;
+            lock();
+            try {
+                return loan;
+            } finally {
+                unlock();
+            }
         }
 
        /**
@@ -84,7 +136,19 @@ public class Account {
         	if (amount <=0) {
         		throw new IllegalArgumentException("Deposit amount must be positive");
         	}
-            balance += amount;
+        	if (split) {
+        		depositCells.add(amount);
+        		if (ThreadLocalRandom.current().nextInt(DEMOTE_SAMPLE_RATE) == 0) {
+        			sampleSplitDeposit();
+        		}
+        		return;
+        	}
+            lock();
+            try {
+                balance += amount;
+            } finally {
+                unlock();
+            }
         }
 
      
@@ -98,11 +162,19 @@ public class Account {
             if (amount <= 0) {
                 throw new IllegalArgumentException("Withdrawal amount must be positive");
             }
-            if (amount > balance) {
-                return false; // Insufficient funds
+            lock();
+            try {
+                if (depositCells != null) {
+                    balance += depositCells.sumThenReset(); // fold split deposits before checking
+                }
+                if (amount > balance) {
+                    return false; // Insufficient funds
+                }
+                balance -= amount;
+                return true;
+            } finally {
+                unlock();
             }
-            balance -= amount;
-            return true;
         }
 
         
@@ -117,7 +189,12 @@ public class Account {
         	if( amount <=0) {
         		throw new IllegalArgumentException("Loan amount must be positive");
         	}
-            loan += amount;
+            lock();
+            try {
+                loan += amount;
+            } finally {
+                unlock();
+            }
         }
 
      
@@ -132,11 +209,175 @@ public class Account {
             if (amount <= 0) {
                 throw new IllegalArgumentException("Repayment must be positive");
             }
-            if (amount > loan) {
-                return false;  // Repayment exceeds loan amount
+            lock();
+            try {
+                if (amount > loan) {
+                    return false;  // Repayment exceeds loan amount
+                }
+                loan -= amount;
+                return true;
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Acquires the account's lock, counting the acquisition as contended if the lock
+         * was already held. Re-entrant, so callers may group several operations together.
+         */
+        void lock() {
+            if (lock.tryLock()) {
+                if (split) {
+                    checkDemotion();
+                }
+                return;
+            }
+            lock.lock();
+            if (adaptive && !split) {
+                recordContention();
+            }
+        }
+
+        /**
+         * Releases the account's lock.
+         */
+        void unlock() {
+            lock.unlock();
+        }
+
+        /**
+         * Acquires the account's lock only if no thread, including this one, holds it.
+         * Contention is not counted.
+         * @return True if the lock was acquired.
+         */
+        boolean tryLock() {
+            return !lock.isHeldByCurrentThread() && lock.tryLock();
+        }
+
+        /**
+         * Reports whether this instance was evicted by a {@link TieredAccountStore}. An
+         * evicted instance is stale: the account lives on in the store's file, and a
+         * fresh instance is created the next time it is looked up.
+         * @return True if evicted.
+         */
+        boolean isEvicted() {
+            return evicted;
+        }
+
+        /**
+         * Marks this instance as evicted. Must hold the lock.
+         */
+        void markEvicted() {
+            evicted = true;
+        }
+
+        /**
+         * Gets the last columnar snapshot that has taken this account's row. Must hold the lock.
+         * @return The snapshot's epoch, or 0 if none has.
+         */
+        int getSnapshotEpoch() {
+            return snapshotEpoch;
+        }
+
+        /**
+         * Records that a columnar snapshot has taken this account's row, or must leave it
+         * out. Must hold the lock.
+         * @param snapshotEpoch The snapshot's epoch.
+         */
+        void setSnapshotEpoch(int snapshotEpoch) {
+            this.snapshotEpoch = snapshotEpoch;
+        }
+
+        /**
+         * Reports whether the account has ever been split. Deposits may still be racing
+         * into such an account's cells without the lock, so it can't be safely evicted.
+         * @return True if the account has been promoted at least once.
+         */
+        boolean hasSplit() {
+            return depositCells != null;
+        }
+
+        /**
+         * Enables or disables automatic promotion of this account to split mode.
+         * @param adaptive True to allow promotion.
+         */
+        void setAdaptiveSplitting(boolean adaptive) {
+            this.adaptive = adaptive;
+        }
+
+        /**
+         * Reports whether deposits currently bypass the lock.
+         * @return True if the account is split.
+         */
+        boolean isSplit() {
+            return split;
+        }
+
+        /**
+         * Switches the account to split mode. Must hold the lock.
+         */
+        void promote() {
+            if (depositCells == null) {
+                depositCells = new DoubleAdder();
+            }
+            split = true;
+            windowStart = System.nanoTime();
+            windowEvents = 0;
+        }
+
+        /**
+         * Switches the account back to locked deposits. Must hold the lock. Deposits that
+         * raced past the switch are still folded in by later reads and withdrawals.
+         */
+        void demote() {
+            split = false;
+            balance += depositCells.sumThenReset();
+            windowStart = System.nanoTime();
+            windowEvents = 0;
+        }
+
+        private void recordContention() {
+            long now = System.nanoTime();
+            if (now - windowStart > CONTENTION_WINDOW_NANOS) {
+                windowStart = now;
+                windowEvents = 0;
+            }
+            if (++windowEvents >= PROMOTE_CONTENDED) {
+                promote();
+            }
+        }
+
+        private void checkDemotion() {
+            // Busy split accounts restart the window from sampleSplitDeposit, so a window
+            // left open for twice its length means deposits have dried up.
+            long idle = System.nanoTime() - windowStart;
+            if (!adaptive || idle > 2 * CONTENTION_WINDOW_NANOS
+                    || (idle > CONTENTION_WINDOW_NANOS && windowEvents < DEMOTE_SAMPLES)) {
+                demote();
+            }
+        }
+
+        private void sampleSplitDeposit() {
+            if (!lock.tryLock()) {
+                return; // a withdrawal or read is busy; skip this sample
+            }
+            try {
+                if (!split) {
+                    return;
+                }
+                long now = System.nanoTime();
+                if (now - windowStart > CONTENTION_WINDOW_NANOS) {
+                    checkDemotion();
+                    if (!split) {
+                        return;
+                    }
+                    windowStart = now;
+                    windowEvents = 0;
+                }
+                windowEvents++;
+            } finally {
+                lock.unlock();
             }
-            loan -= amount;
-            return true;
         }
     }
 
@@ -1,7 +1,7 @@
 package ie.ronanodea.unitTesting;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
 
 /**
  * Represents core functionality and methods of banking application. 
@@ -13,6 +13,34 @@ import java.util.List;
  * <b>Refactoring Notes:</b> This class was extracted from a larger banking application
  * to improve code organisation, readability, and testability. Error handling has been
  * implemented using {@link IllegalArgumentException} to ensure valid input values. 
+ * <p>
+ * <b>Concurrency:</b> Accounts are indexed in a concurrent map and the total deposits
+ * pool is updated atomically, so the manager may be shared between threads. Loan
+ * approvals can also be checked against an optional {@link ExposureLimiter}, which
+ * enforces per-account, per-segment and global lending caps. Credits and debits to the
+ * total deposits are collected in a striped {@link DoubleAdder} and only folded into the
+ * loan pool when a loan is checked, so busy deposit traffic doesn't serialize on it.
+ * <p>
+ * <b>Hot accounts:</b> {@link #setAdaptiveSplitting(boolean)} lets heavily contended
+ * accounts split their balance into striped sub-balances; see {@link Account}.
+ * <p>
+ * <b>Change capture:</b> If a {@link ChangeStream} is set, every successful mutation is
+ * published to it while the account is still locked, so records for one account appear
+ * in the order they were applied. Deposits to a split hot account are the exception:
+ * they are published without the lock and carry {@code NaN} for the balance and loan.
+ * <p>
+ * <b>Withdrawal checks:</b> If a {@link WithdrawalCheck} such as a {@link VelocityLimiter}
+ * is set, every withdrawal must pass it before the account is locked.
+ * <p>
+ * <b>Columnar snapshots:</b> {@link #snapshotColumns()} copies every account into a
+ * {@link ColumnarSnapshot} without stopping writers. While it runs, the first mutation of
+ * an account the scan hasn't reached yet hands the account's old values to the snapshot
+ * first, under the account's lock, so the snapshot shows every account as it was when the
+ * snapshot began. Outside a snapshot this costs writers one volatile read.
+ * <p>
+ * <b>Tracing:</b> If an {@link OperationTracer} is set, sampled mutations are timed phase
+ * by phase (lookup, validation, lock wait, mutation, persistence), and slow ones are kept
+ * with their breakdown and emitted as Java Flight Recorder events.
  *  
  * @see Account
  * @see AccountManager
@@ -23,16 +51,174 @@ import java.util.List;
 
 public class AccountManager {
 	
-	 // List to store all accounts in the banking application
-    private List<Account> accounts;
-    private double totalDeposits; // Tracks total deposits in the bank
+	 // Store holding all accounts in the banking application, keyed by account holder
+    private AccountStore accounts;
+    private AtomicLong totalDeposits; // Loan pool as raw double bits, less loans, excluding flow
+    private DoubleAdder depositFlow;   // Credits and debits to the pool, never reset
+    private ExposureLimiter exposureLimiter; // Optional lending caps, may be null
+    private volatile ChangeStream changeStream; // Optional change capture, may be null
+    private volatile boolean adaptiveSplitting; // Hot accounts may split their balance
+    private volatile BalanceCache balanceCache; // Optional read cache, may be null
+    private volatile WithdrawalCheck withdrawalCheck; // Optional pre-check on withdrawals, may be null
+    private volatile OperationTracer operationTracer; // Optional phase timing, may be null
+    private volatile ColumnarSnapshot.Builder snapshot; // Columnar snapshot being taken, may be null
+    private final Object snapshotLock = new Object(); // Held while a columnar snapshot is taken
+    private int lastSnapshotEpoch; // Epoch of the last columnar snapshot (guarded by snapshotLock)
 
     /** 
      * Constructor to initialize the banking application
      */
     public AccountManager() {
-        this.accounts = new ArrayList<>();
-        this.totalDeposits = 0;
+        this(null);
+    }
+
+    /**
+     * Constructor to initialize the banking application with lending caps.
+     * @param exposureLimiter Caps checked on every loan approval, or null for none.
+     */
+    public AccountManager(ExposureLimiter exposureLimiter) {
+        this(new InMemoryAccountStore(), exposureLimiter);
+    }
+
+    /**
+     * Constructor to initialize the banking application over an existing account store.
+     * <p>
+     * Total deposits start at the sum of balances less the sum of loans already in the store.
+     * @param accounts The store holding the accounts.
+     * @param exposureLimiter Caps checked on every loan approval, or null for none.
+     */
+    public AccountManager(AccountStore accounts, ExposureLimiter exposureLimiter) {
+        this.accounts = accounts;
+        this.depositFlow = new DoubleAdder();
+        this.exposureLimiter = exposureLimiter;
+        accounts.forEach(account -> depositFlow.add(account.getBalance() - account.getLoan()));
+        this.totalDeposits = new AtomicLong(Double.doubleToRawLongBits(depositFlow.sumThenReset()));
+        accounts.setLoadListener(account -> account.setAdaptiveSplitting(adaptiveSplitting));
+    }
+
+    /**
+     * Sets the cache consulted by {@link #getBalance(String)} and {@link #getLoan(String)}
+     * before the account store. Entries are invalidated by every mutation.
+     * @param balanceCache The cache, or null to read the store directly.
+     */
+    public void setBalanceCache(BalanceCache balanceCache) {
+        this.balanceCache = balanceCache;
+    }
+
+    /**
+     * Sets the stream that successful mutations are published to.
+     * @param changeStream The change stream, or null to stop publishing.
+     */
+    public void setChangeStream(ChangeStream changeStream) {
+        this.changeStream = changeStream;
+    }
+
+    /**
+     * Sets the check every withdrawal must pass before it is applied, such as a
+     * {@link VelocityLimiter}. A withdrawal that passes the check but then fails is
+     * released back to it.
+     * @param withdrawalCheck The check, or null for none.
+     */
+    public void setWithdrawalCheck(WithdrawalCheck withdrawalCheck) {
+        this.withdrawalCheck = withdrawalCheck;
+    }
+
+    /**
+     * Sets the tracer that times sampled mutations phase by phase.
+     * @param operationTracer The tracer, or null to stop tracing.
+     */
+    public void setOperationTracer(OperationTracer operationTracer) {
+        this.operationTracer = operationTracer;
+    }
+
+    /**
+     * Enables or disables adaptive splitting of hot accounts, for existing and new accounts.
+     * @param adaptiveSplitting True to let contended accounts split their balance.
+     */
+    public void setAdaptiveSplitting(boolean adaptiveSplitting) {
+        this.adaptiveSplitting = adaptiveSplitting;
+        accounts.forEach(account -> account.setAdaptiveSplitting(adaptiveSplitting));
+    }
+
+    /**
+     * Helper method to invalidate any cached values and publish a change. Must be called
+     * while holding the account's lock, so the balance and loan recorded are the ones the
+     * mutation produced and a concurrent read can't re-cache stale values.
+     * @param type The kind of mutation.
+     * @param account The account that changed.
+     * @param amount The amount of the mutation.
+     */
+    private void recordChange(ChangeType type, Account account, double amount) {
+        BalanceCache cache = balanceCache;
+        if (cache != null) {
+            cache.invalidate(account.getAccountHolder());
+        }
+        ChangeStream stream = changeStream;
+        if (stream != null) {
+            stream.publish(type, account.getAccountHolder(), amount, account.getBalance(), account.getLoan());
+        }
+    }
+
+    /**
+     * Helper method to keep an account's current values for a columnar snapshot being
+     * taken, if it hasn't got them yet. Must be called while holding the account's lock,
+     * before the account is changed.
+     * @param account The account about to change.
+     */
+    private void preserve(Account account) {
+        ColumnarSnapshot.Builder builder = snapshot;
+        if (builder != null && account.getSnapshotEpoch() != builder.epoch) {
+            account.setSnapshotEpoch(builder.epoch);
+            builder.preserve(account.getAccountHolder(), account.getBalance(), account.getLoan());
+        }
+    }
+
+    /**
+     * Helper method to leave a new account out of a columnar snapshot being taken, since
+     * it didn't exist when the snapshot began. Must be called while holding the account's lock.
+     * @param account The account just stored.
+     */
+    private void excludeFromSnapshot(Account account) {
+        ColumnarSnapshot.Builder builder = snapshot;
+        if (builder != null) {
+            account.setSnapshotEpoch(builder.epoch);
+        }
+    }
+
+    /**
+     * Helper method to start tracing an operation.
+     * @return The trace, or null if no tracer is set or the operation isn't sampled.
+     */
+    private OperationTracer.Trace beginTrace() {
+        OperationTracer tracer = operationTracer;
+        return tracer == null ? null : tracer.begin();
+    }
+
+    /**
+     * Helper method to add the time since the last mark to a phase of a trace.
+     * @param trace The trace, or null if the operation isn't traced.
+     * @param phase The phase that just finished.
+     */
+    private static void mark(OperationTracer.Trace trace, OperationTracer.Phase phase) {
+        if (trace != null) {
+            trace.mark(phase);
+        }
+    }
+
+    /**
+     * Helper method to finish tracing an operation.
+     * @param trace The trace, or null if the operation isn't traced.
+     * @param operation The operation.
+     * @param accountHolder The name of the account holder.
+     * @param status The operation's outcome.
+     * @return The status, for the caller to return.
+     */
+    private static int endTrace(OperationTracer.Trace trace, OperationTracer.Operation operation, String accountHolder,
+            int status) {
+        if (trace != null) {
+            trace.tracer.end(trace, operation, accountHolder, status);
+        }
+        return status;
     }
 
     /**
@@ -41,27 +227,117 @@ public class AccountManager {
      * @return The Account object if found, otherwise null.
      */
     private Account findAccount(String accountHolder) {
-        for (Account account : accounts) {
-            if (account.getAccountHolder().equals(accountHolder)) {
+        if (accountHolder == null) {
+            return null;
+        }
+        return accounts.get(accountHolder);
+    }
+
+    /**
+     * Helper method to find an account by account holder's name, timing the lookup.
+     * @param accountHolder The name of the account holder.
+     * @param trace The operation's trace, or null.
+     * @return The Account object if found, otherwise null.
+     */
+    private Account findAccount(String accountHolder, OperationTracer.Trace trace) {
+        Account account = findAccount(accountHolder);
+        mark(trace, OperationTracer.Phase.LOOKUP);
+        return account;
+    }
+
+    /**
+     * Helper method to lock an account for an operation. A tiered store may evict the
+     * instance found by {@link #findAccount(String)} before its lock is taken, and
+     * {@link #tryRemoveAccount(String, LedgerResult)} may remove it; in that case the
+     * account is looked up again, so the operation always lands on the live instance.
+     * @param account The account as found.
+     * @return The live account, locked, or null if it has been removed.
+     */
+    private Account lockAccount(Account account) {
+        while (true) {
+            account.lock();
+            if (!account.isEvicted()) {
                 return account;
             }
+            account.unlock();
+            account = accounts.get(account.getAccountHolder());
+            if (account == null) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Helper method to atomically adjust the total deposits. Called while holding the
+     * account's lock, so anyone who can see the account change can also see the total
+     * deposits change and a loan can't be refused for money already shown as deposited.
+     * Deposits to a split hot account take no lock, so only the final totals are exact.
+     * @param delta The amount to add (may be negative).
+     */
+    private void addToTotalDeposits(double delta) {
+        depositFlow.add(delta);
+    }
+
+    /**
+     * Helper method to take a loan out of the total deposits, if enough is available.
+     * The flow is summed, never reset, so there is no moment when money is in neither
+     * the flow nor the pool and a concurrent loan could be refused for it.
+     * @param loanAmount The loan amount.
+     * @return True if the total deposits covered the loan, otherwise false.
+     */
+    private boolean takeFromTotalDeposits(double loanAmount) {
+        while (true) {
+            long bits = totalDeposits.get();
+            double available = Double.longBitsToDouble(bits) + depositFlow.sum();
+            if (loanAmount > available) {
+                return false;
+            }
+            if (totalDeposits.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) - loanAmount))) {
+                return true;
+            }
         }
-        return null;
     }
 
     /**
      * Adds a new account with an initial deposit.
      * @param accountHolder The name of the new account holder.
      * @param initDeposit The initial deposit amount.
-     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalArgumentException if amount is negative, or the account holder already has an account
      */
     public void addAccount(String accountHolder, double initDeposit) throws IllegalArgumentException {
     	if (initDeposit <= 0) {
             throw new IllegalArgumentException("Initial deposit must be positive.");
         }
     	
-    	accounts.add(new Account(accountHolder, initDeposit));
-        totalDeposits += initDeposit;
+    	OperationTracer.Trace trace = beginTrace();
+    	int status = applyAddAccount(new Account(accountHolder, initDeposit), trace);
+    	if (endTrace(trace, OperationTracer.Operation.OPEN, accountHolder, status) == LedgerStatus.ALREADY_EXISTS) {
+    		throw new IllegalArgumentException("Account already exists for " + accountHolder);
+    	}
+    }
+
+    /**
+     * Helper method to store a new account and count its initial deposit.
+     * @param account The new account.
+     * @param trace The operation's trace, or null.
+     * @return {@link LedgerStatus#OK}, or {@link LedgerStatus#ALREADY_EXISTS}.
+     */
+    private int applyAddAccount(Account account, OperationTracer.Trace trace) {
+    	account.setAdaptiveSplitting(adaptiveSplitting);
+    	account.lock();
+    	try {
+    		if (!accounts.putIfAbsent(account)) {
+    			return LedgerStatus.ALREADY_EXISTS;
+    		}
+    		excludeFromSnapshot(account);
+    		mark(trace, OperationTracer.Phase.MUTATION);
+    		recordChange(ChangeType.ACCOUNT_OPENED, account, account.getBalance());
+    		mark(trace, OperationTracer.Phase.PERSISTENCE);
+    		addToTotalDeposits(account.getBalance());
+    	} finally {
+    		account.unlock();
+    	}
+        return LedgerStatus.OK;
     }
 
     /**
@@ -75,11 +351,51 @@ public class AccountManager {
         if (amount < 0) {
             throw new IllegalArgumentException("Deposit amount cannot be negative");
         }
-        Account account = findAccount(accountHolder);
-        if (account == null) return false;
-        account.deposit(amount);
-        totalDeposits += amount;
-        return true;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyDeposit(account, amount, trace);
+        return endTrace(trace, OperationTracer.Operation.DEPOSIT, accountHolder, status) == LedgerStatus.OK;
+    }
+
+    /**
+     * Helper method to deposit into a found account and publish the change.
+     * @param account The account.
+     * @param amount The deposit amount.
+     * @param trace The operation's trace, or null.
+     * @return {@link LedgerStatus#OK}, or {@link LedgerStatus#NOT_FOUND} if the account was removed.
+     */
+    private int applyDeposit(Account account, double amount, OperationTracer.Trace trace) {
+        if (account.isSplit() && snapshot == null) {
+            // Hot account: skip the lock, so the balance and loan aren't known here. Published
+            // before the deposit lands, so any withdrawal it funds is published after it
+            ChangeStream stream = changeStream;
+            if (stream != null) {
+                stream.publish(ChangeType.DEPOSIT, account.getAccountHolder(), amount, Double.NaN, Double.NaN);
+            }
+            mark(trace, OperationTracer.Phase.PERSISTENCE);
+            account.deposit(amount);
+            mark(trace, OperationTracer.Phase.MUTATION);
+            BalanceCache cache = balanceCache;
+            if (cache != null) {
+                cache.invalidate(account.getAccountHolder());
+            }
+            addToTotalDeposits(amount);
+        } else {
+            account = lockAccount(account);
+            mark(trace, OperationTracer.Phase.LOCK);
+            if (account == null) return LedgerStatus.NOT_FOUND;
+            try {
+                preserve(account);
+                account.deposit(amount);
+                mark(trace, OperationTracer.Phase.MUTATION);
+                recordChange(ChangeType.DEPOSIT, account, amount);
+                mark(trace, OperationTracer.Phase.PERSISTENCE);
+                addToTotalDeposits(amount);
+            } finally {
+                account.unlock();
+            }
+        }
+        return LedgerStatus.OK;
     }
 
     /**
@@ -93,17 +409,63 @@ public class AccountManager {
         if (amount < 0) {
             throw new IllegalArgumentException("Withdrawal amount cannot be negative");
         }
-        Account account = findAccount(accountHolder);
-        if (account == null) return false;
-        if (account.withdraw(amount)) {
-            totalDeposits -= amount;
-            return true;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyWithdraw(account, amount, trace);
+        return endTrace(trace, OperationTracer.Operation.WITHDRAW, accountHolder, status) == LedgerStatus.OK;
+    }
+
+    /**
+     * Helper method to withdraw from a found account and publish the change. The
+     * withdrawal check, if any, is run first, without the account's lock.
+     * @param account The account.
+     * @param amount The withdrawal amount.
+     * @param trace The operation's trace, or null.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INSUFFICIENT_FUNDS}, the withdrawal check's refusal,
+     *         or {@link LedgerStatus#NOT_FOUND} if the account was removed.
+     */
+    private int applyWithdraw(Account account, double amount, OperationTracer.Trace trace) {
+        WithdrawalCheck check = withdrawalCheck;
+        String accountHolder = account.getAccountHolder();
+        if (check != null) {
+            int status = check.tryReserve(accountHolder, amount);
+            mark(trace, OperationTracer.Phase.VALIDATION);
+            if (status != LedgerStatus.OK) {
+                return status;
+            }
+        }
+        int status = LedgerStatus.OK;
+        account = lockAccount(account);
+        mark(trace, OperationTracer.Phase.LOCK);
+        if (account == null) {
+            status = LedgerStatus.NOT_FOUND;
+        } else {
+            try {
+                preserve(account);
+                if (account.withdraw(amount)) {
+                    mark(trace, OperationTracer.Phase.MUTATION);
+                    recordChange(ChangeType.WITHDRAWAL, account, amount);
+                    mark(trace, OperationTracer.Phase.PERSISTENCE);
+                    addToTotalDeposits(-amount);
+                } else {
+                    mark(trace, OperationTracer.Phase.MUTATION);
+                    status = LedgerStatus.INSUFFICIENT_FUNDS;
+                }
+            } finally {
+                account.unlock();
+            }
         }
-        return false;
+        if (status != LedgerStatus.OK && check != null) {
+            check.release(accountHolder, amount);
+        }
+        return status;
     }
 
     /**
      * Approves a loan for an account holder.
+     * <p>
+     * The loan must be covered by the total deposits and, if an exposure limiter is
+     * configured, fit under its caps.
      * @param accountHolder The name of the account holder.
      * @param loanAmount The loan amount.
      * @return True if the loan is approved, otherwise false.
@@ -113,11 +475,55 @@ public class AccountManager {
         if (loanAmount < 0) {
             throw new IllegalArgumentException("Loan amount cannot be negative");
         }
-        Account account = findAccount(accountHolder);
-        if (account == null || loanAmount > totalDeposits) return false;
-        account.approveLoan(loanAmount);
-        totalDeposits -= loanAmount;
-        return true;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyApproveLoan(account, loanAmount, trace);
+        return endTrace(trace, OperationTracer.Operation.APPROVE_LOAN, accountHolder, status) == LedgerStatus.OK;
+    }
+
+    /**
+     * Helper method to approve a loan for a found account and publish the change.
+     * @param account The account.
+     * @param loanAmount The loan amount.
+     * @param trace The operation's trace, or null.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#EXPOSURE_LIMIT},
+     *         {@link LedgerStatus#INSUFFICIENT_DEPOSITS}, or {@link LedgerStatus#NOT_FOUND} if the account was removed.
+     */
+    private int applyApproveLoan(Account account, double loanAmount, OperationTracer.Trace trace) {
+        String accountHolder = account.getAccountHolder();
+        if (exposureLimiter != null) {
+            boolean reserved = exposureLimiter.tryReserve(accountHolder, loanAmount);
+            mark(trace, OperationTracer.Phase.VALIDATION);
+            if (!reserved) {
+                return LedgerStatus.EXPOSURE_LIMIT;
+            }
+        }
+        account = lockAccount(account);
+        mark(trace, OperationTracer.Phase.LOCK);
+        if (account == null) {
+            if (exposureLimiter != null) {
+                exposureLimiter.release(accountHolder, loanAmount);
+            }
+            return LedgerStatus.NOT_FOUND;
+        }
+        try {
+            // Taken under the account lock, so the pool and the loan change together
+            if (!takeFromTotalDeposits(loanAmount)) {
+                mark(trace, OperationTracer.Phase.MUTATION);
+                if (exposureLimiter != null) {
+                    exposureLimiter.release(accountHolder, loanAmount);
+                }
+                return LedgerStatus.INSUFFICIENT_DEPOSITS;
+            }
+            preserve(account);
+            account.approveLoan(loanAmount);
+            mark(trace, OperationTracer.Phase.MUTATION);
+            recordChange(ChangeType.LOAN_APPROVED, account, loanAmount);
+            mark(trace, OperationTracer.Phase.PERSISTENCE);
+        } finally {
+            account.unlock();
+        }
+        return LedgerStatus.OK;
     }
 
     /**
@@ -131,13 +537,40 @@ public class AccountManager {
         if (amount < 0) {
             throw new IllegalArgumentException("Repayment amount cannot be negative");
         }
-        Account account = findAccount(accountHolder);
-        if (account == null) return false;
-        if (account.repayLoan(amount)) {
-            totalDeposits += amount;
-            return true;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyRepayLoan(account, amount, trace);
+        return endTrace(trace, OperationTracer.Operation.REPAY_LOAN, accountHolder, status) == LedgerStatus.OK;
+    }
+
+    /**
+     * Helper method to repay part of a found account's loan and publish the change.
+     * @param account The account.
+     * @param amount The repayment amount.
+     * @param trace The operation's trace, or null.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#EXCEEDS_LOAN}, or {@link LedgerStatus#NOT_FOUND} if the account was removed.
+     */
+    private int applyRepayLoan(Account account, double amount, OperationTracer.Trace trace) {
+        account = lockAccount(account);
+        mark(trace, OperationTracer.Phase.LOCK);
+        if (account == null) return LedgerStatus.NOT_FOUND;
+        try {
+            preserve(account);
+            boolean repaid = account.repayLoan(amount);
+            mark(trace, OperationTracer.Phase.MUTATION);
+            if (!repaid) {
+                return LedgerStatus.EXCEEDS_LOAN;
+            }
+            recordChange(ChangeType.LOAN_REPAID, account, amount);
+            mark(trace, OperationTracer.Phase.PERSISTENCE);
+            addToTotalDeposits(amount);
+        } finally {
+            account.unlock();
+        }
+        if (exposureLimiter != null) {
+            exposureLimiter.release(account.getAccountHolder(), amount);
         }
-        return false;
+        return LedgerStatus.OK;
     }
 
     /**
@@ -145,7 +578,7 @@ public class AccountManager {
      * @return The total deposits.
      */
     public double getTotalDeposits() {
-        return totalDeposits;
+        return Double.longBitsToDouble(totalDeposits.get()) + depositFlow.sum();
     }
 
 
@@ -155,8 +588,86 @@ public class AccountManager {
      * @return The balance if the account exists, otherwise null.
      */
     public Double getBalance(String accountHolder) {
+        OperationTracer.Trace trace = beginTrace();
+        BalanceCache cache = balanceCache;
+        if (cache != null) {
+            Double cached = cache.getBalance(accountHolder);
+            if (cached != null) {
+                mark(trace, OperationTracer.Phase.LOOKUP);
+                endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.OK);
+                return cached;
+            }
+        }
+        Account account = lockForRead(accountHolder, cache, trace);
+        if (account == null) {
+            endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.NOT_FOUND);
+            return null;
+        }
+        try {
+            return account.getBalance();
+        } finally {
+            account.unlock();
+            endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.OK);
+        }
+    }
+
+    /**
+     * Copies every account's holder, balance and loan into columns, for tools that read
+     * the whole ledger at once, without stopping writers. The snapshot shows each account
+     * as it was when the snapshot began: accounts opened since are left out, and accounts
+     * changed or closed since appear with their values from before the change. Only one
+     * snapshot is taken at a time; a second caller waits for the first.
+     * <p>
+     * A deposit into a split hot account that was already under way, without the lock,
+     * when the snapshot began may or may not be included. With a {@link TieredAccountStore},
+     * which visits copies of dormant accounts, the snapshot is only exact if no dormant
+     * account is loaded back and changed while it is taken.
+     * @return The snapshot.
+     * @throws IllegalStateException if the ledger is too large for the snapshot's buffers
+     */
+    public ColumnarSnapshot snapshotColumns() throws IllegalStateException {
+        synchronized (snapshotLock) {
+            if (++lastSnapshotEpoch == 0) {
+                lastSnapshotEpoch = 1; // 0 marks accounts no snapshot has seen
+            }
+            ColumnarSnapshot.Builder builder = new ColumnarSnapshot.Builder(lastSnapshotEpoch, accounts.size());
+            snapshot = builder;
+            try {
+                accounts.forEach(account -> {
+                    account.lock();
+                    try {
+                        // Evicted instances are stale or closed; a writer got there first otherwise
+                        if (!account.isEvicted() && account.getSnapshotEpoch() != builder.epoch) {
+                            account.setSnapshotEpoch(builder.epoch);
+                            builder.add(account.getAccountHolder(), account.getBalance(), account.getLoan());
+                        }
+                    } finally {
+                        account.unlock();
+                    }
+                });
+            } finally {
+                snapshot = null;
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Gets the number of accounts.
+     * @return The account count.
+     */
+    public long getAccountCount() {
+        return accounts.size();
+    }
+
+    /**
+     * Reports whether an account is currently split into striped sub-balances.
+     * @param accountHolder The name of the account holder.
+     * @return True if the account exists and is split, otherwise false.
+     */
+    public boolean isSplit(String accountHolder) {
         Account account = findAccount(accountHolder);
-        return account != null ? account.getBalance() : null;
+        return account != null && account.isSplit();
     }
 
     /**
@@ -165,8 +676,293 @@ public class AccountManager {
      * @return The loan amount if the account exists, otherwise null.
      */
     public Double getLoan(String accountHolder) {
-        Account account = findAccount(accountHolder);
-        return account != null ? account.getLoan() : null;
+        OperationTracer.Trace trace = beginTrace();
+        BalanceCache cache = balanceCache;
+        if (cache != null) {
+            Double cached = cache.getLoan(accountHolder);
+            if (cached != null) {
+                mark(trace, OperationTracer.Phase.LOOKUP);
+                endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.OK);
+                return cached;
+            }
+        }
+        Account account = lockForRead(accountHolder, cache, trace);
+        if (account == null) {
+            endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.NOT_FOUND);
+            return null;
+        }
+        try {
+            return account.getLoan();
+        } finally {
+            account.unlock();
+            endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.OK);
+        }
+    }
+
+    /**
+     * Helper method to find and lock an account for a read that missed the balance cache,
+     * caching the account's balance and loan.
+     * @param accountHolder The name of the account holder.
+     * @param cache The balance cache, or null.
+     * @param trace The operation's trace, or null.
+     * @return The live account, locked, or null if it doesn't exist.
+     */
+    private Account lockForRead(String accountHolder, BalanceCache cache, OperationTracer.Trace trace) {
+        Account account = findAccount(accountHolder, trace);
+        if (account == null) return null;
+        account = lockAccount(account);
+        mark(trace, OperationTracer.Phase.LOCK);
+        if (account != null && cache != null) {
+            fillCache(cache, account);
+        }
+        return account;
+    }
+
+    /**
+     * Helper method to cache an account's balance and loan after a miss. Must be called
+     * while holding the account's lock. Split hot accounts take deposits without the lock,
+     * so they are never cached.
+     * <p>
+     * A deposit that saw the account split just before it was demoted can still land in
+     * its cells after the balance is read here, and invalidate the cache before the entry
+     * is put. Cells only grow while the lock is held, so such a deposit shows as a changed
+     * balance, and the entry is dropped again.
+     * @param cache The balance cache.
+     * @param account The account read from the store.
+     */
+    private void fillCache(BalanceCache cache, Account account) {
+        if (!account.isSplit()) {
+            double balance = account.getBalance();
+            cache.put(account.getAccountHolder(), balance, account.getLoan());
+            if (account.hasSplit() && account.getBalance() != balance) {
+                cache.invalidate(account.getAccountHolder());
+            }
+        }
     }
 
+    // Status code API: the same operations, reporting every outcome as a LedgerStatus
+    // code instead of a boolean, null or exception, so rejecting bad input is as cheap
+    // as accepting good input and allocates nothing.
+
+    /**
+     * Adds a new account with an initial deposit.
+     * @param accountHolder The name of the new account holder.
+     * @param initDeposit The initial deposit amount.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_HOLDER},
+     *         {@link LedgerStatus#INVALID_AMOUNT} or {@link LedgerStatus#ALREADY_EXISTS}.
+     */
+    public int tryAddAccount(String accountHolder, double initDeposit) {
+        if (accountHolder == null) return LedgerStatus.INVALID_HOLDER;
+        if (!(initDeposit > 0)) return LedgerStatus.INVALID_AMOUNT;
+        OperationTracer.Trace trace = beginTrace();
+        int status = applyAddAccount(new Account(accountHolder, initDeposit), trace);
+        return endTrace(trace, OperationTracer.Operation.OPEN, accountHolder, status);
+    }
+
+    /**
+     * Deposits money into an account.
+     * @param accountHolder The name of the account holder.
+     * @param amount The deposit amount.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_AMOUNT} or {@link LedgerStatus#NOT_FOUND}.
+     */
+    public int tryDeposit(String accountHolder, double amount) {
+        if (!(amount > 0)) return LedgerStatus.INVALID_AMOUNT;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyDeposit(account, amount, trace);
+        return endTrace(trace, OperationTracer.Operation.DEPOSIT, accountHolder, status);
+    }
+
+    /**
+     * Withdraws money from an account.
+     * @param accountHolder The name of the account holder.
+     * @param amount The withdrawal amount.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_AMOUNT}, {@link LedgerStatus#NOT_FOUND},
+     *         {@link LedgerStatus#INSUFFICIENT_FUNDS} or the withdrawal check's refusal, such as
+     *         {@link LedgerStatus#VELOCITY_LIMIT}.
+     */
+    public int tryWithdraw(String accountHolder, double amount) {
+        if (!(amount > 0)) return LedgerStatus.INVALID_AMOUNT;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyWithdraw(account, amount, trace);
+        return endTrace(trace, OperationTracer.Operation.WITHDRAW, accountHolder, status);
+    }
+
+    /**
+     * Approves a loan for an account holder.
+     * @param accountHolder The name of the account holder.
+     * @param loanAmount The loan amount.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_AMOUNT}, {@link LedgerStatus#NOT_FOUND},
+     *         {@link LedgerStatus#EXPOSURE_LIMIT} or {@link LedgerStatus#INSUFFICIENT_DEPOSITS}.
+     */
+    public int tryApproveLoan(String accountHolder, double loanAmount) {
+        if (!(loanAmount > 0)) return LedgerStatus.INVALID_AMOUNT;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyApproveLoan(account, loanAmount, trace);
+        return endTrace(trace, OperationTracer.Operation.APPROVE_LOAN, accountHolder, status);
+    }
+
+    /**
+     * Repays a part of the loan for an account holder.
+     * @param accountHolder The name of the account holder.
+     * @param amount The repayment amount.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_AMOUNT}, {@link LedgerStatus#NOT_FOUND}
+     *         or {@link LedgerStatus#EXCEEDS_LOAN}.
+     */
+    public int tryRepayLoan(String accountHolder, double amount) {
+        if (!(amount > 0)) return LedgerStatus.INVALID_AMOUNT;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyRepayLoan(account, amount, trace);
+        return endTrace(trace, OperationTracer.Operation.REPAY_LOAN, accountHolder, status);
+    }
+
+    /**
+     * Reads the balance and loan of an account holder into a caller-owned result, which
+     * may be reused across calls.
+     * @param accountHolder The name of the account holder.
+     * @param result Receives the balance and loan when the account is found.
+     * @return {@link LedgerStatus#OK}, or {@link LedgerStatus#NOT_FOUND}.
+     */
+    public int tryReadAccount(String accountHolder, LedgerResult result) {
+        OperationTracer.Trace trace = beginTrace();
+        BalanceCache cache = balanceCache;
+        if (cache != null && cache.read(accountHolder, result)) {
+            mark(trace, OperationTracer.Phase.LOOKUP);
+            return endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.OK);
+        }
+        Account account = lockForRead(accountHolder, cache, trace);
+        if (account == null) {
+            return endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.NOT_FOUND);
+        }
+        try {
+            result.set(account.getBalance(), account.getLoan());
+        } finally {
+            account.unlock();
+        }
+        return endTrace(trace, OperationTracer.Operation.READ, accountHolder, LedgerStatus.OK);
+    }
+
+    /**
+     * Removes an account, reading its final balance and loan into a caller-owned result,
+     * so it can be restored elsewhere with {@link #tryRestoreAccount(String, double, double)}.
+     * Total deposits drop by the account's balance less its loan. Operations that found
+     * the account before it was removed report {@link LedgerStatus#NOT_FOUND}.
+     * <p>
+     * Deposits to a split hot account take no lock, so one racing the removal could be
+     * lost; callers moving accounts should hold off other operations on the holder first.
+     * The store must support {@link AccountStore#remove(String)}.
+     * @param accountHolder The name of the account holder.
+     * @param result Receives the balance and loan of the removed account.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_HOLDER} or {@link LedgerStatus#NOT_FOUND}.
+     * @throws UnsupportedOperationException if the store can't remove accounts
+     */
+    public int tryRemoveAccount(String accountHolder, LedgerResult result) throws UnsupportedOperationException {
+        if (accountHolder == null) return LedgerStatus.INVALID_HOLDER;
+        OperationTracer.Trace trace = beginTrace();
+        Account account = findAccount(accountHolder, trace);
+        int status = account == null ? LedgerStatus.NOT_FOUND : applyRemoveAccount(account, result, trace);
+        return endTrace(trace, OperationTracer.Operation.REMOVE, accountHolder, status);
+    }
+
+    /**
+     * Helper method to remove an account and take its balance less its loan out of the
+     * total deposits.
+     * @param account The account as found.
+     * @param result Receives the balance and loan of the removed account.
+     * @param trace The operation's trace, or null.
+     * @return {@link LedgerStatus#OK}, or {@link LedgerStatus#NOT_FOUND}.
+     * @throws UnsupportedOperationException if the store can't remove accounts
+     */
+    private int applyRemoveAccount(Account account, LedgerResult result, OperationTracer.Trace trace)
+            throws UnsupportedOperationException {
+        account = lockAccount(account);
+        mark(trace, OperationTracer.Phase.LOCK);
+        if (account == null) return LedgerStatus.NOT_FOUND;
+        String accountHolder = account.getAccountHolder();
+        double loan;
+        try {
+            // Before removing, so a snapshot scan that misses the account sees its old values
+            preserve(account);
+            if (!accounts.remove(accountHolder)) {
+                return LedgerStatus.NOT_FOUND;
+            }
+            account.markEvicted();
+            double balance = account.getBalance();
+            loan = account.getLoan();
+            result.set(balance, loan);
+            mark(trace, OperationTracer.Phase.MUTATION);
+            recordChange(ChangeType.ACCOUNT_CLOSED, account, balance);
+            mark(trace, OperationTracer.Phase.PERSISTENCE);
+            addToTotalDeposits(loan - balance);
+        } finally {
+            account.unlock();
+        }
+        if (exposureLimiter != null && loan > 0) {
+            exposureLimiter.release(accountHolder, loan);
+        }
+        return LedgerStatus.OK;
+    }
+
+    /**
+     * Adds an account with a balance and outstanding loan carried over from elsewhere,
+     * such as another ledger it was removed from. Total deposits rise by the balance less
+     * the loan; the loan is not checked against them, since it was approved where it was
+     * made, but it must fit under the exposure limiter's caps, if one is configured.
+     * @param accountHolder The name of the account holder.
+     * @param balance The account balance.
+     * @param loan The outstanding loan.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_HOLDER}, {@link LedgerStatus#INVALID_AMOUNT},
+     *         {@link LedgerStatus#EXPOSURE_LIMIT} or {@link LedgerStatus#ALREADY_EXISTS}.
+     */
+    public int tryRestoreAccount(String accountHolder, double balance, double loan) {
+        if (accountHolder == null) return LedgerStatus.INVALID_HOLDER;
+        if (!(balance >= 0) || !(loan >= 0)) return LedgerStatus.INVALID_AMOUNT;
+        OperationTracer.Trace trace = beginTrace();
+        int status = applyRestoreAccount(accountHolder, balance, loan, trace);
+        return endTrace(trace, OperationTracer.Operation.RESTORE, accountHolder, status);
+    }
+
+    /**
+     * Helper method to reserve a carried-over loan under the exposure limiter's caps,
+     * then store the account and count its balance less its loan.
+     * @param accountHolder The name of the account holder.
+     * @param balance The account balance.
+     * @param loan The outstanding loan.
+     * @param trace The operation's trace, or null.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#EXPOSURE_LIMIT} or {@link LedgerStatus#ALREADY_EXISTS}.
+     */
+    private int applyRestoreAccount(String accountHolder, double balance, double loan, OperationTracer.Trace trace) {
+        if (loan > 0 && exposureLimiter != null) {
+            boolean reserved = exposureLimiter.tryReserve(accountHolder, loan);
+            mark(trace, OperationTracer.Phase.VALIDATION);
+            if (!reserved) {
+                return LedgerStatus.EXPOSURE_LIMIT;
+            }
+        }
+        Account account = new Account(accountHolder, balance, loan);
+        account.setAdaptiveSplitting(adaptiveSplitting);
+        account.lock();
+        try {
+            if (!accounts.putIfAbsent(account)) {
+                if (loan > 0 && exposureLimiter != null) {
+                    exposureLimiter.release(accountHolder, loan);
+                }
+                return LedgerStatus.ALREADY_EXISTS;
+            }
+            excludeFromSnapshot(account);
+            mark(trace, OperationTracer.Phase.MUTATION);
+            recordChange(ChangeType.ACCOUNT_OPENED, account, balance);
+            if (loan > 0) {
+                recordChange(ChangeType.LOAN_APPROVED, account, loan);
+            }
+            mark(trace, OperationTracer.Phase.PERSISTENCE);
+            addToTotalDeposits(balance - loan);
+        } finally {
+            account.unlock();
+        }
+        return LedgerStatus.OK;
+    }
 }
@@ -0,0 +1,65 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.function.Consumer;
+
+/**
+ * Holds the accounts managed by an {@link AccountManager}.
+ * <p>
+ * The default store keeps every account in memory, but a store may equally sit in front
+ * of a journal, an off-heap region or a file, in which case {@link #get(String)} can be
+ * slow. Such a store may also evict an account from memory; it must then lock the
+ * account and mark it evicted, so the manager looks it up again. Implementations must
+ * be safe to use from several threads.
+ *
+ * @see InMemoryAccountStore
+ * @see TieredAccountStore
+ * @see AccountManager
+ */
+public interface AccountStore {
+
+    /**
+     * Finds an account by account holder's name.
+     * @param accountHolder The name of the account holder (never null).
+     * @return The account if found, otherwise null.
+     */
+    Account get(String accountHolder);
+
+    /**
+     * Adds an account unless its holder already has one.
+     * @param account The new account.
+     * @return True if the account was added, false if the holder already had one.
+     */
+    boolean putIfAbsent(Account account);
+
+    /**
+     * Removes an account. Called by the manager while holding the account's lock.
+     * @param accountHolder The name of the account holder.
+     * @return True if an account was removed, false if the holder had none.
+     * @throws UnsupportedOperationException if the store can't remove accounts
+     */
+    default boolean remove(String accountHolder) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't remove accounts");
+    }
+
+    /**
+     * Visits every account in the store.
+     * @param action Called once per account.
+     */
+    void forEach(Consumer<Account> action);
+
+    /**
+     * Gets the number of accounts in the store.
+     * @return The account count.
+     */
+    long size();
+
+    /**
+     * Sets an action to run on every account the store brings into memory from
+     * elsewhere, before it is returned by {@link #get(String)}. Stores that keep every
+     * account in memory never call it.
+     * @param listener Called once per loaded account, or null for none.
+     */
+    default void setLoadListener(Consumer<Account> listener) {
+        // Nothing is ever loaded
+    }
+}
@@ -0,0 +1,342 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, concurrent cache of account balances and loans, placed in front of a slow
+ * {@link AccountStore} by {@link AccountManager#setBalanceCache(BalanceCache)}.
+ * <p>
+ * Eviction follows W-TinyLFU. New entries land in a small LRU window (1% of capacity).
+ * Entries pushed out of the window compete for a place in the main area: a
+ * {@link FrequencySketch} estimates how often the candidate and the main area's eviction
+ * victim have been used recently, and the less popular one is dropped. The main area is
+ * a segmented LRU, so entries hit twice move from probation to a protected segment (80%
+ * of the main area).
+ * <p>
+ * Lookups read a concurrent map and never block. Recording a hit against the policy needs
+ * the policy lock; if it is busy the hit is simply not recorded, which costs some accuracy
+ * but keeps readers from queueing. Invalidations remove the entry from the map at once and
+ * leave the policy clean-up to the next write.
+ * <p>
+ * Capacity is a weight limit: one per entry for {@link #ofEntries(long)}, or an estimate
+ * of the entry's heap footprint for {@link #ofBytes(long)}.
+ *
+ * @see AccountManager
+ */
+public class BalanceCache {
+
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    /** Rough heap cost of an entry excluding the holder string: node, map entry, two Doubles. */
+    static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    /**
+     * A cached balance and loan. Values are boxed once, when cached, so hits don't allocate.
+     */
+    private static final class Node {
+        final String key;
+        final Double balance;
+        final Double loan;
+        final long weight;
+        int queue;
+        boolean linked;
+        Node prev, next;
+
+        Node(String key, double balance, double loan, long weight) {
+            this.key = key;
+            this.balance = balance;
+            this.loan = loan;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * An intrusive doubly-linked LRU list; the head is the least recently used.
+     */
+    private static final class Queue {
+        final Node sentinel = new Node(null, 0, 0, 0);
+        long weight;
+
+        Queue() {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        Node first() {
+            return sentinel.next != sentinel ? sentinel.next : null;
+        }
+
+        void addLast(Node node) {
+            node.prev = sentinel.prev;
+            node.next = sentinel;
+            sentinel.prev.next = node;
+            sentinel.prev = node;
+            weight += node.weight;
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+    }
+
+    private final boolean weighBytes;
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final Map<String, Node> data = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final Queue[] queues = {new Queue(), new Queue(), new Queue()};
+    private final FrequencySketch sketch;
+    private final ConcurrentLinkedQueue<Node> pendingRemovals = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private BalanceCache(long maximum, boolean weighBytes, long expectedEntries) {
+        if (maximum <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive");
+        }
+        this.maximum = maximum;
+        this.weighBytes = weighBytes;
+        this.windowMaximum = Math.max(1, maximum / 100);
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * 0.8);
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    /**
+     * Creates a cache holding up to a number of entries.
+     * @param maximumEntries The most entries to hold.
+     * @return The new cache.
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public static BalanceCache ofEntries(long maximumEntries) throws IllegalArgumentException {
+        return new BalanceCache(maximumEntries, false, maximumEntries);
+    }
+
+    /**
+     * Creates a cache using up to roughly a number of bytes of heap.
+     * @param maximumBytes The most heap to use, estimated per entry.
+     * @return The new cache.
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public static BalanceCache ofBytes(long maximumBytes) throws IllegalArgumentException {
+        return new BalanceCache(maximumBytes, true, Math.max(1, maximumBytes / ENTRY_OVERHEAD_BYTES));
+    }
+
+    /**
+     * Looks up a cached balance.
+     * @param accountHolder The name of the account holder.
+     * @return The cached balance, or null on a miss.
+     */
+    public Double getBalance(String accountHolder) {
+        Node node = lookup(accountHolder);
+        return node != null ? node.balance : null;
+    }
+
+    /**
+     * Looks up a cached loan amount.
+     * @param accountHolder The name of the account holder.
+     * @return The cached loan amount, or null on a miss.
+     */
+    public Double getLoan(String accountHolder) {
+        Node node = lookup(accountHolder);
+        return node != null ? node.loan : null;
+    }
+
+    /**
+     * Looks up a cached balance and loan together, so both come from the same entry.
+     * @param accountHolder The name of the account holder.
+     * @param result Receives the balance and loan on a hit.
+     * @return True on a hit, false on a miss.
+     */
+    public boolean read(String accountHolder, LedgerResult result) {
+        Node node = lookup(accountHolder);
+        if (node == null) {
+            return false;
+        }
+        result.set(node.balance, node.loan);
+        return true;
+    }
+
+    /**
+     * Caches an account's balance and loan, evicting other entries if over capacity.
+     * @param accountHolder The name of the account holder.
+     * @param balance The current balance.
+     * @param loan The current loan amount.
+     */
+    public void put(String accountHolder, double balance, double loan) {
+        Node node = new Node(accountHolder, balance, loan, weigh(accountHolder));
+        policyLock.lock();
+        try {
+            drainRemovals();
+            sketch.increment(accountHolder);
+            Node old = data.put(accountHolder, node);
+            if (old != null) {
+                unlink(old);
+            }
+            node.queue = WINDOW;
+            node.linked = true;
+            queues[WINDOW].addLast(node);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Removes an account holder's entry, if cached.
+     * @param accountHolder The name of the account holder.
+     */
+    public void invalidate(String accountHolder) {
+        Node node = data.remove(accountHolder);
+        if (node != null) {
+            invalidations.increment();
+            pendingRemovals.add(node);
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to go to the store.
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the fraction of lookups answered from the cache.
+     * @return The hit rate between 0 and 1, or 0 before any lookups.
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Gets the number of entries evicted to stay under capacity.
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of entries removed because the account changed.
+     * @return The invalidation count.
+     */
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Gets the number of entries currently cached.
+     * @return The entry count.
+     */
+    public long size() {
+        return data.size();
+    }
+
+    private Node lookup(String accountHolder) {
+        Node node = accountHolder != null ? data.get(accountHolder) : null;
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (policyLock.tryLock()) {
+            try {
+                sketch.increment(accountHolder);
+                onAccess(node);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return node;
+    }
+
+    private void onAccess(Node node) {
+        if (!node.linked) {
+            return; // invalidated or evicted since the lookup
+        }
+        Queue queue = queues[node.queue];
+        queue.remove(node);
+        if (node.queue == PROBATION) {
+            node.queue = PROTECTED;
+            queues[PROTECTED].addLast(node);
+            while (queues[PROTECTED].weight > protectedMaximum) {
+                Node demoted = queues[PROTECTED].first();
+                queues[PROTECTED].remove(demoted);
+                demoted.queue = PROBATION;
+                queues[PROBATION].addLast(demoted);
+            }
+        } else {
+            queue.addLast(node);
+        }
+    }
+
+    private void evict() {
+        Node candidate = null;
+        while (queues[WINDOW].weight > windowMaximum) {
+            candidate = queues[WINDOW].first();
+            queues[WINDOW].remove(candidate);
+            candidate.queue = PROBATION;
+            queues[PROBATION].addLast(candidate);
+        }
+        while (queues[WINDOW].weight + queues[PROBATION].weight + queues[PROTECTED].weight > maximum) {
+            Node victim = queues[PROBATION].first();
+            if (victim == null) {
+                victim = queues[PROTECTED].first();
+            }
+            if (victim == null) {
+                victim = queues[WINDOW].first();
+            }
+            Node evicted = victim;
+            if (candidate != null && candidate.linked && candidate != victim
+                    && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                evicted = candidate; // the newcomer is no more popular than the victim
+            }
+            if (evicted == candidate) {
+                candidate = null;
+            }
+            unlink(evicted);
+            data.remove(evicted.key, evicted);
+            evictions.increment();
+        }
+    }
+
+    private void drainRemovals() {
+        Node node;
+        while ((node = pendingRemovals.poll()) != null) {
+            unlink(node);
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.linked) {
+            queues[node.queue].remove(node);
+            node.linked = false;
+        }
+    }
+
+    private long weigh(String accountHolder) {
+        return weighBytes ? ENTRY_OVERHEAD_BYTES + 2L * accountHolder.length() : 1;
+    }
+}
@@ -1,5 +1,15 @@
 package ie.ronanodea.unitTesting;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * This program simulates a simple banking application that manages user accounts.
  * <p>
@@ -21,6 +31,22 @@ package ie.ronanodea.unitTesting;
  * <b>Refactoring:</b> This code has been refactored to simplify the testing
  * process. The original code has been split into three classes for improved
  * readability and maintainability: BankingApp, Account and AccountManager.
+ * <p>
+ * <b>Batch mode:</b> Given a ledger file, the application runs as a short-lived batch
+ * job instead: it preloads the ledger from a {@link ColumnarSnapshot} file, applies the
+ * operations in an operations file (or standard input), one per line, and writes the
+ * ledger back. Each line is an operation, an account holder and an amount, such as
+ * {@code deposit Alice 200}; the operations are {@code open}, {@code deposit},
+ * {@code withdraw}, {@code loan} and {@code repay}, and blank lines and lines starting
+ * with {@code #} are skipped.
+ * <pre>
+ *   java -jar bankingapp.jar [--stats] &lt;ledger file&gt; [&lt;operations file&gt;]
+ *   java -jar bankingapp.jar --train
+ * </pre>
+ * {@code --stats} prints a line as soon as the first operation is done, and the peak
+ * resident set size at exit, for startup measurements. {@code --train} runs every
+ * operation on a throwaway ledger, so that a class-data-sharing archive dumped from the
+ * run holds every class a batch job loads; see the {@code launcher} Gradle task.
  *
  * @see Account
  * @see AccountManager
@@ -36,9 +62,16 @@ public class BankingApp {
 
     /**
      * Banking Apps main method
-     * @param args none provided
+     * @param args none for the demonstration, otherwise the batch mode arguments described above
+     * @throws IOException if the ledger or operations file can't be read or written
+     * @throws IllegalArgumentException if the arguments or an operation line are malformed
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, IllegalArgumentException {
+        if (args.length > 0) {
+            launch(args);
+            return;
+        }
+
         // Create a new banking application instance
         AccountManager manageAcc = new AccountManager();
 
@@ -67,4 +100,189 @@ public class BankingApp {
         // Check total deposits in the manageAcc instance
         System.out.println("Total deposits in the bank: " + manageAcc.getTotalDeposits());
     }
+
+    /**
+     * Helper method to run batch mode from the command line arguments.
+     * @param args The command line arguments.
+     * @throws IOException if a file can't be read or written
+     * @throws IllegalArgumentException if the arguments are malformed
+     */
+    private static void launch(String[] args) throws IOException, IllegalArgumentException {
+        boolean stats = false;
+        boolean train = false;
+        Path ledger = null;
+        Path operations = null;
+        for (String arg : args) {
+            if (arg.equals("--stats")) {
+                stats = true;
+            } else if (arg.equals("--train")) {
+                train = true;
+            } else if (ledger == null) {
+                ledger = Paths.get(arg);
+            } else if (operations == null) {
+                operations = Paths.get(arg);
+            } else {
+                throw new IllegalArgumentException("Usage: BankingApp [--stats] <ledger file> [<operations file>] | --train");
+            }
+        }
+        if (train) {
+            train(System.out);
+        } else if (ledger == null) {
+            throw new IllegalArgumentException("Usage: BankingApp [--stats] <ledger file> [<operations file>] | --train");
+        } else if (operations == null) {
+            runBatch(ledger, new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), System.out, stats);
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(operations, StandardCharsets.UTF_8)) {
+                runBatch(ledger, reader, System.out, stats);
+            }
+        }
+        if (stats) {
+            System.out.println("Peak RSS: " + peakResidentKilobytes() + " kB");
+        }
+    }
+
+    /**
+     * Runs a batch job: preloads the ledger, applies every operation and writes the ledger
+     * back, replacing the file in one step so a crash leaves the old ledger intact.
+     * Refused operations are reported and skipped.
+     * @param ledger The ledger file; a missing file is an empty ledger.
+     * @param operations The operations, one per line.
+     * @param out Receives refusals and a summary.
+     * @param stats True to print a line as soon as the first operation is done.
+     * @return The number of operations refused.
+     * @throws IOException if the ledger can't be read or written, or the operations can't be read
+     * @throws IllegalArgumentException if an operation line is malformed; the ledger is then left unchanged
+     */
+    public static int runBatch(Path ledger, BufferedReader operations, PrintStream out, boolean stats)
+            throws IOException, IllegalArgumentException {
+        AccountManager accountManager = loadLedger(ledger);
+        int applied = 0;
+        int refused = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = operations.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int status = apply(accountManager, line, lineNumber);
+            if (stats && applied == 0) {
+                out.println("First operation: " + LedgerStatus.name(status));
+                out.flush();
+            }
+            applied++;
+            if (status != LedgerStatus.OK) {
+                refused++;
+                out.println("Line " + lineNumber + ": " + line + " refused, " + LedgerStatus.name(status));
+            }
+        }
+        accountManager.snapshotColumns().writeTo(ledger); // replaces the file in one step
+        out.printf("Applied %d operations, %d refused; total deposits %.2f%n", applied, refused,
+                accountManager.getTotalDeposits());
+        return refused;
+    }
+
+    /**
+     * Loads a ledger written by {@link #runBatch(Path, BufferedReader, PrintStream, boolean)}
+     * or {@link ColumnarSnapshot#writeTo(Path)}. The file is read onto the heap rather than
+     * mapped, so that {@code runBatch} can replace it afterwards on Windows too.
+     * @param ledger The ledger file; a missing file is an empty ledger.
+     * @return A new account manager holding the ledger's accounts.
+     * @throws IOException if the file can't be read or holds an account twice
+     */
+    public static AccountManager loadLedger(Path ledger) throws IOException {
+        AccountManager accountManager = new AccountManager();
+        if (Files.exists(ledger)) {
+            ColumnarSnapshot snapshot = ColumnarSnapshot.read(ledger);
+            for (int row = 0; row < snapshot.getRowCount(); row++) {
+                int status = accountManager.tryRestoreAccount(snapshot.getHolder(row), snapshot.getBalance(row),
+                        snapshot.getLoan(row));
+                if (status != LedgerStatus.OK) {
+                    throw new IOException("Corrupt ledger " + ledger + ": row " + row + " is " + LedgerStatus.name(status));
+                }
+            }
+        }
+        return accountManager;
+    }
+
+    /**
+     * Helper method to parse and apply one operation line.
+     * @return The operation's status.
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    private static int apply(AccountManager accountManager, String line, int lineNumber) throws IllegalArgumentException {
+        int first = line.indexOf(' ');
+        int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+        if (second < 0 || line.indexOf(' ', second + 1) >= 0) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": expected <operation> <holder> <amount>: " + line);
+        }
+        String accountHolder = line.substring(first + 1, second);
+        double amount;
+        try {
+            amount = Double.parseDouble(line.substring(second + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": bad amount: " + line);
+        }
+        switch (line.substring(0, first)) {
+            case "open":
+                return accountManager.tryAddAccount(accountHolder, amount);
+            case "deposit":
+                return accountManager.tryDeposit(accountHolder, amount);
+            case "withdraw":
+                return accountManager.tryWithdraw(accountHolder, amount);
+            case "loan":
+                return accountManager.tryApproveLoan(accountHolder, amount);
+            case "repay":
+                return accountManager.tryRepayLoan(accountHolder, amount);
+            default:
+                throw new IllegalArgumentException("Line " + lineNumber + ": unknown operation: " + line);
+        }
+    }
+
+    /**
+     * Helper method to run every batch mode path on a throwaway ledger, twice so the
+     * second run preloads what the first wrote, loading every class a batch job needs.
+     */
+    private static void train(PrintStream out) throws IOException {
+        Path directory = Files.createTempDirectory("bankingapp-train");
+        Path ledger = directory.resolve("ledger.col");
+        try {
+            StringBuilder operations = new StringBuilder("# training run\n");
+            for (int i = 0; i < 1000; i++) {
+                operations.append("open Holder").append(i).append(" 1000\n");
+            }
+            runBatch(ledger, new BufferedReader(new StringReader(operations.toString())), out, false);
+            operations.setLength(0);
+            for (int i = 0; i < 1000; i++) {
+                operations.append("deposit Holder").append(i).append(" 10.5\n")
+                        .append("withdraw Holder").append(i).append(" 20\n")
+                        .append("loan Holder").append(i).append(" 100\n")
+                        .append("repay Holder").append(i).append(" 50\n");
+            }
+            operations.append("withdraw Holder0 1e9\nrepay Holder0 1e9\ndeposit Nobody 1\nopen Holder0 1\n");
+            runBatch(ledger, new BufferedReader(new StringReader(operations.toString())), out, false);
+        } finally {
+            Files.deleteIfExists(ledger);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Helper method to read the peak resident set size on Linux.
+     * @return The peak RSS in kilobytes, or -1 where {@code /proc} isn't available.
+     */
+    private static long peakResidentKilobytes() {
+        Path status = Paths.get("/proc/self/status");
+        try {
+            for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6, line.length() - 2).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux; fall through
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,24 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * Receives change records from a {@link ChangeStream}.
+ * <p>
+ * Records are passed as primitive arguments rather than objects, so reading the
+ * stream allocates nothing.
+ *
+ * @see ChangeStream
+ */
+@FunctionalInterface
+public interface ChangeHandler {
+
+    /**
+     * Called once for each change, in publication order.
+     * @param sequence Position of the change in the stream.
+     * @param type The kind of mutation.
+     * @param accountHolder The name of the account holder.
+     * @param amount The amount of the mutation.
+     * @param balance The account balance after the mutation, or NaN if not known.
+     * @param loan The outstanding loan after the mutation, or NaN if not known.
+     */
+    void onChange(long sequence, ChangeType type, String accountHolder, double amount, double balance, double loan);
+}
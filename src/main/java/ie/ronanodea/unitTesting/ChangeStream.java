@@ -0,0 +1,402 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, multi-producer ring buffer of ledger change records with any number of
+ * independent subscribers.
+ * <p>
+ * Producers claim a sequence with a compare-and-set on a shared cursor, write the record
+ * into preallocated primitive arrays and then mark the slot as published. No objects are
+ * allocated on the publish path. Each {@link Subscriber} keeps its own cursor, so slow
+ * readers do not hold each other up; a slot is only reused once every subscriber has read
+ * past it.
+ * <p>
+ * When the ring is full the configured {@link Backpressure} decides what happens:
+ * the producer waits, the record is dropped and counted, or the record is appended to a
+ * spill file which can be read back later with {@link #readSpill(Path, ChangeHandler)}.
+ * Spilled records claim a sequence like any other record, and subscribers read them back
+ * from the spill file in their place, so every subscriber still sees every record once,
+ * in sequence order.
+ *
+ * @see AccountManager#setChangeStream(ChangeStream)
+ */
+public class ChangeStream implements AutoCloseable {
+
+    /**
+     * What a producer does when the ring is full.
+     */
+    public enum Backpressure {
+        /** Spin, then yield, until every subscriber has freed a slot. */
+        BLOCK,
+        /** Drop the record and count it. */
+        DROP,
+        /** Append the record to the spill file. */
+        SPILL
+    }
+
+    private static final ChangeType[] TYPES = ChangeType.values();
+
+    private final int mask;
+    private final int capacity;
+    private final Backpressure backpressure;
+    private final AtomicLong cursor = new AtomicLong(); // next sequence to claim
+    private final AtomicLongArray published; // sequence last published in each slot
+    private final ChangeType[] types;
+    private final String[] holders;
+    private final double[] amounts;
+    private final double[] balances;
+    private final double[] loans;
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private volatile long gateCache; // lower bound of the slowest subscriber cursor
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final Path spillFile;
+    private DataOutputStream spillOut; // guarded by this
+    private final ByteArrayOutputStream spillRecord = new ByteArrayOutputStream(); // guarded by this
+    private boolean spillStarted; // guarded by this
+    private volatile long spillStart; // file offset of the first record this stream spilled
+    private volatile long spillLength; // file offset after the last complete spilled record
+
+    /**
+     * Creates a stream that blocks producers when full.
+     * @param capacity Number of slots, rounded up to a power of two.
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public ChangeStream(int capacity) throws IllegalArgumentException {
+        this(capacity, Backpressure.BLOCK, null);
+    }
+
+    /**
+     * Creates a stream with a chosen backpressure policy.
+     * @param capacity Number of slots, rounded up to a power of two.
+     * @param backpressure What to do when the ring is full.
+     * @param spillFile File to append overflow records to; required for {@link Backpressure#SPILL}.
+     * @throws IllegalArgumentException if capacity is not positive, or SPILL is chosen without a file
+     */
+    public ChangeStream(int capacity, Backpressure backpressure, Path spillFile) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (backpressure == Backpressure.SPILL && spillFile == null) {
+            throw new IllegalArgumentException("A spill file is required to spill");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.backpressure = backpressure;
+        this.spillFile = spillFile;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.types = new ChangeType[size];
+        this.holders = new String[size];
+        this.amounts = new double[size];
+        this.balances = new double[size];
+        this.loans = new double[size];
+    }
+
+    /**
+     * Publishes a change record.
+     * @param type The kind of mutation.
+     * @param accountHolder The name of the account holder.
+     * @param amount The amount of the mutation.
+     * @param balance The account balance after the mutation.
+     * @param loan The outstanding loan after the mutation.
+     * @return The sequence of the record, or -1 if it was dropped.
+     */
+    public long publish(ChangeType type, String accountHolder, double amount, double balance, double loan) {
+        long sequence = tryClaim();
+        if (sequence < 0) {
+            switch (backpressure) {
+                case DROP:
+                    dropped.increment();
+                    return -1;
+                case SPILL:
+                    return spill(type, accountHolder, amount, balance, loan);
+                default:
+                    int spins = 0;
+                    while ((sequence = tryClaim()) < 0) {
+                        if (++spins < 100) {
+                            Thread.onSpinWait();
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+            }
+        }
+        int slot = (int) (sequence & mask);
+        types[slot] = type;
+        holders[slot] = accountHolder;
+        amounts[slot] = amount;
+        balances[slot] = balance;
+        loans[slot] = loan;
+        published.lazySet(slot, sequence); // release: fields above are visible before the marker
+        return sequence;
+    }
+
+    /**
+     * Adds a subscriber that will see every record published from now on.
+     * @return The new subscriber.
+     */
+    public Subscriber subscribe() {
+        // Registered at a sequence producers may already have wrapped past, then moved to
+        // the cursor: once registered, producers can't claim a slot it hasn't read
+        Subscriber subscriber = new Subscriber(cursor.get(), spillLength);
+        subscribers.add(subscriber);
+        subscriber.sequence.set(cursor.get());
+        return subscriber;
+    }
+
+    /**
+     * Gets the number of records dropped because the ring was full.
+     * @return The dropped count.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the number of records written to the spill file.
+     * @return The spilled count.
+     */
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+
+    /**
+     * Gets the sequence the next record will be given.
+     * @return The next sequence.
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Flushes and closes the spill file, if one is open.
+     */
+    @Override
+    public synchronized void close() {
+        if (spillOut != null) {
+            try {
+                spillOut.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                spillOut = null;
+            }
+        }
+    }
+
+    /**
+     * Reads every record from a spill file.
+     * @param spillFile The spill file.
+     * @param handler Receives each record.
+     * @return The number of records read.
+     * @throws IOException if the file can't be read
+     */
+    public static long readSpill(Path spillFile, ChangeHandler handler) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)))) {
+            while (true) {
+                long sequence;
+                try {
+                    sequence = in.readLong();
+                } catch (EOFException e) {
+                    return count;
+                }
+                ChangeType type = TYPES[in.readByte()];
+                String holder = in.readUTF();
+                handler.onChange(sequence, type, holder, in.readDouble(), in.readDouble(), in.readDouble());
+                count++;
+            }
+        }
+    }
+
+    private long tryClaim() {
+        while (true) {
+            long current = cursor.get();
+            long wrap = current - capacity;
+            if (wrap >= gateCache) {
+                long gate = slowestSubscriber(current);
+                gateCache = gate;
+                if (wrap >= gate) {
+                    return -1;
+                }
+            }
+            if (cursor.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    private long slowestSubscriber(long current) {
+        long min = current;
+        for (Subscriber subscriber : subscribers) {
+            min = Math.min(min, subscriber.sequence.get());
+        }
+        return min;
+    }
+
+    private synchronized long spill(ChangeType type, String accountHolder, double amount, double balance, double loan) {
+        try {
+            if (spillOut == null) {
+                if (!spillStarted) {
+                    // Records already in the file are from an earlier stream; subscribers skip them
+                    long existing = Files.exists(spillFile) ? Files.size(spillFile) : 0;
+                    spillStart = existing;
+                    spillLength = existing;
+                    spillStarted = true;
+                }
+                spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            }
+            // Claimed under the lock, so records go into the file in sequence order
+            long sequence = cursor.getAndIncrement();
+            spillRecord.reset();
+            DataOutputStream record = new DataOutputStream(spillRecord);
+            record.writeLong(sequence);
+            record.writeByte(type.ordinal());
+            record.writeUTF(accountHolder);
+            record.writeDouble(amount);
+            record.writeDouble(balance);
+            record.writeDouble(loan);
+            spillRecord.writeTo(spillOut);
+            spillOut.flush();
+            spillLength += spillRecord.size(); // subscribers may now read the record
+            spilled.increment();
+            return sequence;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * An independent reader of the stream with its own cursor.
+     * <p>
+     * A subscriber must only be polled by one thread at a time.
+     */
+    public class Subscriber implements AutoCloseable {
+
+        private final AtomicLong sequence; // next sequence to read, seen by producers
+        private FileChannel spillIn;
+        private DataInputStream spillReader;
+        private long spillPosition; // file offset of the next spilled record to read
+        private long spillSequence = -1; // sequence of the spilled record read ahead, -1 if none
+        private ChangeType spillType;
+        private String spillHolder;
+        private double spillAmount;
+        private double spillBalance;
+        private double spillLoan;
+
+        private Subscriber(long start, long spillPosition) {
+            this.sequence = new AtomicLong(start);
+            this.spillPosition = spillPosition;
+        }
+
+        /**
+         * Delivers published records to a handler, oldest first.
+         * @param handler Receives each record.
+         * @param limit The most records to deliver in this call.
+         * @return The number of records delivered.
+         */
+        public int poll(ChangeHandler handler, int limit) {
+            long next = sequence.get();
+            int delivered = 0;
+            while (delivered < limit) {
+                int slot = (int) (next & mask);
+                if (published.get(slot) == next) {
+                    handler.onChange(next, types[slot], holders[slot], amounts[slot], balances[slot], loans[slot]);
+                } else if (spillFile != null && readSpilled(next)) {
+                    handler.onChange(next, spillType, spillHolder, spillAmount, spillBalance, spillLoan);
+                    spillSequence = -1;
+                } else {
+                    break;
+                }
+                next++;
+                delivered++;
+            }
+            if (delivered > 0) {
+                sequence.lazySet(next);
+            }
+            return delivered;
+        }
+
+        /**
+         * Gets the number of published records this subscriber has not yet read.
+         * @return The backlog; an estimate while producers are active.
+         */
+        public long getLag() {
+            return cursor.get() - sequence.get();
+        }
+
+        /**
+         * Stops this subscriber from holding back producers.
+         */
+        @Override
+        public void close() {
+            subscribers.remove(this);
+            if (spillIn != null) {
+                try {
+                    spillIn.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    spillIn = null;
+                }
+            }
+        }
+
+        /**
+         * Reads ahead through the spill file to the record with a sequence, if it was spilled.
+         * @param next The sequence wanted.
+         * @return True if that record was spilled and is now read ahead.
+         */
+        private boolean readSpilled(long next) {
+            try {
+                while (spillSequence < next) {
+                    long length = spillLength; // read before the start it was set after
+                    spillPosition = Math.max(spillPosition, spillStart);
+                    if (spillPosition >= length) {
+                        return false;
+                    }
+                    if (spillIn == null) {
+                        spillIn = FileChannel.open(spillFile, StandardOpenOption.READ);
+                        spillReader = new DataInputStream(Channels.newInputStream(spillIn));
+                    }
+                    spillIn.position(spillPosition);
+                    spillSequence = spillReader.readLong();
+                    spillType = TYPES[spillReader.readByte()];
+                    spillHolder = spillReader.readUTF();
+                    spillAmount = spillReader.readDouble();
+                    spillBalance = spillReader.readDouble();
+                    spillLoan = spillReader.readDouble();
+                    spillPosition = spillIn.position();
+                }
+                return spillSequence == next;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
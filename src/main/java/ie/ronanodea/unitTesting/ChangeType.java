@@ -0,0 +1,22 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * The kinds of ledger mutation published on a {@link ChangeStream}.
+ *
+ * @see ChangeStream
+ * @see AccountManager
+ */
+public enum ChangeType {
+    /** A new account was added with an initial deposit. */
+    ACCOUNT_OPENED,
+    /** Money was deposited into an account. */
+    DEPOSIT,
+    /** Money was withdrawn from an account. */
+    WITHDRAWAL,
+    /** A loan was approved for an account holder. */
+    LOAN_APPROVED,
+    /** Part of a loan was repaid. */
+    LOAN_REPAID,
+    /** An account was removed; the amount is its final balance. */
+    ACCOUNT_CLOSED
+}
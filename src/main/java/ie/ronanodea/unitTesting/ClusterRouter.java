@@ -0,0 +1,819 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The client side of a partitioned ledger: routes {@link AccountManager} operations to
+ * the {@link LedgerNode} that owns each account holder on a {@link HashRing}, so the
+ * accounts, and the work, are spread over several nodes.
+ * <p>
+ * <b>Batching:</b> the router keeps a few connections to each node. Calls from any
+ * number of threads are queued on the connection for their holder, and a sender thread
+ * writes everything queued as one frame, so concurrent callers share round trips and
+ * requests are pipelined. A {@link Batch} sends many operations from one caller the same
+ * way. The connection is chosen by holder, so operations on one holder arrive in order.
+ * <p>
+ * <b>Transfers:</b> {@link #tryTransfer(String, String, double)} moves money between
+ * holders on any nodes with two-phase commit: the source node withdraws and holds the
+ * amount while the destination checks its account, and the transfer is committed only if
+ * both succeed, otherwise the held amount is refunded. The debit is committed before the
+ * credit, so if the credit then fails the payer can still be refunded. While a transfer
+ * is in flight the held amount is in neither account, and {@link #getTotalDeposits()} is
+ * lower by it.
+ * <p>
+ * <b>Rebalancing:</b> {@link #addNode(String, int)} puts a new node on the ring and moves
+ * the holders it now owns while traffic continues. Holders are moved in chunks; only the
+ * holders in the chunk being moved are held back, and once moved they are routed to the
+ * new node. A short final pass, with all operations held back, moves any holders opened
+ * in the meantime and switches to the new ring.
+ * <p>
+ * Rebalancing assumes this router is the only one sending to the nodes. Nodes report
+ * holders they have moved out as {@link LedgerStatus#MOVED}, which this router retries
+ * against its current ring.
+ *
+ * @see LedgerNode
+ * @see HashRing
+ */
+public class ClusterRouter implements Closeable {
+
+    private static final int STRIPES = 64;
+    private static final int MAX_FRAME = 512;
+    private static final int MOVE_CHUNK = 256;
+
+    private final int connectionsPerNode;
+    private final Map<Integer, NodeLink[]> links = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+    private final Set<String> inTransit = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> moved = new ConcurrentHashMap<>(); // moved ahead of the ring
+    private final Object transitMonitor = new Object();
+    private final AtomicLong transactions = new AtomicLong(ThreadLocalRandom.current().nextLong() & 0xFFFF_FFFF_0000_0000L);
+    private volatile HashRing ring;
+    private int nextNode; // guarded by this
+
+    /**
+     * Creates a router with no nodes.
+     * @param virtualNodes Points per node on the hash ring.
+     * @param connectionsPerNode Connections opened to each node; each is served by its own thread on the node.
+     * @throws IllegalArgumentException if either count is not positive
+     */
+    public ClusterRouter(int virtualNodes, int connectionsPerNode) throws IllegalArgumentException {
+        if (connectionsPerNode <= 0) {
+            throw new IllegalArgumentException("Connections per node must be positive");
+        }
+        this.ring = new HashRing(virtualNodes);
+        this.connectionsPerNode = connectionsPerNode;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Connects to a node and adds it to the ring, moving the holders it now owns to it from
+     * the other nodes. Operations carry on meanwhile.
+     * @param host The node's host.
+     * @param port The node's port.
+     * @return The id the node was given on the ring.
+     * @throws IOException if the node can't be reached
+     * @throws UncheckedIOException if another node fails while holders are moved
+     */
+    public synchronized int addNode(String host, int port) throws IOException {
+        int node = nextNode++;
+        NodeLink[] connections = new NodeLink[connectionsPerNode];
+        for (int i = 0; i < connectionsPerNode; i++) {
+            connections[i] = new NodeLink(new Socket(host, port), node);
+        }
+        links.put(node, connections);
+        HashRing current = ring;
+        HashRing next = current.withNode(node);
+        if (current.getNodes().length > 0) {
+            for (int source : current.getNodes()) {
+                List<String> moving = listMoving(source, next, node);
+                for (int from = 0; from < moving.size(); from += MOVE_CHUNK) {
+                    moveChunk(moving.subList(from, Math.min(from + MOVE_CHUNK, moving.size())), node);
+                }
+            }
+            // Catch up with holders opened since they were listed, with everything held back
+            for (ReentrantReadWriteLock stripe : stripes) {
+                stripe.writeLock().lock();
+            }
+            try {
+                for (int source : current.getNodes()) {
+                    List<String> moving = listMoving(source, next, node);
+                    for (int from = 0; from < moving.size(); from += MOVE_CHUNK) {
+                        move(moving.subList(from, Math.min(from + MOVE_CHUNK, moving.size())), node);
+                    }
+                }
+                ring = next;
+                moved.clear();
+            } finally {
+                for (ReentrantReadWriteLock stripe : stripes) {
+                    stripe.writeLock().unlock();
+                }
+            }
+            // Every operation on a moved holder now goes to its new node
+            List<Request> forgets = new ArrayList<>();
+            for (int source : current.getNodes()) {
+                Request forget = new Request(LedgerNode.FORGET_MOVED, null, 0, 0);
+                links.get(source)[0].send(forget, true);
+                forgets.add(forget);
+            }
+            for (Request forget : forgets) {
+                forget.await();
+            }
+        } else {
+            ring = next;
+        }
+        return node;
+    }
+
+    /**
+     * Gets the ring holders are currently routed by.
+     * @return The hash ring.
+     */
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Adds a new account on the node that owns its holder.
+     * @param accountHolder The name of the new account holder.
+     * @param initDeposit The initial deposit amount.
+     * @return A status as from {@link AccountManager#tryAddAccount(String, double)}.
+     * @throws UncheckedIOException if the node can't be reached
+     */
+    public int tryAddAccount(String accountHolder, double initDeposit) {
+        return call(LedgerNode.ADD, accountHolder, initDeposit).status;
+    }
+
+    /**
+     * Deposits money into an account on the node that owns it.
+     * @param accountHolder The name of the account holder.
+     * @param amount The deposit amount.
+     * @return A status as from {@link AccountManager#tryDeposit(String, double)}.
+     * @throws UncheckedIOException if the node can't be reached
+     */
+    public int tryDeposit(String accountHolder, double amount) {
+        return call(LedgerNode.DEPOSIT, accountHolder, amount).status;
+    }
+
+    /**
+     * Withdraws money from an account on the node that owns it.
+     * @param accountHolder The name of the account holder.
+     * @param amount The withdrawal amount.
+     * @return A status as from {@link AccountManager#tryWithdraw(String, double)}.
+     * @throws UncheckedIOException if the node can't be reached
+     */
+    public int tryWithdraw(String accountHolder, double amount) {
+        return call(LedgerNode.WITHDRAW, accountHolder, amount).status;
+    }
+
+    /**
+     * Approves a loan for an account holder, against the total deposits of the node that owns it.
+     * @param accountHolder The name of the account holder.
+     * @param loanAmount The loan amount.
+     * @return A status as from {@link AccountManager#tryApproveLoan(String, double)}.
+     * @throws UncheckedIOException if the node can't be reached
+     */
+    public int tryApproveLoan(String accountHolder, double loanAmount) {
+        return call(LedgerNode.APPROVE_LOAN, accountHolder, loanAmount).status;
+    }
+
+    /**
+     * Repays a part of the loan for an account holder on the node that owns it.
+     * @param accountHolder The name of the account holder.
+     * @param amount The repayment amount.
+     * @return A status as from {@link AccountManager#tryRepayLoan(String, double)}.
+     * @throws UncheckedIOException if the node can't be reached
+     */
+    public int tryRepayLoan(String accountHolder, double amount) {
+        return call(LedgerNode.REPAY_LOAN, accountHolder, amount).status;
+    }
+
+    /**
+     * Reads the balance and loan of an account holder into a caller-owned result.
+     * @param accountHolder The name of the account holder.
+     * @param result Receives the balance and loan when the account is found.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_HOLDER} or {@link LedgerStatus#NOT_FOUND}.
+     * @throws UncheckedIOException if the node can't be reached
+     */
+    public int tryReadAccount(String accountHolder, LedgerResult result) {
+        Request request = call(LedgerNode.READ, accountHolder, 0);
+        if (request.status == LedgerStatus.OK) {
+            result.set(request.first, request.second);
+        }
+        return request.status;
+    }
+
+    /**
+     * Gets the total deposits of every node added together. Nodes are asked one after
+     * another, so the total is not a snapshot while operations are running.
+     * @return The total deposits.
+     * @throws UncheckedIOException if a node can't be reached
+     */
+    public double getTotalDeposits() {
+        double total = 0;
+        for (NodeLink[] connections : links.values()) {
+            Request request = new Request(LedgerNode.TOTAL, null, 0, 0);
+            connections[0].send(request, true);
+            total += request.await().first;
+        }
+        return total;
+    }
+
+    /**
+     * Moves money from one account to another, on any nodes, with two-phase commit.
+     * @param from The name of the account holder paying.
+     * @param to The name of the account holder paid.
+     * @param amount The amount.
+     * @return {@link LedgerStatus#OK}, {@link LedgerStatus#INVALID_HOLDER}, {@link LedgerStatus#INVALID_AMOUNT},
+     *         {@link LedgerStatus#NOT_FOUND}, {@link LedgerStatus#INSUFFICIENT_FUNDS},
+     *         {@link LedgerStatus#VELOCITY_LIMIT} if the paying node's withdrawal check refuses the debit,
+     *         {@link LedgerStatus#MOVED} if a holder was still reported moved after every retry, or
+     *         {@link LedgerStatus#EXPIRED} if a node gave up on its leg before the decision arrived.
+     *         A transfer whose credit can't be committed once the debit has been is refunded to
+     *         the payer and reports why the credit failed.
+     * @throws UncheckedIOException if a node can't be reached
+     * @throws IllegalStateException if a payer can't be refunded, because its account is gone
+     */
+    public int tryTransfer(String from, String to, double amount) {
+        if (from == null || to == null) return LedgerStatus.INVALID_HOLDER;
+        if (!(amount > 0)) return LedgerStatus.INVALID_AMOUNT;
+        // One id per leg, as both legs may be prepared on the same node
+        long creditTransaction = transactions.addAndGet(2);
+        long debitTransaction = creditTransaction - 1;
+        long fromHash = HashRing.hash(from);
+        long toHash = HashRing.hash(to);
+        ReentrantReadWriteLock.ReadLock first = stripe(Math.min(stripeOf(fromHash), stripeOf(toHash))).readLock();
+        ReentrantReadWriteLock.ReadLock second = stripe(Math.max(stripeOf(fromHash), stripeOf(toHash))).readLock();
+        while (true) {
+            first.lock();
+            second.lock();
+            if (!inTransit.contains(from) && !inTransit.contains(to)) {
+                break;
+            }
+            second.unlock();
+            first.unlock();
+            awaitTransit(inTransit.contains(from) ? from : to);
+        }
+        // Both holders stay put until the transfer is decided
+        try {
+            Request debit = new Request(LedgerNode.PREPARE_DEBIT, from, amount, debitTransaction);
+            Request credit = new Request(LedgerNode.PREPARE_CREDIT, to, amount, creditTransaction);
+            link(from, fromHash).send(debit, true);
+            link(to, toHash).send(credit, true);
+            debit.await();
+            credit.await();
+            if (debit.status == LedgerStatus.OK && credit.status == LedgerStatus.OK) {
+                // The debit first: once it is committed the payer has paid, and a credit
+                // that then fails can still be refunded with a plain deposit
+                Request debitDecision = new Request(LedgerNode.COMMIT, from, 0, debitTransaction);
+                link(from, fromHash).send(debitDecision, true);
+                if (debitDecision.await().status != LedgerStatus.OK) {
+                    Request creditDecision = new Request(LedgerNode.ABORT, to, 0, creditTransaction);
+                    link(to, toHash).send(creditDecision, true);
+                    creditDecision.await();
+                    return debitDecision.status;
+                }
+                Request creditDecision = new Request(LedgerNode.COMMIT, to, 0, creditTransaction);
+                link(to, toHash).send(creditDecision, true);
+                if (creditDecision.await().status != LedgerStatus.OK) {
+                    return refund(from, amount, creditDecision.status);
+                }
+                return LedgerStatus.OK;
+            }
+            Request debitDecision = null;
+            Request creditDecision = null;
+            if (debit.status == LedgerStatus.OK) {
+                debitDecision = new Request(LedgerNode.ABORT, from, 0, debitTransaction);
+                link(from, fromHash).send(debitDecision, true);
+            }
+            if (credit.status == LedgerStatus.OK) {
+                creditDecision = new Request(LedgerNode.ABORT, to, 0, creditTransaction);
+                link(to, toHash).send(creditDecision, true);
+            }
+            if (creditDecision != null) {
+                creditDecision.await();
+            }
+            int status = debit.status != LedgerStatus.OK ? debit.status : credit.status;
+            if (debitDecision != null && debitDecision.await().status != LedgerStatus.OK) {
+                return refund(from, amount, status);
+            }
+            return status;
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    /**
+     * Helper method to give a payer back an amount its node took for a transfer but could
+     * not return itself, such as when the payee's commit fails after the payer's.
+     * @param accountHolder The name of the account holder paying.
+     * @param amount The amount.
+     * @param status The transfer's outcome, to return once refunded.
+     * @return The status.
+     * @throws IllegalStateException if the payer can't be refunded
+     */
+    private int refund(String accountHolder, double amount, int status) throws IllegalStateException {
+        int refunded = call(LedgerNode.DEPOSIT, accountHolder, amount).status;
+        if (refunded != LedgerStatus.OK) {
+            throw new IllegalStateException("Could not refund " + amount + " to " + accountHolder + ": "
+                    + LedgerStatus.name(refunded));
+        }
+        return status;
+    }
+
+    /**
+     * Starts a batch of operations to send together.
+     * @return An empty batch.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Disconnects from every node.
+     */
+    @Override
+    public void close() {
+        for (NodeLink[] connections : links.values()) {
+            for (NodeLink link : connections) {
+                link.close();
+            }
+        }
+    }
+
+    /**
+     * Operations collected by one caller and sent together: every operation for the same
+     * connection goes out in one frame, and the batch waits for all the replies at once.
+     */
+    public final class Batch {
+        private final List<Request> requests = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        /**
+         * Adds a new account.
+         * @param accountHolder The name of the new account holder.
+         * @param initDeposit The initial deposit amount.
+         * @return This batch.
+         */
+        public Batch addAccount(String accountHolder, double initDeposit) {
+            requests.add(new Request(LedgerNode.ADD, accountHolder, initDeposit, 0));
+            return this;
+        }
+
+        /**
+         * Deposits money into an account.
+         * @param accountHolder The name of the account holder.
+         * @param amount The deposit amount.
+         * @return This batch.
+         */
+        public Batch deposit(String accountHolder, double amount) {
+            requests.add(new Request(LedgerNode.DEPOSIT, accountHolder, amount, 0));
+            return this;
+        }
+
+        /**
+         * Withdraws money from an account.
+         * @param accountHolder The name of the account holder.
+         * @param amount The withdrawal amount.
+         * @return This batch.
+         */
+        public Batch withdraw(String accountHolder, double amount) {
+            requests.add(new Request(LedgerNode.WITHDRAW, accountHolder, amount, 0));
+            return this;
+        }
+
+        /**
+         * Approves a loan for an account holder.
+         * @param accountHolder The name of the account holder.
+         * @param loanAmount The loan amount.
+         * @return This batch.
+         */
+        public Batch approveLoan(String accountHolder, double loanAmount) {
+            requests.add(new Request(LedgerNode.APPROVE_LOAN, accountHolder, loanAmount, 0));
+            return this;
+        }
+
+        /**
+         * Repays a part of the loan for an account holder.
+         * @param accountHolder The name of the account holder.
+         * @param amount The repayment amount.
+         * @return This batch.
+         */
+        public Batch repayLoan(String accountHolder, double amount) {
+            requests.add(new Request(LedgerNode.REPAY_LOAN, accountHolder, amount, 0));
+            return this;
+        }
+
+        /**
+         * Sends every operation added and waits for them all. The batch is empty afterwards.
+         * @return The status of each operation, in the order they were added.
+         * @throws UncheckedIOException if a node can't be reached
+         */
+        public int[] execute() {
+            List<NodeLink> used = new ArrayList<>();
+            int[] statuses = new int[requests.size()];
+            for (int i = 0; i < statuses.length; i++) {
+                Request request = requests.get(i);
+                if (request.holder == null) {
+                    request.status = LedgerStatus.INVALID_HOLDER;
+                    request.done = true;
+                    continue;
+                }
+                NodeLink link = submit(request, false);
+                if (!used.contains(link)) {
+                    used.add(link);
+                }
+            }
+            for (NodeLink link : used) {
+                link.wake();
+            }
+            for (int i = 0; i < statuses.length; i++) {
+                Request request = requests.get(i).await();
+                statuses[i] = request.status == LedgerStatus.MOVED
+                        ? call(request.op, request.holder, request.amount).status : request.status;
+            }
+            requests.clear();
+            return statuses;
+        }
+    }
+
+    /**
+     * Helper method to send one operation on a holder and wait for its reply, retrying
+     * against the current ring if the node says the holder has moved.
+     */
+    private Request call(byte op, String accountHolder, double amount) {
+        if (accountHolder == null) {
+            Request invalid = new Request(op, null, amount, 0);
+            invalid.status = LedgerStatus.INVALID_HOLDER;
+            return invalid;
+        }
+        Request request;
+        int attempts = 0;
+        do {
+            request = new Request(op, accountHolder, amount, 0);
+            submit(request, true);
+            request.await();
+        } while (request.status == LedgerStatus.MOVED && ++attempts < 3);
+        return request;
+    }
+
+    /**
+     * Helper method to queue a request on the connection for its holder, waiting first if
+     * the holder is being moved.
+     * @return The connection the request was queued on.
+     */
+    private NodeLink submit(Request request, boolean wake) {
+        long hash = HashRing.hash(request.holder);
+        ReentrantReadWriteLock.ReadLock lock = stripe(stripeOf(hash)).readLock();
+        while (true) {
+            lock.lock();
+            try {
+                if (!inTransit.contains(request.holder)) {
+                    NodeLink link = link(request.holder, hash);
+                    link.send(request, wake);
+                    return link;
+                }
+            } finally {
+                lock.unlock();
+            }
+            awaitTransit(request.holder);
+        }
+    }
+
+    /**
+     * Helper method to find the connection for a holder: its node on the ring, unless it
+     * has already been moved to a new node, and one of that node's connections by hash.
+     */
+    private NodeLink link(String accountHolder, long hash) {
+        Integer node = moved.isEmpty() ? null : moved.get(accountHolder);
+        return connection(node != null ? node : ring.ownerOf(hash), hash);
+    }
+
+    private NodeLink connection(int node, long hash) {
+        NodeLink[] connections = links.get(node);
+        return connections[(int) ((hash >>> 32) & Integer.MAX_VALUE) % connections.length];
+    }
+
+    private static int stripeOf(long hash) {
+        return (int) (hash & (STRIPES - 1));
+    }
+
+    private ReentrantReadWriteLock stripe(int index) {
+        return stripes[index];
+    }
+
+    private void awaitTransit(String accountHolder) {
+        synchronized (transitMonitor) {
+            while (inTransit.contains(accountHolder)) {
+                try {
+                    transitMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for " + accountHolder + " to move", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the holders on a node that belong to the new node on the next ring, a page
+     * at a time over one connection.
+     */
+    private List<String> listMoving(int source, HashRing next, int node) {
+        List<String> moving = new ArrayList<>();
+        int offset = 0;
+        int total;
+        int page;
+        do {
+            Request list = new Request(LedgerNode.LIST, null, 0, offset);
+            links.get(source)[0].send(list, true);
+            list.await();
+            for (String holder : list.names) {
+                if (next.owner(holder) == node && !moved.containsKey(holder)) {
+                    moving.add(holder);
+                }
+            }
+            page = list.names.length;
+            offset += page;
+            total = (int) list.first;
+        } while (offset < total && page > 0);
+        return moving;
+    }
+
+    /**
+     * Moves a chunk of holders while other holders carry on: marks them in transit, so
+     * new operations on them wait, moves them, and routes them to the new node.
+     */
+    private void moveChunk(List<String> holders, int node) {
+        for (String holder : holders) {
+            ReentrantReadWriteLock.WriteLock lock = stripe(stripeOf(HashRing.hash(holder))).writeLock();
+            lock.lock(); // waits for transfers on the holder to be decided
+            try {
+                inTransit.add(holder);
+            } finally {
+                lock.unlock();
+            }
+        }
+        try {
+            move(holders, node);
+        } finally {
+            synchronized (transitMonitor) {
+                inTransit.removeAll(holders);
+                transitMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Moves holders from their current node to the new one. Each move-out is queued behind
+     * any operation already sent for the holder, on the same connection.
+     */
+    private void move(List<String> holders, int node) {
+        List<Request> outs = new ArrayList<>(holders.size());
+        for (String holder : holders) {
+            long hash = HashRing.hash(holder);
+            Request out = new Request(LedgerNode.MOVE_OUT, holder, 0, 0);
+            link(holder, hash).send(out, true);
+            outs.add(out);
+        }
+        List<Request> ins = new ArrayList<>(holders.size());
+        for (Request out : outs) {
+            if (out.await().status == LedgerStatus.OK) {
+                Request in = new Request(LedgerNode.MOVE_IN, out.holder, out.first, 0);
+                in.second = out.second;
+                connection(node, HashRing.hash(out.holder)).send(in, true);
+                ins.add(in);
+            }
+        }
+        for (Request in : ins) {
+            if (in.await().status != LedgerStatus.OK) {
+                throw new IllegalStateException("Could not move " + in.holder + ": " + LedgerStatus.name(in.status));
+            }
+            moved.put(in.holder, node);
+        }
+    }
+
+    /**
+     * One request to a node and, once answered, its reply.
+     */
+    private static final class Request {
+        final byte op;
+        final String holder;
+        final double amount;
+        final long transaction; // or the offset of a listing
+        final Thread waiter = Thread.currentThread();
+        volatile boolean done;
+        int status;
+        double first;  // balance, total or listing size; balance to restore for a move-in
+        double second; // loan
+        String[] names;
+        IOException failure;
+
+        Request(byte op, String holder, double amount, long transaction) {
+            this.op = op;
+            this.holder = holder;
+            this.amount = amount;
+            this.transaction = transaction;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(op);
+            switch (op) {
+                case LedgerNode.TOTAL:
+                case LedgerNode.FORGET_MOVED:
+                    break;
+                case LedgerNode.LIST:
+                    out.writeInt((int) transaction);
+                    break;
+                case LedgerNode.READ:
+                case LedgerNode.MOVE_OUT:
+                    out.writeUTF(holder);
+                    break;
+                case LedgerNode.PREPARE_DEBIT:
+                case LedgerNode.PREPARE_CREDIT:
+                    out.writeLong(transaction);
+                    out.writeUTF(holder);
+                    out.writeDouble(amount);
+                    break;
+                case LedgerNode.COMMIT:
+                case LedgerNode.ABORT:
+                    out.writeLong(transaction);
+                    break;
+                case LedgerNode.MOVE_IN:
+                    out.writeUTF(holder);
+                    out.writeDouble(amount);
+                    out.writeDouble(second);
+                    break;
+                default:
+                    out.writeUTF(holder);
+                    out.writeDouble(amount);
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            status = in.readByte();
+            if (op == LedgerNode.LIST) {
+                first = in.readInt();
+                names = new String[in.readInt()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = in.readUTF();
+                }
+            } else {
+                first = in.readDouble();
+                second = in.readDouble();
+            }
+        }
+
+        void complete(IOException failure) {
+            this.failure = failure;
+            done = true; // publishes the reply fields to the waiter
+            LockSupport.unpark(waiter);
+        }
+
+        Request await() {
+            while (!done) {
+                LockSupport.park(this);
+            }
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * One connection to a node: a queue of requests, a thread writing them out in frames
+     * and a thread reading the replies, which come back in the same order.
+     */
+    private static final class NodeLink {
+        private final Socket socket;
+        private final ConcurrentLinkedQueue<Request> outgoing = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Request> inFlight = new ConcurrentLinkedQueue<>();
+        private final Thread sender;
+        private final Thread receiver;
+        private volatile IOException failure;
+
+        NodeLink(Socket socket, int node) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.sender = new Thread(this::sendFrames, "router-sender-" + node);
+            this.receiver = new Thread(this::receiveFrames, "router-receiver-" + node);
+            sender.setDaemon(true);
+            receiver.setDaemon(true);
+            sender.start();
+            receiver.start();
+        }
+
+        void send(Request request, boolean wake) {
+            IOException failed = failure;
+            if (failed != null) {
+                request.complete(failed);
+                return;
+            }
+            outgoing.add(request);
+            if (failure != null) {
+                failQueued(failure); // failed while this was being queued
+            } else if (wake) {
+                wake();
+            }
+        }
+
+        void wake() {
+            LockSupport.unpark(sender);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            wake();
+        }
+
+        private void sendFrames() {
+            List<Request> frame = new ArrayList<>(MAX_FRAME);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                while (!socket.isClosed()) {
+                    Request request;
+                    while (frame.size() < MAX_FRAME && (request = outgoing.poll()) != null) {
+                        frame.add(request);
+                    }
+                    if (frame.isEmpty()) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    inFlight.addAll(frame); // before writing, so the receiver finds them
+                    out.writeInt(frame.size());
+                    for (Request queued : frame) {
+                        queued.write(out);
+                    }
+                    out.flush();
+                    frame.clear();
+                }
+                fail(new IOException("Connection closed"));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void receiveFrames() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                while (true) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        Request request = inFlight.poll();
+                        request.read(in);
+                        request.complete(null);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            failure = e;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+            Request request;
+            while ((request = inFlight.poll()) != null) {
+                request.complete(e);
+            }
+            failQueued(e);
+        }
+
+        private void failQueued(IOException e) {
+            Request request;
+            while ((request = outgoing.poll()) != null) {
+                request.complete(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A point-in-time copy of every account's holder, balance and loan, held as columns
+ * rather than rows, for analysis tools that read the whole ledger at once.
+ * <p>
+ * Each column is one contiguous little-endian buffer laid out as Apache Arrow lays out
+ * its arrays, with no validity bitmaps since no value is ever missing: holders are a
+ * {@code utf8} array (rows + 1 int32 offsets into a buffer of UTF-8 bytes, so row
+ * {@code i} runs from {@code offsets[i]} to {@code offsets[i + 1]}), and balances and
+ * loans are {@code float64} arrays. The buffers are exposed as read-only views, so
+ * reading a column copies nothing, and a tool that understands Arrow can wrap them as
+ * arrays as they are. Rows are in no particular order.
+ * <p>
+ * {@link #writeTo(Path)} writes the buffers to a file, which {@link #map(Path)}, or any
+ * other process, can memory-map, and {@link #read(Path)} can copy onto the heap. A file is never rewritten in place: a new snapshot
+ * replaces it whole, so readers that mapped the old one keep reading it undisturbed.
+ * The file is a 128-byte header followed by the four
+ * buffers, each starting on a 64-byte boundary as Arrow recommends:
+ * <pre>
+ *   0  magic "LDGRCOL1"
+ *   8  int64 row count
+ *  16  int64 offset, int64 length of the holder offsets
+ *  32  int64 offset, int64 length of the holder bytes
+ *  48  int64 offset, int64 length of the balances
+ *  64  int64 offset, int64 length of the loans
+ * </pre>
+ * All values are little-endian. With numpy, for example, the balances are
+ * {@code np.frombuffer(mm, '<f8', count=rows, offset=balancesOffset)}.
+ * <p>
+ * This class is immutable and thread-safe.
+ *
+ * @see AccountManager#snapshotColumns()
+ */
+public final class ColumnarSnapshot {
+
+    private static final byte[] MAGIC = "LDGRCOL1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 128;
+    private static final int ALIGNMENT = 64;
+    private static final int COLUMNS = 4;
+    private static final int MAX_BUFFER = Integer.MAX_VALUE - 64;
+
+    private final int rowCount;
+    private final ByteBuffer holderOffsets; // int32 per row, plus one
+    private final ByteBuffer holderData;    // UTF-8 bytes of every holder, back to back
+    private final ByteBuffer balances;      // float64 per row
+    private final ByteBuffer loans;         // float64 per row
+
+    private ColumnarSnapshot(int rowCount, ByteBuffer holderOffsets, ByteBuffer holderData, ByteBuffer balances,
+            ByteBuffer loans) {
+        this.rowCount = rowCount;
+        this.holderOffsets = holderOffsets;
+        this.holderData = holderData;
+        this.balances = balances;
+        this.loans = loans;
+    }
+
+    /**
+     * Gets the number of accounts in the snapshot.
+     * @return The row count.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the account holder in a row. Decodes a new string on every call; use
+     * {@link #getHolderOffsets()} and {@link #getHolderData()} to scan without allocating.
+     * @param row The row, from 0 to {@link #getRowCount()} - 1.
+     * @return The name of the account holder.
+     * @throws IndexOutOfBoundsException if the row is out of range
+     */
+    public String getHolder(int row) throws IndexOutOfBoundsException {
+        int start = holderOffsets.getInt(checkRow(row) * Integer.BYTES);
+        int end = holderOffsets.getInt((row + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        holderData.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the balance in a row.
+     * @param row The row, from 0 to {@link #getRowCount()} - 1.
+     * @return The balance.
+     * @throws IndexOutOfBoundsException if the row is out of range
+     */
+    public double getBalance(int row) throws IndexOutOfBoundsException {
+        return balances.getDouble(checkRow(row) * Double.BYTES);
+    }
+
+    /**
+     * Gets the outstanding loan in a row.
+     * @param row The row, from 0 to {@link #getRowCount()} - 1.
+     * @return The loan.
+     * @throws IndexOutOfBoundsException if the row is out of range
+     */
+    public double getLoan(int row) throws IndexOutOfBoundsException {
+        return loans.getDouble(checkRow(row) * Double.BYTES);
+    }
+
+    /**
+     * Gets the balances column without copying it.
+     * @return A read-only view of {@link #getRowCount()} balances.
+     */
+    public DoubleBuffer getBalances() {
+        return balances.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Gets the loans column without copying it.
+     * @return A read-only view of {@link #getRowCount()} loans.
+     */
+    public DoubleBuffer getLoans() {
+        return loans.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Gets the offsets of each holder's name in {@link #getHolderData()}, without copying them.
+     * @return A read-only view of {@link #getRowCount()} + 1 offsets.
+     */
+    public IntBuffer getHolderOffsets() {
+        return holderOffsets.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Gets the UTF-8 bytes of every holder's name, back to back, without copying them.
+     * @return A read-only little-endian view of the bytes.
+     */
+    public ByteBuffer getHolderData() {
+        return holderData.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes the snapshot to a file in the layout described above, replacing any file
+     * already there. The snapshot is written to a temporary file next to it, forced to
+     * disk and then moved over it atomically, so a process that has the old file mapped
+     * goes on reading the old file, and a crash leaves either the old file or the new one.
+     * @param path The file to write.
+     * @throws IOException if the file can't be written, or the file system can't replace it atomically
+     */
+    public void writeTo(Path path) throws IOException {
+        ByteBuffer[] columns = {holderOffsets, holderData, balances, loans};
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putLong(rowCount);
+        long[] offsets = new long[COLUMNS];
+        long offset = HEADER_BYTES;
+        for (int i = 0; i < COLUMNS; i++) {
+            offsets[i] = offset;
+            header.putLong(offset).putLong(columns[i].limit());
+            offset = align(offset + columns[i].limit());
+        }
+        header.clear();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header, 0);
+                for (int i = 0; i < COLUMNS; i++) {
+                    writeFully(channel, columns[i].duplicate(), offsets[i]);
+                }
+                if (channel.size() < offset) {
+                    writeFully(channel, ByteBuffer.allocate((int) (offset - channel.size())), channel.size());
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Maps a snapshot file written by {@link #writeTo(Path)} read-only, so its columns
+     * are read straight from the page cache and nothing is copied onto the heap.
+     * @param path The file to map.
+     * @return The mapped snapshot.
+     * @throws IOException if the file can't be read or is not a columnar snapshot
+     */
+    public static ColumnarSnapshot map(Path path) throws IOException {
+        return open(path, true);
+    }
+
+    /**
+     * Reads a snapshot file written by {@link #writeTo(Path)} into heap buffers and closes
+     * it, so nothing stays mapped. Windows refuses to replace a file that is still mapped,
+     * so a caller that writes a new snapshot over the one it read should read it this way.
+     * @param path The file to read.
+     * @return The snapshot, copied onto the heap.
+     * @throws IOException if the file can't be read or is not a columnar snapshot
+     */
+    public static ColumnarSnapshot read(Path path) throws IOException {
+        return open(path, false);
+    }
+
+    /**
+     * Helper method to open a snapshot file, either mapping its columns or copying them.
+     */
+    private static ColumnarSnapshot open(Path path, boolean mapped) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a columnar snapshot: " + path);
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_BYTES, path);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a columnar snapshot: " + path);
+            }
+            long rows = header.getLong();
+            ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+            for (int i = 0; i < COLUMNS; i++) {
+                long offset = header.getLong();
+                long length = header.getLong();
+                if (offset < HEADER_BYTES || length < 0 || length > MAX_BUFFER || offset + length > size) {
+                    throw new IOException("Corrupt columnar snapshot: " + path);
+                }
+                columns[i] = mapped ? channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN)
+                        : readFully(channel, offset, (int) length, path);
+            }
+            if (rows < 0 || rows > Integer.MAX_VALUE - 1 || columns[0].limit() != (rows + 1) * Integer.BYTES
+                    || columns[2].limit() != rows * Double.BYTES || columns[3].limit() != rows * Double.BYTES) {
+                throw new IOException("Corrupt columnar snapshot: " + path);
+            }
+            return new ColumnarSnapshot((int) rows, columns[0], columns[1], columns[2], columns[3]);
+        }
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+        return row;
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length, Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Truncated columnar snapshot: " + path);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Collects a snapshot's rows while {@link AccountManager} takes it. The scanning thread
+     * appends each account's row with {@link #add(String, double, double)}, and writers
+     * that change an account the scan hasn't reached yet hand over its old values with
+     * {@link #preserve(String, double, double)} from any thread; those rows are appended
+     * when the snapshot is built.
+     */
+    static final class Builder {
+        final int epoch; // Marks accounts that already have a row, or must not get one
+        private final Queue<PreservedRow> preserved = new ConcurrentLinkedQueue<>();
+        private ByteBuffer holderOffsets;
+        private ByteBuffer holderData;
+        private ByteBuffer balances;
+        private ByteBuffer loans;
+        private int rowCount;
+        private byte[] scratch = new byte[64]; // Holder name being encoded
+
+        /**
+         * @param epoch The snapshot's epoch, never 0.
+         * @param expectedRows The expected row count, used to size the buffers.
+         */
+        Builder(int epoch, long expectedRows) {
+            this.epoch = epoch;
+            int rows = (int) Math.min(Math.max(expectedRows, 16), MAX_BUFFER / Double.BYTES - 1);
+            holderOffsets = ByteBuffer.allocateDirect((rows + 1) * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            holderData = ByteBuffer.allocateDirect((int) Math.min((long) rows * 16, MAX_BUFFER)).order(ByteOrder.LITTLE_ENDIAN);
+            balances = ByteBuffer.allocateDirect(rows * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            loans = ByteBuffer.allocateDirect(rows * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            holderOffsets.putInt(0);
+        }
+
+        /**
+         * Appends a row. Only the scanning thread may call this.
+         */
+        void add(String accountHolder, double balance, double loan) {
+            if (!balances.hasRemaining()) {
+                holderOffsets = grow(holderOffsets, Integer.BYTES);
+                balances = grow(balances, Double.BYTES);
+                loans = grow(loans, Double.BYTES);
+            }
+            int length = accountHolder.length();
+            if (holderData.remaining() < length * 3) { // the most UTF-8 bytes per char
+                holderData = grow(holderData, length * 3);
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            int i = 0;
+            for (char c; i < length && (c = accountHolder.charAt(i)) < 0x80; i++) {
+                scratch[i] = (byte) c;
+            }
+            if (i == length) {
+                holderData.put(scratch, 0, length); // ASCII, the usual case: no allocation
+            } else {
+                holderData.put(accountHolder.getBytes(StandardCharsets.UTF_8));
+            }
+            holderOffsets.putInt(holderData.position());
+            balances.putDouble(balance);
+            loans.putDouble(loan);
+            rowCount++;
+        }
+
+        /**
+         * Hands over an account's values from before a change the snapshot must not see.
+         * May be called from any thread, holding the account's lock.
+         */
+        void preserve(String accountHolder, double balance, double loan) {
+            preserved.add(new PreservedRow(accountHolder, balance, loan));
+        }
+
+        /**
+         * Appends the preserved rows and finishes the snapshot. Only the scanning thread
+         * may call this, once no writer can still be preserving rows.
+         */
+        ColumnarSnapshot build() {
+            for (PreservedRow row : preserved) {
+                add(row.accountHolder, row.balance, row.loan);
+            }
+            return new ColumnarSnapshot(rowCount, finish(holderOffsets), finish(holderData), finish(balances), finish(loans));
+        }
+
+        private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+            long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + needed);
+            if (capacity > MAX_BUFFER) {
+                if ((long) buffer.position() + needed > MAX_BUFFER) {
+                    throw new IllegalStateException("Ledger too large for a columnar snapshot");
+                }
+                capacity = MAX_BUFFER;
+            }
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            grown.put(buffer);
+            return grown;
+        }
+
+        private static ByteBuffer finish(ByteBuffer buffer) {
+            buffer.flip();
+            return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * An account's values from before a change made during a snapshot.
+     */
+    private static final class PreservedRow {
+        final String accountHolder;
+        final double balance;
+        final double loan;
+
+        PreservedRow(String accountHolder, double balance, double loan) {
+            this.accountHolder = accountHolder;
+            this.balance = balance;
+            this.loan = loan;
+        }
+    }
+}
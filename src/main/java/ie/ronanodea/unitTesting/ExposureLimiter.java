@@ -0,0 +1,242 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforces lending caps at three levels: per account, per segment and globally.
+ * <p>
+ * A loan is only approved if it fits under every cap that applies to the account
+ * holder. Reservations are made level by level and rolled back if a later level
+ * refuses, so a refused loan never leaves exposure behind.
+ * <p>
+ * The global and segment caps are shared by every approval, so they are backed by
+ * {@link StripedBudget} counters: each core mostly works against its own stripe and
+ * only touches shared memory to refill. The slack is the largest allowance a stripe
+ * holds on to; it bounds how much budget can sit idle in other stripes, and it never
+ * lets total exposure pass a cap. Per-account caps are only contended by loans for
+ * the same holder, so a single atomic counter per holder is enough.
+ * <p>
+ * A holder can only change segment while they owe nothing, so every reservation is
+ * released against the segment it was made in. Exposure within a millionth of zero,
+ * such as the rounding left by repaying several loans in other amounts, counts as
+ * nothing owed. While the segment changes, the holder's
+ * counter is briefly marked as moving, and loans and repayments for that holder wait.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see AccountManager
+ */
+public class ExposureLimiter {
+
+    private static final long MOVING = Double.doubleToRawLongBits(Double.NaN); // a holder changing segment
+    private static final long ZERO = Double.doubleToRawLongBits(0.0);
+    private static final double ZERO_TOLERANCE = 1e-6; // rounding drift left by repayments
+
+    private final double perAccountCap;
+    private final double slack;
+    private final int stripeCount;
+    private final StripedBudget global;
+    private final Map<String, AtomicLong> accountExposure = new ConcurrentHashMap<>();
+    private final Map<String, StripedBudget> segmentBudgets = new ConcurrentHashMap<>();
+    private final Map<String, String> segmentOf = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a limiter with a stripe per available processor.
+     * @param globalCap The most that may be lent out in total.
+     * @param perAccountCap The most that may be lent to any single account holder.
+     * @param slack The largest allowance a single stripe may hold.
+     * @throws IllegalArgumentException if a cap is negative or the slack is negative
+     */
+    public ExposureLimiter(double globalCap, double perAccountCap, double slack) throws IllegalArgumentException {
+        this(globalCap, perAccountCap, slack, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a limiter with a chosen number of stripes.
+     * @param globalCap The most that may be lent out in total.
+     * @param perAccountCap The most that may be lent to any single account holder.
+     * @param slack The largest allowance a single stripe may hold.
+     * @param stripeCount The number of stripes for shared caps.
+     * @throws IllegalArgumentException if a cap or the slack is negative, or the stripe count is not positive
+     */
+    public ExposureLimiter(double globalCap, double perAccountCap, double slack, int stripeCount) throws IllegalArgumentException {
+        if (globalCap < 0 || perAccountCap < 0) {
+            throw new IllegalArgumentException("Exposure caps cannot be negative");
+        }
+        if (slack < 0) {
+            throw new IllegalArgumentException("Slack cannot be negative");
+        }
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        this.perAccountCap = perAccountCap;
+        this.slack = slack;
+        this.stripeCount = stripeCount;
+        this.global = new StripedBudget(globalCap, slack, stripeCount);
+    }
+
+    /**
+     * Sets the cap for a segment. Should be called before loans are made against it.
+     * @param segment The segment name.
+     * @param cap The most that may be lent to holders in the segment.
+     * @throws IllegalArgumentException if the cap is negative
+     */
+    public void setSegmentCap(String segment, double cap) throws IllegalArgumentException {
+        if (cap < 0) {
+            throw new IllegalArgumentException("Exposure caps cannot be negative");
+        }
+        segmentBudgets.put(segment, new StripedBudget(cap, slack, stripeCount));
+    }
+
+    /**
+     * Places an account holder in a segment.
+     * @param accountHolder The name of the account holder.
+     * @param segment The segment name.
+     * @throws IllegalArgumentException if the holder has outstanding exposure in another segment
+     */
+    public void assignSegment(String accountHolder, String segment) throws IllegalArgumentException {
+        AtomicLong account = accountExposure.computeIfAbsent(accountHolder, k -> new AtomicLong());
+        while (true) {
+            long bits = account.get();
+            if (bits == MOVING) {
+                Thread.onSpinWait(); // another assignment for the same holder
+            } else if (Math.abs(Double.longBitsToDouble(bits)) > ZERO_TOLERANCE) {
+                if (segment.equals(segmentOf.get(accountHolder))) {
+                    return;
+                }
+                throw new IllegalArgumentException("Account holder has outstanding exposure and can't change segment");
+            } else if (account.compareAndSet(bits, MOVING)) {
+                break;
+            }
+        }
+        try {
+            segmentOf.put(accountHolder, segment);
+        } finally {
+            account.set(ZERO); // drops any rounding drift
+        }
+    }
+
+    /**
+     * Reserves exposure for a new loan against every cap that applies.
+     * @param accountHolder The name of the account holder.
+     * @param amount The loan amount.
+     * @return True if the loan fits under every cap, otherwise false.
+     * @throws IllegalArgumentException if amount is negative
+     */
+    public boolean tryReserve(String accountHolder, double amount) throws IllegalArgumentException {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Loan amount cannot be negative");
+        }
+        AtomicLong account = accountExposure.computeIfAbsent(accountHolder, k -> new AtomicLong());
+        if (!reserveAccount(account, amount)) {
+            return false;
+        }
+        StripedBudget segment = segmentBudget(accountHolder);
+        if (segment != null && !segment.tryReserve(amount)) {
+            addUnlessMoving(account, -amount);
+            return false;
+        }
+        if (!global.tryReserve(amount)) {
+            if (segment != null) {
+                segment.release(amount);
+            }
+            addUnlessMoving(account, -amount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases exposure when a loan is repaid.
+     * @param accountHolder The name of the account holder.
+     * @param amount The repayment amount.
+     * @throws IllegalArgumentException if amount is negative
+     */
+    public void release(String accountHolder, double amount) throws IllegalArgumentException {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Repayment amount cannot be negative");
+        }
+        // The segment is read first: once the holder's exposure is back to 0 they may move
+        StripedBudget segment = segmentBudget(accountHolder);
+        AtomicLong account = accountExposure.get(accountHolder);
+        if (account != null) {
+            while (!addUnlessMoving(account, -amount)) {
+                Thread.onSpinWait();
+                segment = segmentBudget(accountHolder);
+            }
+        }
+        if (segment != null) {
+            segment.release(amount);
+        }
+        global.release(amount);
+    }
+
+    /**
+     * Gets the exposure currently held by an account holder.
+     * @param accountHolder The name of the account holder.
+     * @return The exposure, 0 if nothing has been lent.
+     */
+    public double getExposure(String accountHolder) {
+        AtomicLong account = accountExposure.get(accountHolder);
+        long bits = account != null ? account.get() : MOVING;
+        return bits != MOVING ? Double.longBitsToDouble(bits) : 0;
+    }
+
+    /**
+     * Gets the exposure currently held by a segment.
+     * @param segment The segment name.
+     * @return The exposure, 0 if the segment has no cap.
+     */
+    public double getSegmentExposure(String segment) {
+        StripedBudget budget = segmentBudgets.get(segment);
+        return budget != null ? budget.reserved() : 0;
+    }
+
+    /**
+     * Gets the total exposure across all account holders.
+     * @return The global exposure.
+     */
+    public double getGlobalExposure() {
+        return global.reserved();
+    }
+
+    private StripedBudget segmentBudget(String accountHolder) {
+        String segment = segmentOf.get(accountHolder);
+        return segment != null ? segmentBudgets.get(segment) : null;
+    }
+
+    private boolean reserveAccount(AtomicLong account, double amount) {
+        while (true) {
+            long bits = account.get();
+            if (bits == MOVING) {
+                Thread.onSpinWait();
+                continue;
+            }
+            double next = Double.longBitsToDouble(bits) + amount;
+            if (next > perAccountCap) {
+                return false;
+            }
+            if (account.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds to a holder's exposure unless the holder is changing segment.
+     * @return True if added, false if the holder is moving.
+     */
+    private static boolean addUnlessMoving(AtomicLong account, double delta) {
+        while (true) {
+            long bits = account.get();
+            if (bits == MOVING) {
+                return false;
+            }
+            if (account.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + delta))) {
+                return true;
+            }
+        }
+    }
+}
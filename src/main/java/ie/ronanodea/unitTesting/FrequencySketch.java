@@ -0,0 +1,92 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * A count-min sketch of how often keys have been seen recently, used by
+ * {@link BalanceCache} to decide whether a new entry is worth admitting.
+ * <p>
+ * Four rows of small saturating counters are indexed by independent hashes of the key;
+ * the estimate is the smallest of the four. Once the number of recorded accesses
+ * reaches ten times the table width, every counter is halved so that old popularity
+ * fades (the "aging" step of TinyLFU).
+ * <p>
+ * Not thread-safe; the cache only touches it while holding its policy lock.
+ */
+final class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97CB3127, 0x84222325, 0xCBF29CE4, 0x1B873593};
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Creates a sketch sized for the given number of entries.
+     * @param expectedEntries The number of entries the cache holds.
+     */
+    FrequencySketch(long expectedEntries) {
+        int width = 256; // small tables saturate and every key looks popular
+        while (width < expectedEntries && width < (1 << 26)) {
+            width <<= 1;
+        }
+        this.table = new byte[ROWS][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    /**
+     * Records an access to a key.
+     * @param key The key.
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < ROWS; row++) {
+            int index = indexOf(hash, row);
+            if (table[row][index] < MAX_COUNT) {
+                table[row][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * Estimates how often a key has been seen recently.
+     * @param key The key.
+     * @return The estimated frequency, between 0 and 15.
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, table[row][indexOf(hash, row)]);
+        }
+        return min;
+    }
+
+    private void age() {
+        for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xED5AD4BB;
+        hash ^= hash >>> 11;
+        return hash;
+    }
+}
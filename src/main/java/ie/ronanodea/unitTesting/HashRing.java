@@ -0,0 +1,158 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Arrays;
+
+/**
+ * An immutable consistent-hash ring mapping account holders to node ids.
+ * <p>
+ * Each node is placed on the ring at a number of pseudo-random points (virtual nodes),
+ * and a holder belongs to the node at the first point at or after the holder's hash.
+ * Adding a node therefore only takes holders from the points just before its own, about
+ * 1/N of them spread evenly over the existing nodes, and every other holder stays put.
+ * Points are kept in sorted primitive arrays, so a lookup is a hash and a binary search
+ * with no allocation.
+ *
+ * @see ClusterRouter
+ */
+public final class HashRing {
+
+    private final int virtualNodes;
+    private final long[] points;
+    private final int[] owners;
+    private final int[] nodes;
+
+    /**
+     * Creates an empty ring.
+     * @param virtualNodes Number of points per node; more spread holders more evenly.
+     * @throws IllegalArgumentException if virtualNodes is not positive
+     */
+    public HashRing(int virtualNodes) throws IllegalArgumentException {
+        this(virtualNodes, new long[0], new int[0], new int[0]);
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be positive");
+        }
+    }
+
+    private HashRing(int virtualNodes, long[] points, int[] owners, int[] nodes) {
+        this.virtualNodes = virtualNodes;
+        this.points = points;
+        this.owners = owners;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Returns a ring with one more node on it.
+     * @param node The new node's id.
+     * @return The new ring; this ring is unchanged.
+     * @throws IllegalArgumentException if the node is already on the ring
+     */
+    public HashRing withNode(int node) throws IllegalArgumentException {
+        if (contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is already on the ring");
+        }
+        int size = points.length + virtualNodes;
+        long[] newPoints = Arrays.copyOf(points, size);
+        int[] newOwners = Arrays.copyOf(owners, size);
+        for (int v = 0; v < virtualNodes; v++) {
+            newPoints[points.length + v] = mix(((long) node << 32) | v);
+            newOwners[points.length + v] = node;
+        }
+        sort(newPoints, newOwners);
+        int[] newNodes = Arrays.copyOf(nodes, nodes.length + 1);
+        newNodes[nodes.length] = node;
+        return new HashRing(virtualNodes, newPoints, newOwners, newNodes);
+    }
+
+    /**
+     * Finds the node an account holder belongs to.
+     * @param accountHolder The name of the account holder.
+     * @return The owning node's id.
+     * @throws IllegalStateException if the ring has no nodes
+     */
+    public int owner(String accountHolder) throws IllegalStateException {
+        return ownerOf(hash(accountHolder));
+    }
+
+    /**
+     * Finds the node a position on the ring belongs to.
+     * @param hash A holder's hash, from {@link #hash(String)}.
+     * @return The owning node's id.
+     * @throws IllegalStateException if the ring has no nodes
+     */
+    int ownerOf(long hash) throws IllegalStateException {
+        if (points.length == 0) {
+            throw new IllegalStateException("The ring has no nodes");
+        }
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0; // wrap around
+            }
+        }
+        return owners[index];
+    }
+
+    /**
+     * Checks whether a node is on the ring.
+     * @param node The node's id.
+     * @return True if the node is on the ring.
+     */
+    public boolean contains(int node) {
+        for (int n : nodes) {
+            if (n == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the ids of the nodes on the ring, in the order they were added.
+     * @return A copy of the node ids.
+     */
+    public int[] getNodes() {
+        return nodes.clone();
+    }
+
+    /**
+     * Hashes an account holder's name onto the ring.
+     * @param accountHolder The name of the account holder.
+     * @return The position on the ring.
+     */
+    static long hash(String accountHolder) {
+        long h = 0xcbf29ce484222325L; // FNV-1a over the characters, then mixed
+        for (int i = 0; i < accountHolder.length(); i++) {
+            h = (h ^ accountHolder.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * The SplitMix64 finalizer, spreading nearby inputs over the whole ring.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Sorts points, carrying their owners along (insertion sort: rings are small and
+     * rebuilt only when a node joins).
+     */
+    private static void sort(long[] points, int[] owners) {
+        for (int i = 1; i < points.length; i++) {
+            long point = points[i];
+            int owner = owners[i];
+            int j = i - 1;
+            while (j >= 0 && points[j] > point) {
+                points[j + 1] = points[j];
+                owners[j + 1] = owners[j];
+                j--;
+            }
+            points[j + 1] = point;
+            owners[j + 1] = owner;
+        }
+    }
+}
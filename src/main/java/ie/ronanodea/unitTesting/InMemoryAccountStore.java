@@ -0,0 +1,41 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The default {@link AccountStore}: every account is kept on the heap in a concurrent map
+ * keyed by account holder.
+ *
+ * @see AccountManager
+ */
+public class InMemoryAccountStore implements AccountStore {
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    @Override
+    public Account get(String accountHolder) {
+        return accounts.get(accountHolder);
+    }
+
+    @Override
+    public boolean putIfAbsent(Account account) {
+        return accounts.putIfAbsent(account.getAccountHolder(), account) == null;
+    }
+
+    @Override
+    public boolean remove(String accountHolder) {
+        return accounts.remove(accountHolder) != null;
+    }
+
+    @Override
+    public void forEach(Consumer<Account> action) {
+        accounts.values().forEach(action);
+    }
+
+    @Override
+    public long size() {
+        return accounts.size();
+    }
+}
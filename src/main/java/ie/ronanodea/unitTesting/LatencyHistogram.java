@@ -0,0 +1,103 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * A fixed-size histogram of latencies in nanoseconds, for reporting percentiles without
+ * keeping every sample.
+ * <p>
+ * Buckets are log-linear: each power of two is split into 16 equal sub-buckets, so any
+ * reported value is within about 6% of the true one. Values up to 2^40 ns (about 18
+ * minutes) are tracked; larger ones are clamped. Not thread-safe; use one per thread and
+ * {@link #add(LatencyHistogram)} them together.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+
+    private final long[] counts = new long[(MAX_EXPONENT + 1) * SUB_BUCKETS];
+    private long total;
+    private long max;
+
+    /**
+     * Records a latency.
+     * @param nanos The latency in nanoseconds (negative values count as 0).
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds every sample of another histogram to this one.
+     * @param other The other histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Gets the number of samples recorded.
+     * @return The sample count.
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * Gets the largest latency recorded.
+     * @return The maximum in nanoseconds.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the latency at a percentile.
+     * @param percentile Percentile between 0 and 100.
+     * @return The upper bound of the bucket holding that percentile, in nanoseconds.
+     */
+    public long getPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+        if (exponent > MAX_EXPONENT) {
+            return (MAX_EXPONENT + 1) * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long base = 1L << exponent;
+        long width = 1L << (exponent - SUB_BITS);
+        return base + (sub + 1) * width - 1;
+    }
+}
@@ -0,0 +1,613 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * A persistent, append-only history of ledger mutations, kept in a directory of segment
+ * files and compacted in the background so recovery stays fast.
+ * <p>
+ * The journal is a {@link ChangeHandler}: feed it from a {@link ChangeStream} subscriber
+ * (with {@link ChangeStream.Backpressure#BLOCK}, so nothing is dropped). Each mutation is
+ * appended to the active segment as its type, holder and amount; once a segment reaches
+ * its size limit it is sealed and a new one started. Amounts are recorded rather than
+ * resulting balances, because deposits to split hot accounts don't know their balance,
+ * and because deltas of the same account add up to the same result in any order.
+ * <p>
+ * Compaction folds the latest state file and every sealed segment into a new state file
+ * holding one balance and loan per account. It reads and writes at a throttled rate, so
+ * live appends keep their share of the disk, and runs alongside them: only sealed segments
+ * are read. The new state file is written under a temporary name, forced to disk and then
+ * renamed into place in one atomic step; only then are the segments it replaces deleted.
+ * Recovery loads the newest state file and replays just the segments written after it,
+ * ignoring any older files a crash left behind.
+ * <p>
+ * File names carry a segment number: {@code state-N.dat} holds everything in segments
+ * numbered below N, and {@code journal-N.log} is segment N.
+ *
+ * @see ChangeStream
+ * @see AccountManager
+ */
+public class LedgerJournal implements ChangeHandler, Closeable {
+
+    private static final int STATE_MAGIC = 0x4C445354; // "LDST"
+    private static final ChangeType[] TYPES = ChangeType.values();
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long compactionBytesPerSecond;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final List<Long> sealed = new ArrayList<>(); // guarded by appendLock
+    private long activeNumber;                           // guarded by appendLock
+    private FileChannel activeChannel;                   // guarded by appendLock
+    private DataOutputStream active;                     // guarded by appendLock
+    private volatile long stateNumber;                   // newest state file, or 0 if none
+    private volatile long compactions;
+    private volatile long compactedBytes;
+    private volatile long compactionFailures;
+    private volatile Exception lastCompactionFailure;
+    private Thread compactor;
+    private volatile boolean closed;
+
+    private LedgerJournal(Path directory, long segmentBytes, long compactionBytesPerSecond) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.compactionBytesPerSecond = compactionBytesPerSecond;
+    }
+
+    /**
+     * Opens a journal directory, creating it if needed. Existing segments are kept as
+     * sealed segments, and appends go to a new segment after them. Files left behind by a
+     * compaction that crashed before cleaning up are deleted.
+     * @param directory The journal directory.
+     * @param segmentBytes Size at which the active segment is sealed and a new one started.
+     * @param compactionBytesPerSecond Most bytes compaction may read plus write per second.
+     * @return The journal.
+     * @throws IllegalArgumentException if a size or rate is not positive
+     * @throws IOException if the directory can't be read or the new segment created
+     */
+    public static LedgerJournal open(Path directory, long segmentBytes, long compactionBytesPerSecond) throws IllegalArgumentException, IOException {
+        if (segmentBytes <= 0 || compactionBytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Segment size and compaction rate must be positive");
+        }
+        Files.createDirectories(directory);
+        LedgerJournal journal = new LedgerJournal(directory, segmentBytes, compactionBytesPerSecond);
+        journal.stateNumber = newestState(directory);
+        journal.deleteReplaced();
+        long last = journal.stateNumber - 1;
+        for (long number : segments(directory, journal.stateNumber)) {
+            journal.sealed.add(number);
+            last = number;
+        }
+        journal.startSegment(Math.max(last + 1, 1));
+        return journal;
+    }
+
+    /**
+     * Appends a mutation to the active segment. Called by a {@link ChangeStream} subscriber.
+     * @throws UncheckedIOException if the segment can't be written
+     */
+    @Override
+    public void onChange(long sequence, ChangeType type, String accountHolder, double amount, double balance, double loan) {
+        appendLock.lock();
+        try {
+            active.writeByte(type.ordinal());
+            active.writeUTF(accountHolder);
+            active.writeDouble(amount);
+            if (active.size() >= segmentBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Forces every appended mutation to disk.
+     * @throws IOException if the segment can't be written
+     */
+    public void sync() throws IOException {
+        appendLock.lock();
+        try {
+            active.flush();
+            activeChannel.force(false);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Seals the active segment, making it eligible for compaction, and starts a new one.
+     * @throws IOException if the segment can't be written or the new one created
+     */
+    public void roll() throws IOException {
+        appendLock.lock();
+        try {
+            active.close();
+            sealed.add(activeNumber);
+            startSegment(activeNumber + 1);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the latest state file and every sealed segment into a new state file, then
+     * deletes the files it replaces. Appends carry on meanwhile. Does nothing if no
+     * segment is sealed.
+     * @return True if a compaction ran.
+     * @throws IOException if a file can't be read or written
+     */
+    public boolean compact() throws IOException {
+        compactionLock.lock();
+        try {
+            List<Long> inputs;
+            appendLock.lock();
+            try {
+                inputs = new ArrayList<>(sealed);
+            } finally {
+                appendLock.unlock();
+            }
+            if (inputs.isEmpty()) {
+                return false;
+            }
+            long next = inputs.get(inputs.size() - 1) + 1;
+            Throttle throttle = new Throttle(compactionBytesPerSecond);
+            Map<String, double[]> state = new HashMap<>();
+            long previousState = stateNumber;
+            if (previousState > 0) {
+                readState(stateFile(previousState), state, throttle);
+            }
+            for (long number : inputs) {
+                replay(segmentFile(number), state, throttle);
+            }
+
+            Path temporary = directory.resolve("state-" + next + ".tmp");
+            writeState(temporary, state, throttle);
+            Files.move(temporary, stateFile(next), StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(); // the rename must be durable before the files it replaces go
+            stateNumber = next;
+
+            appendLock.lock();
+            try {
+                sealed.removeAll(inputs);
+            } finally {
+                appendLock.unlock();
+            }
+            for (long number : inputs) {
+                Files.deleteIfExists(segmentFile(number));
+            }
+            if (previousState > 0) {
+                Files.deleteIfExists(stateFile(previousState));
+            }
+            compactions++;
+            compactedBytes += throttle.total;
+            return true;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a background thread that compacts whenever enough segments are sealed. A
+     * compaction that fails is counted and kept for {@link #getLastCompactionFailure()},
+     * and tried again after a wait that doubles with each failure in a row, up to 64
+     * polls.
+     * @param minSealedSegments Number of sealed segments that triggers a compaction.
+     * @param pollMillis How often to check.
+     */
+    public synchronized void startCompactor(int minSealedSegments, long pollMillis) {
+        if (compactor != null) {
+            return;
+        }
+        compactor = new Thread(() -> {
+            // Parked rather than sleeping, so close() can wake it without an interrupt,
+            // which would close the file channels of a compaction in progress
+            long backoff = 1;
+            while (!closed) {
+                try {
+                    if (getSealedCount() >= minSealedSegments) {
+                        compact();
+                    }
+                    backoff = 1;
+                } catch (IOException | RuntimeException e) {
+                    if (closed) {
+                        return;
+                    }
+                    lastCompactionFailure = e;
+                    compactionFailures++;
+                    backoff = Math.min(backoff * 2, 64);
+                }
+                LockSupport.parkNanos(backoff * pollMillis * 1_000_000);
+            }
+        }, "ledger-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Gets the number of sealed segments waiting for compaction.
+     * @return The sealed segment count.
+     */
+    public int getSealedCount() {
+        appendLock.lock();
+        try {
+            return sealed.size();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of compactions completed.
+     * @return The compaction count.
+     */
+    public long getCompactionCount() {
+        return compactions;
+    }
+
+    /**
+     * Gets the number of background compactions that failed. Sealed segments pile up
+     * while compactions keep failing.
+     * @return The failure count.
+     */
+    public long getCompactionFailureCount() {
+        return compactionFailures;
+    }
+
+    /**
+     * Gets the error that made the most recent background compaction fail.
+     * @return The error, or null if none has failed.
+     */
+    public Exception getLastCompactionFailure() {
+        return lastCompactionFailure;
+    }
+
+    /**
+     * Gets the total bytes read and written by compactions.
+     * @return The byte count.
+     */
+    public long getCompactedBytes() {
+        return compactedBytes;
+    }
+
+    /**
+     * Stops the background compactor, waiting for a compaction in progress, and closes the
+     * active segment. The journal must not be used afterwards.
+     * @throws IOException if the segment can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Thread running;
+        synchronized (this) {
+            running = compactor;
+        }
+        if (running != null) {
+            LockSupport.unpark(running);
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        appendLock.lock();
+        try {
+            active.close();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds every account from a journal directory into a store: the newest state
+     * file, then each segment written after it. A partly written record at the end of a
+     * segment, left by a crash, is ignored. Accounts are added with
+     * {@link AccountStore#putIfAbsent(Account)}, so the store should be empty; create the
+     * {@link AccountManager} over it afterwards.
+     * @param directory The journal directory.
+     * @param store The store to fill.
+     * @return The number of accounts recovered.
+     * @throws IOException if a file can't be read
+     */
+    public static long recover(Path directory, AccountStore store) throws IOException {
+        Map<String, double[]> state = new HashMap<>();
+        if (Files.isDirectory(directory)) {
+            long stateNumber = newestState(directory);
+            Throttle unlimited = new Throttle(Long.MAX_VALUE);
+            if (stateNumber > 0) {
+                readState(directory.resolve("state-" + stateNumber + ".dat"), state, unlimited);
+            }
+            for (long number : segments(directory, stateNumber)) {
+                replay(directory.resolve("journal-" + number + ".log"), state, unlimited);
+            }
+        }
+        for (Map.Entry<String, double[]> entry : state.entrySet()) {
+            double[] values = entry.getValue();
+            store.putIfAbsent(new Account(entry.getKey(), values[0], values[1]));
+        }
+        return state.size();
+    }
+
+    /**
+     * Deletes state files older than the newest, segments it already holds, and any
+     * unfinished state file.
+     */
+    private void deleteReplaced() throws IOException {
+        List<Path> replaced = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long state = number(file, "state-", ".dat");
+                long segment = number(file, "journal-", ".log");
+                if ((state > 0 && state < stateNumber) || (segment > 0 && segment < stateNumber)
+                        || number(file, "state-", ".tmp") > 0) {
+                    replaced.add(file);
+                }
+            }
+        }
+        for (Path file : replaced) {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Flushes the directory's entries to disk, so a renamed file survives a crash.
+     * Platforms that can't open a directory, such as Windows, keep their file system
+     * metadata durable themselves, and are skipped.
+     * @throws IOException if the directory can't be flushed
+     */
+    private void syncDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (FileChannel opened = channel) {
+            opened.force(true);
+        }
+    }
+
+    private void startSegment(long number) throws IOException {
+        activeNumber = number;
+        activeChannel = FileChannel.open(segmentFile(number), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        active = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(activeChannel), BUFFER_BYTES));
+    }
+
+    private Path segmentFile(long number) {
+        return directory.resolve("journal-" + number + ".log");
+    }
+
+    private Path stateFile(long number) {
+        return directory.resolve("state-" + number + ".dat");
+    }
+
+    /**
+     * Applies every record of a segment to a state map of balance and loan per account.
+     * @throws IOException if the segment can't be read, or holds a record with an unknown type
+     */
+    private static void replay(Path segment, Map<String, double[]> state, Throttle throttle) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new ThrottledInputStream(Files.newInputStream(segment), throttle), BUFFER_BYTES))) {
+            for (long record = 0; ; record++) {
+                int ordinal;
+                String holder;
+                double amount;
+                try {
+                    ordinal = in.readByte();
+                    holder = in.readUTF();
+                    amount = in.readDouble();
+                } catch (EOFException e) {
+                    return; // end of segment, or a record cut short by a crash
+                }
+                if (ordinal < 0 || ordinal >= TYPES.length) {
+                    throw new IOException("Corrupt record " + record + " in " + segment + ": unknown change type " + ordinal);
+                }
+                ChangeType type = TYPES[ordinal];
+                if (type == ChangeType.ACCOUNT_CLOSED) {
+                    state.remove(holder);
+                    continue;
+                }
+                double[] values = state.computeIfAbsent(holder, h -> new double[2]);
+                switch (type) {
+                    case ACCOUNT_OPENED:
+                    case DEPOSIT:
+                        values[0] += amount;
+                        break;
+                    case WITHDRAWAL:
+                        values[0] -= amount;
+                        break;
+                    case LOAN_APPROVED:
+                        values[1] += amount;
+                        break;
+                    case LOAN_REPAID:
+                        values[1] -= amount;
+                        break;
+                    default:
+                        throw new IOException("Unknown change type in " + segment);
+                }
+            }
+        }
+    }
+
+    private static void readState(Path file, Map<String, double[]> state, Throttle throttle) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new ThrottledInputStream(Files.newInputStream(file), throttle), BUFFER_BYTES))) {
+            if (in.readInt() != STATE_MAGIC) {
+                throw new IOException("Not a state file: " + file);
+            }
+            long count = in.readLong();
+            for (long i = 0; i < count; i++) {
+                String holder = in.readUTF();
+                state.put(holder, new double[] {in.readDouble(), in.readDouble()});
+            }
+        }
+    }
+
+    private static void writeState(Path file, Map<String, double[]> state, Throttle throttle) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new ThrottledOutputStream(Channels.newOutputStream(channel), throttle), BUFFER_BYTES));
+            out.writeInt(STATE_MAGIC);
+            out.writeLong(state.size());
+            for (Map.Entry<String, double[]> entry : state.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeDouble(entry.getValue()[0]);
+                out.writeDouble(entry.getValue()[1]);
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Finds the newest state file.
+     * @return Its number, or 0 if there is none.
+     */
+    private static long newestState(Path directory) throws IOException {
+        long newest = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                newest = Math.max(newest, number(file, "state-", ".dat"));
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Lists the segments numbered at or above a state file's number, oldest first.
+     */
+    private static List<Long> segments(Path directory, long from) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long number = number(file, "journal-", ".log");
+                if (number > 0 && number >= from) {
+                    numbers.add(number);
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private static long number(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Limits compaction I/O to a number of bytes per second by sleeping whenever it gets
+     * ahead of schedule.
+     */
+    private static final class Throttle {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long total;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int bytes) throws IOException {
+            total += bytes;
+            if (bytesPerSecond == Long.MAX_VALUE) {
+                return;
+            }
+            long due = (long) (total * 1e9 / bytesPerSecond);
+            long ahead = due - (System.nanoTime() - start);
+            if (ahead > 1_000_000) {
+                try {
+                    Thread.sleep(ahead / 1_000_000, (int) (ahead % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Compaction interrupted", e);
+                }
+            }
+        }
+    }
+
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final Throttle throttle;
+
+        ThrottledInputStream(InputStream in, Throttle throttle) {
+            super(in);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                throttle.acquire(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                throttle.acquire(read);
+            }
+            return read;
+        }
+    }
+
+    private static final class ThrottledOutputStream extends FilterOutputStream {
+        private final Throttle throttle;
+
+        ThrottledOutputStream(OutputStream out, Throttle throttle) {
+            super(out);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throttle.acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            throttle.acquire(length);
+            out.write(buffer, offset, length);
+        }
+    }
+}
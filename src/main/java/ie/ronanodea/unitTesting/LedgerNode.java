@@ -0,0 +1,447 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One node of a partitioned ledger: an {@link AccountManager} serving the accounts a
+ * {@link ClusterRouter} assigns to it, over TCP.
+ * <p>
+ * Each connection is served by its own thread, which reads a frame of requests, applies
+ * them in order and writes a frame of responses, so a router can send many operations
+ * per round trip. Besides the manager's own operations, a node takes part in two-phase
+ * transfers and in moving accounts to other nodes:
+ * <ul>
+ *  <li>Prepare debit withdraws the amount and holds it under the transaction id;
+ *      prepare credit only checks the account exists. Commit deposits a prepared credit
+ *      and forgets a prepared debit; abort refunds a prepared debit and forgets a
+ *      prepared credit.</li>
+ *  <li>Move out removes an account and returns its balance and loan; move in restores it
+ *      on the new node. Requests for an account a node has moved out are answered with
+ *      {@link LedgerStatus#MOVED}, so a router with an out-of-date ring can retry, until
+ *      the router has switched to its new ring and tells the node to forget them.</li>
+ *  <li>List returns the node's account holders a page of {@value #LIST_PAGE} at a time,
+ *      so no response frame grows with the node. A listing from offset 0 takes a fresh
+ *      list of holders, kept by the connection until its last page has been sent.</li>
+ * </ul>
+ * Nodes keep no record of transactions once decided. A prepared transaction that isn't
+ * decided within the prepare timeout, because its router failed mid-transfer, is aborted
+ * by the node: a debit is refunded and a credit forgotten, and a late commit is answered
+ * with {@link LedgerStatus#EXPIRED}. Moving an account out aborts its prepared
+ * transactions the same way, as a router moves no account with a transfer in flight.
+ * <p>
+ * {@link #main(String[])} starts a node as its own process.
+ *
+ * @see ClusterRouter
+ */
+public class LedgerNode implements Closeable {
+
+    static final byte ADD = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte APPROVE_LOAN = 4;
+    static final byte REPAY_LOAN = 5;
+    static final byte READ = 6;
+    static final byte TOTAL = 7;
+    static final byte LIST = 8;
+    static final byte PREPARE_DEBIT = 9;
+    static final byte PREPARE_CREDIT = 10;
+    static final byte COMMIT = 11;
+    static final byte ABORT = 12;
+    static final byte MOVE_OUT = 13;
+    static final byte MOVE_IN = 14;
+    static final byte FORGET_MOVED = 15;
+
+    /** How long a transfer may stay prepared, by default, before the node aborts it. */
+    public static final long DEFAULT_PREPARE_TIMEOUT_MILLIS = 30_000;
+
+    /** The most account holders a node lists in one response. */
+    static final int LIST_PAGE = 4096;
+
+    private final InMemoryAccountStore store = new InMemoryAccountStore();
+    private final AccountManager manager = new AccountManager(store, null);
+    private final ServerSocket serverSocket;
+    private final ConcurrentHashMap<Long, Prepared> prepared = new ConcurrentHashMap<>();
+    private final Set<String> moved = ConcurrentHashMap.newKeySet();
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final Thread acceptor;
+    private final Thread expirer;
+    private final long prepareTimeoutNanos;
+    private final AtomicLong expiredCount = new AtomicLong();
+    private volatile boolean closed;
+
+    private LedgerNode(ServerSocket serverSocket, long prepareTimeoutMillis) {
+        this.serverSocket = serverSocket;
+        this.prepareTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(prepareTimeoutMillis);
+        this.acceptor = new Thread(this::accept, "ledger-node-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        this.expirer = new Thread(this::expire, "ledger-node-expirer-" + serverSocket.getLocalPort());
+        expirer.setDaemon(true);
+    }
+
+    /**
+     * Starts a node with no accounts, listening on the loopback interface, with the
+     * default prepare timeout.
+     * @param port The port to listen on, or 0 for any free port.
+     * @return The running node.
+     * @throws IOException if the port can't be opened
+     */
+    public static LedgerNode start(int port) throws IOException {
+        return start(port, DEFAULT_PREPARE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Starts a node with no accounts, listening on the loopback interface.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param prepareTimeoutMillis How long a transfer may stay prepared before the node aborts it.
+     * @return The running node.
+     * @throws IOException if the port can't be opened
+     * @throws IllegalArgumentException if the timeout is not positive
+     */
+    public static LedgerNode start(int port, long prepareTimeoutMillis) throws IOException, IllegalArgumentException {
+        if (prepareTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Prepare timeout must be positive");
+        }
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        LedgerNode node = new LedgerNode(serverSocket, prepareTimeoutMillis);
+        node.acceptor.start();
+        node.expirer.start();
+        return node;
+    }
+
+    /**
+     * Runs a node as a process until it is killed. Prints the port once listening.
+     * @param args Optional port, any free port if omitted, and prepare timeout in milliseconds.
+     * @throws Exception if the port can't be opened
+     */
+    public static void main(String[] args) throws Exception {
+        LedgerNode node = start(args.length > 0 ? Integer.parseInt(args[0]) : 0,
+                args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_PREPARE_TIMEOUT_MILLIS);
+        System.out.println("Ledger node listening on port " + node.getPort());
+        node.acceptor.join();
+    }
+
+    /**
+     * Gets the port routers connect to.
+     * @return The port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the node's manager, for inspecting its accounts directly.
+     * @return The manager.
+     */
+    public AccountManager getManager() {
+        return manager;
+    }
+
+    /**
+     * Gets the number of accounts on this node.
+     * @return The account count.
+     */
+    public long getAccountCount() {
+        return store.size();
+    }
+
+    /**
+     * Gets the number of transfers prepared here and not yet committed or aborted.
+     * @return The prepared transaction count.
+     */
+    public int getPreparedCount() {
+        return prepared.size();
+    }
+
+    /**
+     * Gets the number of prepared transfers this node has aborted because they weren't
+     * decided in time, or their account was moved out.
+     * @return The expired transaction count.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Gets the number of holders this node still answers as moved.
+     * @return The moved holder count.
+     */
+    public int getMovedCount() {
+        return moved.size();
+    }
+
+    /**
+     * Stops listening and drops every connection.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        expirer.interrupt();
+        try {
+            acceptor.join();
+            expirer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread serving = new Thread(() -> serve(socket), "ledger-node-connection");
+                serving.setDaemon(true);
+                serving.start();
+            } catch (IOException e) {
+                // Closed, or a failed connection; the loop condition tells which
+            }
+        }
+    }
+
+    /**
+     * Aborts prepared transactions past their deadline, checking a few times per timeout.
+     */
+    private void expire() {
+        long interval = Math.max(1, TimeUnit.NANOSECONDS.toMillis(prepareTimeoutNanos) / 4);
+        while (!closed) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Map.Entry<Long, Prepared> entry : prepared.entrySet()) {
+                if (now - entry.getValue().deadline >= 0) {
+                    abort(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to abort a prepared transaction no router has decided, unless a
+     * decision takes it first: refunds a debit and forgets a credit.
+     */
+    private void abort(long transaction, Prepared expired) {
+        if (prepared.remove(transaction, expired)) {
+            expiredCount.incrementAndGet();
+            if (expired.debit) {
+                manager.tryDeposit(expired.holder, expired.amount);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            LedgerResult result = new LedgerResult();
+            List<String> listing = new ArrayList<>();
+            while (true) {
+                int count = in.readInt();
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    handle(in, out, result, listing);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Router disconnected
+        } finally {
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Reads one request, applies it and writes its response: a status, then two numbers
+     * whose meaning depends on the request, or for a listing the number of holders and a
+     * page of them.
+     * @param listing The connection's list of holders being paged through.
+     */
+    private void handle(DataInputStream in, DataOutputStream out, LedgerResult result, List<String> listing)
+            throws IOException {
+        byte op = in.readByte();
+        String holder;
+        double amount;
+        long transaction;
+        int status;
+        double first = 0;
+        double second = 0;
+        switch (op) {
+            case ADD:
+                holder = in.readUTF();
+                status = manager.tryAddAccount(holder, in.readDouble());
+                if (status == LedgerStatus.OK) {
+                    moved.remove(holder);
+                }
+                break;
+            case DEPOSIT:
+                holder = in.readUTF();
+                status = checkMoved(manager.tryDeposit(holder, in.readDouble()), holder);
+                break;
+            case WITHDRAW:
+                holder = in.readUTF();
+                status = checkMoved(manager.tryWithdraw(holder, in.readDouble()), holder);
+                break;
+            case APPROVE_LOAN:
+                holder = in.readUTF();
+                status = checkMoved(manager.tryApproveLoan(holder, in.readDouble()), holder);
+                break;
+            case REPAY_LOAN:
+                holder = in.readUTF();
+                status = checkMoved(manager.tryRepayLoan(holder, in.readDouble()), holder);
+                break;
+            case READ:
+                holder = in.readUTF();
+                status = checkMoved(manager.tryReadAccount(holder, result), holder);
+                first = result.getBalance();
+                second = result.getLoan();
+                break;
+            case TOTAL:
+                status = LedgerStatus.OK;
+                first = manager.getTotalDeposits();
+                break;
+            case LIST:
+                int offset = in.readInt();
+                if (offset == 0) {
+                    listing.clear();
+                    store.forEach(account -> listing.add(account.getAccountHolder()));
+                }
+                int total = listing.size();
+                int end = Math.min(total, Math.max(offset, 0) + LIST_PAGE);
+                out.writeByte(LedgerStatus.OK);
+                out.writeInt(total);
+                out.writeInt(Math.max(end - offset, 0));
+                for (int i = offset; i < end; i++) {
+                    out.writeUTF(listing.get(i));
+                }
+                if (end >= total) {
+                    listing.clear();
+                }
+                return;
+            case PREPARE_DEBIT:
+                transaction = in.readLong();
+                holder = in.readUTF();
+                amount = in.readDouble();
+                status = checkMoved(manager.tryWithdraw(holder, amount), holder);
+                if (status == LedgerStatus.OK) {
+                    prepared.put(transaction, new Prepared(holder, amount, true, System.nanoTime() + prepareTimeoutNanos));
+                }
+                break;
+            case PREPARE_CREDIT:
+                transaction = in.readLong();
+                holder = in.readUTF();
+                amount = in.readDouble();
+                status = !(amount > 0) ? LedgerStatus.INVALID_AMOUNT
+                        : checkMoved(manager.tryReadAccount(holder, result), holder);
+                if (status == LedgerStatus.OK) {
+                    prepared.put(transaction, new Prepared(holder, amount, false, System.nanoTime() + prepareTimeoutNanos));
+                }
+                break;
+            case COMMIT:
+                Prepared committed = prepared.remove(in.readLong());
+                if (committed == null) {
+                    status = LedgerStatus.EXPIRED;
+                } else {
+                    status = committed.debit ? LedgerStatus.OK : manager.tryDeposit(committed.holder, committed.amount);
+                }
+                break;
+            case ABORT:
+                Prepared aborted = prepared.remove(in.readLong());
+                status = aborted == null || !aborted.debit ? LedgerStatus.OK
+                        : manager.tryDeposit(aborted.holder, aborted.amount);
+                break;
+            case MOVE_OUT:
+                holder = in.readUTF();
+                for (Map.Entry<Long, Prepared> entry : prepared.entrySet()) {
+                    if (entry.getValue().holder.equals(holder)) {
+                        abort(entry.getKey(), entry.getValue());
+                    }
+                }
+                status = manager.tryRemoveAccount(holder, result);
+                if (status == LedgerStatus.OK) {
+                    moved.add(holder);
+                    first = result.getBalance();
+                    second = result.getLoan();
+                }
+                break;
+            case MOVE_IN:
+                holder = in.readUTF();
+                status = manager.tryRestoreAccount(holder, in.readDouble(), in.readDouble());
+                if (status == LedgerStatus.OK) {
+                    moved.remove(holder);
+                }
+                break;
+            case FORGET_MOVED:
+                moved.clear();
+                status = LedgerStatus.OK;
+                break;
+            default:
+                throw new IOException("Unknown request " + op);
+        }
+        out.writeByte(status);
+        out.writeDouble(first);
+        out.writeDouble(second);
+    }
+
+    /**
+     * Helper method to report an account this node has moved out as moved rather than missing.
+     */
+    private int checkMoved(int status, String accountHolder) {
+        return status == LedgerStatus.NOT_FOUND && accountHolder != null && moved.contains(accountHolder)
+                ? LedgerStatus.MOVED : status;
+    }
+
+    /**
+     * One side of a prepared transfer.
+     */
+    private static final class Prepared {
+        final String holder;
+        final double amount;
+        final boolean debit;
+        final long deadline; // System.nanoTime()
+
+        Prepared(String holder, double amount, boolean debit, long deadline) {
+            this.holder = holder;
+            this.amount = amount;
+            this.debit = debit;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ie.ronanodea.unitTesting;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event for one traced {@link AccountManager} operation, with the
+ * time it spent in each {@link OperationTracer.Phase}. Disabled unless a recording
+ * enables it, for example with
+ * {@code -XX:StartFlightRecording:settings=profile,ie.ronanodea.LedgerOperation#enabled=true}
+ * on JDK 17 and later, and then subject to the recording's threshold.
+ *
+ * @see OperationTracer
+ */
+@Name("ie.ronanodea.LedgerOperation")
+@Label("Ledger Operation")
+@Category("Banking")
+@Description("A traced account manager operation with its phase timings")
+@StackTrace(false)
+class LedgerOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Account Holder")
+    String accountHolder;
+
+    @Label("Status")
+    String status;
+
+    @Label("Lookup")
+    @Timespan(Timespan.NANOSECONDS)
+    long lookup;
+
+    @Label("Validation")
+    @Timespan(Timespan.NANOSECONDS)
+    long validation;
+
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long lockWait;
+
+    @Label("Mutation")
+    @Timespan(Timespan.NANOSECONDS)
+    long mutation;
+
+    @Label("Persistence")
+    @Timespan(Timespan.NANOSECONDS)
+    long persistence;
+}
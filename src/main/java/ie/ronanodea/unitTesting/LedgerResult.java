@@ -0,0 +1,42 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * A caller-owned, reusable holder for the values read by
+ * {@link AccountManager#tryReadAccount(String, LedgerResult)}.
+ * <p>
+ * Reusing one instance per thread lets reads run without allocating. The values are
+ * only meaningful after a call that returned {@link LedgerStatus#OK}.
+ *
+ * @see LedgerStatus
+ */
+public class LedgerResult {
+
+    private double balance;
+    private double loan;
+
+    /**
+     * Getter for the balance read by the last successful call
+     * @return double balance
+     */
+    public double getBalance() {
+        return balance;
+    }
+
+    /**
+     * Getter for the loan amount read by the last successful call
+     * @return double loan
+     */
+    public double getLoan() {
+        return loan;
+    }
+
+    /**
+     * Stores the values read.
+     * @param balance The account balance.
+     * @param loan The outstanding loan.
+     */
+    void set(double balance, double loan) {
+        this.balance = balance;
+        this.loan = loan;
+    }
+}
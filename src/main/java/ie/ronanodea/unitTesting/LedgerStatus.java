@@ -0,0 +1,58 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * Outcome codes returned by the status code API of {@link AccountManager}
+ * ({@code tryDeposit}, {@code tryWithdraw} and so on) and of {@link ReplicationLeader} and {@link ClusterRouter}.
+ * <p>
+ * Codes are plain {@code int} constants rather than an enum or exception, so a caller
+ * can tell "not found" apart from "insufficient funds" without any allocation or stack
+ * unwinding, however much bad input arrives.
+ *
+ * @see AccountManager
+ */
+public final class LedgerStatus {
+
+    /** The operation succeeded. */
+    public static final int OK = 0;
+    /** No account exists for the account holder. */
+    public static final int NOT_FOUND = 1;
+    /** The amount was zero, negative or not a number. */
+    public static final int INVALID_AMOUNT = 2;
+    /** The account balance doesn't cover the withdrawal. */
+    public static final int INSUFFICIENT_FUNDS = 3;
+    /** The bank's total deposits don't cover the loan. */
+    public static final int INSUFFICIENT_DEPOSITS = 4;
+    /** The loan would break a lending cap of the exposure limiter. */
+    public static final int EXPOSURE_LIMIT = 5;
+    /** The repayment is larger than the outstanding loan. */
+    public static final int EXCEEDS_LOAN = 6;
+    /** The account holder already has an account. */
+    public static final int ALREADY_EXISTS = 7;
+    /** The account holder name was null. */
+    public static final int INVALID_HOLDER = 8;
+    /** The operation succeeded on the leader, but not enough followers confirmed it in time. */
+    public static final int NOT_REPLICATED = 9;
+    /** The account has moved to another node of a partitioned cluster. */
+    public static final int MOVED = 10;
+    /** The withdrawal would break a velocity rule of the withdrawal check. */
+    public static final int VELOCITY_LIMIT = 11;
+    /** The prepared transfer was given up before it was decided, and any amount it held refunded. */
+    public static final int EXPIRED = 12;
+
+    private static final String[] NAMES = {"OK", "NOT_FOUND", "INVALID_AMOUNT", "INSUFFICIENT_FUNDS",
+            "INSUFFICIENT_DEPOSITS", "EXPOSURE_LIMIT", "EXCEEDS_LOAN", "ALREADY_EXISTS", "INVALID_HOLDER",
+            "NOT_REPLICATED", "MOVED", "VELOCITY_LIMIT", "EXPIRED"};
+
+    private LedgerStatus() {
+        // Constants only
+    }
+
+    /**
+     * Gets the name of a status code, for logging.
+     * @param status The status code.
+     * @return The constant's name, or "UNKNOWN".
+     */
+    public static String name(int status) {
+        return status >= 0 && status < NAMES.length ? NAMES[status] : "UNKNOWN";
+    }
+}
@@ -0,0 +1,328 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times {@link AccountManager} operations phase by phase, to find out where slow ones
+ * spend their time.
+ * <p>
+ * A sampled operation is timed through each {@link Phase} it passes. It is then emitted
+ * as a {@code ie.ronanodea.LedgerOperation} Java Flight Recorder event, if a recording
+ * has that event enabled, so slow operations can be lined up with garbage collections
+ * and other JVM events on the recording's timeline. If the whole operation took at least
+ * the slow threshold, it is also written to a ring buffer holding the most recent slow
+ * operations with their account holder and phase breakdown, read back with
+ * {@link #getSlowOperations()}.
+ * <p>
+ * Every operation on a single account is traced: opening, removing and restoring
+ * accounts, deposits, withdrawals, loans, repayments and reads. Mutations are only
+ * traced once their arguments have been accepted. Timing a phase costs a
+ * call to {@link System#nanoTime()}, so a busy ledger should sample a fraction of its
+ * operations. Unsampled operations cost a random number, and with no tracer set on the
+ * manager, operations pay a single volatile read.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see AccountManager#setOperationTracer(OperationTracer)
+ */
+public class OperationTracer {
+
+    /**
+     * A traced operation.
+     */
+    public enum Operation {
+        /** {@link AccountManager#addAccount(String, double)} and {@link AccountManager#tryAddAccount(String, double)}. */
+        OPEN,
+        /** {@link AccountManager#deposit(String, double)} and {@link AccountManager#tryDeposit(String, double)}. */
+        DEPOSIT,
+        /** {@link AccountManager#withdraw(String, double)} and {@link AccountManager#tryWithdraw(String, double)}. */
+        WITHDRAW,
+        /** {@link AccountManager#approveLoan(String, double)} and {@link AccountManager#tryApproveLoan(String, double)}. */
+        APPROVE_LOAN,
+        /** {@link AccountManager#repayLoan(String, double)} and {@link AccountManager#tryRepayLoan(String, double)}. */
+        REPAY_LOAN,
+        /**
+         * {@link AccountManager#getBalance(String)}, {@link AccountManager#getLoan(String)} and
+         * {@link AccountManager#tryReadAccount(String, LedgerResult)}. A read answered by the
+         * balance cache spends its time in {@link Phase#LOOKUP}.
+         */
+        READ,
+        /** {@link AccountManager#tryRemoveAccount(String, LedgerResult)}. */
+        REMOVE,
+        /** {@link AccountManager#tryRestoreAccount(String, double, double)}. */
+        RESTORE
+    }
+
+    /**
+     * A part of an operation. Time spent outside these, such as updating the total
+     * deposits, counts only towards the operation's total.
+     */
+    public enum Phase {
+        /** Finding the account in the balance cache or the store, which a tiered store may have to read from disk. */
+        LOOKUP,
+        /** Running the withdrawal check or reserving under the exposure limiter's caps. */
+        VALIDATION,
+        /** Waiting for the account's lock. */
+        LOCK,
+        /** Changing the account, including taking a loan out of the total deposits. */
+        MUTATION,
+        /** Publishing the change to the change stream, and through it the journal and replicas. */
+        PERSISTENCE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final int sampleRate;
+    private final long slowThresholdNanos;
+    private final ThreadLocal<Trace> traces = ThreadLocal.withInitial(() -> new Trace(this));
+    private final LongAdder tracedCount = new LongAdder();
+
+    // Ring buffer of slow operations, as parallel arrays (guarded by this)
+    private final Operation[] operations;
+    private final String[] holders;
+    private final int[] statuses;
+    private final long[] endMillis;
+    private final long[] totalNanos;
+    private final long[] phaseNanos; // PHASES.length per slot
+    private long slowCount;
+
+    /**
+     * Creates a tracer.
+     * @param sampleRate Trace one operation in this many, chosen at random; 1 traces every operation.
+     * @param slowThresholdNanos Operations taking at least this long, in nanoseconds, go in the ring buffer.
+     * @param capacity The number of slow operations the ring buffer keeps.
+     * @throws IllegalArgumentException if the sample rate or capacity is not positive, or the threshold is negative
+     */
+    public OperationTracer(int sampleRate, long slowThresholdNanos, int capacity) throws IllegalArgumentException {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive");
+        }
+        if (slowThresholdNanos < 0) {
+            throw new IllegalArgumentException("Slow threshold cannot be negative");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.slowThresholdNanos = slowThresholdNanos;
+        this.operations = new Operation[capacity];
+        this.holders = new String[capacity];
+        this.statuses = new int[capacity];
+        this.endMillis = new long[capacity];
+        this.totalNanos = new long[capacity];
+        this.phaseNanos = new long[capacity * PHASES.length];
+        // The first event created registers the event class with Flight Recorder, which
+        // can take a hundred milliseconds; pay for it here rather than in an operation
+        new LedgerOperationEvent().isEnabled();
+    }
+
+    /**
+     * Starts timing an operation on the calling thread, if it is sampled.
+     * @return The trace to mark phases on, or null if the operation isn't sampled.
+     */
+    Trace begin() {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return null;
+        }
+        Trace trace = traces.get();
+        for (int i = 0; i < PHASES.length; i++) {
+            trace.phaseNanos[i] = 0;
+        }
+        LedgerOperationEvent event = new LedgerOperationEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            trace.event = event;
+        }
+        trace.start = System.nanoTime();
+        trace.last = trace.start;
+        return trace;
+    }
+
+    /**
+     * Finishes timing an operation: emits its event and, if it was slow, records it.
+     * @param trace The trace from {@link #begin()}.
+     * @param operation The operation.
+     * @param accountHolder The name of the account holder.
+     * @param status The operation's {@link LedgerStatus} code.
+     */
+    void end(Trace trace, Operation operation, String accountHolder, int status) {
+        long total = System.nanoTime() - trace.start;
+        tracedCount.increment();
+        LedgerOperationEvent event = trace.event;
+        if (event != null) {
+            trace.event = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.name();
+                event.accountHolder = accountHolder;
+                event.status = LedgerStatus.name(status);
+                event.lookup = trace.phaseNanos[Phase.LOOKUP.ordinal()];
+                event.validation = trace.phaseNanos[Phase.VALIDATION.ordinal()];
+                event.lockWait = trace.phaseNanos[Phase.LOCK.ordinal()];
+                event.mutation = trace.phaseNanos[Phase.MUTATION.ordinal()];
+                event.persistence = trace.phaseNanos[Phase.PERSISTENCE.ordinal()];
+                event.commit();
+            }
+        }
+        if (total >= slowThresholdNanos) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                int slot = (int) (slowCount++ % operations.length);
+                operations[slot] = operation;
+                holders[slot] = accountHolder;
+                statuses[slot] = status;
+                endMillis[slot] = now;
+                totalNanos[slot] = total;
+                System.arraycopy(trace.phaseNanos, 0, phaseNanos, slot * PHASES.length, PHASES.length);
+            }
+        }
+    }
+
+    /**
+     * Gets the slow operations still in the ring buffer.
+     * @return A copy of the slow operations, slowest first.
+     */
+    public List<SlowOperation> getSlowOperations() {
+        List<SlowOperation> slow = new ArrayList<>();
+        synchronized (this) {
+            int count = (int) Math.min(slowCount, operations.length);
+            for (int slot = 0; slot < count; slot++) {
+                long[] phases = new long[PHASES.length];
+                System.arraycopy(phaseNanos, slot * PHASES.length, phases, 0, PHASES.length);
+                slow.add(new SlowOperation(operations[slot], holders[slot], statuses[slot], endMillis[slot],
+                        totalNanos[slot], phases));
+            }
+        }
+        slow.sort(Comparator.comparingLong(SlowOperation::getTotalNanos).reversed());
+        return slow;
+    }
+
+    /**
+     * Gets the number of operations traced so far.
+     * @return The traced count.
+     */
+    public long getTracedCount() {
+        return tracedCount.sum();
+    }
+
+    /**
+     * Gets the number of slow operations seen so far, including ones the ring buffer
+     * no longer holds.
+     * @return The slow count.
+     */
+    public synchronized long getSlowCount() {
+        return slowCount;
+    }
+
+    /**
+     * One thread's timing of the operation it is running; reused for every operation
+     * the thread traces, since a thread runs one operation at a time.
+     */
+    static final class Trace {
+        final OperationTracer tracer;
+        final long[] phaseNanos = new long[PHASES.length];
+        long start;
+        long last;
+        LedgerOperationEvent event;
+
+        Trace(OperationTracer tracer) {
+            this.tracer = tracer;
+        }
+
+        /**
+         * Adds the time since the last mark to a phase.
+         * @param phase The phase that just finished.
+         */
+        void mark(Phase phase) {
+            long now = System.nanoTime();
+            phaseNanos[phase.ordinal()] += now - last;
+            last = now;
+        }
+    }
+
+    /**
+     * A slow operation read back from the ring buffer.
+     */
+    public static final class SlowOperation {
+        private final Operation operation;
+        private final String accountHolder;
+        private final int status;
+        private final long endMillis;
+        private final long totalNanos;
+        private final long[] phaseNanos;
+
+        SlowOperation(Operation operation, String accountHolder, int status, long endMillis, long totalNanos,
+                long[] phaseNanos) {
+            this.operation = operation;
+            this.accountHolder = accountHolder;
+            this.status = status;
+            this.endMillis = endMillis;
+            this.totalNanos = totalNanos;
+            this.phaseNanos = phaseNanos;
+        }
+
+        /**
+         * Gets the operation.
+         * @return The operation.
+         */
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Gets the account holder the operation was for.
+         * @return The name of the account holder.
+         */
+        public String getAccountHolder() {
+            return accountHolder;
+        }
+
+        /**
+         * Gets the operation's outcome.
+         * @return The {@link LedgerStatus} code.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Gets when the operation finished.
+         * @return The wall-clock time in milliseconds since the epoch.
+         */
+        public long getEndMillis() {
+            return endMillis;
+        }
+
+        /**
+         * Gets how long the whole operation took.
+         * @return The duration in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Gets how long the operation spent in one phase.
+         * @param phase The phase.
+         * @return The duration in nanoseconds, 0 if the operation didn't pass through the phase.
+         */
+        public long getPhaseNanos(Phase phase) {
+            return phaseNanos[phase.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(operation).append(' ').append(accountHolder).append(' ').append(LedgerStatus.name(status))
+                    .append(String.format(" %.1f us:", totalNanos / 1e3));
+            for (Phase phase : PHASES) {
+                text.append(' ').append(phase.name().toLowerCase()).append(String.format(" %.1f", phaseNanos[phase.ordinal()] / 1e3));
+            }
+            return text.toString();
+        }
+    }
+}
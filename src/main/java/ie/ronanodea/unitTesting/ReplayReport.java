@@ -0,0 +1,109 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * The outcome of replaying a {@link WorkloadTrace}: throughput, latency percentiles,
+ * how many operations the ledger accepted, and a checksum of the final ledger state.
+ * <p>
+ * Replaying the same trace against freshly created managers must always give the same
+ * checksum, whatever the configuration, so it can be compared between runs to check
+ * that an optimisation hasn't changed behaviour.
+ *
+ * @see WorkloadReplayer
+ */
+public class ReplayReport {
+
+    private final int operations;
+    private final long elapsedNanos;
+    private final LatencyHistogram latencies;
+    private final int succeeded;
+    private final long checksum;
+
+    /**
+     * Creates a report.
+     * @param operations Number of operations replayed.
+     * @param elapsedNanos Wall-clock time of the replay.
+     * @param latencies Latency of each operation.
+     * @param succeeded Number of operations that returned {@link LedgerStatus#OK}.
+     * @param checksum Checksum of the final ledger state.
+     */
+    ReplayReport(int operations, long elapsedNanos, LatencyHistogram latencies, int succeeded, long checksum) {
+        this.operations = operations;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies;
+        this.succeeded = succeeded;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Gets the number of operations replayed.
+     * @return The operation count.
+     */
+    public int getOperations() {
+        return operations;
+    }
+
+    /**
+     * Gets the wall-clock time of the replay.
+     * @return Elapsed nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the replay throughput.
+     * @return Operations per second.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : operations * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Gets the latency of operations at a percentile.
+     * @param percentile Percentile between 0 and 100.
+     * @return The latency in nanoseconds.
+     */
+    public long getLatency(double percentile) {
+        return latencies.getPercentile(percentile);
+    }
+
+    /**
+     * Gets the largest operation latency.
+     * @return The maximum latency in nanoseconds.
+     */
+    public long getMaxLatency() {
+        return latencies.getMax();
+    }
+
+    /**
+     * Gets the number of operations the ledger accepted.
+     * @return The success count.
+     */
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Gets the number of operations the ledger rejected, such as overdrawing withdrawals.
+     * @return The rejection count.
+     */
+    public int getRejected() {
+        return operations - succeeded;
+    }
+
+    /**
+     * Gets the checksum of the final ledger state.
+     * @return The checksum.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ops in %.1f ms (%.0f op/s), p50 %d ns, p99 %d ns, p99.9 %d ns, max %d ns, "
+                        + "%d ok, %d rejected, checksum %016x",
+                operations, elapsedNanos / 1e6, getThroughput(), getLatency(50), getLatency(99),
+                getLatency(99.9), getMaxLatency(), succeeded, getRejected(), checksum);
+    }
+}
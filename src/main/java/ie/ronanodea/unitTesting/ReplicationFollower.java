@@ -0,0 +1,319 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A read-only copy of a replicated ledger, kept up to date by a {@link ReplicationLeader}
+ * over TCP, which serves balance, loan and total deposit reads so they don't all land
+ * on the leader.
+ * <p>
+ * A receiving thread applies each batch in order and then acknowledges it. Reads see
+ * the ledger as of some recent sequence: every mutation before {@link #getSequence()}
+ * has been applied. A client that needs to read its own write can pass the leader's
+ * {@link ReplicationLeader#getSequence()} taken after the write to
+ * {@link #awaitSequence(long, long)} first.
+ * <p>
+ * Each batch is decoded off the wire first and then applied as one step, under the write
+ * side of a {@link StampedLock}; a snapshot replaces the whole map at once. Reads are
+ * optimistic and retry under the read lock if a batch was applied meanwhile, so they
+ * always see the ledger between two batches, never part of one, and never a balance the
+ * leader didn't have. A follower whose connection drops stops updating;
+ * {@link #isConnected()} tells, and a new follower started in its place catches up from
+ * a snapshot.
+ *
+ * @see ReplicationLeader
+ */
+public class ReplicationFollower implements Closeable {
+
+    private static final ChangeType[] TYPES = ChangeType.values();
+
+    private final Socket socket;
+    private final StampedLock lock = new StampedLock(); // written a batch at a time by the receiving thread
+    private volatile ConcurrentHashMap<String, Replica> accounts = new ConcurrentHashMap<>();
+    private final Thread receiver;
+    private final Object sequenceMonitor = new Object();
+    private volatile double totalDeposits;
+    private volatile long sequence; // next sequence to apply
+    private volatile boolean connected = true;
+
+    private ReplicationFollower(Socket socket) {
+        this.socket = socket;
+        this.receiver = new Thread(this::receive, "replication-follower");
+        receiver.setDaemon(true);
+    }
+
+    /**
+     * Connects to a leader and starts applying its mutations.
+     * @param host The leader's host.
+     * @param port The leader's port.
+     * @return The running follower.
+     * @throws IOException if the leader can't be reached
+     */
+    public static ReplicationFollower connect(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        ReplicationFollower follower = new ReplicationFollower(socket);
+        follower.receiver.start();
+        return follower;
+    }
+
+    /**
+     * Gets the balance of an account holder.
+     * @param accountHolder The name of the account holder.
+     * @return The balance, or null if no account has been replicated for the account holder.
+     */
+    public Double getBalance(String accountHolder) {
+        LedgerResult result = new LedgerResult();
+        return tryReadAccount(accountHolder, result) == LedgerStatus.OK ? result.getBalance() : null;
+    }
+
+    /**
+     * Gets the outstanding loan of an account holder.
+     * @param accountHolder The name of the account holder.
+     * @return The loan, or null if no account has been replicated for the account holder.
+     */
+    public Double getLoan(String accountHolder) {
+        LedgerResult result = new LedgerResult();
+        return tryReadAccount(accountHolder, result) == LedgerStatus.OK ? result.getLoan() : null;
+    }
+
+    /**
+     * Reads the balance and loan of an account holder into a caller-owned result.
+     * @param accountHolder The name of the account holder.
+     * @param result Receives the balance and loan when the account is found.
+     * @return {@link LedgerStatus#OK}, or {@link LedgerStatus#NOT_FOUND}.
+     */
+    public int tryReadAccount(String accountHolder, LedgerResult result) {
+        if (accountHolder == null) return LedgerStatus.NOT_FOUND;
+        long stamp = lock.tryOptimisticRead();
+        Replica replica = accounts.get(accountHolder);
+        double balance = replica == null ? 0 : replica.balance;
+        double loan = replica == null ? 0 : replica.loan;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                replica = accounts.get(accountHolder);
+                balance = replica == null ? 0 : replica.balance;
+                loan = replica == null ? 0 : replica.loan;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (replica == null) return LedgerStatus.NOT_FOUND;
+        result.set(balance, loan);
+        return LedgerStatus.OK;
+    }
+
+    /**
+     * Gets the total deposits: the sum of balances less the sum of outstanding loans.
+     * @return The total deposits.
+     */
+    public double getTotalDeposits() {
+        long stamp = lock.tryOptimisticRead();
+        double total = totalDeposits;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                total = totalDeposits;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gets the sequence of the next mutation to apply; every mutation before it is visible.
+     * @return The applied sequence.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Checks whether the follower is still receiving from its leader.
+     * @return True while connected.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Waits until every mutation before a sequence has been applied.
+     * @param target The sequence to wait for, as returned by {@link ReplicationLeader#getSequence()}.
+     * @param timeoutNanos The longest time to wait.
+     * @return True if the follower caught up in time.
+     */
+    public boolean awaitSequence(long target, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (sequenceMonitor) {
+            while (sequence < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !connected) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(sequenceMonitor, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Disconnects from the leader. Reads keep returning the last state applied.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void receive() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream acks = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int unacknowledged = 0;
+            ChangeType[] types = new ChangeType[0];
+            String[] holders = new String[0];
+            double[] amounts = new double[0];
+            while (true) {
+                byte kind = in.readByte();
+                long first = in.readLong();
+                int count = in.readInt();
+                ConcurrentHashMap<String, Replica> snapshot = null;
+                if (kind == ReplicationLeader.SNAPSHOT) {
+                    snapshot = readSnapshot(in, count);
+                } else if (first == sequence) {
+                    if (types.length < count) {
+                        types = new ChangeType[count];
+                        holders = new String[count];
+                        amounts = new double[count];
+                    }
+                    for (int i = 0; i < count; i++) {
+                        types[i] = TYPES[in.readByte()];
+                        holders[i] = in.readUTF();
+                        amounts[i] = in.readDouble();
+                    }
+                } else {
+                    throw new IOException("Expected sequence " + sequence + " but got " + first);
+                }
+                long stamp = lock.writeLock();
+                try {
+                    if (snapshot != null) {
+                        accounts = snapshot;
+                        totalDeposits = total(snapshot);
+                    } else {
+                        for (int i = 0; i < count; i++) {
+                            apply(types[i], holders[i], amounts[i]);
+                        }
+                    }
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+                synchronized (sequenceMonitor) {
+                    sequence = kind == ReplicationLeader.SNAPSHOT ? first : first + count;
+                    sequenceMonitor.notifyAll();
+                }
+                // Acknowledge once caught up with what has arrived, or every so often while it keeps coming
+                if (in.available() == 0 || ++unacknowledged == 64) {
+                    acks.writeLong(sequence);
+                    acks.flush();
+                    unacknowledged = 0;
+                }
+            }
+        } catch (IOException e) {
+            // Leader closed the connection, or it failed
+        } finally {
+            connected = false;
+            synchronized (sequenceMonitor) {
+                sequenceMonitor.notifyAll();
+            }
+        }
+    }
+
+    private static ConcurrentHashMap<String, Replica> readSnapshot(DataInputStream in, int count) throws IOException {
+        ConcurrentHashMap<String, Replica> snapshot = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+        for (int i = 0; i < count; i++) {
+            Replica replica = new Replica();
+            String holder = in.readUTF();
+            replica.balance = in.readDouble();
+            replica.loan = in.readDouble();
+            snapshot.put(holder, replica);
+        }
+        return snapshot;
+    }
+
+    private static double total(ConcurrentHashMap<String, Replica> snapshot) {
+        double total = 0;
+        for (Replica replica : snapshot.values()) {
+            total += replica.balance - replica.loan;
+        }
+        return total;
+    }
+
+    /**
+     * Applies one mutation. Must be called while holding the write lock.
+     */
+    private void apply(ChangeType type, String accountHolder, double amount) {
+        if (type == ChangeType.ACCOUNT_CLOSED) {
+            Replica closed = accounts.remove(accountHolder);
+            if (closed != null) {
+                totalDeposits -= closed.balance - closed.loan;
+            }
+            return;
+        }
+        Replica replica = accounts.get(accountHolder);
+        if (replica == null) {
+            replica = new Replica();
+            accounts.put(accountHolder, replica);
+        }
+        switch (type) {
+            case ACCOUNT_OPENED:
+            case DEPOSIT:
+                replica.balance += amount;
+                totalDeposits += amount;
+                break;
+            case WITHDRAWAL:
+                replica.balance -= amount;
+                totalDeposits -= amount;
+                break;
+            case LOAN_APPROVED:
+                replica.loan += amount;
+                totalDeposits -= amount;
+                break;
+            default:
+                replica.loan -= amount;
+                totalDeposits += amount;
+        }
+    }
+
+    /**
+     * The replicated state of one account. Written only by the receiving thread, under
+     * the write lock; volatile for optimistic reads.
+     */
+    private static final class Replica {
+        volatile double balance;
+        volatile double loan;
+    }
+}
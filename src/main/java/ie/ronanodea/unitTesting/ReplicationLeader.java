@@ -0,0 +1,517 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The writing side of a replicated ledger: wraps an {@link AccountManager} and streams
+ * every mutation it makes, in order, to {@link ReplicationFollower}s over TCP.
+ * <p>
+ * The leader captures mutations with a {@link ChangeStream} it sets on the manager, so it
+ * must be started before any accounts are added. A shipping thread drains the stream in
+ * batches, encodes each batch once and queues it for every follower; each follower has
+ * its own writer thread, so batches are pipelined without waiting for acknowledgements,
+ * and one slow follower doesn't hold up the rest. A follower that falls a whole queue
+ * behind is disconnected. The shipping thread also keeps the state the batches add up
+ * to, so a follower that joins late is first sent a snapshot of every account and then
+ * the batches after it.
+ * <p>
+ * Followers acknowledge the sequence they have applied after every batch. With a quorum
+ * of zero, writes return as soon as the leader has applied them (asynchronous
+ * replication). With a quorum of N, the write methods of this class also wait until N
+ * followers have applied every mutation published so far; if that takes longer than the
+ * acknowledgement timeout they return {@link LedgerStatus#NOT_REPLICATED}, although the
+ * mutation stands on the leader and will still reach the followers.
+ * <p>
+ * Mutations are shipped as amounts rather than resulting balances, as in
+ * {@link LedgerJournal}, so deposits to split hot accounts, which don't know their
+ * balance, still add up to the leader's totals on every follower. A split deposit is
+ * published before its amount is added to the account, so any withdrawal it funds is
+ * published after it and no follower shows a negative balance; followers apply each
+ * batch as one step, so reads there see the ledger as of some sequence, behind the
+ * leader but never part way through a batch.
+ *
+ * @see ReplicationFollower
+ * @see ChangeStream
+ */
+public class ReplicationLeader implements Closeable {
+
+    static final byte SNAPSHOT = 1;
+    static final byte BATCH = 2;
+    private static final int MAX_BATCH = 1024;
+    private static final int OUTBOX_BATCHES = 1024;
+
+    private final AccountManager manager;
+    private final ChangeStream stream;
+    private final ChangeStream.Subscriber subscriber;
+    private final ServerSocket serverSocket;
+    private final int quorum;
+    private final long ackTimeoutNanos;
+    private final CopyOnWriteArrayList<Link> followers = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<Socket> joining = new ConcurrentLinkedQueue<>();
+    private final Object ackMonitor = new Object();
+    private final Thread acceptor;
+    private final Thread shipper;
+    private volatile boolean closed;
+
+    // Owned by the shipping thread
+    private final Map<String, double[]> state = new HashMap<>();
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(message);
+    private long nextSequence;
+    private int followerCount;
+
+    private ReplicationLeader(AccountManager manager, ServerSocket serverSocket, int quorum, long ackTimeoutMillis) {
+        this.manager = manager;
+        this.serverSocket = serverSocket;
+        this.quorum = quorum;
+        this.ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis);
+        this.stream = new ChangeStream(64 * MAX_BATCH);
+        this.subscriber = stream.subscribe();
+        this.nextSequence = stream.getCursor();
+        manager.setChangeStream(stream);
+        this.acceptor = new Thread(this::accept, "replication-acceptor");
+        this.shipper = new Thread(this::ship, "replication-shipper");
+        acceptor.setDaemon(true);
+        shipper.setDaemon(true);
+    }
+
+    /**
+     * Starts replicating a manager, listening for followers on the loopback interface.
+     * @param manager The manager to replicate; must not have any accounts yet.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param quorum How many followers must confirm each write, or 0 for asynchronous replication.
+     * @param ackTimeoutMillis How long a write waits for its quorum.
+     * @return The running leader.
+     * @throws IllegalArgumentException if the quorum or timeout is negative, or the manager already has accounts
+     * @throws IOException if the port can't be opened
+     */
+    public static ReplicationLeader start(AccountManager manager, int port, int quorum, long ackTimeoutMillis) throws IllegalArgumentException, IOException {
+        if (quorum < 0 || ackTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Quorum and timeout must not be negative");
+        }
+        if (manager.getAccountCount() > 0) {
+            throw new IllegalArgumentException("The manager must not have any accounts yet");
+        }
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        ReplicationLeader leader = new ReplicationLeader(manager, serverSocket, quorum, ackTimeoutMillis);
+        leader.acceptor.start();
+        leader.shipper.start();
+        return leader;
+    }
+
+    /**
+     * Gets the port followers connect to.
+     * @return The port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the replicated manager, for reads on the leader.
+     * @return The manager.
+     */
+    public AccountManager getManager() {
+        return manager;
+    }
+
+    /**
+     * Gets the number of followers connected and receiving batches.
+     * @return The follower count.
+     */
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    /**
+     * Gets the sequence the next mutation will be given. A follower that has applied up
+     * to this sequence has seen every write made so far.
+     * @return The next sequence.
+     */
+    public long getSequence() {
+        return stream.getCursor();
+    }
+
+    /**
+     * Gets how many mutations the slowest connected follower has still to confirm.
+     * @return The replication lag in mutations, or 0 with no followers.
+     */
+    public long getReplicationLag() {
+        long cursor = stream.getCursor();
+        long lag = 0;
+        for (Link link : followers) {
+            lag = Math.max(lag, cursor - link.acked);
+        }
+        return lag;
+    }
+
+    /**
+     * Waits until the quorum of followers has applied every mutation before a sequence.
+     * Returns at once with a quorum of zero.
+     * @param sequence The sequence to wait for, as returned by {@link #getSequence()}.
+     * @param timeoutNanos The longest time to wait.
+     * @return True if the quorum confirmed in time.
+     */
+    public boolean awaitReplication(long sequence, long timeoutNanos) {
+        if (quorum == 0) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (ackMonitor) {
+            while (quorumAcked() < sequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(ackMonitor, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a new account and replicates it.
+     * @param accountHolder The name of the new account holder.
+     * @param initDeposit The initial deposit amount.
+     * @return A status from {@link AccountManager#tryAddAccount(String, double)}, or {@link LedgerStatus#NOT_REPLICATED}.
+     */
+    public int tryAddAccount(String accountHolder, double initDeposit) {
+        return replicated(manager.tryAddAccount(accountHolder, initDeposit));
+    }
+
+    /**
+     * Deposits money into an account and replicates it.
+     * @param accountHolder The name of the account holder.
+     * @param amount The deposit amount.
+     * @return A status from {@link AccountManager#tryDeposit(String, double)}, or {@link LedgerStatus#NOT_REPLICATED}.
+     */
+    public int tryDeposit(String accountHolder, double amount) {
+        return replicated(manager.tryDeposit(accountHolder, amount));
+    }
+
+    /**
+     * Withdraws money from an account and replicates it.
+     * @param accountHolder The name of the account holder.
+     * @param amount The withdrawal amount.
+     * @return A status from {@link AccountManager#tryWithdraw(String, double)}, or {@link LedgerStatus#NOT_REPLICATED}.
+     */
+    public int tryWithdraw(String accountHolder, double amount) {
+        return replicated(manager.tryWithdraw(accountHolder, amount));
+    }
+
+    /**
+     * Approves a loan for an account holder and replicates it.
+     * @param accountHolder The name of the account holder.
+     * @param loanAmount The loan amount.
+     * @return A status from {@link AccountManager#tryApproveLoan(String, double)}, or {@link LedgerStatus#NOT_REPLICATED}.
+     */
+    public int tryApproveLoan(String accountHolder, double loanAmount) {
+        return replicated(manager.tryApproveLoan(accountHolder, loanAmount));
+    }
+
+    /**
+     * Repays a part of the loan for an account holder and replicates it.
+     * @param accountHolder The name of the account holder.
+     * @param amount The repayment amount.
+     * @return A status from {@link AccountManager#tryRepayLoan(String, double)}, or {@link LedgerStatus#NOT_REPLICATED}.
+     */
+    public int tryRepayLoan(String accountHolder, double amount) {
+        return replicated(manager.tryRepayLoan(accountHolder, amount));
+    }
+
+    /**
+     * Stops replicating, disconnecting every follower. Mutations already published are
+     * shipped first. The manager stays usable but is no longer replicated.
+     */
+    @Override
+    public void close() {
+        manager.setChangeStream(null);
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+        LockSupport.unpark(shipper);
+        try {
+            acceptor.join();
+            shipper.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Link link : followers) {
+            link.finish();
+        }
+        subscriber.close();
+        synchronized (ackMonitor) {
+            ackMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Helper method to wait for the quorum after a successful write.
+     */
+    private int replicated(int status) {
+        if (status != LedgerStatus.OK || quorum == 0) {
+            return status;
+        }
+        return awaitReplication(stream.getCursor(), ackTimeoutNanos) ? status : LedgerStatus.NOT_REPLICATED;
+    }
+
+    /**
+     * Helper method to find the highest sequence acknowledged by at least the quorum of followers.
+     */
+    private long quorumAcked() {
+        Object[] links = followers.toArray();
+        if (links.length < quorum) {
+            return Long.MIN_VALUE;
+        }
+        long[] acked = new long[links.length];
+        for (int i = 0; i < links.length; i++) {
+            acked[i] = ((Link) links[i]).acked;
+        }
+        Arrays.sort(acked);
+        return acked[acked.length - quorum];
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                joining.add(socket);
+            } catch (IOException e) {
+                // Closed, or a failed connection; the loop condition tells which
+            }
+        }
+    }
+
+    private void ship() {
+        ChangeHandler encoder = this::encode;
+        while (true) {
+            boolean stopping = closed; // read before polling, so nothing published before close is missed
+            Socket socket;
+            while ((socket = joining.poll()) != null) {
+                join(socket);
+            }
+            startBatch();
+            int count = subscriber.poll(encoder, MAX_BATCH);
+            if (count > 0) {
+                byte[] batch = message.toByteArray();
+                batch[9] = (byte) (count >>> 24);
+                batch[10] = (byte) (count >>> 16);
+                batch[11] = (byte) (count >>> 8);
+                batch[12] = (byte) count;
+                for (Link link : followers) {
+                    link.send(batch);
+                }
+            } else if (stopping) {
+                return;
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+
+    /**
+     * Starts encoding a batch: its type, first sequence and a count filled in once known.
+     */
+    private void startBatch() {
+        message.reset();
+        try {
+            out.writeByte(BATCH);
+            out.writeLong(nextSequence);
+            out.writeInt(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes a mutation into the current batch and applies it to the shipped state.
+     */
+    private void encode(long sequence, ChangeType type, String accountHolder, double amount, double balance, double loan) {
+        try {
+            out.writeByte(type.ordinal());
+            out.writeUTF(accountHolder);
+            out.writeDouble(amount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        nextSequence = sequence + 1;
+        if (type == ChangeType.ACCOUNT_CLOSED) {
+            state.remove(accountHolder);
+            return;
+        }
+        double[] account = state.computeIfAbsent(accountHolder, holder -> new double[2]);
+        switch (type) {
+            case ACCOUNT_OPENED:
+            case DEPOSIT:
+                account[0] += amount;
+                break;
+            case WITHDRAWAL:
+                account[0] -= amount;
+                break;
+            case LOAN_APPROVED:
+                account[1] += amount;
+                break;
+            default:
+                account[1] -= amount;
+        }
+    }
+
+    /**
+     * Sends a new follower a snapshot of the state shipped so far and adds it to the
+     * followers, so it receives every batch after the snapshot.
+     */
+    private void join(Socket socket) {
+        try {
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream(16 + state.size() * 32);
+            DataOutputStream data = new DataOutputStream(snapshot);
+            data.writeByte(SNAPSHOT);
+            data.writeLong(nextSequence);
+            data.writeInt(state.size());
+            for (Map.Entry<String, double[]> entry : state.entrySet()) {
+                data.writeUTF(entry.getKey());
+                data.writeDouble(entry.getValue()[0]);
+                data.writeDouble(entry.getValue()[1]);
+            }
+            Link link = new Link(socket, ++followerCount);
+            link.send(snapshot.toByteArray());
+            followers.add(link);
+            link.start();
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already failed
+            }
+        }
+    }
+
+
+    /**
+     * The leader's end of the connection to one follower: a queue of encoded batches with a
+     * thread writing them out, and a thread reading acknowledgements back.
+     */
+    private final class Link {
+        private final Socket socket;
+        private final BlockingQueue<byte[]> outbox = new ArrayBlockingQueue<>(OUTBOX_BATCHES);
+        private final Thread writer;
+        private final Thread reader;
+        private volatile long acked; // next sequence the follower will apply
+        private volatile boolean draining;
+
+        Link(Socket socket, int id) {
+            this.socket = socket;
+            this.writer = new Thread(this::writeBatches, "replication-writer-" + id);
+            this.reader = new Thread(this::readAcks, "replication-acks-" + id);
+            writer.setDaemon(true);
+            reader.setDaemon(true);
+        }
+
+        void start() {
+            writer.start();
+            reader.start();
+        }
+
+        /**
+         * Queues a batch, disconnecting the follower if it has fallen too far behind.
+         */
+        void send(byte[] batch) {
+            if (!outbox.offer(batch)) {
+                disconnect();
+            }
+        }
+
+        /**
+         * Writes out what is queued, then disconnects.
+         */
+        void finish() {
+            draining = true;
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            disconnect();
+        }
+
+        void disconnect() {
+            followers.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            synchronized (ackMonitor) {
+                ackMonitor.notifyAll();
+            }
+        }
+
+        private void writeBatches() {
+            try {
+                OutputStream output = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+                while (!socket.isClosed()) {
+                    byte[] batch = outbox.poll(1, TimeUnit.MILLISECONDS);
+                    if (batch == null) {
+                        if (draining) {
+                            break;
+                        }
+                        continue;
+                    }
+                    output.write(batch);
+                    if (outbox.isEmpty()) {
+                        output.flush();
+                    }
+                }
+                output.flush();
+            } catch (IOException e) {
+                disconnect();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void readAcks() {
+            try {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    acked = input.readLong();
+                    synchronized (ackMonitor) {
+                        ackMonitor.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+    }
+}
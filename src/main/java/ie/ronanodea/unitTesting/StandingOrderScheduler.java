@@ -0,0 +1,547 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs standing orders (recurring deposits, loan repayments and transfers) against an
+ * {@link AccountManager} from inside the process.
+ * <p>
+ * Orders are kept in a hierarchical timing wheel: eleven levels of 64 slots, level
+ * {@code l} covering {@code 64^l} ticks per slot. An order goes into the lowest level on
+ * which its due tick and the current tick share every higher digit, so scheduling is
+ * O(1) whatever the horizon, and an order is only moved down a level when the wheel
+ * reaches its slot. Orders are stored in parallel primitive arrays linked through an
+ * index array, with no object per order, so tens of millions fit in a few hundred
+ * megabytes. A slot freed by a finished order is reused, but the order's id carries the
+ * slot's generation, so a stale id can't cancel the slot's next order.
+ * <p>
+ * Orders that come due are queued, then run at no more than the configured rate, so a
+ * midnight spike of orders is spread over the following ticks instead of landing on
+ * the ledger all at once. Each batch is grouped by account: deposits to the same
+ * account are summed into one call, then repayments and transfers out of it are run
+ * one by one, as each of those may be refused on its own. A transfer whose payee can't
+ * be paid is refunded to the payer. A refused order is counted and then carries on to
+ * its next due time; the next due time always follows from the previous one, so a
+ * backlog never makes an order drift.
+ * <p>
+ * Time is driven by {@link #advanceTo(long)}, either from a caller or from the thread
+ * started by {@link #start()}. Orders may be scheduled and cancelled from any thread.
+ *
+ * @see AccountManager
+ */
+public class StandingOrderScheduler implements AutoCloseable {
+
+    /**
+     * Number of payments for an order that runs until it is cancelled.
+     */
+    public static final int UNTIL_CANCELLED = -1;
+
+    private static final byte FREE = 0;
+    private static final byte DEPOSIT = 1;
+    private static final byte REPAYMENT = 2;
+    private static final byte TRANSFER = 3;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 11;
+    private static final int NONE = -1;
+
+    private final AccountManager accountManager;
+    private final long tickMillis;
+    private final double maxPerSecond;
+    private final double burst;
+
+    // Guarded by this
+    private final int[] wheel = new int[LEVELS * SLOTS];
+    private long currentTick;
+    private int capacity;
+    private int used;
+    private int scheduled;
+    private int[] next;
+    private long[] due;
+    private int[] interval;
+    private int[] remaining;
+    private int[] generation; // bumped each time a slot is freed, so old ids go stale
+    private int[] holder;
+    private int[] target;
+    private double[] amount;
+    private byte[] type;
+    private int[] free = new int[16];
+    private int freeCount;
+    private String[] holders = new String[16];
+    private final Map<String, Integer> holderIndex = new HashMap<>();
+
+    // Due orders waiting for the rate limiter, a FIFO; guarded by this
+    private int[] readyHolder = new int[1024];
+    private int[] readyTarget = new int[1024];
+    private double[] readyAmount = new double[1024];
+    private byte[] readyType = new byte[1024];
+    private int readyHead;
+    private int readySize;
+
+    // Guarded by firing
+    private final ReentrantLock firing = new ReentrantLock();
+    private double tokens;
+    private long lastRefillMillis;
+
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile Thread clock;
+    private volatile boolean closed;
+
+    /**
+     * Creates a scheduler whose clock starts at the given time.
+     * @param accountManager The manager orders are run against.
+     * @param tickMillis The wheel's resolution; due times are rounded up to a whole tick.
+     * @param maxPerSecond The most orders run per second; may be {@link Double#POSITIVE_INFINITY}.
+     * @param nowMillis The current time in milliseconds.
+     * @throws IllegalArgumentException if the manager is null, the tick or rate is not positive, or the time is negative
+     */
+    public StandingOrderScheduler(AccountManager accountManager, long tickMillis, double maxPerSecond, long nowMillis)
+            throws IllegalArgumentException {
+        if (accountManager == null) {
+            throw new IllegalArgumentException("Account manager cannot be null");
+        }
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        if (!(maxPerSecond > 0)) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        if (nowMillis < 0) {
+            throw new IllegalArgumentException("Time cannot be negative");
+        }
+        this.accountManager = accountManager;
+        this.tickMillis = tickMillis;
+        this.maxPerSecond = maxPerSecond;
+        // A full tick's worth may run at once, and at least one order
+        this.burst = Math.max(1, maxPerSecond * tickMillis / 1000.0);
+        this.tokens = burst;
+        this.lastRefillMillis = nowMillis;
+        this.currentTick = nowMillis / tickMillis;
+        Arrays.fill(wheel, NONE);
+        grow(1024);
+    }
+
+    /**
+     * Schedules a recurring deposit.
+     * @param accountHolder The name of the account holder paid.
+     * @param amount The amount of each deposit.
+     * @param firstDueMillis When the first deposit is due; a time already past is due at the next tick.
+     * @param intervalMillis The time between deposits, rounded up to a whole tick.
+     * @param payments How many deposits to make, or {@link #UNTIL_CANCELLED}.
+     * @return The order's id, for {@link #cancel(long)}.
+     * @throws IllegalArgumentException if a setting is invalid
+     */
+    public long scheduleDeposit(String accountHolder, double amount, long firstDueMillis, long intervalMillis, int payments)
+            throws IllegalArgumentException {
+        return schedule(DEPOSIT, accountHolder, accountHolder, amount, firstDueMillis, intervalMillis, payments);
+    }
+
+    /**
+     * Schedules a recurring loan repayment.
+     * @param accountHolder The name of the account holder repaying.
+     * @param amount The amount of each repayment.
+     * @param firstDueMillis When the first repayment is due; a time already past is due at the next tick.
+     * @param intervalMillis The time between repayments, rounded up to a whole tick.
+     * @param payments How many repayments to make, or {@link #UNTIL_CANCELLED}.
+     * @return The order's id, for {@link #cancel(long)}.
+     * @throws IllegalArgumentException if a setting is invalid
+     */
+    public long scheduleRepayment(String accountHolder, double amount, long firstDueMillis, long intervalMillis, int payments)
+            throws IllegalArgumentException {
+        return schedule(REPAYMENT, accountHolder, accountHolder, amount, firstDueMillis, intervalMillis, payments);
+    }
+
+    /**
+     * Schedules a recurring transfer between two account holders.
+     * @param from The name of the account holder paying.
+     * @param to The name of the account holder paid.
+     * @param amount The amount of each transfer.
+     * @param firstDueMillis When the first transfer is due; a time already past is due at the next tick.
+     * @param intervalMillis The time between transfers, rounded up to a whole tick.
+     * @param payments How many transfers to make, or {@link #UNTIL_CANCELLED}.
+     * @return The order's id, for {@link #cancel(long)}.
+     * @throws IllegalArgumentException if a setting is invalid
+     */
+    public long scheduleTransfer(String from, String to, double amount, long firstDueMillis, long intervalMillis, int payments)
+            throws IllegalArgumentException {
+        if (to == null) {
+            throw new IllegalArgumentException("Account holder cannot be null");
+        }
+        return schedule(TRANSFER, from, to, amount, firstDueMillis, intervalMillis, payments);
+    }
+
+    /**
+     * Helper method to validate an order and add it to the wheel.
+     * @return The order's id: its slot's generation in the high 32 bits and the slot in the low.
+     */
+    private synchronized long schedule(byte orderType, String from, String to, double orderAmount,
+                                      long firstDueMillis, long intervalMillis, int payments) throws IllegalArgumentException {
+        if (from == null) {
+            throw new IllegalArgumentException("Account holder cannot be null");
+        }
+        if (!(orderAmount > 0) || Double.isInfinite(orderAmount)) {
+            throw new IllegalArgumentException("Amount must be positive");
+        }
+        if (payments <= 0 && payments != UNTIL_CANCELLED) {
+            throw new IllegalArgumentException("Payments must be positive or UNTIL_CANCELLED");
+        }
+        long intervalTicks = (intervalMillis + tickMillis - 1) / tickMillis;
+        if (intervalMillis <= 0 || intervalTicks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Interval must be positive and at most " + Integer.MAX_VALUE + " ticks");
+        }
+        int order;
+        if (freeCount > 0) {
+            order = free[--freeCount];
+        } else {
+            if (used == capacity) {
+                grow(capacity * 2);
+            }
+            order = used++;
+        }
+        type[order] = orderType;
+        holder[order] = intern(from);
+        target[order] = intern(to);
+        amount[order] = orderAmount;
+        interval[order] = (int) intervalTicks;
+        remaining[order] = payments;
+        long firstDue = Math.max(0, firstDueMillis);
+        due[order] = Math.max(currentTick + 1, (firstDue + tickMillis - 1) / tickMillis);
+        insert(order);
+        scheduled++;
+        return ((long) generation[order] << 32) | order;
+    }
+
+    /**
+     * Cancels a standing order. Payments already due and queued still run. An id whose
+     * order has finished doesn't cancel a later order given the same slot.
+     * @param id The order's id.
+     * @return True if the order was scheduled and is now cancelled.
+     */
+    public synchronized boolean cancel(long id) {
+        int order = (int) id;
+        if (order < 0 || order >= used || generation[order] != (int) (id >>> 32)
+                || type[order] == FREE || remaining[order] == 0) {
+            return false;
+        }
+        remaining[order] = 0; // dropped when the wheel reaches it
+        scheduled--;
+        return true;
+    }
+
+    /**
+     * Moves the wheel on to the given time, queueing every order due by then, and runs
+     * as many queued orders as the rate allows.
+     * @param nowMillis The current time in milliseconds; a time earlier than the last is ignored.
+     * @return The number of orders run.
+     */
+    public int advanceTo(long nowMillis) {
+        firing.lock();
+        try {
+            long elapsed = nowMillis - lastRefillMillis;
+            if (elapsed > 0) {
+                tokens = Math.min(burst, tokens + elapsed * maxPerSecond / 1000.0);
+                lastRefillMillis = nowMillis;
+            }
+            int limit = (int) Math.min(Integer.MAX_VALUE, tokens);
+            int[] batchHolder;
+            int[] batchTarget;
+            double[] batchAmount;
+            byte[] batchType;
+            String[] names;
+            synchronized (this) {
+                long targetTick = nowMillis / tickMillis;
+                while (currentTick < targetTick) {
+                    if (scheduled == 0 && isWheelEmpty()) {
+                        currentTick = targetTick;
+                        break;
+                    }
+                    tick();
+                }
+                int count = Math.min(limit, readySize);
+                batchHolder = new int[count];
+                batchTarget = new int[count];
+                batchAmount = new double[count];
+                batchType = new byte[count];
+                for (int i = 0; i < count; i++) {
+                    int index = (readyHead + i) % readyHolder.length;
+                    batchHolder[i] = readyHolder[index];
+                    batchTarget[i] = readyTarget[index];
+                    batchAmount[i] = readyAmount[index];
+                    batchType[i] = readyType[index];
+                }
+                readyHead = (readyHead + count) % readyHolder.length;
+                readySize -= count;
+                names = holders;
+            }
+            tokens -= batchHolder.length;
+            run(batchHolder, batchTarget, batchAmount, batchType, names);
+            return batchHolder.length;
+        } finally {
+            firing.unlock();
+        }
+    }
+
+    /**
+     * Starts a thread that advances the scheduler to the system clock once a tick, until
+     * {@link #close()}.
+     * @throws IllegalStateException if the scheduler is already started or closed
+     */
+    public synchronized void start() throws IllegalStateException {
+        if (clock != null || closed) {
+            throw new IllegalStateException("Scheduler is already started or closed");
+        }
+        clock = new Thread(() -> {
+            while (!closed) {
+                advanceTo(System.currentTimeMillis());
+                LockSupport.parkNanos(tickMillis * 1_000_000);
+            }
+        }, "standing-orders");
+        clock.setDaemon(true);
+        clock.start();
+    }
+
+    /**
+     * Gets the number of orders scheduled and not yet finished or cancelled.
+     * @return The number of orders.
+     */
+    public synchronized int getScheduledCount() {
+        return scheduled;
+    }
+
+    /**
+     * Gets the number of payments that are due but held back by the rate limit.
+     * @return The number of queued payments.
+     */
+    public synchronized int getBacklog() {
+        return readySize;
+    }
+
+    /**
+     * Gets the number of payments run so far, including refused ones.
+     * @return The number of payments run.
+     */
+    public long getFiredCount() {
+        return fired.get();
+    }
+
+    /**
+     * Gets the number of payments the ledger refused.
+     * @return The number of refused payments.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Stops the clock thread, if started. Orders are kept, and can still be run with
+     * {@link #advanceTo(long)}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread running = clock;
+        if (running != null) {
+            LockSupport.unpark(running);
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Moves the wheel on one tick: brings down every higher-level slot that starts at the
+     * new tick, highest first, then queues the orders in the level-0 slot.
+     */
+    private void tick() {
+        long now = ++currentTick;
+        int top = Math.min(LEVELS - 1, Long.numberOfTrailingZeros(now) / SLOT_BITS);
+        for (int level = top; level > 0; level--) {
+            int slot = level * SLOTS + (int) ((now >>> (level * SLOT_BITS)) & (SLOTS - 1));
+            int order = wheel[slot];
+            wheel[slot] = NONE;
+            while (order != NONE) {
+                int following = next[order];
+                if (remaining[order] == 0) {
+                    release(order);
+                } else {
+                    insert(order);
+                }
+                order = following;
+            }
+        }
+        int slot = (int) (now & (SLOTS - 1));
+        int order = wheel[slot];
+        wheel[slot] = NONE;
+        while (order != NONE) {
+            int following = next[order];
+            if (remaining[order] == 0) {
+                release(order);
+            } else {
+                enqueue(order);
+                if (remaining[order] > 0 && --remaining[order] == 0) {
+                    scheduled--;
+                    release(order);
+                } else {
+                    due[order] += interval[order];
+                    insert(order);
+                }
+            }
+            order = following;
+        }
+    }
+
+    /**
+     * Links an order into the slot for its due tick, on the lowest level where the due
+     * tick and the current tick agree on every higher digit.
+     */
+    private void insert(int order) {
+        long when = due[order];
+        int level = when == currentTick ? 0 : (63 - Long.numberOfLeadingZeros(when ^ currentTick)) / SLOT_BITS;
+        int slot = level * SLOTS + (int) ((when >>> (level * SLOT_BITS)) & (SLOTS - 1));
+        next[order] = wheel[slot];
+        wheel[slot] = order;
+    }
+
+    /**
+     * Copies a due order's payment onto the back of the ready queue.
+     */
+    private void enqueue(int order) {
+        if (readySize == readyHolder.length) {
+            int size = readyHolder.length * 2;
+            readyHolder = unwrap(readyHolder, size);
+            readyTarget = unwrap(readyTarget, size);
+            double[] amounts = new double[size];
+            byte[] types = new byte[size];
+            for (int i = 0; i < readySize; i++) {
+                int index = (readyHead + i) % readyAmount.length;
+                amounts[i] = readyAmount[index];
+                types[i] = readyType[index];
+            }
+            readyAmount = amounts;
+            readyType = types;
+            readyHead = 0;
+        }
+        int index = (readyHead + readySize++) % readyHolder.length;
+        readyHolder[index] = holder[order];
+        readyTarget[index] = target[order];
+        readyAmount[index] = amount[order];
+        readyType[index] = type[order];
+    }
+
+    private int[] unwrap(int[] queue, int size) {
+        int[] copy = new int[size];
+        for (int i = 0; i < readySize; i++) {
+            copy[i] = queue[(readyHead + i) % queue.length];
+        }
+        return copy;
+    }
+
+    private void release(int order) {
+        type[order] = FREE;
+        generation[order]++;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = order;
+    }
+
+    private boolean isWheelEmpty() {
+        for (int head : wheel) {
+            if (head != NONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to get an account holder's index, adding it if new.
+     */
+    private int intern(String accountHolder) {
+        Integer index = holderIndex.get(accountHolder);
+        if (index == null) {
+            index = holderIndex.size();
+            if (index == holders.length) {
+                holders = Arrays.copyOf(holders, holders.length * 2);
+            }
+            holders[index] = accountHolder;
+            holderIndex.put(accountHolder, index);
+        }
+        return index;
+    }
+
+    private void grow(int size) {
+        next = grow(next, size);
+        interval = grow(interval, size);
+        remaining = grow(remaining, size);
+        generation = grow(generation, size);
+        holder = grow(holder, size);
+        target = grow(target, size);
+        due = due == null ? new long[size] : Arrays.copyOf(due, size);
+        amount = amount == null ? new double[size] : Arrays.copyOf(amount, size);
+        type = type == null ? new byte[size] : Arrays.copyOf(type, size);
+        capacity = size;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return array == null ? new int[size] : Arrays.copyOf(array, size);
+    }
+
+    /**
+     * Runs a batch of payments grouped by account holder: the holder's deposits as one
+     * summed deposit, then each repayment and transfer out.
+     */
+    private void run(int[] batchHolder, int[] batchTarget, double[] batchAmount, byte[] batchType, String[] names) {
+        int count = batchHolder.length;
+        long[] byHolder = new long[count];
+        for (int i = 0; i < count; i++) {
+            byHolder[i] = ((long) batchHolder[i] << 32) | i;
+        }
+        Arrays.sort(byHolder);
+        int refused = 0;
+        for (int start = 0; start < count; ) {
+            int account = (int) (byHolder[start] >>> 32);
+            int end = start;
+            double deposits = 0;
+            int depositCount = 0;
+            while (end < count && (int) (byHolder[end] >>> 32) == account) {
+                int i = (int) byHolder[end++];
+                if (batchType[i] == DEPOSIT) {
+                    deposits += batchAmount[i];
+                    depositCount++;
+                }
+            }
+            String name = names[account];
+            if (depositCount > 0 && accountManager.tryDeposit(name, deposits) != LedgerStatus.OK) {
+                refused += depositCount;
+            }
+            for (int k = start; k < end; k++) {
+                int i = (int) byHolder[k];
+                if (batchType[i] == REPAYMENT) {
+                    if (accountManager.tryRepayLoan(name, batchAmount[i]) != LedgerStatus.OK) {
+                        refused++;
+                    }
+                } else if (batchType[i] == TRANSFER) {
+                    if (accountManager.tryWithdraw(name, batchAmount[i]) != LedgerStatus.OK) {
+                        refused++;
+                    } else if (accountManager.tryDeposit(names[batchTarget[i]], batchAmount[i]) != LedgerStatus.OK) {
+                        accountManager.tryDeposit(name, batchAmount[i]); // refund the payer
+                        refused++;
+                    }
+                }
+            }
+            start = end;
+        }
+        fired.addAndGet(count);
+        failed.addAndGet(refused);
+    }
+}
@@ -0,0 +1,175 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lending budget that is split across padded stripes so concurrent reservations
+ * rarely touch the same memory.
+ * <p>
+ * The budget not yet handed out lives in a shared counter. Each stripe keeps a small
+ * local allowance (bounded by the configured slack) which it refills from the shared
+ * counter in chunks. Most reservations are therefore served by a compare-and-set on
+ * the caller's own stripe. When the shared counter runs dry, the allowances stranded
+ * in other stripes are drained back before a reservation is refused, so the budget
+ * is never over-committed.
+ * <p>
+ * Amounts are stored as the raw bits of a {@code double} inside atomic longs.
+ *
+ * @see ExposureLimiter
+ */
+final class StripedBudget {
+
+    private static final int PAD = 8; // longs per 64 byte cache line, keeps stripes apart
+
+    private final double capacity;
+    private final double slack;
+    private final AtomicLong remaining; // budget not handed to any stripe
+    private final AtomicLongArray stripes; // one padded slot per stripe
+    private final int mask;
+
+    /**
+     * Creates a budget with the given capacity.
+     * @param capacity The total amount that may be reserved.
+     * @param slack The largest allowance a single stripe may hold.
+     * @param stripeCount Number of stripes, rounded up to a power of two.
+     */
+    StripedBudget(double capacity, double slack, int stripeCount) {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.capacity = capacity;
+        this.slack = slack;
+        this.remaining = new AtomicLong(Double.doubleToRawLongBits(capacity));
+        this.stripes = new AtomicLongArray(size * PAD);
+        this.mask = size - 1; // zeroed longs are already 0.0 as doubles
+    }
+
+    /**
+     * Reserves an amount from the budget.
+     * @param amount The amount to reserve.
+     * @return True if the amount was reserved, otherwise false.
+     */
+    boolean tryReserve(double amount) {
+        int slot = slot();
+        // Fast path: serve from this stripe's local allowance
+        while (true) {
+            long bits = stripes.get(slot);
+            double local = Double.longBitsToDouble(bits);
+            if (local < amount) {
+                break;
+            }
+            if (stripes.compareAndSet(slot, bits, Double.doubleToRawLongBits(local - amount))) {
+                return true;
+            }
+        }
+        // Slow path: take the amount plus a fresh allowance from the shared counter
+        if (takeShared(amount, slot)) {
+            return true;
+        }
+        drainStripes();
+        return takeShared(amount, slot);
+    }
+
+    /**
+     * Returns a previously reserved amount to the budget.
+     * @param amount The amount to return.
+     */
+    void release(double amount) {
+        int slot = slot();
+        double excess = 0;
+        while (true) {
+            long bits = stripes.get(slot);
+            double local = Double.longBitsToDouble(bits) + amount;
+            double kept = Math.min(local, slack);
+            if (stripes.compareAndSet(slot, bits, Double.doubleToRawLongBits(kept))) {
+                excess = local - kept;
+                break;
+            }
+        }
+        if (excess > 0) {
+            add(remaining, excess);
+        }
+    }
+
+    /**
+     * Gets the amount currently reserved from this budget.
+     * <p>
+     * The figure is read without stopping writers, so it is only exact when the
+     * budget is quiescent.
+     * @return The reserved amount.
+     */
+    double reserved() {
+        double free = Double.longBitsToDouble(remaining.get());
+        for (int i = 0; i <= mask; i++) {
+            free += Double.longBitsToDouble(stripes.get(i * PAD));
+        }
+        return capacity - free;
+    }
+
+    /**
+     * Gets the total capacity of this budget.
+     * @return The capacity.
+     */
+    double capacity() {
+        return capacity;
+    }
+
+    private boolean takeShared(double amount, int slot) {
+        while (true) {
+            long bits = remaining.get();
+            double free = Double.longBitsToDouble(bits);
+            if (free < amount) {
+                return false;
+            }
+            double allowance = Math.min(free - amount, slack);
+            if (remaining.compareAndSet(bits, Double.doubleToRawLongBits(free - amount - allowance))) {
+                if (allowance > 0) {
+                    credit(slot, allowance);
+                }
+                return true;
+            }
+        }
+    }
+
+    private void credit(int slot, double amount) {
+        while (true) {
+            long bits = stripes.get(slot);
+            double local = Double.longBitsToDouble(bits);
+            if (stripes.compareAndSet(slot, bits, Double.doubleToRawLongBits(local + amount))) {
+                return;
+            }
+        }
+    }
+
+    private void drainStripes() {
+        for (int i = 0; i <= mask; i++) {
+            double local = Double.longBitsToDouble(stripes.getAndSet(i * PAD, Double.doubleToRawLongBits(0)));
+            if (local > 0) {
+                add(remaining, local);
+            }
+        }
+    }
+
+    private int slot() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return (h & mask) * PAD;
+    }
+
+    /**
+     * Atomically adds to a counter holding the raw bits of a double.
+     * @param counter The counter.
+     * @param delta The amount to add (may be negative).
+     */
+    static void add(AtomicLong counter, double delta) {
+        while (true) {
+            long bits = counter.get();
+            double next = Double.longBitsToDouble(bits) + delta;
+            if (counter.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * An {@link AccountStore} for ledgers with far more accounts than are active at once.
+ * Every account has a compact, fixed-size slot in a memory-mapped segment file; only
+ * accounts in use are kept on the heap as live {@link Account} objects.
+ * <p>
+ * The segment file is its own index: an open-addressed hash table of slots, each holding
+ * the holder's name, balance and loan, found by hashing the name and probing linearly.
+ * A lookup that misses in memory reads the slot and creates (hydrates) a live account.
+ * Removing an account leaves a tombstone in its slot, so probe runs through it still
+ * find the accounts beyond, and a later account may take the slot over.
+ * <p>
+ * Live accounts are kept within a memory budget, estimated per account. When over budget,
+ * idle accounts are written back to their slots and dropped from the heap, chosen by a
+ * CLOCK sweep: an account used since the last sweep gets another chance. An account is
+ * only evicted if its lock is free, and it is marked as evicted under that lock, so an
+ * {@link AccountManager} that found it just before will look it up again rather than
+ * update a stale copy. Hot accounts that have ever split their balance are never evicted.
+ * <p>
+ * The file holds a fixed number of accounts, chosen when it is created. Call
+ * {@link #close()} (or {@link #flush()}) to write every live account back.
+ *
+ * @see AccountManager
+ * @see InMemoryAccountStore
+ */
+public class TieredAccountStore implements AccountStore, Closeable {
+
+    /** Rough heap cost of a live account excluding the holder's characters: account, lock, map entry, string. */
+    static final long RESIDENT_OVERHEAD_BYTES = 200;
+
+    private static final int MAGIC = 0x4C445347; // "LDSG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final long CHUNK_BYTES = 1L << 30;
+    private static final int STRIPES = 256;
+
+    /**
+     * A live account, the slot it belongs to, and its CLOCK reference bit.
+     */
+    private static final class Resident {
+        final Account account;
+        final long slot;
+        volatile boolean referenced = true;
+
+        Resident(Account account, long slot) {
+            this.account = account;
+            this.slot = slot;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long slots;
+    private final long capacity;
+    private final int nameWidth;
+    private final int slotBytes;
+    private final long slotsPerChunk;
+    private final long memoryBudget;
+    private final Map<String, Resident> resident = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ReentrantLock insertLock = new ReentrantLock();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private Iterator<Resident> clockHand; // guarded by evictLock
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final AtomicLong count;
+    private final LongAdder hydrations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile Consumer<Account> loadListener;
+
+    private TieredAccountStore(FileChannel channel, long slots, long capacity, int nameWidth, long count, long memoryBudget) throws IOException {
+        this.channel = channel;
+        this.slots = slots;
+        this.capacity = capacity;
+        this.nameWidth = nameWidth;
+        this.slotBytes = 1 + nameWidth + 16;
+        this.slotsPerChunk = CHUNK_BYTES / slotBytes;
+        this.count = new AtomicLong(count);
+        this.memoryBudget = memoryBudget;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        int chunkCount = (int) ((slots + slotsPerChunk - 1) / slotsPerChunk);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long first = i * slotsPerChunk;
+            long length = Math.min(slotsPerChunk, slots - first) * slotBytes;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + first * slotBytes, length);
+        }
+    }
+
+    /**
+     * Creates a new, empty segment file.
+     * @param file The file to create; it must not exist.
+     * @param capacity The most accounts the file will hold.
+     * @param nameWidth The longest account holder name, in UTF-8 bytes (at most 255).
+     * @param memoryBudget Roughly how many bytes of heap live accounts may use.
+     * @return The store.
+     * @throws IllegalArgumentException if a size is out of range
+     * @throws IOException if the file can't be created
+     */
+    public static TieredAccountStore create(Path file, long capacity, int nameWidth, long memoryBudget) throws IllegalArgumentException, IOException {
+        if (capacity <= 0 || nameWidth <= 0 || nameWidth > 255 || memoryBudget <= 0) {
+            throw new IllegalArgumentException("Capacity, name width and memory budget must be positive, and names at most 255 bytes");
+        }
+        long slots = capacity + capacity / 3 + 1; // at most 75% full, keeping probe runs short
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            channel.write(ByteBuffer.wrap(new byte[] {0}), HEADER_BYTES + slots * (1 + nameWidth + 16) - 1);
+            TieredAccountStore store = new TieredAccountStore(channel, slots, capacity, nameWidth, 0, memoryBudget);
+            store.writeHeader();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing segment file.
+     * @param file The file to open.
+     * @param memoryBudget Roughly how many bytes of heap live accounts may use.
+     * @return The store.
+     * @throws IllegalArgumentException if the memory budget is not positive
+     * @throws IOException if the file can't be opened or isn't a segment file
+     */
+    public static TieredAccountStore open(Path file, long memoryBudget) throws IllegalArgumentException, IOException {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            long slots = header.getLong();
+            long capacity = header.getLong();
+            int nameWidth = header.getInt();
+            long count = header.getLong();
+            return new TieredAccountStore(channel, slots, capacity, nameWidth, count, memoryBudget);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Account get(String accountHolder) {
+        Resident live = resident.get(accountHolder);
+        if (live != null) {
+            if (!live.referenced) {
+                live.referenced = true;
+            }
+            return live.account;
+        }
+        byte[] name = encode(accountHolder);
+        if (name == null) {
+            return null; // too long to have been stored
+        }
+        Account account;
+        ReentrantLock stripe = stripeFor(accountHolder);
+        stripe.lock();
+        try {
+            live = resident.get(accountHolder);
+            if (live != null) {
+                return live.account;
+            }
+            long slot = find(name);
+            if (slot < 0) {
+                return null;
+            }
+            account = new Account(accountHolder, getDouble(slot, 1 + nameWidth), getDouble(slot, 1 + nameWidth + 8));
+            Consumer<Account> listener = loadListener;
+            if (listener != null) {
+                listener.accept(account);
+            }
+            resident.put(accountHolder, new Resident(account, slot));
+            residentBytes.addAndGet(weigh(accountHolder));
+            hydrations.increment();
+        } finally {
+            stripe.unlock();
+        }
+        evictIfOverBudget();
+        return account;
+    }
+
+    /**
+     * Adds an account, writing it to the segment file at once and keeping it live.
+     * @param account The new account.
+     * @return True if the account was added, false if the holder already had one.
+     * @throws IllegalArgumentException if the holder's name is longer than the file allows
+     * @throws IllegalStateException if the file is full
+     */
+    @Override
+    public boolean putIfAbsent(Account account) throws IllegalArgumentException, IllegalStateException {
+        String accountHolder = account.getAccountHolder();
+        byte[] name = checkedEncode(accountHolder);
+        ReentrantLock stripe = stripeFor(accountHolder);
+        stripe.lock();
+        try {
+            if (resident.containsKey(accountHolder)) {
+                return false;
+            }
+            long slot = insert(name, account.getBalance(), account.getLoan());
+            if (slot < 0) {
+                return false;
+            }
+            resident.put(accountHolder, new Resident(account, slot));
+            residentBytes.addAndGet(weigh(accountHolder));
+        } finally {
+            stripe.unlock();
+        }
+        evictIfOverBudget();
+        return true;
+    }
+
+    /**
+     * Adds an account straight to the segment file without making it live, for loading
+     * large numbers of dormant accounts.
+     * @param accountHolder The name of the account holder.
+     * @param balance The balance.
+     * @param loan The loan amount.
+     * @return True if the account was added, false if the holder already had one.
+     * @throws IllegalArgumentException if the holder's name is longer than the file allows
+     * @throws IllegalStateException if the file is full
+     */
+    public boolean addDormant(String accountHolder, double balance, double loan) throws IllegalArgumentException, IllegalStateException {
+        byte[] name = checkedEncode(accountHolder);
+        ReentrantLock stripe = stripeFor(accountHolder);
+        stripe.lock();
+        try {
+            return !resident.containsKey(accountHolder) && insert(name, balance, loan) >= 0;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Visits every account once, walking the segment file slot by slot: a live account
+     * as it is, with its lock held so it can't be evicted during the visit, and an account
+     * that is only on disk as a detached copy, which is not kept and whose changes are not
+     * saved. An account loaded during the walk is visited as whichever it was when the
+     * walk reached its slot. Accounts added or removed during the walk may or may not be
+     * visited.
+     * @param action Called once per account.
+     */
+    @Override
+    public void forEach(Consumer<Account> action) {
+        byte[] name = new byte[nameWidth];
+        for (long slot = 0; slot < slots; slot++) {
+            ByteBuffer chunk = chunks[(int) (slot / slotsPerChunk)];
+            int offset = (int) (slot % slotsPerChunk) * slotBytes;
+            int length = chunk.get(offset) & 0xFF;
+            if (length == 0 || chunk.get(offset + 1) == 0) {
+                continue; // empty, or a tombstone
+            }
+            chunk.get(offset + 1, name, 0, length);
+            visit(slot, Arrays.copyOf(name, length), action);
+        }
+    }
+
+    /**
+     * Visits the account in a slot, if the slot still holds it.
+     */
+    private void visit(long slot, byte[] name, Consumer<Account> action) {
+        String accountHolder = new String(name, StandardCharsets.UTF_8);
+        ReentrantLock stripe = stripeFor(accountHolder);
+        while (true) {
+            Resident live = resident.get(accountHolder);
+            if (live != null) {
+                if (live.slot != slot) {
+                    return; // removed and added again elsewhere since the slot was read
+                }
+                Account account = live.account;
+                account.lock();
+                try {
+                    if (!account.isEvicted()) {
+                        action.accept(account);
+                        return;
+                    }
+                } finally {
+                    account.unlock();
+                }
+                continue; // evicted or removed since it was found; look again
+            }
+            Account copy;
+            stripe.lock();
+            try {
+                if (resident.containsKey(accountHolder)) {
+                    continue; // loaded since it was looked for
+                }
+                if (!holds(slot, name)) {
+                    return; // removed, or the name was read mid-write
+                }
+                copy = new Account(accountHolder, getDouble(slot, 1 + nameWidth), getDouble(slot, 1 + nameWidth + 8));
+            } finally {
+                stripe.unlock();
+            }
+            action.accept(copy);
+            return;
+        }
+    }
+
+    /**
+     * Removes an account, leaving a tombstone in its slot, and drops it from the heap.
+     * The caller marks the live instance, if any, as evicted.
+     * @param accountHolder The name of the account holder.
+     * @return True if an account was removed, false if the holder had none.
+     */
+    @Override
+    public boolean remove(String accountHolder) {
+        byte[] name = encode(accountHolder);
+        if (name == null) {
+            return false;
+        }
+        ReentrantLock stripe = stripeFor(accountHolder);
+        stripe.lock();
+        try {
+            long slot = find(name);
+            if (slot < 0) {
+                return false;
+            }
+            if (resident.remove(accountHolder) != null) {
+                residentBytes.addAndGet(-weigh(accountHolder));
+            }
+            chunks[(int) (slot / slotsPerChunk)].put((int) (slot % slotsPerChunk) * slotBytes + 1, (byte) 0);
+            count.decrementAndGet();
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return count.get();
+    }
+
+    @Override
+    public void setLoadListener(Consumer<Account> listener) {
+        this.loadListener = listener;
+    }
+
+    /**
+     * Gets the number of accounts currently live on the heap.
+     * @return The live account count.
+     */
+    public long getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Gets the estimated heap used by live accounts.
+     * @return The estimate in bytes.
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * Gets the number of accounts loaded from the segment file.
+     * @return The hydration count.
+     */
+    public long getHydrationCount() {
+        return hydrations.sum();
+    }
+
+    /**
+     * Gets the number of accounts written back and dropped from the heap.
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Writes every live account back to its slot and forces the file to disk. Live
+     * accounts stay live.
+     * @throws IOException if the file can't be written
+     */
+    public void flush() throws IOException {
+        for (Resident live : resident.values()) {
+            Account account = live.account;
+            account.lock();
+            try {
+                if (!account.isEvicted()) {
+                    writeValues(live.slot, account.getBalance(), account.getLoan());
+                }
+            } finally {
+                account.unlock();
+            }
+        }
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        writeHeader();
+        channel.force(true);
+    }
+
+    /**
+     * Flushes the store and closes the segment file. The store must not be used afterwards.
+     * @throws IOException if the file can't be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void evictIfOverBudget() {
+        if (residentBytes.get() <= memoryBudget || !evictLock.tryLock()) {
+            return; // within budget, or another thread is already sweeping
+        }
+        try {
+            long limit = 2L * resident.size() + 16; // two passes clear every reference bit
+            for (long scanned = 0; residentBytes.get() > memoryBudget && scanned < limit; scanned++) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = resident.values().iterator();
+                    if (!clockHand.hasNext()) {
+                        return;
+                    }
+                }
+                Resident live = clockHand.next();
+                if (live.referenced) {
+                    live.referenced = false;
+                } else {
+                    evict(live);
+                }
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    private void evict(Resident live) {
+        Account account = live.account;
+        if (account.hasSplit() || !account.tryLock()) {
+            return; // pinned hot account, or in use
+        }
+        String accountHolder = account.getAccountHolder();
+        try {
+            ReentrantLock stripe = stripeFor(accountHolder);
+            stripe.lock();
+            try {
+                if (account.isEvicted() || !resident.remove(accountHolder, live)) {
+                    return;
+                }
+                writeValues(live.slot, account.getBalance(), account.getLoan());
+                account.markEvicted();
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            account.unlock();
+        }
+        residentBytes.addAndGet(-weigh(accountHolder));
+        evictions.increment();
+    }
+
+    /**
+     * Writes a new account into the first empty slot or tombstone on its probe run. Must
+     * hold the holder's stripe lock.
+     * @return The slot, or -1 if the holder is already in the file.
+     */
+    private long insert(byte[] name, double balance, double loan) {
+        insertLock.lock();
+        try {
+            long found = find(name);
+            if (found >= 0) {
+                return -1;
+            }
+            if (count.get() >= capacity) {
+                throw new IllegalStateException("Segment file is full (" + capacity + " accounts)");
+            }
+            long slot = -found - 1;
+            ByteBuffer chunk = chunks[(int) (slot / slotsPerChunk)];
+            int offset = (int) (slot % slotsPerChunk) * slotBytes;
+            // The first byte of the name is written last: until then the slot is empty, or a tombstone
+            chunk.put(offset + 2, name, 1, name.length - 1);
+            writeValues(slot, balance, loan);
+            chunk.put(offset, (byte) name.length);
+            chunk.put(offset + 1, name[0]);
+            count.incrementAndGet();
+            return slot;
+        } finally {
+            insertLock.unlock();
+        }
+    }
+
+    /**
+     * Probes for a name, passing over tombstones. The file always has more slots than
+     * accounts, so a probe that meets no empty slot still passes a tombstone.
+     * @return The slot holding it, or -(first empty slot or tombstone + 1) if absent.
+     */
+    private long find(byte[] name) {
+        long slot = home(name);
+        long free = -1;
+        for (long probes = 0; probes < slots; probes++) {
+            ByteBuffer chunk = chunks[(int) (slot / slotsPerChunk)];
+            int offset = (int) (slot % slotsPerChunk) * slotBytes;
+            int length = chunk.get(offset) & 0xFF;
+            if (length == 0) {
+                return -(free >= 0 ? free : slot) - 1;
+            }
+            if (chunk.get(offset + 1) == 0) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (length == name.length && matches(chunk, offset + 1, name)) {
+                return slot;
+            }
+            slot = slot + 1 == slots ? 0 : slot + 1;
+        }
+        return -free - 1;
+    }
+
+    /**
+     * Checks that a slot holds a name and not a tombstone.
+     */
+    private boolean holds(long slot, byte[] name) {
+        ByteBuffer chunk = chunks[(int) (slot / slotsPerChunk)];
+        int offset = (int) (slot % slotsPerChunk) * slotBytes;
+        return (chunk.get(offset) & 0xFF) == name.length && matches(chunk, offset + 1, name);
+    }
+
+    private static boolean matches(ByteBuffer chunk, int offset, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (chunk.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long home(byte[] name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name) {
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 31;
+        return Long.remainderUnsigned(hash, slots);
+    }
+
+    private double getDouble(long slot, int field) {
+        return chunks[(int) (slot / slotsPerChunk)].getDouble((int) (slot % slotsPerChunk) * slotBytes + field);
+    }
+
+    private void writeValues(long slot, double balance, double loan) {
+        ByteBuffer chunk = chunks[(int) (slot / slotsPerChunk)];
+        int offset = (int) (slot % slotsPerChunk) * slotBytes + 1 + nameWidth;
+        chunk.putDouble(offset, balance);
+        chunk.putDouble(offset + 8, loan);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(slots).putLong(capacity).putInt(nameWidth).putLong(count.get());
+        header.clear();
+        channel.write(header, 0);
+    }
+
+    private byte[] encode(String accountHolder) {
+        byte[] name = accountHolder.getBytes(StandardCharsets.UTF_8);
+        return name.length == 0 || name.length > nameWidth || name[0] == 0 ? null : name;
+    }
+
+    private byte[] checkedEncode(String accountHolder) throws IllegalArgumentException {
+        byte[] name = encode(accountHolder);
+        if (name == null) {
+            throw new IllegalArgumentException("Account holder name must be 1 to " + nameWidth
+                    + " bytes long and not start with a NUL character");
+        }
+        return name;
+    }
+
+    private ReentrantLock stripeFor(String accountHolder) {
+        int hash = accountHolder.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static long weigh(String accountHolder) {
+        return RESIDENT_OVERHEAD_BYTES + accountHolder.length();
+    }
+}
@@ -0,0 +1,349 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Refuses withdrawals that would take an account holder over a number of withdrawals or
+ * a total amount within a time window.
+ * <p>
+ * The window is cut into eight slices, and each account holder has a ring of withdrawal
+ * counts and amounts for the slice in progress and the eight before it. A withdrawal
+ * passes only if the ring's totals, with it added, stay within both limits. Any window
+ * of the given length lies within those nine slices, so no more than the limits ever go
+ * out in any window; in return a withdrawal counts against the limits for up to an
+ * eighth of a window longer than the window itself.
+ * <p>
+ * Rings are kept in an open-addressing table split into stripes, each stripe a set of
+ * parallel primitive arrays behind its own lock, so a check is a hash, a short probe
+ * and some arithmetic with no allocation, and checks for different holders rarely meet
+ * on a lock. A ring whose slices have all passed is empty, which is the same as having
+ * none, so idle rings are dropped lazily when their stripe would otherwise have to grow.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see AccountManager#setWithdrawalCheck(WithdrawalCheck)
+ */
+public class VelocityLimiter implements WithdrawalCheck {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int SLICES = 8; // per window
+    private static final int RING = SLICES + 1; // the slice in progress and a window of slices before it
+    // Longs per slot in a stripe's state array, and their offsets
+    private static final int STRIDE = 2 + 2 * RING;
+    private static final int KEY = 0;
+    private static final int LAST_SLICE = 1;
+    private static final int WITHDRAWALS = 2; // RING counts, by slice number modulo RING
+    private static final int AMOUNTS = WITHDRAWALS + RING; // RING amounts as double bits
+
+    private final int maxWithdrawals;
+    private final double maxAmount;
+    private final long sliceNanos;
+    private final LongSupplier clock;
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * Creates a limiter on the system clock, with a stripe per available processor.
+     * @param maxWithdrawals The most withdrawals an account holder may make in a window.
+     * @param maxAmount The most an account holder may withdraw in a window; may be {@link Double#POSITIVE_INFINITY}.
+     * @param windowMillis The length of the window in milliseconds.
+     * @throws IllegalArgumentException if a limit or the window is not positive
+     */
+    public VelocityLimiter(int maxWithdrawals, double maxAmount, long windowMillis) throws IllegalArgumentException {
+        this(maxWithdrawals, maxAmount, windowMillis, Runtime.getRuntime().availableProcessors(), System::nanoTime);
+    }
+
+    /**
+     * Creates a limiter on a chosen clock, such as a simulated one.
+     * @param maxWithdrawals The most withdrawals an account holder may make in a window.
+     * @param maxAmount The most an account holder may withdraw in a window; may be {@link Double#POSITIVE_INFINITY}.
+     * @param windowMillis The length of the window in milliseconds.
+     * @param stripeCount The number of stripes, rounded up to a power of two.
+     * @param nanoClock The clock, in nanoseconds, as from {@link System#nanoTime()}.
+     * @throws IllegalArgumentException if a limit, the window or the stripe count is not positive, or the clock is null
+     */
+    public VelocityLimiter(int maxWithdrawals, double maxAmount, long windowMillis, int stripeCount, LongSupplier nanoClock)
+            throws IllegalArgumentException {
+        if (maxWithdrawals <= 0 || !(maxAmount > 0)) {
+            throw new IllegalArgumentException("Velocity limits must be positive");
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        if (nanoClock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
+        }
+        this.maxWithdrawals = maxWithdrawals;
+        this.maxAmount = maxAmount;
+        this.sliceNanos = windowMillis * 1_000_000 / SLICES;
+        this.clock = nanoClock;
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Counts a withdrawal against the account holder's limits, if both have room.
+     * @param accountHolder The name of the account holder.
+     * @param amount The withdrawal amount.
+     * @return {@link LedgerStatus#OK}, or {@link LedgerStatus#VELOCITY_LIMIT} if either limit would be broken.
+     */
+    @Override
+    public int tryReserve(String accountHolder, double amount) {
+        if (amount > maxAmount) {
+            return LedgerStatus.VELOCITY_LIMIT;
+        }
+        long slice = slice();
+        int hash = spread(accountHolder.hashCode());
+        Stripe stripe = stripes[(hash >>> 24) & mask];
+        synchronized (stripe) {
+            int slot = stripe.find(accountHolder, hash);
+            if (slot < 0) {
+                slot = stripe.insert(accountHolder, hash, slice);
+            } else {
+                advance(stripe.state, slot, slice);
+            }
+            long[] state = stripe.state;
+            long withdrawals = 0;
+            double amounts = 0;
+            for (int i = 0; i < RING; i++) {
+                withdrawals += state[slot + WITHDRAWALS + i];
+                amounts += Double.longBitsToDouble(state[slot + AMOUNTS + i]);
+            }
+            if (withdrawals >= maxWithdrawals || amounts + amount > maxAmount) {
+                return LedgerStatus.VELOCITY_LIMIT;
+            }
+            int current = (int) Math.floorMod(state[slot + LAST_SLICE], (long) RING);
+            state[slot + WITHDRAWALS + current]++;
+            state[slot + AMOUNTS + current] = Double.doubleToRawLongBits(
+                    Double.longBitsToDouble(state[slot + AMOUNTS + current]) + amount);
+        }
+        return LedgerStatus.OK;
+    }
+
+    /**
+     * Takes a withdrawal back off the account holder's counts, newest slice first.
+     * @param accountHolder The name of the account holder.
+     * @param amount The withdrawal amount.
+     */
+    @Override
+    public void release(String accountHolder, double amount) {
+        long slice = slice();
+        int hash = spread(accountHolder.hashCode());
+        Stripe stripe = stripes[(hash >>> 24) & mask];
+        synchronized (stripe) {
+            int slot = stripe.find(accountHolder, hash);
+            if (slot >= 0) {
+                long[] state = stripe.state;
+                advance(state, slot, slice);
+                long withdrawals = 1;
+                double amounts = amount;
+                for (int i = 0; i < RING && (withdrawals > 0 || amounts > 0); i++) {
+                    int index = (int) Math.floorMod(state[slot + LAST_SLICE] - i, (long) RING);
+                    long count = state[slot + WITHDRAWALS + index];
+                    long taken = Math.min(count, withdrawals);
+                    state[slot + WITHDRAWALS + index] = count - taken;
+                    withdrawals -= taken;
+                    double total = Double.longBitsToDouble(state[slot + AMOUNTS + index]);
+                    double returned = Math.min(total, amounts);
+                    state[slot + AMOUNTS + index] = Double.doubleToRawLongBits(total - returned);
+                    amounts -= returned;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets how many withdrawals an account holder could make right now.
+     * @param accountHolder The name of the account holder.
+     * @return The withdrawals left, rounded down.
+     */
+    public int getRemainingWithdrawals(String accountHolder) {
+        int hash = spread(accountHolder.hashCode());
+        Stripe stripe = stripes[(hash >>> 24) & mask];
+        synchronized (stripe) {
+            int slot = stripe.find(accountHolder, hash);
+            if (slot < 0) {
+                return maxWithdrawals;
+            }
+            advance(stripe.state, slot, slice());
+            long withdrawals = 0;
+            for (int i = 0; i < RING; i++) {
+                withdrawals += stripe.state[slot + WITHDRAWALS + i];
+            }
+            return (int) (maxWithdrawals - withdrawals);
+        }
+    }
+
+    /**
+     * Gets how much an account holder could withdraw right now.
+     * @param accountHolder The name of the account holder.
+     * @return The amount left.
+     */
+    public double getRemainingAmount(String accountHolder) {
+        int hash = spread(accountHolder.hashCode());
+        Stripe stripe = stripes[(hash >>> 24) & mask];
+        synchronized (stripe) {
+            int slot = stripe.find(accountHolder, hash);
+            if (slot < 0) {
+                return maxAmount;
+            }
+            advance(stripe.state, slot, slice());
+            double amounts = 0;
+            for (int i = 0; i < RING; i++) {
+                amounts += Double.longBitsToDouble(stripe.state[slot + AMOUNTS + i]);
+            }
+            return maxAmount - amounts;
+        }
+    }
+
+    /**
+     * Gets the number of account holders with a ring, including idle ones not yet dropped.
+     * @return The number of tracked account holders.
+     */
+    public int getTrackedCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Helper method to get the number of the slice the clock is in.
+     */
+    private long slice() {
+        return Math.floorDiv(clock.getAsLong(), sliceNanos);
+    }
+
+    /**
+     * Helper method to move a ring on to a slice, clearing the slices that have passed
+     * out of it since it was last used.
+     */
+    private static void advance(long[] state, int slot, long slice) {
+        long last = state[slot + LAST_SLICE];
+        if (slice > last) {
+            long passed = Math.min(slice - last, RING);
+            for (long s = last + 1; s <= last + passed; s++) {
+                int index = (int) Math.floorMod(s, (long) RING);
+                state[slot + WITHDRAWALS + index] = 0;
+                state[slot + AMOUNTS + index] = 0;
+            }
+            state[slot + LAST_SLICE] = slice;
+        }
+    }
+
+    /**
+     * Mixes a holder's hash code so similar names land far apart: the top bits pick the
+     * stripe and the low bits the slot.
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * One stripe of the table: linear probing, at most three quarters full. Each slot's
+     * hash, last slice and ring sit together in {@code state}, so a lookup touches the
+     * slot's first cache line and only reads the holder's name when the hash matches.
+     * Guarded by its own monitor.
+     */
+    private final class Stripe {
+        String[] holders = new String[INITIAL_CAPACITY];
+        long[] state = new long[INITIAL_CAPACITY * STRIDE];
+        int size;
+
+        /**
+         * Finds a holder's slot.
+         * @return The slot's offset in {@code state}, or -1 if the holder has no ring.
+         */
+        int find(String accountHolder, int hash) {
+            long key = key(hash);
+            int tableMask = holders.length - 1;
+            for (int index = hash & tableMask; ; index = (index + 1) & tableMask) {
+                long slotKey = state[index * STRIDE + KEY];
+                if (slotKey == 0) {
+                    return -1;
+                }
+                if (slotKey == key) {
+                    String holder = holders[index];
+                    if (holder == accountHolder || holder.equals(accountHolder)) {
+                        return index * STRIDE;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds an empty ring, first dropping idle ones or growing if the stripe is too
+         * full.
+         * @return The new slot's offset in {@code state}.
+         */
+        int insert(String accountHolder, int hash, long slice) {
+            if ((size + 1) * 4 > holders.length * 3) {
+                rebuild(slice);
+            }
+            int slot = place(accountHolder, hash);
+            state[slot + LAST_SLICE] = slice;
+            return slot;
+        }
+
+        private int place(String accountHolder, int hash) {
+            int tableMask = holders.length - 1;
+            int index = hash & tableMask;
+            while (holders[index] != null) {
+                index = (index + 1) & tableMask;
+            }
+            holders[index] = accountHolder;
+            state[index * STRIDE + KEY] = key(hash);
+            size++;
+            return index * STRIDE;
+        }
+
+        /**
+         * Rehashes the stripe without rings whose slices have all passed, doubling the
+         * table only if it would still be more than half full.
+         */
+        private void rebuild(long slice) {
+            int live = 0;
+            for (int i = 0; i < holders.length; i++) {
+                if (holders[i] != null && slice - state[i * STRIDE + LAST_SLICE] < RING) {
+                    live++;
+                }
+            }
+            int capacity = live * 2 >= holders.length ? holders.length * 2 : holders.length;
+            String[] oldHolders = holders;
+            long[] oldState = state;
+            holders = new String[capacity];
+            state = new long[capacity * STRIDE];
+            size = 0;
+            for (int i = 0; i < oldHolders.length; i++) {
+                int from = i * STRIDE;
+                if (oldHolders[i] == null || slice - oldState[from + LAST_SLICE] < RING) {
+                    if (oldHolders[i] != null) {
+                        int slot = place(oldHolders[i], (int) oldState[from + KEY]);
+                        System.arraycopy(oldState, from + LAST_SLICE, state, slot + LAST_SLICE, STRIDE - LAST_SLICE);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The value stored for a hash, never 0 so an empty slot can be told apart.
+     */
+    private static long key(int hash) {
+        return (hash & 0xFFFFFFFFL) | (1L << 32);
+    }
+}
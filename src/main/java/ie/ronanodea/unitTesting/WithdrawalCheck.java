@@ -0,0 +1,33 @@
+package ie.ronanodea.unitTesting;
+
+/**
+ * A check run by {@link AccountManager} before every withdrawal, such as a fraud or
+ * velocity rule.
+ * <p>
+ * A check works like a reservation: {@link #tryReserve(String, double)} counts the
+ * withdrawal against the account holder's limits, and if the withdrawal then doesn't go
+ * ahead (the account has too little money, or has gone) the manager hands it back with
+ * {@link #release(String, double)}. Checks are called without the account's lock, from
+ * any thread, so they must be thread-safe, and they sit on the withdrawal path, so they
+ * should be quick and allocate nothing.
+ *
+ * @see VelocityLimiter
+ * @see AccountManager#setWithdrawalCheck(WithdrawalCheck)
+ */
+public interface WithdrawalCheck {
+
+    /**
+     * Counts a withdrawal against the account holder's limits, if it fits.
+     * @param accountHolder The name of the account holder (never null).
+     * @param amount The withdrawal amount (always positive).
+     * @return {@link LedgerStatus#OK} if the withdrawal may go ahead, otherwise the status to refuse it with.
+     */
+    int tryReserve(String accountHolder, double amount);
+
+    /**
+     * Hands back a withdrawal that was reserved but didn't go ahead.
+     * @param accountHolder The name of the account holder.
+     * @param amount The withdrawal amount.
+     */
+    void release(String accountHolder, double amount);
+}
@@ -0,0 +1,176 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates a production-shaped, repeatable ledger workload as a {@link WorkloadTrace}.
+ * <p>
+ * The same seed and settings always produce the same trace. Settings cover:
+ * <ul>
+ *  <li>Holder popularity: Zipfian over the accounts, holder 0 being the busiest.</li>
+ *  <li>Operation mix: relative weights of deposits, withdrawals, loan approvals, loan
+ *      repayments and balance reads.</li>
+ *  <li>Arrivals: a Poisson process at a base rate, multiplied by a burst factor for a
+ *      share of each burst period.</li>
+ *  <li>Amounts: log-uniform between 1.00 and a maximum, in whole cents.</li>
+ * </ul>
+ *
+ * @see WorkloadTrace
+ * @see WorkloadReplayer
+ */
+public class WorkloadGenerator {
+
+    private final long seed;
+    private final int accounts;
+    private double zipfTheta = ZipfianGenerator.DEFAULT_THETA;
+    private int[] mix = {30, 20, 5, 5, 40}; // deposit, withdraw, approveLoan, repayLoan, getBalance
+    private double ratePerSecond = 100_000;
+    private double burstFactor = 1;
+    private long burstPeriodNanos = 1_000_000_000L;
+    private double burstShare = 0;
+    private double maxAmount = 1000;
+    private double openingBalance = 10_000;
+
+    /**
+     * Creates a generator with default settings: 99% Zipfian skew, a read-heavy mix,
+     * 100,000 operations per second and no bursts.
+     * @param seed Seed for every random choice.
+     * @param accounts Number of accounts.
+     * @throws IllegalArgumentException if accounts is not positive
+     */
+    public WorkloadGenerator(long seed, int accounts) throws IllegalArgumentException {
+        if (accounts <= 0) {
+            throw new IllegalArgumentException("Account count must be positive");
+        }
+        this.seed = seed;
+        this.accounts = accounts;
+    }
+
+    /**
+     * Sets the Zipfian skew of holder popularity.
+     * @param theta Skew between 0 (uniform) and just below 1.
+     * @throws IllegalArgumentException if theta is not at least 0 and below 1
+     */
+    public void setZipfTheta(double theta) throws IllegalArgumentException {
+        if (!(theta >= 0 && theta < 1)) {
+            throw new IllegalArgumentException("Zipf theta must be at least 0 and below 1");
+        }
+        this.zipfTheta = theta;
+    }
+
+    /**
+     * Sets the relative weights of each operation.
+     * @param deposit Weight of deposits.
+     * @param withdraw Weight of withdrawals.
+     * @param approveLoan Weight of loan approvals.
+     * @param repayLoan Weight of loan repayments.
+     * @param getBalance Weight of balance reads.
+     * @throws IllegalArgumentException if a weight is negative or all are zero
+     */
+    public void setOperationMix(int deposit, int withdraw, int approveLoan, int repayLoan, int getBalance) throws IllegalArgumentException {
+        int[] weights = {deposit, withdraw, approveLoan, repayLoan, getBalance};
+        int total = 0;
+        for (int weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Operation weights cannot be negative");
+            }
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("At least one operation weight must be positive");
+        }
+        this.mix = weights;
+    }
+
+    /**
+     * Sets the base arrival rate.
+     * @param ratePerSecond Mean operations per second outside bursts.
+     * @throws IllegalArgumentException if the rate is not positive
+     */
+    public void setArrivalRate(double ratePerSecond) throws IllegalArgumentException {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Arrival rate must be positive");
+        }
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    /**
+     * Sets bursty arrivals: for the first share of every period the rate is multiplied.
+     * @param factor Rate multiplier during a burst.
+     * @param periodNanos Length of a burst period.
+     * @param share Fraction of each period spent bursting, between 0 and 1.
+     * @throws IllegalArgumentException if the factor or period is not positive, or the share is not between 0 and 1
+     */
+    public void setBursts(double factor, long periodNanos, double share) throws IllegalArgumentException {
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("Burst factor must be positive");
+        }
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("Burst period must be positive");
+        }
+        if (!(share >= 0 && share <= 1)) {
+            throw new IllegalArgumentException("Burst share must be between 0 and 1");
+        }
+        this.burstFactor = factor;
+        this.burstPeriodNanos = periodNanos;
+        this.burstShare = share;
+    }
+
+    /**
+     * Sets the largest amount of a single operation.
+     * @param maxAmount The largest amount.
+     * @throws IllegalArgumentException if the amount is not positive and finite
+     */
+    public void setMaxAmount(double maxAmount) throws IllegalArgumentException {
+        if (!(maxAmount > 0) || Double.isInfinite(maxAmount)) {
+            throw new IllegalArgumentException("Maximum amount must be positive");
+        }
+        this.maxAmount = maxAmount;
+    }
+
+    /**
+     * Sets the opening balance of every account.
+     * @param openingBalance The opening balance.
+     * @throws IllegalArgumentException if the balance is not positive and finite, as accounts must open with a deposit
+     */
+    public void setOpeningBalance(double openingBalance) throws IllegalArgumentException {
+        if (!(openingBalance > 0) || Double.isInfinite(openingBalance)) {
+            throw new IllegalArgumentException("Opening balance must be positive");
+        }
+        this.openingBalance = openingBalance;
+    }
+
+    /**
+     * Generates a trace.
+     * @param operations Number of operations.
+     * @return The trace.
+     */
+    public WorkloadTrace generate(int operations) {
+        SplittableRandom random = new SplittableRandom(seed);
+        ZipfianGenerator zipf = new ZipfianGenerator(accounts, zipfTheta);
+        WorkloadTrace trace = new WorkloadTrace("Holder", accounts, Math.round(openingBalance * 100));
+        int totalWeight = 0;
+        for (int weight : mix) {
+            totalWeight += weight;
+        }
+        double logMax = Math.log(Math.max(1, maxAmount));
+        long arrival = 0;
+        for (int i = 0; i < operations; i++) {
+            boolean bursting = burstShare > 0 && (arrival % burstPeriodNanos) < burstShare * burstPeriodNanos;
+            double rate = bursting ? ratePerSecond * burstFactor : ratePerSecond;
+            arrival += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+
+            int pick = random.nextInt(totalWeight);
+            byte operation = 0;
+            while (pick >= mix[operation]) {
+                pick -= mix[operation];
+                operation++;
+            }
+            int holder = (int) zipf.next(random);
+            long cents = operation == WorkloadTrace.GET_BALANCE ? 0
+                    : Math.round(Math.exp(random.nextDouble() * logMax) * 100);
+            trace.add(operation, holder, cents, arrival);
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,139 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a {@link WorkloadTrace} against an {@link AccountManager} and reports
+ * throughput, latency percentiles and a checksum of the final ledger state.
+ * <p>
+ * Replay is single-threaded, so the order in which operations reach the ledger, and
+ * therefore the checksum, is fully determined by the trace. Two modes are offered:
+ * <ul>
+ *  <li>Full speed issues each operation as soon as the previous one completes, and
+ *      times the operation alone.</li>
+ *  <li>Real time waits for each operation's recorded arrival time, and times it from
+ *      that arrival. An operation that had to wait behind a slow predecessor is charged
+ *      for the wait, as a real client would be, so stalls are not hidden from the
+ *      percentiles (coordinated omission).</li>
+ * </ul>
+ *
+ * @see WorkloadGenerator
+ * @see ReplayReport
+ */
+public class WorkloadReplayer {
+
+    private final AccountManager accountManager;
+
+    /**
+     * Creates a replayer.
+     * @param accountManager The manager to replay against. Its configuration (cache,
+     *                       change stream, exposure limiter and so on) is left as is.
+     */
+    public WorkloadReplayer(AccountManager accountManager) {
+        this.accountManager = accountManager;
+    }
+
+    /**
+     * Opens every account the trace uses that doesn't exist yet, with the trace's
+     * opening balance.
+     * @param trace The trace.
+     */
+    public void openAccounts(WorkloadTrace trace) {
+        for (int i = 0; i < trace.getAccounts(); i++) {
+            accountManager.tryAddAccount(trace.holderName(i), trace.getOpeningBalance());
+        }
+    }
+
+    /**
+     * Opens the trace's accounts, then replays it as fast as possible.
+     * @param trace The trace.
+     * @return The replay report.
+     */
+    public ReplayReport replay(WorkloadTrace trace) {
+        return replay(trace, false);
+    }
+
+    /**
+     * Opens the trace's accounts, then replays it.
+     * @param trace The trace.
+     * @param realTime True to issue operations at their recorded arrival times, false to
+     *                 issue them back to back.
+     * @return The replay report.
+     */
+    public ReplayReport replay(WorkloadTrace trace, boolean realTime) {
+        openAccounts(trace);
+        String[] names = new String[trace.getAccounts()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = trace.holderName(i);
+        }
+        LatencyHistogram latencies = new LatencyHistogram();
+        LedgerResult result = new LedgerResult();
+        int succeeded = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < trace.size(); i++) {
+            long begin;
+            if (realTime) {
+                begin = start + trace.getArrivalNanos(i);
+                waitUntil(begin);
+            } else {
+                begin = System.nanoTime();
+            }
+            if (apply(trace.getOperation(i), names[trace.getHolder(i)], trace.getAmount(i), result) == LedgerStatus.OK) {
+                succeeded++;
+            }
+            latencies.record(System.nanoTime() - begin);
+        }
+        long elapsed = System.nanoTime() - start;
+        return new ReplayReport(trace.size(), elapsed, latencies, succeeded, checksum(trace));
+    }
+
+    /**
+     * Computes a checksum of the balance and loan of every account the trace uses, in
+     * holder order, and of the total deposits.
+     * @param trace The trace.
+     * @return The checksum.
+     */
+    public long checksum(WorkloadTrace trace) {
+        LedgerResult result = new LedgerResult();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < trace.getAccounts(); i++) {
+            if (accountManager.tryReadAccount(trace.holderName(i), result) == LedgerStatus.OK) {
+                hash = mix(hash, Double.doubleToLongBits(result.getBalance()));
+                hash = mix(hash, Double.doubleToLongBits(result.getLoan()));
+            }
+        }
+        return mix(hash, Double.doubleToLongBits(accountManager.getTotalDeposits()));
+    }
+
+    private int apply(byte operation, String holder, double amount, LedgerResult result) {
+        switch (operation) {
+            case WorkloadTrace.DEPOSIT:
+                return accountManager.tryDeposit(holder, amount);
+            case WorkloadTrace.WITHDRAW:
+                return accountManager.tryWithdraw(holder, amount);
+            case WorkloadTrace.APPROVE_LOAN:
+                return accountManager.tryApproveLoan(holder, amount);
+            case WorkloadTrace.REPAY_LOAN:
+                return accountManager.tryRepayLoan(holder, amount);
+            default:
+                return accountManager.tryReadAccount(holder, result);
+        }
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x100000001b3L;
+        return hash ^ (hash >>> 29);
+    }
+}
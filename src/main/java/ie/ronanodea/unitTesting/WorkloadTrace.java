@@ -0,0 +1,251 @@
+package ie.ronanodea.unitTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recorded sequence of ledger operations, produced by {@link WorkloadGenerator} and
+ * replayed by {@link WorkloadReplayer}.
+ * <p>
+ * In memory the trace is held column by column in primitive arrays. On disk it is
+ * written compactly: a small header, then for each operation one byte of operation code
+ * followed by variable-length integers for the holder index, the amount in cents and the
+ * gap in nanoseconds since the previous arrival. A typical operation takes 6 to 10 bytes.
+ * <p>
+ * Account holders are named {@code prefix + index}, so only the prefix, the number of
+ * accounts and their opening balance are stored.
+ *
+ * @see WorkloadGenerator
+ * @see WorkloadReplayer
+ */
+public class WorkloadTrace {
+
+    /** Deposit into an account. */
+    public static final byte DEPOSIT = 0;
+    /** Withdraw from an account. */
+    public static final byte WITHDRAW = 1;
+    /** Approve a loan. */
+    public static final byte APPROVE_LOAN = 2;
+    /** Repay part of a loan. */
+    public static final byte REPAY_LOAN = 3;
+    /** Read an account's balance. */
+    public static final byte GET_BALANCE = 4;
+
+    private static final int MAGIC = 0x4C445452; // "LDTR"
+    private static final int VERSION = 1;
+
+    private final String holderPrefix;
+    private final int accounts;
+    private final long openingCents;
+    private int size;
+    private byte[] operations;
+    private int[] holders;
+    private long[] cents;
+    private long[] arrivals; // nanoseconds since the start of the trace
+
+    /**
+     * Creates an empty trace.
+     * @param holderPrefix Prefix of every account holder's name.
+     * @param accounts Number of accounts the trace uses.
+     * @param openingCents Opening balance of each account, in cents.
+     */
+    public WorkloadTrace(String holderPrefix, int accounts, long openingCents) {
+        this.holderPrefix = holderPrefix;
+        this.accounts = accounts;
+        this.openingCents = openingCents;
+        this.operations = new byte[1024];
+        this.holders = new int[1024];
+        this.cents = new long[1024];
+        this.arrivals = new long[1024];
+    }
+
+    /**
+     * Appends an operation.
+     * @param operation The operation code.
+     * @param holder Index of the account holder.
+     * @param amountCents Amount in cents (ignored for reads).
+     * @param arrivalNanos Arrival time, in nanoseconds since the start of the trace.
+     */
+    public void add(byte operation, int holder, long amountCents, long arrivalNanos) {
+        if (size == operations.length) {
+            int capacity = size * 2;
+            operations = Arrays.copyOf(operations, capacity);
+            holders = Arrays.copyOf(holders, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            arrivals = Arrays.copyOf(arrivals, capacity);
+        }
+        operations[size] = operation;
+        holders[size] = holder;
+        cents[size] = amountCents;
+        arrivals[size] = arrivalNanos;
+        size++;
+    }
+
+    /**
+     * Gets the number of operations.
+     * @return The operation count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of accounts the trace uses.
+     * @return The account count.
+     */
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Gets the opening balance of each account.
+     * @return The opening balance.
+     */
+    public double getOpeningBalance() {
+        return openingCents / 100.0;
+    }
+
+    /**
+     * Gets the name of an account holder.
+     * @param holder Index of the account holder.
+     * @return The account holder's name.
+     */
+    public String holderName(int holder) {
+        return holderPrefix + holder;
+    }
+
+    /**
+     * Gets an operation code.
+     * @param index Position in the trace.
+     * @return The operation code.
+     */
+    public byte getOperation(int index) {
+        return operations[index];
+    }
+
+    /**
+     * Gets the account holder index of an operation.
+     * @param index Position in the trace.
+     * @return The account holder index.
+     */
+    public int getHolder(int index) {
+        return holders[index];
+    }
+
+    /**
+     * Gets the amount of an operation.
+     * @param index Position in the trace.
+     * @return The amount.
+     */
+    public double getAmount(int index) {
+        return cents[index] / 100.0;
+    }
+
+    /**
+     * Gets the arrival time of an operation.
+     * @param index Position in the trace.
+     * @return Nanoseconds since the start of the trace.
+     */
+    public long getArrivalNanos(int index) {
+        return arrivals[index];
+    }
+
+    /**
+     * Writes the trace to a file.
+     * @param file The file to write.
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Writes the trace to a stream.
+     * @param stream The stream to write to; it is flushed but not closed.
+     * @throws IOException if the stream can't be written
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(holderPrefix);
+        out.writeInt(accounts);
+        out.writeLong(openingCents);
+        out.writeInt(size);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            out.writeByte(operations[i]);
+            writeVarLong(out, holders[i]);
+            writeVarLong(out, cents[i]);
+            writeVarLong(out, arrivals[i] - previous);
+            previous = arrivals[i];
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a trace from a file.
+     * @param file The file to read.
+     * @return The trace.
+     * @throws IOException if the file can't be read or isn't a trace
+     */
+    public static WorkloadTrace read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads a trace from a stream.
+     * @param stream The stream to read from; it is not closed.
+     * @return The trace.
+     * @throws IOException if the stream can't be read or isn't a trace
+     */
+    public static WorkloadTrace read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a workload trace");
+        }
+        WorkloadTrace trace = new WorkloadTrace(in.readUTF(), in.readInt(), in.readLong());
+        int size = in.readInt();
+        long arrival = 0;
+        for (int i = 0; i < size; i++) {
+            byte operation = in.readByte();
+            int holder = (int) readVarLong(in);
+            long amount = readVarLong(in);
+            arrival += readVarLong(in);
+            trace.add(operation, holder, amount, arrival);
+        }
+        return trace;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+}
@@ -0,0 +1,88 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws item indexes from a Zipfian distribution: index 0 is the most popular, index 1
+ * the next, and so on, with popularity falling off as {@code 1 / rank^theta}.
+ * <p>
+ * Uses the rejection-free method of Gray et al. ("Quickly Generating Billion-Record
+ * Synthetic Databases"), as popularised by YCSB. Setting up costs one pass over the item
+ * count; each draw is constant time. The generator holds no mutable state, so one
+ * instance may be shared by threads that each bring their own random source.
+ */
+public class ZipfianGenerator {
+
+    /** The skew used by YCSB and most published cache studies. */
+    public static final double DEFAULT_THETA = 0.99;
+
+    private final long items;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    /**
+     * Creates a generator over a number of items with the default skew.
+     * @param items The number of items.
+     * @throws IllegalArgumentException if items is not positive
+     */
+    public ZipfianGenerator(long items) throws IllegalArgumentException {
+        this(items, DEFAULT_THETA);
+    }
+
+    /**
+     * Creates a generator over a number of items.
+     * @param items The number of items.
+     * @param theta The skew, between 0 (uniform) and just below 1.
+     * @throws IllegalArgumentException if items is not positive or theta is out of range
+     */
+    public ZipfianGenerator(long items, double theta) throws IllegalArgumentException {
+        if (items <= 0) {
+            throw new IllegalArgumentException("Item count must be positive");
+        }
+        if (theta < 0 || theta >= 1) {
+            throw new IllegalArgumentException("Theta must be in [0, 1)");
+        }
+        this.items = items;
+        this.theta = theta;
+        this.zetaN = zeta(items, theta);
+        double zeta2 = zeta(Math.min(2, items), theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    /**
+     * Draws the next item index.
+     * @param random The random source to draw from.
+     * @return An index between 0 and items - 1.
+     */
+    public long next(SplittableRandom random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return Math.min(1, items - 1);
+        }
+        long index = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(index, items - 1);
+    }
+
+    /**
+     * Gets the number of items drawn from.
+     * @return The item count.
+     */
+    public long getItems() {
+        return items;
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1.0 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
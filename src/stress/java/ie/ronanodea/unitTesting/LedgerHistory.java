@@ -0,0 +1,148 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent history of ledger operations: what each thread asked for, what it got
+ * back, and when each call started and returned.
+ * <p>
+ * Times are ticks of a shared counter taken just before a call and just after it
+ * returns, so if one operation's return tick is below another's call tick, the first
+ * really did finish before the second started. Each thread records into its own list.
+ * Read the history only after every recording thread has been joined.
+ *
+ * @see LinearizabilityChecker
+ */
+final class LedgerHistory {
+
+    /**
+     * One call to the ledger. Operation codes are those of {@link WorkloadTrace}, with
+     * {@link WorkloadTrace#GET_BALANCE} reading both the balance and the loan.
+     */
+    static final class Operation {
+        final int thread;
+        final byte type;
+        final int account;
+        final long amount;
+        long called;
+        long returned;
+        int status;
+        long balance;
+        long loan;
+
+        Operation(int thread, byte type, int account, long amount) {
+            this.thread = thread;
+            this.type = type;
+            this.account = account;
+            this.amount = amount;
+        }
+
+        @Override
+        public String toString() {
+            String name;
+            switch (type) {
+                case WorkloadTrace.DEPOSIT:
+                    name = "deposit";
+                    break;
+                case WorkloadTrace.WITHDRAW:
+                    name = "withdraw";
+                    break;
+                case WorkloadTrace.APPROVE_LOAN:
+                    name = "approveLoan";
+                    break;
+                case WorkloadTrace.REPAY_LOAN:
+                    name = "repayLoan";
+                    break;
+                default:
+                    return String.format("[%d,%d] t%d read(#%d) -> %s balance=%d loan=%d",
+                            called, returned, thread, account, LedgerStatus.name(status), balance, loan);
+            }
+            return String.format("[%d,%d] t%d %s(#%d, %d) -> %s",
+                    called, returned, thread, name, account, amount, LedgerStatus.name(status));
+        }
+    }
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<List<Operation>> threads = new ArrayList<>();
+    private final String[] holders;
+
+    /**
+     * Creates an empty history.
+     * @param holders Names of the account holders, indexed by account number.
+     * @param threadCount Number of threads that will record.
+     */
+    LedgerHistory(String[] holders, int threadCount) {
+        this.holders = holders;
+        for (int t = 0; t < threadCount; t++) {
+            threads.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Runs one operation against a manager through the status code API and records it.
+     * @param accountManager The manager under test.
+     * @param thread Index of the calling thread.
+     * @param type The operation code.
+     * @param account Account number.
+     * @param amount Whole-number amount, so double arithmetic in the ledger is exact.
+     * @param result A result owned by the calling thread, for reads.
+     */
+    void run(AccountManager accountManager, int thread, byte type, int account, long amount, LedgerResult result) {
+        Operation operation = new Operation(thread, type, account, amount);
+        String holder = holders[account];
+        operation.called = clock.incrementAndGet();
+        switch (type) {
+            case WorkloadTrace.DEPOSIT:
+                operation.status = accountManager.tryDeposit(holder, amount);
+                break;
+            case WorkloadTrace.WITHDRAW:
+                operation.status = accountManager.tryWithdraw(holder, amount);
+                break;
+            case WorkloadTrace.APPROVE_LOAN:
+                operation.status = accountManager.tryApproveLoan(holder, amount);
+                break;
+            case WorkloadTrace.REPAY_LOAN:
+                operation.status = accountManager.tryRepayLoan(holder, amount);
+                break;
+            default:
+                operation.status = accountManager.tryReadAccount(holder, result);
+                operation.balance = (long) result.getBalance();
+                operation.loan = (long) result.getLoan();
+        }
+        operation.returned = clock.incrementAndGet();
+        threads.get(thread).add(operation);
+    }
+
+    /**
+     * Adds an operation that has already been timed, for building histories by hand.
+     * @param operation The operation.
+     */
+    void add(Operation operation) {
+        threads.get(operation.thread).add(operation);
+    }
+
+    /**
+     * Gets every recorded operation, thread by thread.
+     * @return The operations.
+     */
+    List<Operation> operations() {
+        List<Operation> all = new ArrayList<>();
+        for (List<Operation> ops : threads) {
+            all.addAll(ops);
+        }
+        return all;
+    }
+
+    @Override
+    public String toString() {
+        List<Operation> all = operations();
+        all.sort((a, b) -> Long.compare(a.called, b.called));
+        StringBuilder text = new StringBuilder();
+        for (Operation operation : all) {
+            text.append(operation).append('\n');
+        }
+        return text.toString();
+    }
+}
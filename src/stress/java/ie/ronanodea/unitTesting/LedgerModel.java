@@ -0,0 +1,118 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.Arrays;
+
+/**
+ * The sequential specification of the ledger: what each operation must return, and how
+ * it changes the balances, loans and total deposits, if operations ran one at a time.
+ * <p>
+ * Amounts are whole numbers, so the model can use exact long arithmetic and still be
+ * compared with the ledger's doubles. A model is immutable; {@link #apply} returns the
+ * next state, which keeps the linearizability search free to backtrack.
+ */
+final class LedgerModel {
+
+    private final long[] balances;
+    private final long[] loans;
+    private final long totalDeposits;
+
+    /**
+     * Creates the state of a freshly opened ledger.
+     * @param openingBalances Opening balance of each account.
+     */
+    LedgerModel(long... openingBalances) {
+        this(openingBalances.clone(), new long[openingBalances.length], Arrays.stream(openingBalances).sum());
+    }
+
+    private LedgerModel(long[] balances, long[] loans, long totalDeposits) {
+        this.balances = balances;
+        this.loans = loans;
+        this.totalDeposits = totalDeposits;
+    }
+
+    /**
+     * Applies an operation, if the ledger's response to it is the one this state allows.
+     * @param operation The operation and the response it received.
+     * @return The next state, or null if the response is impossible from this state.
+     */
+    LedgerModel apply(LedgerHistory.Operation operation) {
+        int a = operation.account;
+        long amount = operation.amount;
+        switch (operation.type) {
+            case WorkloadTrace.DEPOSIT:
+                return expect(operation, LedgerStatus.OK) ? with(a, amount, 0, amount) : null;
+            case WorkloadTrace.WITHDRAW:
+                if (amount > balances[a]) {
+                    return expect(operation, LedgerStatus.INSUFFICIENT_FUNDS) ? this : null;
+                }
+                return expect(operation, LedgerStatus.OK) ? with(a, -amount, 0, -amount) : null;
+            case WorkloadTrace.APPROVE_LOAN:
+                if (amount > totalDeposits) {
+                    return expect(operation, LedgerStatus.INSUFFICIENT_DEPOSITS) ? this : null;
+                }
+                return expect(operation, LedgerStatus.OK) ? with(a, 0, amount, -amount) : null;
+            case WorkloadTrace.REPAY_LOAN:
+                if (amount > loans[a]) {
+                    return expect(operation, LedgerStatus.EXCEEDS_LOAN) ? this : null;
+                }
+                return expect(operation, LedgerStatus.OK) ? with(a, 0, -amount, amount) : null;
+            default:
+                boolean matches = operation.status == LedgerStatus.OK
+                        && operation.balance == balances[a] && operation.loan == loans[a];
+                return matches ? this : null;
+        }
+    }
+
+    /**
+     * Gets an account's balance.
+     * @param account Account number.
+     * @return The balance.
+     */
+    long getBalance(int account) {
+        return balances[account];
+    }
+
+    /**
+     * Gets an account's loan.
+     * @param account Account number.
+     * @return The loan amount.
+     */
+    long getLoan(int account) {
+        return loans[account];
+    }
+
+    /**
+     * Gets the total deposits available for loans.
+     * @return The total deposits.
+     */
+    long getTotalDeposits() {
+        return totalDeposits;
+    }
+
+    private static boolean expect(LedgerHistory.Operation operation, int status) {
+        return operation.status == status;
+    }
+
+    private LedgerModel with(int account, long balanceDelta, long loanDelta, long depositsDelta) {
+        long[] b = balances.clone();
+        long[] l = loans.clone();
+        b[account] += balanceDelta;
+        l[account] += loanDelta;
+        return new LedgerModel(b, l, totalDeposits + depositsDelta);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof LedgerModel)) {
+            return false;
+        }
+        LedgerModel model = (LedgerModel) other;
+        return totalDeposits == model.totalDeposits
+                && Arrays.equals(balances, model.balances) && Arrays.equals(loans, model.loans);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(balances) + Arrays.hashCode(loans)) + Long.hashCode(totalDeposits);
+    }
+}
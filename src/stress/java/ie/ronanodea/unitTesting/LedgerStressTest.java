@@ -0,0 +1,313 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if the account manager stays correct
+ * when many threads use it at once.
+ * <p>
+ * Two kinds of test are run:
+ * <ul>
+ *  <li>Many short rounds of a few threads on a couple of accounts, each recorded as a
+ *      {@link LedgerHistory} and checked for linearizability against the
+ *      {@link LedgerModel}. Short histories with few accounts make races likely and
+ *      keep each check fast.</li>
+ *  <li>Longer runs of many threads on skewed accounts, while a reader watches for
+ *      negative balances, ending with exact checks of the invariants from
+ *      {@link BankingApp}: total deposits equal balances less outstanding loans, and
+ *      balances and loans match the operations that succeeded.</li>
+ * </ul>
+ * Amounts are whole numbers, so every sum is exact in double arithmetic. Rounds and
+ * run length are set with the {@code stress.rounds} and {@code stress.millis} system
+ * properties.
+ * <p>
+ * Deposits to a split hot account take no lock and are only exact once the ledger is
+ * quiet, so adaptive splitting is covered by the invariant runs only. Tiered stores are
+ * run with room for very few live accounts, so eviction races with every operation.
+ */
+class LedgerStressTest {
+	private static final int ROUNDS = Integer.getInteger("stress.rounds", 500);
+	private static final long MILLIS = Long.getLong("stress.millis", 2000);
+	private static final String[] HOLDERS = {"Holder0", "Holder1", "Holder2", "Holder3",
+			"Holder4", "Holder5", "Holder6", "Holder7"};
+
+	/**
+	 * Runs short concurrent rounds against fresh managers and checks each history.
+	 *
+	 * @param factory Creates the manager to test
+	 */
+	private void checkRounds(Supplier<AccountManager> factory) throws InterruptedException {
+		int threads = 3;
+		int perThread = 6;
+		long[] opening = {40, 20};
+		for (int round = 0; round < ROUNDS; round++) {
+			AccountManager accountManager = factory.get();
+			for (int a = 0; a < opening.length; a++) {
+				accountManager.addAccount(HOLDERS[a], opening[a]);
+			}
+			LedgerHistory history = new LedgerHistory(HOLDERS, threads);
+			SplittableRandom random = new SplittableRandom(round);
+			byte[][] types = new byte[threads][perThread];
+			int[][] accounts = new int[threads][perThread];
+			long[][] amounts = new long[threads][perThread];
+			for (int t = 0; t < threads; t++) {
+				for (int i = 0; i < perThread; i++) {
+					types[t][i] = (byte) random.nextInt(5);
+					accounts[t][i] = random.nextInt(opening.length);
+					amounts[t][i] = 1 + random.nextInt(40);
+				}
+			}
+			CountDownLatch start = new CountDownLatch(1);
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				workers[t] = new Thread(() -> {
+					LedgerResult result = new LedgerResult();
+					awaitQuietly(start);
+					for (int i = 0; i < perThread; i++) {
+						history.run(accountManager, thread, types[thread][i], accounts[thread][i], amounts[thread][i], result);
+					}
+				});
+				workers[t].start();
+			}
+			start.countDown();
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			// Final reads on thread 0, after everything, pin down the end state as well
+			LedgerResult result = new LedgerResult();
+			long balances = 0;
+			long loans = 0;
+			for (int a = 0; a < opening.length; a++) {
+				history.run(accountManager, 0, WorkloadTrace.GET_BALANCE, a, 0, result);
+				balances += (long) result.getBalance();
+				loans += (long) result.getLoan();
+			}
+			assertTrue(LinearizabilityChecker.isLinearizable(history, new LedgerModel(opening)),
+					"Round " + round + " is not linearizable:\n" + history);
+			assertEquals(balances - loans, accountManager.getTotalDeposits(), "Round " + round + " total deposits");
+		}
+	}
+
+	/**
+	 * Determines if the plain ledger is linearizable.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	@Test
+	void plainLedgerIsLinearizable() throws InterruptedException {
+		checkRounds(AccountManager::new);
+	}
+
+	/**
+	 * Determines if the ledger is still linearizable when reads go through a tiny,
+	 * constantly evicting balance cache and every change is published to a stream.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	@Test
+	void cachedLedgerIsLinearizable() throws InterruptedException {
+		checkRounds(() -> {
+			AccountManager accountManager = new AccountManager();
+			accountManager.setBalanceCache(BalanceCache.ofEntries(1));
+			accountManager.setChangeStream(new ChangeStream(64, ChangeStream.Backpressure.DROP, null));
+			return accountManager;
+		});
+	}
+
+	/**
+	 * Determines if the ledger is still linearizable when its accounts live in a tiered
+	 * store with room on the heap for only one, so every switch between accounts evicts
+	 * one while other threads may be about to use it.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 * @throws IOException if a segment file can't be created or removed
+	 */
+	@Test
+	void tieredLedgerIsLinearizable() throws InterruptedException, IOException {
+		List<TieredAccountStore> stores = new ArrayList<>();
+		Path directory = Files.createTempDirectory("stress");
+		try {
+			checkRounds(() -> {
+				TieredAccountStore store = tieredStore(directory.resolve("round" + stores.size()), 1);
+				stores.add(store);
+				return new AccountManager(store, null);
+			});
+		} finally {
+			for (TieredAccountStore store : stores) {
+				store.close();
+			}
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Determines if the ledger's invariants hold after a long run of many threads, with a
+	 * reader checking that no balance or loan is ever seen negative.
+	 *
+	 * @param configuration Which features of the manager to enable
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 * @throws IOException if a segment file can't be created or removed
+	 */
+	@ParameterizedTest
+	@ValueSource(strings = {"plain", "cached", "adaptive", "limited", "tiered"})
+	void invariantsHoldUnderLoad(String configuration) throws InterruptedException, IOException {
+		ExposureLimiter limiter = configuration.equals("limited") ? new ExposureLimiter(5000, 1000, 50) : null;
+		Path directory = Files.createTempDirectory("stress");
+		TieredAccountStore store = configuration.equals("tiered") ? tieredStore(directory.resolve("accounts"), 3) : null;
+		try {
+			checkInvariants(configuration, store != null ? new AccountManager(store, null) : new AccountManager(limiter), limiter);
+		} finally {
+			if (store != null) {
+				store.close();
+			}
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Runs many threads against a manager, then checks the ledger's invariants.
+	 *
+	 * @param configuration Which features of the manager to enable
+	 * @param accountManager The manager to test
+	 * @param limiter The manager's exposure limiter, or null
+	 */
+	private void checkInvariants(String configuration, AccountManager accountManager, ExposureLimiter limiter) throws InterruptedException {
+		if (configuration.equals("cached")) {
+			accountManager.setBalanceCache(BalanceCache.ofEntries(4));
+			accountManager.setChangeStream(new ChangeStream(1024, ChangeStream.Backpressure.DROP, null));
+		}
+		accountManager.setAdaptiveSplitting(configuration.equals("adaptive"));
+		long opening = 0;
+		for (String holder : HOLDERS) {
+			accountManager.addAccount(holder, 1000);
+			opening += 1000;
+		}
+
+		int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+		long[][] totals = new long[threads][4]; // deposited, withdrawn, lent, repaid
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicReference<String> violation = new AtomicReference<>();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			workers[t] = new Thread(() -> {
+				SplittableRandom random = new SplittableRandom(thread);
+				ZipfianGenerator zipf = new ZipfianGenerator(HOLDERS.length);
+				long[] mine = totals[thread];
+				while (running.get()) {
+					String holder = HOLDERS[(int) zipf.next(random)];
+					long amount = 1 + random.nextInt(100);
+					int operation = random.nextInt(4);
+					int status;
+					switch (operation) {
+						case 0:
+							status = accountManager.tryDeposit(holder, amount);
+							break;
+						case 1:
+							status = accountManager.tryWithdraw(holder, amount);
+							break;
+						case 2:
+							status = accountManager.tryApproveLoan(holder, amount);
+							break;
+						default:
+							status = accountManager.tryRepayLoan(holder, amount);
+					}
+					if (status == LedgerStatus.OK) {
+						mine[operation] += amount;
+					}
+				}
+			});
+		}
+		Thread reader = new Thread(() -> {
+			LedgerResult result = new LedgerResult();
+			while (running.get()) {
+				for (String holder : HOLDERS) {
+					accountManager.tryReadAccount(holder, result);
+					if (result.getBalance() < 0 || result.getLoan() < 0) {
+						violation.compareAndSet(null, holder + " read as " + result.getBalance() + "/" + result.getLoan());
+					}
+				}
+			}
+		});
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		reader.start();
+		Thread.sleep(MILLIS);
+		running.set(false);
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		reader.join();
+
+		assertNull(violation.get(), configuration + ": " + violation.get());
+		long deposited = 0, withdrawn = 0, lent = 0, repaid = 0;
+		for (long[] mine : totals) {
+			deposited += mine[0];
+			withdrawn += mine[1];
+			lent += mine[2];
+			repaid += mine[3];
+		}
+		double balances = 0;
+		double loans = 0;
+		for (String holder : HOLDERS) {
+			assertTrue(accountManager.getBalance(holder) >= 0, configuration + ": " + holder + " overdrawn");
+			balances += accountManager.getBalance(holder);
+			loans += accountManager.getLoan(holder);
+		}
+		assertEquals(opening + deposited - withdrawn, balances, configuration + ": balances");
+		assertEquals(lent - repaid, loans, configuration + ": loans");
+		assertEquals(balances - loans, accountManager.getTotalDeposits(), configuration + ": total deposits");
+		if (limiter != null) {
+			assertEquals(loans, limiter.getGlobalExposure(), configuration + ": exposure");
+			assertTrue(limiter.getGlobalExposure() <= 5000, configuration + ": exposure over cap");
+		}
+	}
+
+	/**
+	 * Creates a tiered store for the stress accounts with room on the heap for a few of them.
+	 */
+	private static TieredAccountStore tieredStore(Path file, int liveAccounts) {
+		try {
+			return TieredAccountStore.create(file, HOLDERS.length, 16,
+					liveAccounts * (TieredAccountStore.RESIDENT_OVERHEAD_BYTES + 7));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void deleteDirectory(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
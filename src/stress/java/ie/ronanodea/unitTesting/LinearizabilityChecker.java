@@ -0,0 +1,94 @@
+package ie.ronanodea.unitTesting;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decides whether a concurrent {@link LedgerHistory} is linearizable: whether there is
+ * some order of its operations that
+ * <ul>
+ *  <li>keeps every operation that returned before another started ahead of it, and</li>
+ *  <li>gives every operation the response it actually got when run one at a time
+ *      through the {@link LedgerModel}.</li>
+ * </ul>
+ * <p>
+ * The search is the Wing and Gong algorithm with Lowe's memoisation: repeatedly pick an
+ * operation that could take effect next (one that started before every remaining
+ * operation returned), apply it to the model, and backtrack on a wrong response. States
+ * already explored, identified by the set of operations taken and the model, are not
+ * explored again. Histories are limited to 64 operations, which keeps the set a bit mask
+ * and the search fast; stress tests check many short histories rather than a few long ones.
+ */
+final class LinearizabilityChecker {
+
+    private static final class Explored {
+        final long taken;
+        final LedgerModel model;
+
+        Explored(long taken, LedgerModel model) {
+            this.taken = taken;
+            this.model = model;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Explored && ((Explored) other).taken == taken
+                    && ((Explored) other).model.equals(model);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(taken, model);
+        }
+    }
+
+    private final LedgerHistory.Operation[] operations;
+    private final Set<Explored> explored = new HashSet<>();
+
+    private LinearizabilityChecker(List<LedgerHistory.Operation> operations) {
+        this.operations = operations.toArray(new LedgerHistory.Operation[0]);
+    }
+
+    /**
+     * Checks a history.
+     * @param history The recorded history.
+     * @param initial The state of the ledger before the history began.
+     * @return True if the history is linearizable.
+     * @throws IllegalArgumentException if the history has more than 64 operations
+     */
+    static boolean isLinearizable(LedgerHistory history, LedgerModel initial) throws IllegalArgumentException {
+        List<LedgerHistory.Operation> operations = history.operations();
+        if (operations.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Histories are limited to 64 operations");
+        }
+        return new LinearizabilityChecker(operations).search(0, initial);
+    }
+
+    private boolean search(long taken, LedgerModel model) {
+        int n = operations.length;
+        if (Long.bitCount(taken) == n) {
+            return true;
+        }
+        if (!explored.add(new Explored(taken, model))) {
+            return false;
+        }
+        long earliestReturn = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            if ((taken & (1L << i)) == 0) {
+                earliestReturn = Math.min(earliestReturn, operations[i].returned);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if ((taken & (1L << i)) != 0 || operations[i].called > earliestReturn) {
+                continue; // already taken, or something else had to take effect first
+            }
+            LedgerModel next = model.apply(operations[i]);
+            if (next != null && search(taken | (1L << i), next)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if the linearizability checker accepts
+ * hand-written histories that have a valid order and rejects those that don't, so a
+ * passing stress run means something.
+ */
+class LinearizabilityCheckerTest {
+
+	/**
+	 * Builds a timed operation.
+	 */
+	private static LedgerHistory.Operation op(int thread, byte type, long amount, long called, long returned, int status) {
+		LedgerHistory.Operation operation = new LedgerHistory.Operation(thread, type, 0, amount);
+		operation.called = called;
+		operation.returned = returned;
+		operation.status = status;
+		return operation;
+	}
+
+	/**
+	 * Builds a timed read.
+	 */
+	private static LedgerHistory.Operation read(int thread, long called, long returned, long balance, long loan) {
+		LedgerHistory.Operation operation = op(thread, WorkloadTrace.GET_BALANCE, 0, called, returned, LedgerStatus.OK);
+		operation.balance = balance;
+		operation.loan = loan;
+		return operation;
+	}
+
+	/**
+	 * Builds a history of one account from operations.
+	 */
+	private static boolean check(long opening, LedgerHistory.Operation... operations) {
+		LedgerHistory history = new LedgerHistory(new String[] {"Alice"}, 2);
+		for (LedgerHistory.Operation operation : operations) {
+			history.add(operation);
+		}
+		return LinearizabilityChecker.isLinearizable(history, new LedgerModel(opening));
+	}
+
+	/**
+	 * Determines if a sequential history with the right responses is accepted.
+	 */
+	@Test
+	void sequentialHistoryAccepted() {
+		assertTrue(check(100,
+				op(0, WorkloadTrace.DEPOSIT, 50, 1, 2, LedgerStatus.OK),
+				op(0, WorkloadTrace.WITHDRAW, 200, 3, 4, LedgerStatus.INSUFFICIENT_FUNDS),
+				op(0, WorkloadTrace.APPROVE_LOAN, 100, 5, 6, LedgerStatus.OK),
+				op(0, WorkloadTrace.REPAY_LOAN, 150, 7, 8, LedgerStatus.EXCEEDS_LOAN),
+				read(0, 9, 10, 150, 100)));
+	}
+
+	/**
+	 * Determines if a read that misses a deposit which had already returned is rejected.
+	 */
+	@Test
+	void staleReadRejected() {
+		assertFalse(check(100,
+				op(0, WorkloadTrace.DEPOSIT, 50, 1, 2, LedgerStatus.OK),
+				read(1, 3, 4, 100, 0)));
+	}
+
+	/**
+	 * Determines if a read overlapping a deposit may see it or not.
+	 */
+	@Test
+	void overlappingReadMaySeeEitherState() {
+		assertTrue(check(100,
+				op(0, WorkloadTrace.DEPOSIT, 50, 1, 4, LedgerStatus.OK),
+				read(1, 2, 3, 100, 0)));
+		assertTrue(check(100,
+				op(0, WorkloadTrace.DEPOSIT, 50, 1, 4, LedgerStatus.OK),
+				read(1, 2, 3, 150, 0)));
+	}
+
+	/**
+	 * Determines if two overlapping withdrawals that both succeed, overdrawing the account,
+	 * are rejected, while one success and one refusal is accepted in either order.
+	 */
+	@Test
+	void doubleSpendRejected() {
+		assertFalse(check(100,
+				op(0, WorkloadTrace.WITHDRAW, 80, 1, 3, LedgerStatus.OK),
+				op(1, WorkloadTrace.WITHDRAW, 80, 2, 4, LedgerStatus.OK)));
+		assertTrue(check(100,
+				op(0, WorkloadTrace.WITHDRAW, 80, 1, 3, LedgerStatus.INSUFFICIENT_FUNDS),
+				op(1, WorkloadTrace.WITHDRAW, 80, 2, 4, LedgerStatus.OK)));
+	}
+
+	/**
+	 * Determines if a loan refused for lack of deposits, after a deposit that covered it
+	 * had returned, is rejected.
+	 */
+	@Test
+	void refusedLoanAfterDepositRejected() {
+		assertFalse(check(10,
+				op(0, WorkloadTrace.DEPOSIT, 100, 1, 2, LedgerStatus.OK),
+				op(1, WorkloadTrace.APPROVE_LOAN, 50, 3, 4, LedgerStatus.INSUFFICIENT_DEPOSITS)));
+	}
+
+	/**
+	 * Determines if histories too long for the checker are refused.
+	 */
+	@Test
+	void longHistoryRefused() {
+		LedgerHistory history = new LedgerHistory(new String[] {"Alice"}, 1);
+		for (int i = 0; i < 65; i++) {
+			history.add(read(0, 2 * i + 1, 2 * i + 2, 100, 0));
+		}
+		assertThrows(IllegalArgumentException.class,
+				() -> LinearizabilityChecker.isLinearizable(history, new LedgerModel(100)));
+	}
+}
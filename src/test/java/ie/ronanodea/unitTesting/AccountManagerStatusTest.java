@@ -0,0 +1,164 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if the status code API of the account
+ * manager reports each outcome with the expected code, and never throws.
+ *
+ * Parameterised testing is used to cover each operation against the same invalid inputs.
+ */
+class AccountManagerStatusTest {
+	private AccountManager accountManager;
+
+	/**
+	 * New manager with one account holding 1000 before each test.
+	 */
+	@BeforeEach
+	void setUp() {
+		accountManager = new AccountManager();
+		accountManager.addAccount("Alice", 1000);
+	}
+
+	/**
+	 * Runs one operation of the status code API by name.
+	 */
+	private int run(String operation, String holder, double amount) {
+		switch (operation) {
+			case "deposit":
+				return accountManager.tryDeposit(holder, amount);
+			case "withdraw":
+				return accountManager.tryWithdraw(holder, amount);
+			case "approveLoan":
+				return accountManager.tryApproveLoan(holder, amount);
+			default:
+				return accountManager.tryRepayLoan(holder, amount);
+		}
+	}
+
+	/**
+	 * Determines if zero, negative and NaN amounts, and unknown holders, are reported
+	 * without throwing and leave total deposits unchanged.
+	 *
+	 * @param operation The operation to run
+	 * @param holder The account holder
+	 * @param amount The amount
+	 * @param expected The expected status name
+	 */
+	@ParameterizedTest
+	@CsvSource({
+			"deposit, Alice, 0, INVALID_AMOUNT",
+			"deposit, Alice, -50, INVALID_AMOUNT",
+			"deposit, Alice, NaN, INVALID_AMOUNT",
+			"deposit, Bob, 50, NOT_FOUND",
+			"withdraw, Alice, -50, INVALID_AMOUNT",
+			"withdraw, Bob, 50, NOT_FOUND",
+			"withdraw, Alice, 5000, INSUFFICIENT_FUNDS",
+			"approveLoan, Alice, -50, INVALID_AMOUNT",
+			"approveLoan, Bob, 50, NOT_FOUND",
+			"approveLoan, Alice, 5000, INSUFFICIENT_DEPOSITS",
+			"repayLoan, Alice, 0, INVALID_AMOUNT",
+			"repayLoan, Bob, 50, NOT_FOUND",
+			"repayLoan, Alice, 50, EXCEEDS_LOAN"
+	})
+	void rejectedOperations(String operation, String holder, double amount, String expected) {
+		assertEquals(expected, LedgerStatus.name(run(operation, holder, amount)));
+		assertEquals(1000, accountManager.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if valid operations return OK and have the same effect as the boolean API.
+	 */
+	@Test
+	void successfulOperations() {
+		assertEquals(LedgerStatus.OK, accountManager.tryDeposit("Alice", 200));
+		assertEquals(LedgerStatus.OK, accountManager.tryWithdraw("Alice", 100));
+		assertEquals(LedgerStatus.OK, accountManager.tryApproveLoan("Alice", 300));
+		assertEquals(LedgerStatus.OK, accountManager.tryRepayLoan("Alice", 100));
+		assertEquals(1100, accountManager.getBalance("Alice"));
+		assertEquals(200, accountManager.getLoan("Alice"));
+		assertEquals(900, accountManager.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if adding accounts reports null holders, bad deposits and duplicates.
+	 */
+	@Test
+	void tryAddAccountStatuses() {
+		assertEquals(LedgerStatus.INVALID_HOLDER, accountManager.tryAddAccount(null, 100));
+		assertEquals(LedgerStatus.INVALID_AMOUNT, accountManager.tryAddAccount("Bob", 0));
+		assertEquals(LedgerStatus.ALREADY_EXISTS, accountManager.tryAddAccount("Alice", 100));
+		assertEquals(LedgerStatus.OK, accountManager.tryAddAccount("Bob", 100));
+		assertEquals(1100, accountManager.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if a loan refused by the exposure limiter is reported as such.
+	 */
+	@Test
+	void tryApproveLoanExposureLimit() {
+		AccountManager limited = new AccountManager(new ExposureLimiter(1000, 100, 10));
+		limited.addAccount("Alice", 1000);
+		assertEquals(LedgerStatus.EXPOSURE_LIMIT, limited.tryApproveLoan("Alice", 200));
+	}
+
+	/**
+	 * Determines if reads fill a reused result, and unknown holders are reported without null.
+	 */
+	@Test
+	void tryReadAccount() {
+		LedgerResult result = new LedgerResult();
+		accountManager.approveLoan("Alice", 250);
+		assertEquals(LedgerStatus.OK, accountManager.tryReadAccount("Alice", result));
+		assertEquals(1000, result.getBalance());
+		assertEquals(250, result.getLoan());
+		assertEquals(LedgerStatus.NOT_FOUND, accountManager.tryReadAccount("Bob", result));
+		assertEquals(LedgerStatus.NOT_FOUND, accountManager.tryReadAccount(null, result));
+	}
+
+	/**
+	 * Determines if reads through the balance cache return the same values.
+	 */
+	@Test
+	void tryReadAccountCached() {
+		accountManager.setBalanceCache(BalanceCache.ofEntries(10));
+		LedgerResult result = new LedgerResult();
+		assertEquals(LedgerStatus.OK, accountManager.tryReadAccount("Alice", result));
+		assertEquals(LedgerStatus.OK, accountManager.tryReadAccount("Alice", result));
+		assertEquals(1000, result.getBalance());
+		assertEquals("UNKNOWN", LedgerStatus.name(42));
+	}
+
+	/**
+	 * Determines if a removed account takes its balance and loan out of total deposits,
+	 * and can be restored with them elsewhere.
+	 */
+	@Test
+	void removeAndRestoreAccount() {
+		accountManager.addAccount("Bob", 500);
+		accountManager.approveLoan("Alice", 300);
+		LedgerResult result = new LedgerResult();
+		assertEquals(LedgerStatus.OK, accountManager.tryRemoveAccount("Alice", result));
+		assertEquals(1000, result.getBalance());
+		assertEquals(300, result.getLoan());
+		assertEquals(500, accountManager.getTotalDeposits());
+		assertNull(accountManager.getBalance("Alice"));
+		assertEquals(LedgerStatus.NOT_FOUND, accountManager.tryDeposit("Alice", 10));
+		assertEquals(LedgerStatus.NOT_FOUND, accountManager.tryRemoveAccount("Alice", result));
+		assertEquals(LedgerStatus.INVALID_HOLDER, accountManager.tryRemoveAccount(null, result));
+
+		AccountManager other = new AccountManager();
+		assertEquals(LedgerStatus.OK, other.tryRestoreAccount("Alice", 1000, 300));
+		assertEquals(LedgerStatus.ALREADY_EXISTS, other.tryRestoreAccount("Alice", 1, 0));
+		assertEquals(LedgerStatus.INVALID_AMOUNT, other.tryRestoreAccount("Carol", -1, 0));
+		assertEquals(700, other.getTotalDeposits());
+		assertEquals(300, other.getLoan("Alice"));
+		assertEquals(LedgerStatus.OK, other.tryRepayLoan("Alice", 300));
+		assertEquals(1000, other.getTotalDeposits());
+	}
+}
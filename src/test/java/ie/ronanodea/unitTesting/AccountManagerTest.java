@@ -97,6 +97,18 @@ class AccountManagerTest {
         assertThrows(IllegalArgumentException.class, () -> accountManager.addAccount("Alice", -100));
     }
 
+    /**
+     * Determines if correct exception is thrown when an account holder already has an account,
+     * and total deposits are unchanged.
+     */
+    @Test
+    void addAccountDuplicateHolder() {
+        accountManager.addAccount("Alice", 1000);
+        assertThrows(IllegalArgumentException.class, () -> accountManager.addAccount("Alice", 500));
+        assertEquals(1000, accountManager.getBalance("Alice"));
+        assertEquals(1000, accountManager.getTotalDeposits());
+    }
+
     /**
      * Parameterised test for various cases.
      * Determines if exception is thrown for 0 or negative amounts, 
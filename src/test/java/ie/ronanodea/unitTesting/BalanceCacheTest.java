@@ -0,0 +1,121 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if the balance cache serves repeat reads,
+ * is invalidated by every mutation made through the account manager, and stays within
+ * its capacity.
+ */
+class BalanceCacheTest {
+	private AccountManager accountManager;
+	private BalanceCache cache;
+
+	/**
+	 * New manager with a 100 entry cache and two accounts before each test.
+	 */
+	@BeforeEach
+	void setUp() {
+		accountManager = new AccountManager();
+		cache = BalanceCache.ofEntries(100);
+		accountManager.setBalanceCache(cache);
+		accountManager.addAccount("Alice", 1000);
+		accountManager.addAccount("Bob", 500);
+	}
+
+	/**
+	 * Determines if the first read misses and later reads hit.
+	 */
+	@Test
+	void repeatReadsHit() {
+		assertEquals(1000, accountManager.getBalance("Alice"));
+		assertEquals(1000, accountManager.getBalance("Alice"));
+		assertEquals(0, accountManager.getLoan("Alice"));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+	}
+
+	/**
+	 * Determines if each kind of mutation invalidates the cached values.
+	 */
+	@Test
+	void mutationsInvalidate() {
+		accountManager.getBalance("Alice");
+		accountManager.deposit("Alice", 200);
+		assertEquals(1200, accountManager.getBalance("Alice"));
+		accountManager.withdraw("Alice", 100);
+		assertEquals(1100, accountManager.getBalance("Alice"));
+		accountManager.approveLoan("Alice", 300);
+		assertEquals(300, accountManager.getLoan("Alice"));
+		accountManager.repayLoan("Alice", 100);
+		assertEquals(200, accountManager.getLoan("Alice"));
+		assertEquals(4, cache.getInvalidationCount());
+	}
+
+	/**
+	 * Determines if unknown account holders are still reported as null, and not cached.
+	 */
+	@Test
+	void unknownHolderNotCached() {
+		assertNull(accountManager.getBalance("Carol"));
+		assertNull(accountManager.getLoan(null));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Determines if the cache never holds more than its capacity.
+	 */
+	@Test
+	void evictsToCapacity() {
+		BalanceCache small = BalanceCache.ofEntries(10);
+		for (int i = 0; i < 100; i++) {
+			small.put("Holder" + i, i, 0);
+		}
+		assertEquals(10, small.size());
+		assertEquals(90, small.getEvictionCount());
+	}
+
+	/**
+	 * Determines if frequently read entries survive a scan of one-off entries.
+	 */
+	@Test
+	void popularEntriesSurviveScan() {
+		BalanceCache small = BalanceCache.ofEntries(10);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 5; i++) {
+				if (small.getBalance("Popular" + i) == null) {
+					small.put("Popular" + i, i, 0);
+				}
+			}
+		}
+		for (int i = 0; i < 100; i++) {
+			small.put("OneOff" + i, i, 0);
+		}
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(small.getBalance("Popular" + i), "Popular" + i + " was evicted");
+		}
+	}
+
+	/**
+	 * Determines if a byte capacity bounds the number of entries by their estimated size.
+	 */
+	@Test
+	void byteCapacity() {
+		BalanceCache bytes = BalanceCache.ofBytes(10 * (BalanceCache.ENTRY_OVERHEAD_BYTES + 20));
+		for (int i = 0; i < 100; i++) {
+			bytes.put("H" + (1000 + i) + "ABCDE", i, 0); // 10 chars, 20 bytes
+		}
+		assertEquals(10, bytes.size());
+	}
+
+	/**
+	 * Determines if a non-positive capacity triggers the expected exception.
+	 */
+	@Test
+	void invalidCapacity() {
+		assertThrows(IllegalArgumentException.class, () -> BalanceCache.ofEntries(0));
+	}
+}
@@ -5,12 +5,25 @@ import org.junit.jupiter.api.Test;
 import ie.ronanodea.unitTesting.BankingApp;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 
 /**
  * This test class provides a placeholder test to provide coverage for the default banking application 
  * runner. This isn't really required as testing isn't usually applied to main runner methods. 
- * 
+ * It also checks that batch mode preloads the ledger, applies operations and writes the
+ * ledger back.
  */
 
 class BankingAppTest {
@@ -21,4 +34,79 @@ class BankingAppTest {
             BankingApp.main(new String[]{});
         });
     }
+
+    /**
+     * Determines if batch jobs apply their operations, report refusals and carry the
+     * ledger from one run to the next.
+     *
+     * @throws IOException if the ledger can't be written or read
+     */
+    @Test
+    void batchCarriesLedgerBetweenRuns() throws IOException {
+        Path directory = Files.createTempDirectory("batch");
+        Path ledger = directory.resolve("ledger.col");
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int refused = BankingApp.runBatch(ledger, operations("open Alice 1000\nopen Bob 500\n\n# comment\n"
+                    + "deposit Alice 200\nwithdraw Bob 900\nloan Alice 400\n"), new PrintStream(output), true);
+            assertEquals(1, refused);
+            String printed = output.toString();
+            assertTrue(printed.startsWith("First operation: OK"), printed);
+            assertTrue(printed.contains("Line 6: withdraw Bob 900 refused, INSUFFICIENT_FUNDS"), printed);
+
+            BankingApp.runBatch(ledger, operations("repay Alice 100\n"), new PrintStream(new ByteArrayOutputStream()), false);
+            AccountManager accountManager = BankingApp.loadLedger(ledger);
+            assertEquals(1200, accountManager.getBalance("Alice"));
+            assertEquals(300, accountManager.getLoan("Alice"));
+            assertEquals(500, accountManager.getBalance("Bob"));
+            assertEquals(1400, accountManager.getTotalDeposits());
+            assertFalse(Files.exists(directory.resolve("ledger.col.tmp")));
+        } finally {
+            Files.deleteIfExists(ledger);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Determines if a malformed operation line is rejected and leaves the ledger unchanged.
+     *
+     * @throws IOException if the ledger can't be written or read
+     */
+    @Test
+    void batchRejectsMalformedLines() throws IOException {
+        Path directory = Files.createTempDirectory("batch");
+        Path ledger = directory.resolve("ledger.col");
+        try {
+            PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+            BankingApp.runBatch(ledger, operations("open Alice 1000\n"), quiet, false);
+            assertThrows(IllegalArgumentException.class,
+                    () -> BankingApp.runBatch(ledger, operations("deposit Alice 5\ntransfer Alice 5\n"), quiet, false));
+            assertThrows(IllegalArgumentException.class,
+                    () -> BankingApp.runBatch(ledger, operations("deposit Alice\n"), quiet, false));
+            assertThrows(IllegalArgumentException.class,
+                    () -> BankingApp.runBatch(ledger, operations("deposit Alice five\n"), quiet, false));
+            assertEquals(1000, BankingApp.loadLedger(ledger).getBalance("Alice"));
+        } finally {
+            Files.deleteIfExists(ledger);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Determines if the training run used to dump the class-data-sharing archive completes.
+     */
+    @Test
+    void trainingRunCompletes() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            assertDoesNotThrow(() -> BankingApp.main(new String[]{"--train"}));
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static BufferedReader operations(String lines) {
+        return new BufferedReader(new StringReader(lines));
+    }
 }
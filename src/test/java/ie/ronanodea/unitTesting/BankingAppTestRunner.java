@@ -7,6 +7,13 @@ import org.junit.platform.suite.api.Suite;
  * This test class provides a runnable test suite for this application.  
  */
 @Suite
-@SelectClasses({AccountTest.class, AccountManagerTest.class, BankingAppTest.class})
+@SelectClasses({AccountTest.class, AccountManagerTest.class, BankingAppTest.class,
+		ExposureLimiterTest.class, ChangeStreamTest.class,
+		HotAccountTest.class, BalanceCacheTest.class,
+		AccountManagerStatusTest.class, WorkloadTest.class,
+		TieredAccountStoreTest.class, LedgerJournalTest.class,
+		ReplicationTest.class, HashRingTest.class, ClusterTest.class,
+		StandingOrderSchedulerTest.class, VelocityLimiterTest.class,
+		ColumnarSnapshotTest.class, OperationTracerTest.class})
 public class BankingAppTestRunner {
    }
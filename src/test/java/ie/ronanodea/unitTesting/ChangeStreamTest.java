@@ -0,0 +1,172 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This test class provides methods to ascertain if ledger mutations made through the
+ * account manager are published to the change stream as expected, and that each
+ * backpressure policy behaves as documented.
+ */
+class ChangeStreamTest {
+	private AccountManager accountManager;
+	private ChangeStream stream;
+	private List<String> received;
+
+	/**
+	 * New manager and a small blocking stream before each test.
+	 */
+	@BeforeEach
+	void setUp() {
+		accountManager = new AccountManager();
+		stream = new ChangeStream(16);
+		accountManager.setChangeStream(stream);
+		received = new ArrayList<>();
+	}
+
+	/**
+	 * Formats a record so it can be compared in assertions.
+	 */
+	private void collect(long sequence, ChangeType type, String holder, double amount, double balance, double loan) {
+		received.add(type + " " + holder + " " + amount + " " + balance + " " + loan);
+	}
+
+	/**
+	 * Determines if each successful mutation is published once, in order, with the
+	 * resulting balance and loan.
+	 */
+	@Test
+	void successfulMutationsPublished() {
+		ChangeStream.Subscriber subscriber = stream.subscribe();
+		accountManager.addAccount("Alice", 1000);
+		accountManager.deposit("Alice", 200);
+		accountManager.withdraw("Alice", 100);
+		accountManager.approveLoan("Alice", 300);
+		accountManager.repayLoan("Alice", 50);
+		assertEquals(5, subscriber.poll(this::collect, 100));
+		assertEquals(List.of(
+				"ACCOUNT_OPENED Alice 1000.0 1000.0 0.0",
+				"DEPOSIT Alice 200.0 1200.0 0.0",
+				"WITHDRAWAL Alice 100.0 1100.0 0.0",
+				"LOAN_APPROVED Alice 300.0 1100.0 300.0",
+				"LOAN_REPAID Alice 50.0 1100.0 250.0"), received);
+	}
+
+	/**
+	 * Determines if refused operations publish nothing.
+	 */
+	@Test
+	void failedMutationsNotPublished() {
+		ChangeStream.Subscriber subscriber = stream.subscribe();
+		accountManager.addAccount("Alice", 100);
+		accountManager.withdraw("Alice", 500);
+		accountManager.approveLoan("Alice", 500);
+		accountManager.repayLoan("Alice", 10);
+		accountManager.deposit("Bob", 10);
+		assertEquals(1, subscriber.poll(this::collect, 100));
+	}
+
+	/**
+	 * Determines if two subscribers each see every record, independently.
+	 */
+	@Test
+	void subscribersHaveIndependentCursors() {
+		ChangeStream.Subscriber first = stream.subscribe();
+		ChangeStream.Subscriber second = stream.subscribe();
+		accountManager.addAccount("Alice", 100);
+		accountManager.deposit("Alice", 5);
+		assertEquals(2, first.poll(this::collect, 100));
+		assertEquals(0, first.getLag());
+		assertEquals(2, second.getLag());
+		assertEquals(1, second.poll(this::collect, 1));
+		assertEquals(1, second.poll(this::collect, 100));
+		assertEquals(4, received.size());
+	}
+
+	/**
+	 * Determines if the DROP policy counts records that don't fit.
+	 */
+	@Test
+	void dropWhenFull() {
+		ChangeStream dropping = new ChangeStream(4, ChangeStream.Backpressure.DROP, null);
+		ChangeStream.Subscriber subscriber = dropping.subscribe();
+		for (int i = 0; i < 6; i++) {
+			dropping.publish(ChangeType.DEPOSIT, "Alice", i, i, 0);
+		}
+		assertEquals(2, dropping.getDroppedCount());
+		assertEquals(4, subscriber.poll(this::collect, 100));
+	}
+
+	/**
+	 * Determines if the SPILL policy writes overflow records to a readable file under
+	 * their own sequences, and if a lagging subscriber reads them back in order.
+	 */
+	@Test
+	void spillWhenFull() throws IOException {
+		Path spillFile = Files.createTempFile("changes", ".spill");
+		try {
+			ChangeStream spilling = new ChangeStream(2, ChangeStream.Backpressure.SPILL, spillFile);
+			ChangeStream.Subscriber lagging = spilling.subscribe();
+			for (int i = 0; i < 5; i++) {
+				assertEquals(i, spilling.publish(ChangeType.DEPOSIT, "Alice", i, i, 0));
+			}
+			assertEquals(3, spilling.getSpilledCount());
+			assertEquals(3, ChangeStream.readSpill(spillFile, this::collect));
+			assertEquals("DEPOSIT Alice 2.0 2.0 0.0", received.get(0));
+
+			received.clear();
+			List<Long> sequences = new ArrayList<>();
+			assertEquals(5, lagging.poll((sequence, type, holder, amount, balance, loan) -> {
+				sequences.add(sequence);
+				collect(sequence, type, holder, amount, balance, loan);
+			}, 10));
+			assertEquals(List.of(0L, 1L, 2L, 3L, 4L), sequences);
+			assertEquals("DEPOSIT Alice 4.0 4.0 0.0", received.get(4));
+			assertEquals(5, spilling.publish(ChangeType.DEPOSIT, "Alice", 5, 5, 0));
+			assertEquals(1, lagging.poll(this::collect, 10));
+			assertEquals(3, spilling.getSpilledCount());
+			lagging.close();
+			spilling.close();
+		} finally {
+			Files.deleteIfExists(spillFile);
+		}
+	}
+
+	/**
+	 * Determines if a blocked producer resumes once a slow subscriber catches up.
+	 */
+	@Test
+	void blockUntilSubscriberCatchesUp() throws InterruptedException {
+		ChangeStream.Subscriber subscriber = stream.subscribe();
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < 100; i++) {
+				stream.publish(ChangeType.DEPOSIT, "Alice", 1, i, 0);
+			}
+		});
+		producer.start();
+		int total = 0;
+		while (total < 100) {
+			total += subscriber.poll(this::collect, 10);
+		}
+		producer.join();
+		assertEquals(100, received.size());
+		assertEquals("DEPOSIT Alice 1.0 99.0 0.0", received.get(99));
+	}
+
+	/**
+	 * Determines if invalid configuration triggers the expected exception.
+	 */
+	@Test
+	void invalidConfigurationRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new ChangeStream(0));
+		assertThrows(IllegalArgumentException.class, () -> new ChangeStream(8, ChangeStream.Backpressure.SPILL, null));
+	}
+}
@@ -0,0 +1,316 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if a router spreads accounts over the
+ * nodes of a partitioned ledger, moves money between nodes with two-phase commit
+ * without creating or losing any, and keeps every account when a node is added while
+ * operations are running.
+ */
+class ClusterTest {
+	private final List<LedgerNode> nodes = new ArrayList<>();
+	private ClusterRouter router;
+
+	/**
+	 * Stops the router and nodes after each test.
+	 */
+	@AfterEach
+	void tearDown() {
+		if (router != null) {
+			router.close();
+		}
+		for (LedgerNode node : nodes) {
+			node.close();
+		}
+	}
+
+	/**
+	 * Starts a node and adds it to the router.
+	 */
+	private LedgerNode addNode() throws IOException {
+		LedgerNode node = LedgerNode.start(0);
+		nodes.add(node);
+		router.addNode("localhost", node.getPort());
+		return node;
+	}
+
+	/**
+	 * Checks every account is on the node the ring says owns it.
+	 */
+	private void assertPlaced(int accounts) {
+		HashRing ring = router.getRing();
+		for (int i = 0; i < accounts; i++) {
+			String holder = "Holder" + i;
+			for (int n = 0; n < nodes.size(); n++) {
+				Double balance = nodes.get(n).getManager().getBalance(holder);
+				assertEquals(ring.owner(holder) == n, balance != null, holder + " on node " + n);
+			}
+		}
+	}
+
+	/**
+	 * Determines if operations through the router behave as on one manager, with the
+	 * accounts spread over the nodes.
+	 *
+	 * @throws IOException if a node can't be started
+	 */
+	@Test
+	void routesToOwningNode() throws IOException {
+		router = new ClusterRouter(64, 2);
+		for (int i = 0; i < 3; i++) {
+			addNode();
+		}
+		for (int i = 0; i < 300; i++) {
+			assertEquals(LedgerStatus.OK, router.tryAddAccount("Holder" + i, 100));
+		}
+		assertEquals(LedgerStatus.ALREADY_EXISTS, router.tryAddAccount("Holder7", 100));
+		assertEquals(LedgerStatus.OK, router.tryDeposit("Holder7", 50));
+		assertEquals(LedgerStatus.OK, router.tryWithdraw("Holder8", 30));
+		assertEquals(LedgerStatus.INSUFFICIENT_FUNDS, router.tryWithdraw("Holder8", 1000));
+		assertEquals(LedgerStatus.OK, router.tryApproveLoan("Holder9", 40));
+		assertEquals(LedgerStatus.OK, router.tryRepayLoan("Holder9", 15));
+		assertEquals(LedgerStatus.NOT_FOUND, router.tryDeposit("Nobody", 1));
+		assertEquals(LedgerStatus.INVALID_HOLDER, router.tryDeposit(null, 1));
+		assertEquals(LedgerStatus.INVALID_AMOUNT, router.tryDeposit("Holder7", -1));
+
+		LedgerResult result = new LedgerResult();
+		assertEquals(LedgerStatus.OK, router.tryReadAccount("Holder9", result));
+		assertEquals(100, result.getBalance());
+		assertEquals(25, result.getLoan());
+		assertEquals(LedgerStatus.NOT_FOUND, router.tryReadAccount("Nobody", result));
+		assertEquals(300 * 100 + 50 - 30 - 25, router.getTotalDeposits());
+		assertPlaced(300);
+		for (LedgerNode node : nodes) {
+			assertTrue(node.getAccountCount() > 50, "Accounts on node " + node.getAccountCount());
+		}
+	}
+
+	/**
+	 * Determines if a batch returns each operation's status in order.
+	 *
+	 * @throws IOException if a node can't be started
+	 */
+	@Test
+	void batchesOperations() throws IOException {
+		router = new ClusterRouter(64, 1);
+		addNode();
+		addNode();
+		ClusterRouter.Batch batch = router.newBatch();
+		for (int i = 0; i < 100; i++) {
+			batch.addAccount("Holder" + i, 10);
+		}
+		batch.addAccount("Holder0", 10).withdraw("Holder1", 20).deposit(null, 1);
+		int[] statuses = batch.execute();
+		assertEquals(103, statuses.length);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(LedgerStatus.OK, statuses[i]);
+		}
+		assertEquals(LedgerStatus.ALREADY_EXISTS, statuses[100]);
+		assertEquals(LedgerStatus.INSUFFICIENT_FUNDS, statuses[101]);
+		assertEquals(LedgerStatus.INVALID_HOLDER, statuses[102]);
+		assertArrayEquals(new int[] {LedgerStatus.OK, LedgerStatus.OK},
+				batch.approveLoan("Holder2", 5).repayLoan("Holder2", 5).execute());
+		assertEquals(1000, router.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if transfers commit within and across nodes, and refused transfers leave
+	 * both accounts as they were with nothing left prepared.
+	 *
+	 * @throws IOException if a node can't be started
+	 */
+	@Test
+	void transfersWithTwoPhaseCommit() throws IOException {
+		router = new ClusterRouter(64, 2);
+		addNode();
+		addNode();
+		for (int i = 0; i < 20; i++) {
+			router.tryAddAccount("Holder" + i, 100);
+		}
+		HashRing ring = router.getRing();
+		String local = null;
+		String remote = null;
+		for (int i = 1; i < 20; i++) {
+			String holder = "Holder" + i;
+			if (ring.owner(holder) == ring.owner("Holder0")) {
+				local = holder;
+			} else {
+				remote = holder;
+			}
+		}
+		assertNotNull(local);
+		assertNotNull(remote);
+		LedgerResult result = new LedgerResult();
+
+		assertEquals(LedgerStatus.OK, router.tryTransfer("Holder0", remote, 30));
+		assertEquals(LedgerStatus.OK, router.tryTransfer("Holder0", local, 20));
+		router.tryReadAccount("Holder0", result);
+		assertEquals(50, result.getBalance());
+		router.tryReadAccount(remote, result);
+		assertEquals(130, result.getBalance());
+
+		assertEquals(LedgerStatus.INSUFFICIENT_FUNDS, router.tryTransfer("Holder0", remote, 500));
+		assertEquals(LedgerStatus.NOT_FOUND, router.tryTransfer("Holder0", "Nobody", 10));
+		assertEquals(LedgerStatus.NOT_FOUND, router.tryTransfer("Nobody", remote, 10));
+		assertEquals(LedgerStatus.INVALID_AMOUNT, router.tryTransfer("Holder0", remote, 0));
+		assertEquals(LedgerStatus.INVALID_HOLDER, router.tryTransfer(null, remote, 1));
+		router.tryReadAccount("Holder0", result);
+		assertEquals(50, result.getBalance());
+		assertEquals(20 * 100, router.getTotalDeposits());
+		for (LedgerNode node : nodes) {
+			assertEquals(0, node.getPreparedCount());
+		}
+	}
+
+	/**
+	 * Determines if adding a node moves every account it owns when the old node holds
+	 * more accounts than fit in one listing page.
+	 *
+	 * @throws IOException if a node can't be started
+	 */
+	@Test
+	void rebalancesMoreThanOneListingPage() throws IOException {
+		router = new ClusterRouter(64, 1);
+		addNode();
+		int accounts = LedgerNode.LIST_PAGE * 2 + 100;
+		ClusterRouter.Batch batch = router.newBatch();
+		for (int i = 0; i < accounts; i++) {
+			batch.addAccount("Holder" + i, 10);
+		}
+		batch.execute();
+		addNode();
+		assertPlaced(accounts);
+		assertEquals(accounts, nodes.get(0).getAccountCount() + nodes.get(1).getAccountCount());
+		assertEquals(0, nodes.get(0).getMovedCount());
+		assertEquals(accounts * 10, router.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if a node refunds a debit no router decides within the prepare timeout,
+	 * and answers a late commit as expired.
+	 *
+	 * @throws Exception if the node can't be reached or the test is interrupted
+	 */
+	@Test
+	void expiresUndecidedTransfers() throws Exception {
+		LedgerNode node = LedgerNode.start(0, 50);
+		nodes.add(node);
+		assertEquals(LedgerStatus.OK, node.getManager().tryAddAccount("Alice", 100));
+		try (Socket socket = new Socket("localhost", node.getPort())) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			out.writeInt(1);
+			out.writeByte(LedgerNode.PREPARE_DEBIT);
+			out.writeLong(7);
+			out.writeUTF("Alice");
+			out.writeDouble(30);
+			out.flush();
+			assertEquals(1, in.readInt());
+			assertEquals(LedgerStatus.OK, in.readByte());
+			in.readDouble();
+			in.readDouble();
+			assertEquals(70, node.getManager().getBalance("Alice"));
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (node.getPreparedCount() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, node.getPreparedCount());
+			assertEquals(1, node.getExpiredCount());
+			assertEquals(100, node.getManager().getBalance("Alice"));
+
+			out.writeInt(1);
+			out.writeByte(LedgerNode.COMMIT);
+			out.writeLong(7);
+			out.flush();
+			assertEquals(1, in.readInt());
+			assertEquals(LedgerStatus.EXPIRED, in.readByte());
+		}
+		assertThrows(IllegalArgumentException.class, () -> LedgerNode.start(0, 0));
+	}
+
+	/**
+	 * Determines if adding nodes while transfers and deposits are running moves the right
+	 * accounts, and loses or creates no money.
+	 *
+	 * @throws Exception if a node can't be started or a worker is interrupted
+	 */
+	@Test
+	void rebalancesWhileRunning() throws Exception {
+		router = new ClusterRouter(64, 2);
+		addNode();
+		addNode();
+		int accounts = 2000;
+		ClusterRouter.Batch batch = router.newBatch();
+		for (int i = 0; i < accounts; i++) {
+			batch.addAccount("Holder" + i, 1000);
+		}
+		batch.execute();
+		router.tryApproveLoan("Holder1", 300);
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong deposited = new AtomicLong();
+		AtomicLong failures = new AtomicLong();
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; t++) {
+			int seed = t;
+			workers[t] = new Thread(() -> {
+				SplittableRandom random = new SplittableRandom(seed);
+				while (running.get()) {
+					String from = "Holder" + random.nextInt(accounts);
+					String to = "Holder" + random.nextInt(accounts);
+					int status = router.tryTransfer(from, to, 1 + random.nextInt(50));
+					if (status != LedgerStatus.OK && status != LedgerStatus.INSUFFICIENT_FUNDS) {
+						failures.incrementAndGet();
+					}
+					if (router.tryDeposit(to, 2) == LedgerStatus.OK) {
+						deposited.addAndGet(2);
+					} else {
+						failures.incrementAndGet();
+					}
+				}
+			});
+			workers[t].start();
+		}
+		Thread.sleep(100);
+		addNode();
+		Thread.sleep(100);
+		addNode();
+		Thread.sleep(100);
+		running.set(false);
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		assertEquals(0, failures.get());
+		assertEquals(accounts * 1000 - 300 + deposited.get(), router.getTotalDeposits());
+		assertPlaced(accounts);
+		LedgerResult result = new LedgerResult();
+		assertEquals(LedgerStatus.OK, router.tryReadAccount("Holder1", result));
+		assertEquals(300, result.getLoan());
+		double balances = 0;
+		for (int i = 0; i < accounts; i++) {
+			assertEquals(LedgerStatus.OK, router.tryReadAccount("Holder" + i, result));
+			balances += result.getBalance();
+		}
+		assertEquals(accounts * 1000 + deposited.get(), balances);
+		for (LedgerNode node : nodes) {
+			assertTrue(node.getAccountCount() > 0);
+			assertEquals(0, node.getPreparedCount());
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * This test class provides methods to ascertain if a columnar snapshot holds every
+ * account's holder, balance and loan in Arrow-style buffers, survives a round trip
+ * through a memory-mapped file, and shows the ledger as it was when the snapshot began
+ * while writers carry on.
+ */
+class ColumnarSnapshotTest {
+	private AccountManager accountManager;
+
+	/**
+	 * New account manager before each test, with three accounts and a loan.
+	 */
+	@BeforeEach
+	void setUp() {
+		accountManager = new AccountManager();
+		accountManager.addAccount("Alice", 1000);
+		accountManager.addAccount("Bob", 500);
+		accountManager.addAccount("Zo\u00EB", 250);
+		accountManager.approveLoan("Bob", 300);
+	}
+
+	/**
+	 * Determines if the snapshot holds every account, and if its buffers follow the
+	 * Arrow layout: rows + 1 offsets into UTF-8 bytes, and one double per row.
+	 */
+	@Test
+	void snapshotsEveryAccount() {
+		ColumnarSnapshot snapshot = accountManager.snapshotColumns();
+		assertEquals(3, snapshot.getRowCount());
+		Map<String, double[]> rows = rows(snapshot);
+		assertArrayEquals(new double[] {1000, 0}, rows.get("Alice"));
+		assertArrayEquals(new double[] {500, 300}, rows.get("Bob"));
+		assertArrayEquals(new double[] {250, 0}, rows.get("Zo\u00EB"));
+
+		IntBuffer offsets = snapshot.getHolderOffsets();
+		ByteBuffer data = snapshot.getHolderData();
+		assertEquals(4, offsets.remaining());
+		assertEquals(0, offsets.get(0));
+		assertEquals("Alice".length() + "Bob".length() + "Zo\u00EB".getBytes(StandardCharsets.UTF_8).length,
+				offsets.get(3));
+		assertEquals(offsets.get(3), data.remaining());
+		DoubleBuffer balances = snapshot.getBalances();
+		double total = 0;
+		while (balances.hasRemaining()) {
+			total += balances.get();
+		}
+		assertEquals(1750, total);
+		assertTrue(snapshot.getLoans().isReadOnly());
+		assertThrows(IndexOutOfBoundsException.class, () -> snapshot.getBalance(3));
+	}
+
+	/**
+	 * Determines if a snapshot written to a file maps back with the same rows, each
+	 * buffer 64-byte aligned, if writing a new snapshot over it leaves an existing mapping
+	 * untouched, and if a file that isn't a snapshot is rejected.
+	 *
+	 * @throws IOException if the file can't be written or read
+	 */
+	@Test
+	void roundTripsThroughFile() throws IOException {
+		ColumnarSnapshot snapshot = accountManager.snapshotColumns();
+		Path file = Files.createTempFile("ledger", ".col");
+		try {
+			snapshot.writeTo(file);
+			ColumnarSnapshot mapped = ColumnarSnapshot.map(file);
+			assertEquals(snapshot.getRowCount(), mapped.getRowCount());
+			for (int row = 0; row < snapshot.getRowCount(); row++) {
+				assertEquals(snapshot.getHolder(row), mapped.getHolder(row));
+				assertEquals(snapshot.getBalance(row), mapped.getBalance(row));
+				assertEquals(snapshot.getLoan(row), mapped.getLoan(row));
+			}
+			ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+			assertEquals(3, header.getLong(8));
+			for (int column = 0; column < 4; column++) {
+				assertEquals(0, header.getLong(16 + column * 16) % 64);
+			}
+			assertEquals(0, Files.size(file) % 64);
+
+			double[] before = new double[mapped.getRowCount()];
+			mapped.getBalances().get(before);
+			accountManager.deposit(mapped.getHolder(0), 1000);
+			accountManager.snapshotColumns().writeTo(file);
+			double[] after = new double[mapped.getRowCount()];
+			mapped.getBalances().get(after);
+			assertArrayEquals(before, after, "A mapped snapshot must not change under its reader");
+			ColumnarSnapshot remapped = ColumnarSnapshot.map(file);
+			for (int row = 0; row < remapped.getRowCount(); row++) {
+				if (remapped.getHolder(row).equals(mapped.getHolder(0))) {
+					assertEquals(before[0] + 1000, remapped.getBalance(row));
+				}
+			}
+			assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+
+			Files.write(file, new byte[256]);
+			assertThrows(IOException.class, () -> ColumnarSnapshot.map(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Determines if a snapshot read onto the heap holds the file's rows, keeps them once
+	 * the file is replaced, and rejects a truncated file.
+	 */
+	@Test
+	void readsFileOntoHeap() throws IOException {
+		ColumnarSnapshot snapshot = accountManager.snapshotColumns();
+		Path file = Files.createTempFile("ledger", ".col");
+		try {
+			snapshot.writeTo(file);
+			ColumnarSnapshot read = ColumnarSnapshot.read(file);
+			assertFalse(read.getHolderData().isDirect());
+			assertEquals(snapshot.getRowCount(), read.getRowCount());
+			for (int row = 0; row < snapshot.getRowCount(); row++) {
+				assertEquals(snapshot.getHolder(row), read.getHolder(row));
+				assertEquals(snapshot.getBalance(row), read.getBalance(row));
+				assertEquals(snapshot.getLoan(row), read.getLoan(row));
+			}
+
+			accountManager.deposit(read.getHolder(0), 1000);
+			accountManager.snapshotColumns().writeTo(file);
+			assertEquals(snapshot.getBalance(0), read.getBalance(0));
+
+			byte[] bytes = Files.readAllBytes(file);
+			Files.write(file, Arrays.copyOf(bytes, bytes.length - 64));
+			assertThrows(IOException.class, () -> ColumnarSnapshot.read(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Determines if accounts changed, closed, opened or restored part way through a
+	 * snapshot appear as they were when it began, and if the next snapshot sees the changes.
+	 */
+	@Test
+	void changesDuringSnapshotAreExcluded() {
+		InMemoryAccountStore memory = new InMemoryAccountStore();
+		AccountManager[] manager = new AccountManager[1];
+		Runnable[] midScan = new Runnable[1];
+		AccountStore store = new AccountStore() {
+			@Override
+			public Account get(String accountHolder) {
+				return memory.get(accountHolder);
+			}
+
+			@Override
+			public boolean putIfAbsent(Account account) {
+				return memory.putIfAbsent(account);
+			}
+
+			@Override
+			public boolean remove(String accountHolder) {
+				return memory.remove(accountHolder);
+			}
+
+			@Override
+			public void forEach(Consumer<Account> action) {
+				boolean[] first = {true};
+				memory.forEach(account -> {
+					action.accept(account);
+					if (first[0] && midScan[0] != null) {
+						first[0] = false;
+						midScan[0].run();
+					}
+				});
+			}
+
+			@Override
+			public long size() {
+				return memory.size();
+			}
+		};
+		manager[0] = new AccountManager(store, null);
+		for (String holder : new String[] {"Alice", "Bob", "Carol", "Dave"}) {
+			manager[0].addAccount(holder, 100);
+		}
+		midScan[0] = () -> {
+			for (String holder : new String[] {"Alice", "Bob", "Carol", "Dave"}) {
+				manager[0].deposit(holder, 10);
+			}
+			manager[0].withdraw("Alice", 50);
+			manager[0].approveLoan("Bob", 20);
+			manager[0].repayLoan("Bob", 5);
+			manager[0].tryRemoveAccount("Carol", new LedgerResult());
+			manager[0].addAccount("Erin", 70);
+			manager[0].tryRestoreAccount("Frank", 30, 10);
+		};
+
+		Map<String, double[]> before = rows(manager[0].snapshotColumns());
+		assertEquals(4, before.size());
+		for (String holder : new String[] {"Alice", "Bob", "Carol", "Dave"}) {
+			assertArrayEquals(new double[] {100, 0}, before.get(holder), holder);
+		}
+
+		midScan[0] = null;
+		Map<String, double[]> after = rows(manager[0].snapshotColumns());
+		assertEquals(5, after.size());
+		assertArrayEquals(new double[] {60, 0}, after.get("Alice"));
+		assertArrayEquals(new double[] {110, 15}, after.get("Bob"));
+		assertArrayEquals(new double[] {110, 0}, after.get("Dave"));
+		assertArrayEquals(new double[] {70, 0}, after.get("Erin"));
+		assertArrayEquals(new double[] {30, 10}, after.get("Frank"));
+	}
+
+	/**
+	 * Determines if snapshots taken while a writer deposits into every account in turn
+	 * are consistent cuts: no account is ever more than one round ahead of another, and
+	 * no later account is ahead of an earlier one.
+	 *
+	 * @throws InterruptedException if the writer is interrupted
+	 */
+	@Test
+	void consistentWhileWritersRun() throws InterruptedException {
+		AccountManager ledger = new AccountManager();
+		int accounts = 2000;
+		for (int i = 0; i < accounts; i++) {
+			ledger.addAccount("Holder" + i, 1);
+		}
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			while (!stop.get()) {
+				for (int i = 0; i < accounts; i++) {
+					ledger.deposit("Holder" + i, 1);
+				}
+			}
+		});
+		writer.start();
+		try {
+			for (int round = 0; round < 20; round++) {
+				ColumnarSnapshot snapshot = ledger.snapshotColumns();
+				assertEquals(accounts, snapshot.getRowCount());
+				double[] balances = new double[accounts];
+				for (int row = 0; row < accounts; row++) {
+					balances[Integer.parseInt(snapshot.getHolder(row).substring(6))] = snapshot.getBalance(row);
+				}
+				for (int i = 1; i < accounts; i++) {
+					assertTrue(balances[i] <= balances[i - 1] && balances[i] >= balances[0] - 1,
+							"Not a consistent cut at Holder" + i + ": " + balances[0] + ", " + balances[i - 1] + ", " + balances[i]);
+				}
+				Thread.sleep(1);
+			}
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+	}
+
+	private static Map<String, double[]> rows(ColumnarSnapshot snapshot) {
+		Map<String, double[]> rows = new HashMap<>();
+		for (int row = 0; row < snapshot.getRowCount(); row++) {
+			assertNull(rows.put(snapshot.getHolder(row), new double[] {snapshot.getBalance(row), snapshot.getLoan(row)}));
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,209 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This test class provides methods to ascertain if the lending caps enforced by the
+ * exposure limiter behave as expected, both on their own and when wired into the
+ * account manager.
+ *
+ * A multi-threaded test is included to show that concurrent approvals never lend
+ * beyond the global cap.
+ */
+class ExposureLimiterTest {
+	private ExposureLimiter limiter;
+
+	/**
+	 * New limiter before each test: 1000 globally, 400 per account, 4 stripes.
+	 */
+	@BeforeEach
+	void setUp() {
+		limiter = new ExposureLimiter(1000, 400, 50, 4);
+	}
+
+	/**
+	 * Determines if a loan under every cap is reserved and reported as exposure.
+	 */
+	@Test
+	void tryReserveValid() {
+		assertTrue(limiter.tryReserve("Alice", 300));
+		assertEquals(300, limiter.getExposure("Alice"));
+		assertEquals(300, limiter.getGlobalExposure());
+	}
+
+	/**
+	 * Determines if the per-account cap refuses a loan and leaves no exposure behind.
+	 */
+	@Test
+	void tryReserveExceedsAccountCap() {
+		assertTrue(limiter.tryReserve("Alice", 300));
+		assertFalse(limiter.tryReserve("Alice", 200));
+		assertEquals(300, limiter.getExposure("Alice"));
+		assertEquals(300, limiter.getGlobalExposure());
+	}
+
+	/**
+	 * Determines if the global cap refuses a loan once other holders have used it up.
+	 */
+	@Test
+	void tryReserveExceedsGlobalCap() {
+		assertTrue(limiter.tryReserve("Alice", 400));
+		assertTrue(limiter.tryReserve("Bob", 400));
+		assertFalse(limiter.tryReserve("Carol", 300));
+		assertEquals(0, limiter.getExposure("Carol"));
+		assertEquals(800, limiter.getGlobalExposure());
+	}
+
+	/**
+	 * Determines if a segment cap refuses a loan and rolls back the account reservation.
+	 */
+	@Test
+	void tryReserveExceedsSegmentCap() {
+		limiter.setSegmentCap("corporate", 500);
+		limiter.assignSegment("Alice", "corporate");
+		limiter.assignSegment("Bob", "corporate");
+		assertTrue(limiter.tryReserve("Alice", 400));
+		assertFalse(limiter.tryReserve("Bob", 200));
+		assertEquals(0, limiter.getExposure("Bob"));
+		assertEquals(400, limiter.getSegmentExposure("corporate"));
+		assertEquals(400, limiter.getGlobalExposure());
+	}
+
+	/**
+	 * Determines if a holder who owes something can't change segment, and once repaid
+	 * can, with every release landing in the segment the loan was reserved in.
+	 */
+	@Test
+	void reassignOnlyWithoutExposure() {
+		limiter.setSegmentCap("retail", 300);
+		limiter.setSegmentCap("corporate", 300);
+		limiter.assignSegment("Alice", "retail");
+		assertTrue(limiter.tryReserve("Alice", 200));
+		assertThrows(IllegalArgumentException.class, () -> limiter.assignSegment("Alice", "corporate"));
+		limiter.assignSegment("Alice", "retail");
+		limiter.release("Alice", 200);
+		assertEquals(0, limiter.getSegmentExposure("retail"));
+		assertEquals(0, limiter.getSegmentExposure("corporate"));
+
+		limiter.assignSegment("Alice", "corporate");
+		assertTrue(limiter.tryReserve("Alice", 300));
+		limiter.assignSegment("Bob", "corporate");
+		assertFalse(limiter.tryReserve("Bob", 1));
+		limiter.release("Alice", 300);
+		assertEquals(0, limiter.getSegmentExposure("retail"));
+		assertEquals(0, limiter.getSegmentExposure("corporate"));
+		assertEquals(0, limiter.getGlobalExposure());
+	}
+
+	/**
+	 * Determines if a holder whose repayments leave only rounding drift can still change
+	 * segment.
+	 */
+	@Test
+	void reassignAfterRoundingDrift() {
+		limiter.setSegmentCap("retail", 300);
+		limiter.setSegmentCap("corporate", 300);
+		limiter.assignSegment("Alice", "retail");
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.tryReserve("Alice", 0.1));
+		}
+		limiter.release("Alice", 0.3);
+		assertNotEquals(0.0, limiter.getExposure("Alice")); // 0.1 + 0.1 + 0.1 - 0.3 isn't exactly 0
+		limiter.assignSegment("Alice", "corporate");
+		assertEquals(0.0, limiter.getExposure("Alice"));
+		assertTrue(limiter.tryReserve("Alice", 300));
+	}
+
+	/**
+	 * Determines if releasing exposure frees room for further loans.
+	 */
+	@Test
+	void releaseFreesCapacity() {
+		assertTrue(limiter.tryReserve("Alice", 400));
+		limiter.release("Alice", 150);
+		assertEquals(250, limiter.getExposure("Alice"));
+		assertTrue(limiter.tryReserve("Alice", 150));
+	}
+
+	/**
+	 * Determines if negative caps and amounts trigger the expected exception.
+	 */
+	@Test
+	void negativeValuesRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new ExposureLimiter(-1, 100, 10));
+		assertThrows(IllegalArgumentException.class, () -> limiter.setSegmentCap("retail", -5));
+		assertThrows(IllegalArgumentException.class, () -> limiter.tryReserve("Alice", -5));
+	}
+
+	/**
+	 * Determines if the account manager refuses a loan the limiter refuses, and
+	 * leaves total deposits unchanged.
+	 */
+	@Test
+	void accountManagerRespectsLimiter() {
+		AccountManager accountManager = new AccountManager(limiter);
+		accountManager.addAccount("Alice", 5000);
+		assertTrue(accountManager.approveLoan("Alice", 400));
+		assertFalse(accountManager.approveLoan("Alice", 100));
+		assertEquals(4600, accountManager.getTotalDeposits());
+		assertTrue(accountManager.repayLoan("Alice", 100));
+		assertEquals(300, limiter.getExposure("Alice"));
+	}
+
+	/**
+	 * Determines if the limiter exposure is returned when total deposits can't cover a loan.
+	 */
+	@Test
+	void accountManagerReleasesOnInsufficientDeposits() {
+		AccountManager accountManager = new AccountManager(limiter);
+		accountManager.addAccount("Alice", 100);
+		assertFalse(accountManager.approveLoan("Alice", 300));
+		assertEquals(0, limiter.getExposure("Alice"));
+		assertEquals(0, limiter.getGlobalExposure());
+	}
+
+	/**
+	 * Many threads race to borrow from a shared cap; no more than the cap may be lent,
+	 * and any budget left stranded in stripes can still be borrowed afterwards.
+	 */
+	@Test
+	void concurrentReservationsNeverOverLend() throws InterruptedException {
+		ExposureLimiter shared = new ExposureLimiter(1000, 1000, 25, 8);
+		AtomicInteger approved = new AtomicInteger();
+		int threads = 8;
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			String holder = "Holder" + t;
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < 500; i++) {
+					if (shared.tryReserve(holder, 1)) {
+						approved.incrementAndGet();
+					}
+				}
+			});
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertTrue(approved.get() <= 1000);
+		assertEquals(approved.get(), shared.getGlobalExposure());
+		while (shared.tryReserve("Latecomer", 1)) {
+			approved.incrementAndGet();
+		}
+		assertEquals(1000, approved.get());
+	}
+}
@@ -0,0 +1,58 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if the hash ring spreads holders evenly
+ * over its nodes, and if adding a node only moves holders onto the new node.
+ */
+class HashRingTest {
+
+	/**
+	 * Determines if holders are spread roughly evenly over the nodes.
+	 */
+	@Test
+	void spreadsHoldersEvenly() {
+		HashRing ring = new HashRing(128).withNode(0).withNode(1).withNode(2).withNode(3);
+		int[] counts = new int[4];
+		for (int i = 0; i < 100_000; i++) {
+			counts[ring.owner("Holder" + i)]++;
+		}
+		for (int count : counts) {
+			assertTrue(count > 20_000 && count < 30_000, "Node share " + count);
+		}
+	}
+
+	/**
+	 * Determines if adding a node moves about a fair share of holders, all of them to the new node.
+	 */
+	@Test
+	void addingNodeOnlyMovesToIt() {
+		HashRing before = new HashRing(128).withNode(0).withNode(1).withNode(2);
+		HashRing after = before.withNode(3);
+		int moved = 0;
+		for (int i = 0; i < 100_000; i++) {
+			String holder = "Holder" + i;
+			if (before.owner(holder) != after.owner(holder)) {
+				assertEquals(3, after.owner(holder));
+				moved++;
+			}
+		}
+		assertTrue(moved > 20_000 && moved < 30_000, "Moved " + moved);
+		assertFalse(before.contains(3));
+		assertArrayEquals(new int[] {0, 1, 2, 3}, after.getNodes());
+	}
+
+	/**
+	 * Determines if an empty ring, a duplicate node and no virtual nodes are rejected.
+	 */
+	@Test
+	void invalidUse() {
+		HashRing empty = new HashRing(4);
+		assertThrows(IllegalStateException.class, () -> empty.owner("Alice"));
+		assertThrows(IllegalArgumentException.class, () -> empty.withNode(1).withNode(1));
+		assertThrows(IllegalArgumentException.class, () -> new HashRing(0));
+	}
+}
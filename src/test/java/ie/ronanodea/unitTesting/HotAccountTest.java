@@ -0,0 +1,106 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if an account split into striped
+ * sub-balances keeps its balance exact, and that withdrawals still can't overdraw it.
+ */
+class HotAccountTest {
+	private Account account;
+
+	/**
+	 * New account, already promoted to split mode, before each test.
+	 */
+	@BeforeEach
+	void setUp() {
+		account = new Account("Hot Corp", 100);
+		account.setAdaptiveSplitting(true);
+		account.lock();
+		try {
+			account.promote();
+		} finally {
+			account.unlock();
+		}
+	}
+
+	/**
+	 * Determines if deposits to a split account are included in its balance.
+	 */
+	@Test
+	void splitDepositsIncludedInBalance() {
+		assertTrue(account.isSplit());
+		account.deposit(50);
+		account.deposit(25);
+		assertEquals(175, account.getBalance());
+	}
+
+	/**
+	 * Determines if a withdrawal can use split deposits but can't overdraw the account.
+	 */
+	@Test
+	void withdrawFoldsSplitDeposits() {
+		account.deposit(50);
+		assertTrue(account.withdraw(150));
+		assertEquals(0, account.getBalance());
+		assertFalse(account.withdraw(1));
+	}
+
+	/**
+	 * Determines if demoting an account keeps every deposit.
+	 */
+	@Test
+	void demoteKeepsBalance() {
+		account.deposit(40);
+		account.lock();
+		try {
+			account.demote();
+		} finally {
+			account.unlock();
+		}
+		assertFalse(account.isSplit());
+		account.deposit(10);
+		assertEquals(150, account.getBalance());
+	}
+
+	/**
+	 * Determines if switching adaptive splitting off demotes the account on its next locked operation.
+	 */
+	@Test
+	void disablingAdaptiveDemotes() {
+		account.setAdaptiveSplitting(false);
+		account.deposit(10);
+		assertEquals(110, account.getBalance());
+		assertFalse(account.isSplit());
+	}
+
+	/**
+	 * Many threads deposit into one account with adaptive splitting on; no deposit is lost
+	 * and total deposits agree with the balance.
+	 */
+	@Test
+	void concurrentDepositsWithAdaptiveSplitting() throws InterruptedException {
+		AccountManager accountManager = new AccountManager();
+		accountManager.setAdaptiveSplitting(true);
+		accountManager.addAccount("Hot Corp", 100);
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] = new Thread(() -> {
+				for (int i = 0; i < 10_000; i++) {
+					accountManager.deposit("Hot Corp", 1);
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(40_100, accountManager.getBalance("Hot Corp"));
+		assertEquals(40_100, accountManager.getTotalDeposits());
+		assertTrue(accountManager.withdraw("Hot Corp", 40_100));
+		assertEquals(0, accountManager.getTotalDeposits());
+	}
+}
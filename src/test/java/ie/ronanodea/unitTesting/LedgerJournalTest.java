@@ -0,0 +1,281 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if the ledger journal records every
+ * mutation, compacts sealed segments into a state file without losing any, and recovers
+ * the same accounts afterwards, including after a crash.
+ */
+class LedgerJournalTest {
+	private Path directory;
+
+	/**
+	 * New, empty journal directory before each test.
+	 *
+	 * @throws IOException if the directory can't be created
+	 */
+	@BeforeEach
+	void setUp() throws IOException {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	/**
+	 * Removes the journal directory after each test.
+	 *
+	 * @throws IOException if a file can't be removed
+	 */
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * Recovers the journal into a fresh manager.
+	 */
+	private AccountManager recover() throws IOException {
+		InMemoryAccountStore store = new InMemoryAccountStore();
+		LedgerJournal.recover(directory, store);
+		return new AccountManager(store, null);
+	}
+
+	/**
+	 * Counts the files in the journal directory whose names start with a prefix.
+	 */
+	private long countFiles(String prefix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith(prefix)).count();
+		}
+	}
+
+	/**
+	 * Determines if mutations made through a manager and captured by a change stream are recovered.
+	 *
+	 * @throws IOException if the journal can't be written or read
+	 */
+	@Test
+	void recoversManagerMutations() throws IOException {
+		AccountManager accountManager = new AccountManager();
+		ChangeStream stream = new ChangeStream(1024);
+		ChangeStream.Subscriber subscriber = stream.subscribe();
+		accountManager.setChangeStream(stream);
+		try (LedgerJournal journal = LedgerJournal.open(directory, 1 << 20, 1 << 30)) {
+			accountManager.addAccount("Alice", 1000);
+			accountManager.addAccount("Bob", 500);
+			accountManager.deposit("Alice", 200);
+			accountManager.withdraw("Bob", 300);
+			accountManager.withdraw("Bob", 900); // refused, so not journalled
+			accountManager.approveLoan("Alice", 400);
+			accountManager.repayLoan("Alice", 150);
+			accountManager.addAccount("Carol", 50);
+			accountManager.tryRemoveAccount("Carol", new LedgerResult());
+			subscriber.poll(journal, Integer.MAX_VALUE);
+		}
+		AccountManager recovered = recover();
+		assertEquals(1200, recovered.getBalance("Alice"));
+		assertEquals(250, recovered.getLoan("Alice"));
+		assertEquals(200, recovered.getBalance("Bob"));
+		assertNull(recovered.getBalance("Carol"));
+		assertEquals(accountManager.getTotalDeposits(), recovered.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if compaction replaces sealed segments with a state file, and later
+	 * segments are replayed on top of it.
+	 *
+	 * @throws IOException if the journal can't be written or read
+	 */
+	@Test
+	void compactionKeepsEveryMutation() throws IOException {
+		try (LedgerJournal journal = LedgerJournal.open(directory, 200, 1 << 30)) {
+			for (int i = 0; i < 10; i++) {
+				journal.onChange(i, ChangeType.ACCOUNT_OPENED, "Holder" + i, 100, 100, 0);
+			}
+			for (int i = 0; i < 100; i++) {
+				journal.onChange(i, ChangeType.DEPOSIT, "Holder" + (i % 10), 5, Double.NaN, Double.NaN);
+			}
+			assertTrue(journal.getSealedCount() > 1);
+			assertTrue(journal.compact());
+			assertEquals(0, journal.getSealedCount());
+			assertEquals(1, countFiles("state-"));
+			assertEquals(1, countFiles("journal-"));
+			journal.onChange(0, ChangeType.LOAN_APPROVED, "Holder3", 70, 150, 70);
+			journal.onChange(0, ChangeType.WITHDRAWAL, "Holder4", 20, 130, 0);
+		}
+		AccountManager recovered = recover();
+		assertEquals(150, recovered.getBalance("Holder3"));
+		assertEquals(70, recovered.getLoan("Holder3"));
+		assertEquals(130, recovered.getBalance("Holder4"));
+		assertEquals(10 * 150 - 20 - 70, recovered.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if a journal reopened after compaction carries on where it left off, and
+	 * a second compaction folds in the first state file.
+	 *
+	 * @throws IOException if the journal can't be written or read
+	 */
+	@Test
+	void reopenAndCompactAgain() throws IOException {
+		try (LedgerJournal journal = LedgerJournal.open(directory, 100, 1 << 30)) {
+			journal.onChange(0, ChangeType.ACCOUNT_OPENED, "Alice", 100, 100, 0);
+			journal.roll();
+			journal.compact();
+		}
+		try (LedgerJournal journal = LedgerJournal.open(directory, 100, 1 << 30)) {
+			journal.onChange(0, ChangeType.DEPOSIT, "Alice", 50, 150, 0);
+			journal.roll();
+			assertTrue(journal.compact());
+			assertFalse(journal.compact());
+		}
+		assertEquals(1, countFiles("state-"));
+		assertEquals(150, recover().getBalance("Alice"));
+	}
+
+	/**
+	 * Determines if a record cut short by a crash is ignored, and files a crashed
+	 * compaction left behind are not replayed twice.
+	 *
+	 * @throws IOException if the journal can't be written or read
+	 */
+	@Test
+	void recoversFromCrash() throws IOException {
+		try (LedgerJournal journal = LedgerJournal.open(directory, 1 << 20, 1 << 30)) {
+			journal.onChange(0, ChangeType.ACCOUNT_OPENED, "Alice", 100, 100, 0);
+			journal.roll();
+			journal.onChange(0, ChangeType.DEPOSIT, "Alice", 10, 110, 0);
+		}
+		Path first = directory.resolve("journal-1.log");
+		Path leftover = Files.copy(first, directory.resolve("saved.log"));
+		try (LedgerJournal journal = LedgerJournal.open(directory, 1 << 20, 1 << 30)) {
+			journal.compact();
+			journal.onChange(0, ChangeType.DEPOSIT, "Alice", 5, 115, 0);
+		}
+		Files.move(leftover, first); // as if the crash came before the old segment was deleted
+		Path last;
+		try (Stream<Path> files = Files.list(directory)) {
+			last = files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+					.max((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString())).get();
+		}
+		try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3); // tear the last record
+		}
+		assertEquals(110, recover().getBalance("Alice"));
+		LedgerJournal.open(directory, 1 << 20, 1 << 30).close();
+		assertFalse(Files.exists(first));
+	}
+
+	/**
+	 * Determines if recovery reports a record with an unknown change type as a corrupt
+	 * segment instead of failing on it some other way.
+	 *
+	 * @throws IOException if the journal can't be written
+	 */
+	@Test
+	void corruptRecordTypeReported() throws IOException {
+		try (LedgerJournal journal = LedgerJournal.open(directory, 1 << 20, 1 << 30)) {
+			journal.onChange(0, ChangeType.ACCOUNT_OPENED, "Alice", 100, 100, 0);
+			journal.onChange(1, ChangeType.DEPOSIT, "Alice", 10, 110, 0);
+		}
+		Path segment = directory.resolve("journal-1.log");
+		byte[] bytes = Files.readAllBytes(segment);
+		bytes[bytes.length - 1 - 8 - 2 - "Alice".length()] = (byte) 0xFF; // the second record's type
+		Files.write(segment, bytes);
+		IOException e = assertThrows(IOException.class, () -> recover());
+		assertTrue(e.getMessage().contains("journal-1.log"), e.getMessage());
+	}
+
+	/**
+	 * Determines if background compaction, running while another thread appends, loses nothing.
+	 *
+	 * @throws Exception if the journal can't be written or read, or the writer is interrupted
+	 */
+	@Test
+	void backgroundCompactionWithLiveAppends() throws Exception {
+		try (LedgerJournal journal = LedgerJournal.open(directory, 512, 1 << 30)) {
+			journal.startCompactor(2, 1);
+			journal.onChange(0, ChangeType.ACCOUNT_OPENED, "Alice", 1, 1, 0);
+			Thread writer = new Thread(() -> {
+				for (int i = 0; i < 20_000; i++) {
+					journal.onChange(i, ChangeType.DEPOSIT, "Alice", 1, Double.NaN, Double.NaN);
+				}
+			});
+			writer.start();
+			writer.join();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (journal.getCompactionCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertTrue(journal.getCompactionCount() > 0);
+		}
+		assertEquals(20_001, recover().getBalance("Alice"));
+	}
+
+	/**
+	 * Determines if the background compactor records a failed compaction, keeps running
+	 * and compacts once the cause is gone.
+	 *
+	 * @throws Exception if the journal can't be written or read, or the test is interrupted
+	 */
+	@Test
+	void compactorSurvivesFailures() throws Exception {
+		try (LedgerJournal journal = LedgerJournal.open(directory, 512, 1 << 30)) {
+			List<Path> blocked = new ArrayList<>();
+			for (int i = 1; i <= 100; i++) {
+				Path temporary = directory.resolve("state-" + i + ".tmp"); // a directory can't be written as a file
+				Files.createDirectories(temporary.resolve("blocked"));
+				blocked.add(temporary);
+			}
+			journal.onChange(0, ChangeType.ACCOUNT_OPENED, "Alice", 1, 1, 0);
+			for (int i = 0; i < 100; i++) {
+				journal.onChange(i, ChangeType.DEPOSIT, "Alice", 1, Double.NaN, Double.NaN);
+			}
+			journal.startCompactor(2, 1);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (journal.getCompactionFailureCount() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertTrue(journal.getCompactionFailureCount() >= 2);
+			assertTrue(journal.getLastCompactionFailure() instanceof IOException);
+			assertEquals(0, journal.getCompactionCount());
+
+			for (Path temporary : blocked) {
+				Files.delete(temporary.resolve("blocked"));
+				Files.delete(temporary);
+			}
+			deadline = System.currentTimeMillis() + 5000;
+			while (journal.getCompactionCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertTrue(journal.getCompactionCount() > 0);
+		}
+		assertEquals(101, recover().getBalance("Alice"));
+	}
+
+	/**
+	 * Determines if invalid settings are rejected.
+	 */
+	@Test
+	void invalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> LedgerJournal.open(directory, 0, 1));
+		assertThrows(IllegalArgumentException.class, () -> LedgerJournal.open(directory, 1, 0));
+	}
+}
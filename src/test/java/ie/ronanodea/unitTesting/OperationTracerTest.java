@@ -0,0 +1,229 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * This test class provides methods to ascertain if the operation tracer times each
+ * phase of the account manager's operations, keeps the slowest in its ring buffer, samples
+ * and thresholds as configured, and emits Flight Recorder events.
+ */
+class OperationTracerTest {
+	private static final long MILLIS = 1_000_000L;
+
+	private AccountManager accountManager;
+
+	/**
+	 * New account manager before each test, with two accounts.
+	 */
+	@BeforeEach
+	void setUp() {
+		accountManager = new AccountManager();
+		accountManager.addAccount("Alice", 1000);
+		accountManager.addAccount("Bob", 100);
+	}
+
+	/**
+	 * Determines if every traced operation lands in the ring buffer with its holder,
+	 * status and phases, and if the buffer keeps only the most recent ones.
+	 */
+	@Test
+	void recordsOperationsWithPhases() {
+		OperationTracer tracer = new OperationTracer(1, 0, 16);
+		accountManager.setOperationTracer(tracer);
+		assertEquals(LedgerStatus.OK, accountManager.tryAddAccount("Carol", 50));
+		assertTrue(accountManager.deposit("Alice", 10));
+		assertEquals(LedgerStatus.INSUFFICIENT_FUNDS, accountManager.tryWithdraw("Bob", 500));
+		assertTrue(accountManager.approveLoan("Alice", 100));
+		assertEquals(LedgerStatus.OK, accountManager.tryRepayLoan("Alice", 40));
+		assertFalse(accountManager.deposit("Nobody", 10));
+		assertEquals(LedgerStatus.INVALID_AMOUNT, accountManager.tryDeposit("Alice", -1));
+
+		assertEquals(6, tracer.getTracedCount());
+		assertEquals(6, tracer.getSlowCount());
+		List<OperationTracer.SlowOperation> slow = tracer.getSlowOperations();
+		assertEquals(6, slow.size());
+		for (int i = 0; i < slow.size(); i++) {
+			OperationTracer.SlowOperation operation = slow.get(i);
+			long phases = 0;
+			for (OperationTracer.Phase phase : OperationTracer.Phase.values()) {
+				phases += operation.getPhaseNanos(phase);
+			}
+			assertTrue(phases <= operation.getTotalNanos(), operation.toString());
+			if (i > 0) {
+				assertTrue(operation.getTotalNanos() <= slow.get(i - 1).getTotalNanos());
+			}
+		}
+		OperationTracer.SlowOperation refused = find(slow, OperationTracer.Operation.WITHDRAW);
+		assertEquals("Bob", refused.getAccountHolder());
+		assertEquals(LedgerStatus.INSUFFICIENT_FUNDS, refused.getStatus());
+		assertEquals(0, refused.getPhaseNanos(OperationTracer.Phase.PERSISTENCE));
+		OperationTracer.SlowOperation notFound = slow.stream()
+				.filter(operation -> operation.getStatus() == LedgerStatus.NOT_FOUND).findFirst().get();
+		assertEquals("Nobody", notFound.getAccountHolder());
+		assertEquals(0, notFound.getPhaseNanos(OperationTracer.Phase.LOCK));
+		assertEquals(OperationTracer.Operation.OPEN, find(slow, OperationTracer.Operation.OPEN).getOperation());
+
+		OperationTracer small = new OperationTracer(1, 0, 2);
+		accountManager.setOperationTracer(small);
+		for (int i = 0; i < 5; i++) {
+			accountManager.deposit("Holder" + i, 1);
+		}
+		assertEquals(5, small.getSlowCount());
+		assertEquals(2, small.getSlowOperations().size());
+		assertTrue(small.getSlowOperations().stream().allMatch(
+				operation -> operation.getAccountHolder().equals("Holder3") || operation.getAccountHolder().equals("Holder4")));
+	}
+
+	/**
+	 * Determines if reads, including ones answered by the balance cache, removals and
+	 * restores are traced with their phases.
+	 */
+	@Test
+	void tracesReadsRemovesAndRestores() {
+		accountManager.setBalanceCache(BalanceCache.ofEntries(100));
+		OperationTracer tracer = new OperationTracer(1, 0, 16);
+		accountManager.setOperationTracer(tracer);
+		assertEquals(1000, accountManager.getBalance("Alice"));
+		assertEquals(0, accountManager.getLoan("Alice")); // from the cache
+		assertNull(accountManager.getBalance("Nobody"));
+		LedgerResult result = new LedgerResult();
+		assertEquals(LedgerStatus.OK, accountManager.tryRemoveAccount("Bob", result));
+		assertEquals(LedgerStatus.NOT_FOUND, accountManager.tryReadAccount("Bob", result));
+		assertEquals(LedgerStatus.OK, accountManager.tryRestoreAccount("Bob", 100, 0));
+		assertEquals(LedgerStatus.INVALID_HOLDER, accountManager.tryRemoveAccount(null, result));
+
+		assertEquals(6, tracer.getTracedCount());
+		List<OperationTracer.SlowOperation> slow = tracer.getSlowOperations();
+		assertEquals(4, slow.stream().filter(operation -> operation.getOperation() == OperationTracer.Operation.READ).count());
+		assertEquals(2, slow.stream().filter(operation -> operation.getStatus() == LedgerStatus.NOT_FOUND).count());
+		OperationTracer.SlowOperation removed = find(slow, OperationTracer.Operation.REMOVE);
+		assertEquals("Bob", removed.getAccountHolder());
+		assertEquals(LedgerStatus.OK, removed.getStatus());
+		OperationTracer.SlowOperation restored = find(slow, OperationTracer.Operation.RESTORE);
+		assertEquals("Bob", restored.getAccountHolder());
+		assertEquals(LedgerStatus.OK, restored.getStatus());
+		assertEquals(0, restored.getPhaseNanos(OperationTracer.Phase.LOOKUP));
+	}
+
+	/**
+	 * Determines if only operations over the threshold are kept, if about one in the
+	 * sample rate is traced, and if removing the tracer stops tracing.
+	 */
+	@Test
+	void thresholdAndSampling() {
+		OperationTracer tracer = new OperationTracer(1, 10_000 * MILLIS, 4);
+		accountManager.setOperationTracer(tracer);
+		for (int i = 0; i < 1000; i++) {
+			accountManager.tryDeposit("Alice", 1);
+		}
+		assertEquals(1000, tracer.getTracedCount());
+		assertTrue(tracer.getSlowOperations().isEmpty());
+
+		OperationTracer sampled = new OperationTracer(10, 0, 4);
+		accountManager.setOperationTracer(sampled);
+		for (int i = 0; i < 10_000; i++) {
+			accountManager.tryDeposit("Alice", 1);
+		}
+		assertTrue(sampled.getTracedCount() > 700 && sampled.getTracedCount() < 1300, "Traced " + sampled.getTracedCount());
+
+		accountManager.setOperationTracer(null);
+		accountManager.tryDeposit("Alice", 1);
+		assertTrue(sampled.getTracedCount() < 1300);
+		assertEquals(11_001 + 1000, accountManager.getBalance("Alice"));
+	}
+
+	/**
+	 * Determines if a deposit held up publishing to a full change stream shows the time
+	 * as persistence, and a deposit queued behind it on the account's lock shows it as
+	 * lock wait.
+	 *
+	 * @throws InterruptedException if a worker is interrupted
+	 */
+	@Test
+	void attributesLockWaitAndPersistence() throws InterruptedException {
+		ChangeStream stream = new ChangeStream(4);
+		ChangeStream.Subscriber subscriber = stream.subscribe();
+		accountManager.setChangeStream(stream);
+		for (int i = 0; i < 4; i++) {
+			accountManager.deposit("Bob", 1); // fills the ring
+		}
+		OperationTracer tracer = new OperationTracer(1, 20 * MILLIS, 8);
+		accountManager.setOperationTracer(tracer);
+		Thread blocked = new Thread(() -> accountManager.deposit("Alice", 1));
+		Thread queued = new Thread(() -> accountManager.deposit("Alice", 2));
+		blocked.start();
+		Thread.sleep(50);
+		queued.start();
+		Thread.sleep(50);
+		while (blocked.isAlive() || queued.isAlive()) {
+			subscriber.poll((sequence, type, accountHolder, amount, balance, loan) -> { }, 100);
+			Thread.sleep(1);
+		}
+		blocked.join();
+		queued.join();
+
+		List<OperationTracer.SlowOperation> slow = tracer.getSlowOperations();
+		assertEquals(2, slow.size(), slow.toString());
+		assertTrue(slow.get(0).getPhaseNanos(OperationTracer.Phase.PERSISTENCE) >= 40 * MILLIS, slow.toString());
+		assertTrue(slow.get(1).getPhaseNanos(OperationTracer.Phase.LOCK) >= 20 * MILLIS, slow.toString());
+		assertEquals(1003, accountManager.getBalance("Alice"));
+		stream.close();
+	}
+
+	/**
+	 * Determines if traced operations are emitted as Flight Recorder events with their
+	 * phase timings when a recording enables them.
+	 *
+	 * @throws IOException if the recording can't be written or read
+	 */
+	@Test
+	void emitsFlightRecorderEvents() throws IOException {
+		accountManager.setOperationTracer(new OperationTracer(1, Long.MAX_VALUE, 1));
+		Path file = Files.createTempFile("operations", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("ie.ronanodea.LedgerOperation");
+			recording.start();
+			accountManager.deposit("Alice", 10);
+			accountManager.tryWithdraw("Bob", 500);
+			recording.stop();
+			recording.dump(file);
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			events.removeIf(event -> !event.getEventType().getName().equals("ie.ronanodea.LedgerOperation"));
+			assertEquals(2, events.size());
+			RecordedEvent withdrawal = events.stream()
+					.filter(event -> event.getString("operation").equals("WITHDRAW")).findFirst().get();
+			assertEquals("Bob", withdrawal.getString("accountHolder"));
+			assertEquals("INSUFFICIENT_FUNDS", withdrawal.getString("status"));
+			assertFalse(withdrawal.getDuration("lockWait").isNegative());
+			assertTrue(withdrawal.getDuration().toNanos() >= withdrawal.getDuration("mutation").toNanos());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Determines if invalid settings are rejected.
+	 */
+	@Test
+	void invalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> new OperationTracer(0, 0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new OperationTracer(1, -1, 1));
+		assertThrows(IllegalArgumentException.class, () -> new OperationTracer(1, 0, 0));
+	}
+
+	private static OperationTracer.SlowOperation find(List<OperationTracer.SlowOperation> slow, OperationTracer.Operation type) {
+		return slow.stream().filter(operation -> operation.getOperation() == type).findFirst().get();
+	}
+}
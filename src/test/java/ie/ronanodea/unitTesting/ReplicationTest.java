@@ -0,0 +1,271 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if followers of a replicated ledger end
+ * up with the leader's balances, loans and total deposits, whether they join before or
+ * after the writes, and if quorum writes wait for their followers.
+ */
+class ReplicationTest {
+	private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+	private ReplicationLeader leader;
+	private final List<ReplicationFollower> followers = new ArrayList<>();
+
+	/**
+	 * Stops the leader and followers after each test.
+	 */
+	@AfterEach
+	void tearDown() {
+		for (ReplicationFollower follower : followers) {
+			follower.close();
+		}
+		if (leader != null) {
+			leader.close();
+		}
+	}
+
+	/**
+	 * Starts a leader over a new manager.
+	 */
+	private void startLeader(int quorum, long ackTimeoutMillis) throws IOException {
+		leader = ReplicationLeader.start(new AccountManager(), 0, quorum, ackTimeoutMillis);
+	}
+
+	/**
+	 * Connects a follower and waits until the leader is shipping to it.
+	 */
+	private ReplicationFollower connect() throws IOException, InterruptedException {
+		int expected = leader.getFollowerCount() + 1;
+		ReplicationFollower follower = ReplicationFollower.connect("localhost", leader.getPort());
+		followers.add(follower);
+		long deadline = System.nanoTime() + TIMEOUT;
+		while (leader.getFollowerCount() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(expected, leader.getFollowerCount());
+		return follower;
+	}
+
+	/**
+	 * Waits for a follower to catch up, then checks it matches the leader.
+	 */
+	private void assertReplicated(ReplicationFollower follower, String... holders) {
+		assertTrue(follower.awaitSequence(leader.getSequence(), TIMEOUT));
+		AccountManager accountManager = leader.getManager();
+		for (String holder : holders) {
+			assertEquals(accountManager.getBalance(holder), follower.getBalance(holder), holder);
+			assertEquals(accountManager.getLoan(holder), follower.getLoan(holder), holder);
+		}
+		assertEquals(accountManager.getTotalDeposits(), follower.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if asynchronous replication brings every follower to the leader's state.
+	 *
+	 * @throws Exception if the leader can't be reached
+	 */
+	@Test
+	void followersMatchLeader() throws Exception {
+		startLeader(0, 0);
+		ReplicationFollower first = connect();
+		ReplicationFollower second = connect();
+		assertEquals(LedgerStatus.OK, leader.tryAddAccount("Alice", 1000));
+		assertEquals(LedgerStatus.OK, leader.tryAddAccount("Bob", 500));
+		assertEquals(LedgerStatus.OK, leader.tryDeposit("Alice", 250));
+		assertEquals(LedgerStatus.OK, leader.tryWithdraw("Bob", 100));
+		assertEquals(LedgerStatus.INSUFFICIENT_FUNDS, leader.tryWithdraw("Bob", 1000));
+		assertEquals(LedgerStatus.OK, leader.tryApproveLoan("Alice", 300));
+		assertEquals(LedgerStatus.OK, leader.tryRepayLoan("Alice", 120));
+		assertReplicated(first, "Alice", "Bob");
+		assertReplicated(second, "Alice", "Bob");
+		assertEquals(1250, first.getBalance("Alice"));
+		assertEquals(180, first.getLoan("Alice"));
+		assertNull(first.getBalance("Carol"));
+		LedgerResult result = new LedgerResult();
+		assertEquals(LedgerStatus.OK, second.tryReadAccount("Bob", result));
+		assertEquals(400, result.getBalance());
+		assertEquals(LedgerStatus.NOT_FOUND, second.tryReadAccount("Carol", result));
+	}
+
+	/**
+	 * Determines if a follower joining after the writes catches up from a snapshot, and
+	 * keeps receiving the writes after it, including removed accounts.
+	 *
+	 * @throws Exception if the leader can't be reached
+	 */
+	@Test
+	void lateFollowerCatchesUp() throws Exception {
+		startLeader(0, 0);
+		for (int i = 0; i < 100; i++) {
+			leader.tryAddAccount("Holder" + i, 100 + i);
+			leader.tryApproveLoan("Holder" + i, 10);
+		}
+		LedgerResult result = new LedgerResult();
+		leader.getManager().tryRemoveAccount("Holder3", result);
+		ReplicationFollower late = connect();
+		assertReplicated(late, "Holder0", "Holder3", "Holder50", "Holder99");
+		leader.tryDeposit("Holder7", 1000);
+		leader.getManager().tryRemoveAccount("Holder8", result);
+		assertReplicated(late, "Holder7", "Holder8");
+		assertEquals(1107, late.getBalance("Holder7"));
+		assertNull(late.getBalance("Holder8"));
+	}
+
+	/**
+	 * Determines if a quorum write only returns once enough followers have applied it.
+	 *
+	 * @throws Exception if the leader can't be reached
+	 */
+	@Test
+	void quorumWritesWaitForFollowers() throws Exception {
+		startLeader(2, 10_000);
+		ReplicationFollower first = connect();
+		ReplicationFollower second = connect();
+		assertEquals(LedgerStatus.OK, leader.tryAddAccount("Alice", 1000));
+		for (int i = 0; i < 50; i++) {
+			assertEquals(LedgerStatus.OK, leader.tryDeposit("Alice", 1));
+			long sequence = leader.getSequence();
+			assertTrue(first.getSequence() >= sequence);
+			assertTrue(second.getSequence() >= sequence);
+			assertEquals(1001 + i, first.getBalance("Alice"));
+		}
+		assertEquals(0, leader.getReplicationLag());
+	}
+
+	/**
+	 * Determines if a write without its quorum is reported, yet still stands on the leader.
+	 *
+	 * @throws Exception if the leader can't be reached
+	 */
+	@Test
+	void missingQuorumReported() throws Exception {
+		startLeader(2, 50);
+		ReplicationFollower only = connect();
+		assertEquals(LedgerStatus.NOT_REPLICATED, leader.tryAddAccount("Alice", 1000));
+		assertEquals(LedgerStatus.INVALID_AMOUNT, leader.tryDeposit("Alice", -1));
+		assertEquals(1000, leader.getManager().getBalance("Alice"));
+		assertReplicated(only, "Alice");
+		assertEquals("NOT_REPLICATED", LedgerStatus.name(LedgerStatus.NOT_REPLICATED));
+	}
+
+	/**
+	 * Determines if writes from many threads replicate exactly.
+	 *
+	 * @throws Exception if the leader can't be reached or a writer is interrupted
+	 */
+	@Test
+	void concurrentWritesReplicate() throws Exception {
+		startLeader(1, 10_000);
+		ReplicationFollower first = connect();
+		ReplicationFollower second = connect();
+		String[] holders = {"Holder0", "Holder1", "Holder2", "Holder3"};
+		for (String holder : holders) {
+			leader.tryAddAccount(holder, 1000);
+		}
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			int offset = t;
+			writers[t] = new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					String holder = holders[(i + offset) % holders.length];
+					leader.tryDeposit(holder, 3);
+					leader.tryWithdraw(holder, 2);
+					if (i % 10 == 0) {
+						leader.tryApproveLoan(holder, 5);
+						leader.tryRepayLoan(holder, 5);
+					}
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertReplicated(first, holders);
+		assertReplicated(second, holders);
+		assertEquals(4 * 1000 + 4 * 2000, first.getTotalDeposits());
+	}
+
+	/**
+	 * Determines if a follower never shows a hot account's balance below zero while
+	 * split deposits fund withdrawals on the leader.
+	 *
+	 * @throws Exception if the leader can't be reached or a thread is interrupted
+	 */
+	@Test
+	void hotAccountNeverNegativeOnFollower() throws Exception {
+		startLeader(0, 0);
+		leader.getManager().setAdaptiveSplitting(true);
+		ReplicationFollower follower = connect();
+		leader.tryAddAccount("Hot", 1);
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			writers[t] = new Thread(() -> {
+				while (running.get()) {
+					leader.tryDeposit("Hot", 1);
+					leader.tryWithdraw("Hot", 1);
+				}
+			});
+			writers[t].start();
+		}
+		double lowest = Double.MAX_VALUE;
+		long deadline = System.nanoTime() + 300_000_000L;
+		while (System.nanoTime() < deadline) {
+			Double balance = follower.getBalance("Hot");
+			if (balance != null) {
+				lowest = Math.min(lowest, balance);
+			}
+		}
+		running.set(false);
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertTrue(lowest >= 0, "Lowest balance " + lowest);
+		assertReplicated(follower, "Hot");
+	}
+
+	/**
+	 * Determines if a follower stops being shipped to once it disconnects, and the leader
+	 * carries on.
+	 *
+	 * @throws Exception if the leader can't be reached
+	 */
+	@Test
+	void followerDisconnects() throws Exception {
+		startLeader(0, 0);
+		ReplicationFollower follower = connect();
+		follower.close();
+		assertFalse(follower.isConnected());
+		long deadline = System.nanoTime() + TIMEOUT;
+		while (leader.getFollowerCount() > 0 && System.nanoTime() < deadline) {
+			leader.tryAddAccount("Holder" + System.nanoTime(), 1);
+			Thread.sleep(1);
+		}
+		assertEquals(0, leader.getFollowerCount());
+		assertFalse(follower.awaitSequence(leader.getSequence() + 1, TIMEOUT));
+	}
+
+	/**
+	 * Determines if invalid settings are rejected.
+	 */
+	@Test
+	void invalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> ReplicationLeader.start(new AccountManager(), 0, -1, 0));
+		assertThrows(IllegalArgumentException.class, () -> ReplicationLeader.start(new AccountManager(), 0, 0, -1));
+		AccountManager loaded = new AccountManager();
+		loaded.addAccount("Alice", 100);
+		assertThrows(IllegalArgumentException.class, () -> ReplicationLeader.start(loaded, 0, 0, 0));
+	}
+}
@@ -0,0 +1,234 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if standing orders run on time, the right
+ * number of times, at no more than the configured rate, and with the same effect as
+ * running each payment directly against the manager.
+ */
+class StandingOrderSchedulerTest {
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private AccountManager accountManager;
+
+	/**
+	 * Sets up a manager with a few accounts before each test.
+	 */
+	@BeforeEach
+	void setUp() {
+		accountManager = new AccountManager();
+		accountManager.addAccount("Alice", 1000);
+		accountManager.addAccount("Bob", 500);
+		accountManager.approveLoan("Bob", 300);
+	}
+
+	/**
+	 * Determines if a deposit runs at each due time, and stops after its last payment.
+	 */
+	@Test
+	void depositsRunWhenDue() {
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 1000, Double.POSITIVE_INFINITY, 0);
+		scheduler.scheduleDeposit("Alice", 100, DAY, 7 * DAY, 3);
+		assertEquals(1, scheduler.getScheduledCount());
+		assertEquals(0, scheduler.advanceTo(DAY - 1));
+		assertEquals(1000, accountManager.getBalance("Alice"));
+		assertEquals(1, scheduler.advanceTo(DAY));
+		assertEquals(1100, accountManager.getBalance("Alice"));
+		scheduler.advanceTo(8 * DAY - 1000);
+		assertEquals(1100, accountManager.getBalance("Alice"));
+		scheduler.advanceTo(30 * DAY);
+		assertEquals(1300, accountManager.getBalance("Alice"));
+		assertEquals(0, scheduler.getScheduledCount());
+		assertEquals(3, scheduler.getFiredCount());
+		assertEquals(0, scheduler.getFailedCount());
+	}
+
+	/**
+	 * Determines if an order far beyond the lowest level of the wheel fires on its exact tick.
+	 */
+	@Test
+	void distantOrderFiresOnTime() {
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 1, Double.POSITIVE_INFINITY, 123);
+		scheduler.scheduleDeposit("Alice", 1, 5_000_123, 262_145, StandingOrderScheduler.UNTIL_CANCELLED);
+		scheduler.advanceTo(5_000_122);
+		assertEquals(1000, accountManager.getBalance("Alice"));
+		scheduler.advanceTo(5_000_123);
+		assertEquals(1001, accountManager.getBalance("Alice"));
+		scheduler.advanceTo(5_262_267);
+		assertEquals(1001, accountManager.getBalance("Alice"));
+		scheduler.advanceTo(5_262_268);
+		assertEquals(1002, accountManager.getBalance("Alice"));
+	}
+
+	/**
+	 * Determines if repayments and transfers run, and a transfer to a missing account is
+	 * refunded and counted as refused.
+	 */
+	@Test
+	void repaymentsAndTransfers() {
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 1000, Double.POSITIVE_INFINITY, 0);
+		scheduler.scheduleRepayment("Bob", 50, DAY, DAY, 2);
+		scheduler.scheduleTransfer("Alice", "Bob", 200, DAY, DAY, 2);
+		scheduler.scheduleTransfer("Alice", "Nobody", 10, DAY, DAY, 1);
+		scheduler.scheduleRepayment("Bob", 1000, DAY, DAY, 1);
+		scheduler.advanceTo(3 * DAY);
+		assertEquals(600, accountManager.getBalance("Alice"));
+		assertEquals(900, accountManager.getBalance("Bob"));
+		assertEquals(200, accountManager.getLoan("Bob"));
+		assertEquals(6, scheduler.getFiredCount());
+		assertEquals(2, scheduler.getFailedCount());
+	}
+
+	/**
+	 * Determines if a cancelled order stops, and only a scheduled order can be cancelled.
+	 */
+	@Test
+	void cancelStopsOrder() {
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 1000, Double.POSITIVE_INFINITY, 0);
+		long order = scheduler.scheduleDeposit("Alice", 100, DAY, DAY, StandingOrderScheduler.UNTIL_CANCELLED);
+		scheduler.advanceTo(2 * DAY);
+		assertTrue(scheduler.cancel(order));
+		assertFalse(scheduler.cancel(order));
+		assertFalse(scheduler.cancel(42));
+		scheduler.advanceTo(10 * DAY);
+		assertEquals(1200, accountManager.getBalance("Alice"));
+		assertEquals(0, scheduler.getScheduledCount());
+	}
+
+	/**
+	 * Determines if the id of a finished order can't cancel a new order that reuses its
+	 * slot.
+	 */
+	@Test
+	void staleIdDoesNotCancelNewOrder() {
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 1000, Double.POSITIVE_INFINITY, 0);
+		long finished = scheduler.scheduleDeposit("Alice", 100, DAY, DAY, 1);
+		scheduler.advanceTo(2 * DAY);
+		long reused = scheduler.scheduleDeposit("Bob", 10, 3 * DAY, DAY, 1);
+		assertEquals((int) finished, (int) reused);
+		assertFalse(scheduler.cancel(finished));
+		assertEquals(1, scheduler.getScheduledCount());
+		scheduler.advanceTo(4 * DAY);
+		assertEquals(1100, accountManager.getBalance("Alice"));
+		assertEquals(510, accountManager.getBalance("Bob"));
+		assertTrue(scheduler.cancel(scheduler.scheduleDeposit("Bob", 10, 5 * DAY, DAY, 1)));
+	}
+
+	/**
+	 * Determines if orders all due at once are spread over the following ticks at the
+	 * configured rate, then all run.
+	 */
+	@Test
+	void rateLimitSpreadsSpike() {
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 100, 1000, 0);
+		for (int i = 0; i < 1000; i++) {
+			scheduler.scheduleDeposit(i % 2 == 0 ? "Alice" : "Bob", 1, DAY, DAY, 1);
+		}
+		assertEquals(100, scheduler.advanceTo(DAY));
+		assertEquals(900, scheduler.getBacklog());
+		assertEquals(100, scheduler.advanceTo(DAY + 100));
+		assertEquals(0, scheduler.advanceTo(DAY + 100));
+		for (long now = DAY + 200; scheduler.getBacklog() > 0; now += 100) {
+			assertTrue(scheduler.advanceTo(now) <= 100);
+		}
+		assertEquals(1500, accountManager.getBalance("Alice"));
+		assertEquals(1000, accountManager.getBalance("Bob"));
+		assertEquals(1000, scheduler.getFiredCount());
+	}
+
+	/**
+	 * Determines if many random orders leave every account as running each payment
+	 * directly in time order would.
+	 */
+	@Test
+	void matchesDirectPayments() {
+		String[] holders = new String[50];
+		AccountManager expected = new AccountManager();
+		for (int i = 0; i < holders.length; i++) {
+			holders[i] = "Holder" + i;
+			accountManager.addAccount(holders[i], 1_000_000);
+			expected.addAccount(holders[i], 1_000_000);
+		}
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 10, Double.POSITIVE_INFINITY, 0);
+		SplittableRandom random = new SplittableRandom(7);
+		long end = 100_000;
+		long payments = 0;
+		for (int i = 0; i < 5000; i++) {
+			String holder = holders[random.nextInt(holders.length)];
+			String other = holders[random.nextInt(holders.length)];
+			double amount = 1 + random.nextInt(100);
+			long first = 10 + random.nextLong(end);
+			long interval = 10 + random.nextLong(end);
+			int count = 1 + random.nextInt(5);
+			boolean deposit = random.nextBoolean();
+			if (deposit) {
+				scheduler.scheduleDeposit(holder, amount, first, interval, count);
+			} else {
+				scheduler.scheduleTransfer(holder, other, amount, first, interval, count);
+			}
+			for (int k = 0; k < count; k++) {
+				long at = ((first + 9) / 10 + k * ((interval + 9) / 10)) * 10;
+				if (at <= end) {
+					payments++;
+					if (deposit) {
+						expected.deposit(holder, amount);
+					} else {
+						expected.withdraw(holder, amount);
+						expected.deposit(other, amount);
+					}
+				}
+			}
+		}
+		for (long now = 0; now <= end; now += 1000) {
+			scheduler.advanceTo(now);
+		}
+		assertEquals(payments, scheduler.getFiredCount());
+		assertEquals(0, scheduler.getFailedCount());
+		for (String holder : holders) {
+			assertEquals(expected.getBalance(holder), accountManager.getBalance(holder), holder);
+		}
+	}
+
+	/**
+	 * Determines if the clock thread runs orders as the system clock reaches them.
+	 *
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	@Test
+	void clockThreadRunsOrders() throws InterruptedException {
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 5, Double.POSITIVE_INFINITY,
+				System.currentTimeMillis());
+		scheduler.scheduleDeposit("Alice", 1, System.currentTimeMillis() + 20, 5, 10);
+		scheduler.start();
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (scheduler.getFiredCount() < 10 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		scheduler.close();
+		assertEquals(1010, accountManager.getBalance("Alice"));
+		assertThrows(IllegalStateException.class, scheduler::start);
+	}
+
+	/**
+	 * Determines if invalid settings and orders are rejected.
+	 */
+	@Test
+	void invalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> new StandingOrderScheduler(null, 1, 1, 0));
+		assertThrows(IllegalArgumentException.class, () -> new StandingOrderScheduler(accountManager, 0, 1, 0));
+		assertThrows(IllegalArgumentException.class, () -> new StandingOrderScheduler(accountManager, 1, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> new StandingOrderScheduler(accountManager, 1, 1, -1));
+		StandingOrderScheduler scheduler = new StandingOrderScheduler(accountManager, 1000, 1, 0);
+		assertThrows(IllegalArgumentException.class, () -> scheduler.scheduleDeposit(null, 1, 0, DAY, 1));
+		assertThrows(IllegalArgumentException.class, () -> scheduler.scheduleDeposit("Alice", 0, 0, DAY, 1));
+		assertThrows(IllegalArgumentException.class, () -> scheduler.scheduleDeposit("Alice", 1, 0, 0, 1));
+		assertThrows(IllegalArgumentException.class, () -> scheduler.scheduleDeposit("Alice", 1, 0, DAY, 0));
+		assertThrows(IllegalArgumentException.class, () -> scheduler.scheduleTransfer("Alice", null, 1, 0, DAY, 1));
+	}
+}
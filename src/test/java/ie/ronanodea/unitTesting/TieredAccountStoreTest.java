@@ -0,0 +1,245 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if accounts kept in a tiered store keep
+ * their balances and loans when evicted to the segment file and loaded again, across
+ * reopening the file, and while several threads use them.
+ */
+class TieredAccountStoreTest {
+	private static final long THREE_ACCOUNTS = 3 * (TieredAccountStore.RESIDENT_OVERHEAD_BYTES + 10);
+
+	private Path file;
+	private TieredAccountStore store;
+
+	/**
+	 * New segment file for 100 accounts, with room on the heap for about three, before each test.
+	 *
+	 * @throws IOException if the file can't be created
+	 */
+	@BeforeEach
+	void setUp() throws IOException {
+		file = Files.createTempFile("accounts", ".seg");
+		Files.delete(file);
+		store = TieredAccountStore.create(file, 100, 16, THREE_ACCOUNTS);
+	}
+
+	/**
+	 * Closes and removes the segment file after each test.
+	 *
+	 * @throws IOException if the file can't be closed or removed
+	 */
+	@AfterEach
+	void tearDown() throws IOException {
+		store.close();
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Determines if accounts evicted under the memory budget come back with their balances and loans.
+	 */
+	@Test
+	void evictedAccountsKeepTheirState() {
+		AccountManager accountManager = new AccountManager(store, null);
+		for (int i = 0; i < 50; i++) {
+			accountManager.addAccount("Holder" + i, 100 + i);
+		}
+		for (int i = 0; i < 50; i += 5) {
+			accountManager.deposit("Holder" + i, 10);
+			accountManager.approveLoan("Holder" + i, 20);
+		}
+		assertTrue(store.getEvictionCount() > 0);
+		assertTrue(store.getResidentCount() <= 4);
+		for (int i = 0; i < 50; i++) {
+			assertEquals(100 + i + (i % 5 == 0 ? 10 : 0), accountManager.getBalance("Holder" + i));
+			assertEquals(i % 5 == 0 ? 20 : 0, accountManager.getLoan("Holder" + i));
+		}
+		assertTrue(store.getHydrationCount() > 0);
+		assertEquals(50, store.size());
+	}
+
+	/**
+	 * Determines if duplicate holders are refused whether the first account is live or only on disk.
+	 */
+	@Test
+	void duplicatesRefused() {
+		AccountManager accountManager = new AccountManager(store, null);
+		for (int i = 0; i < 10; i++) {
+			accountManager.addAccount("Holder" + i, 100);
+		}
+		assertEquals(LedgerStatus.ALREADY_EXISTS, accountManager.tryAddAccount("Holder0", 100));
+		assertEquals(LedgerStatus.ALREADY_EXISTS, accountManager.tryAddAccount("Holder9", 100));
+		assertFalse(store.addDormant("Holder5", 1, 0));
+		assertEquals(10, store.size());
+	}
+
+	/**
+	 * Determines if accounts survive closing and reopening the segment file, and the
+	 * manager's total deposits are rebuilt from them.
+	 *
+	 * @throws IOException if the file can't be reopened
+	 */
+	@Test
+	void reopenKeepsAccounts() throws IOException {
+		AccountManager accountManager = new AccountManager(store, null);
+		accountManager.addAccount("Alice", 1000);
+		accountManager.addAccount("Bob", 500);
+		accountManager.approveLoan("Alice", 300);
+		store.addDormant("Carol", 250, 50);
+		store.close();
+
+		store = TieredAccountStore.open(file, THREE_ACCOUNTS);
+		AccountManager reopened = new AccountManager(store, null);
+		assertEquals(3, store.size());
+		assertEquals(1000, reopened.getBalance("Alice"));
+		assertEquals(300, reopened.getLoan("Alice"));
+		assertEquals(250, reopened.getBalance("Carol"));
+		assertEquals(50, reopened.getLoan("Carol"));
+		assertEquals(1000 + 500 + 250 - 300 - 50, reopened.getTotalDeposits());
+		assertNull(reopened.getBalance("Dave"));
+	}
+
+	/**
+	 * Determines if names too long for the file, and a full file, are refused.
+	 */
+	@Test
+	void limitsEnforced() {
+		assertThrows(IllegalArgumentException.class, () -> store.addDormant("A name far too long", 1, 0));
+		assertNull(store.get("A name far too long"));
+		for (int i = 0; i < 100; i++) {
+			assertTrue(store.addDormant("Holder" + i, 1, 0));
+		}
+		assertThrows(IllegalStateException.class, () -> store.addDormant("Holder100", 1, 0));
+		assertThrows(IllegalArgumentException.class, () -> TieredAccountStore.create(file, 0, 16, 1));
+	}
+
+	/**
+	 * Determines if forEach visits live and dormant accounts alike.
+	 */
+	@Test
+	void forEachVisitsEveryAccount() {
+		for (int i = 0; i < 20; i++) {
+			store.addDormant("Holder" + i, i, 0);
+		}
+		store.get("Holder3");
+		AtomicLong visits = new AtomicLong();
+		AtomicLong total = new AtomicLong();
+		store.forEach(account -> {
+			visits.incrementAndGet();
+			total.addAndGet((long) account.getBalance());
+		});
+		assertEquals(20, visits.get());
+		assertEquals(190, total.get());
+	}
+
+	/**
+	 * Determines if forEach still visits every account exactly once when accounts are
+	 * loaded, and others evicted, while it walks the file.
+	 */
+	@Test
+	void forEachVisitsAccountsLoadedDuringTheWalk() {
+		for (int i = 0; i < 20; i++) {
+			store.addDormant("Holder" + i, i, 0);
+		}
+		store.get("Holder3");
+		Set<String> visited = new HashSet<>();
+		AtomicLong visits = new AtomicLong();
+		store.forEach(account -> {
+			visits.incrementAndGet();
+			visited.add(account.getAccountHolder());
+			for (int i = 0; i < 20; i++) {
+				store.get("Holder" + i);
+			}
+		});
+		assertEquals(20, visits.get());
+		assertEquals(20, visited.size());
+		assertTrue(store.getEvictionCount() > 0);
+	}
+
+	/**
+	 * Determines if removed accounts are gone from lookups, walks and the reopened file,
+	 * if accounts probing past their slots are still found, and if the slots are reused.
+	 *
+	 * @throws IOException if the file can't be reopened
+	 */
+	@Test
+	void removedAccountsAreGone() throws IOException {
+		AccountManager accountManager = new AccountManager(store, null);
+		for (int i = 0; i < 100; i++) {
+			accountManager.addAccount("Holder" + i, 100);
+		}
+		LedgerResult result = new LedgerResult();
+		for (int i = 0; i < 100; i += 2) {
+			assertEquals(LedgerStatus.OK, accountManager.tryRemoveAccount("Holder" + i, result));
+		}
+		assertEquals(LedgerStatus.NOT_FOUND, accountManager.tryRemoveAccount("Holder0", result));
+		assertEquals(50, store.size());
+		assertEquals(5000, accountManager.getTotalDeposits());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i % 2 == 0 ? null : 100.0, accountManager.getBalance("Holder" + i));
+		}
+		AtomicLong visits = new AtomicLong();
+		store.forEach(account -> visits.incrementAndGet());
+		assertEquals(50, visits.get());
+
+		for (int i = 0; i < 50; i++) {
+			assertEquals(LedgerStatus.OK, accountManager.tryAddAccount("Other" + i, 1));
+		}
+		assertEquals(100, store.size());
+		assertThrows(IllegalStateException.class, () -> store.addDormant("Other50", 1, 0));
+		store.close();
+		store = TieredAccountStore.open(file, THREE_ACCOUNTS);
+		assertNull(store.get("Holder0"));
+		assertEquals(100, store.get("Holder1").getBalance());
+		assertEquals(1, store.get("Other49").getBalance());
+		assertEquals(100, store.size());
+	}
+
+	/**
+	 * Determines if concurrent deposits and withdrawals on more accounts than fit in memory
+	 * lose no updates while accounts are evicted and loaded underneath them.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	@Test
+	void concurrentUseLosesNothing() throws InterruptedException {
+		AccountManager accountManager = new AccountManager(store, null);
+		for (int i = 0; i < 20; i++) {
+			accountManager.addAccount("Holder" + i, 1000);
+		}
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; t++) {
+			int offset = t;
+			workers[t] = new Thread(() -> {
+				for (int i = 0; i < 5000; i++) {
+					String holder = "Holder" + ((i * 7 + offset) % 20);
+					accountManager.deposit(holder, 2);
+					accountManager.withdraw(holder, 1);
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double total = 0;
+		for (int i = 0; i < 20; i++) {
+			total += accountManager.getBalance("Holder" + i);
+		}
+		assertEquals(20 * 1000 + 4 * 5000, total);
+		assertEquals(total, accountManager.getTotalDeposits());
+		assertTrue(store.getEvictionCount() > 0);
+	}
+}
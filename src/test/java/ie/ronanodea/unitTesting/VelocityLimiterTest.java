@@ -0,0 +1,201 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This test class provides methods to ascertain if the velocity limiter refuses
+ * withdrawals beyond its count and amount limits, lets them through again as the
+ * window passes, and drops idle account holders, both on its own and when wired into
+ * the account manager.
+ */
+class VelocityLimiterTest {
+	private static final long WINDOW = 60_000_000_000L; // one minute in nanoseconds
+	private static final long SLICE = WINDOW / 8;
+
+	private long now;
+	private VelocityLimiter limiter;
+
+	/**
+	 * New limiter before each test: 3 withdrawals and 500 per minute, 2 stripes, on a simulated clock.
+	 */
+	@BeforeEach
+	void setUp() {
+		now = 1_000_000_000L;
+		limiter = new VelocityLimiter(3, 500, 60_000, 2, () -> now);
+	}
+
+	/**
+	 * Determines if withdrawals beyond the count limit are refused until the window, and
+	 * the slice it may overrun by, have passed.
+	 */
+	@Test
+	void countLimit() {
+		for (int i = 0; i < 3; i++) {
+			assertEquals(LedgerStatus.OK, limiter.tryReserve("Alice", 10));
+		}
+		assertEquals(LedgerStatus.VELOCITY_LIMIT, limiter.tryReserve("Alice", 10));
+		assertEquals(LedgerStatus.OK, limiter.tryReserve("Bob", 10));
+		now += WINDOW / 2;
+		assertEquals(0, limiter.getRemainingWithdrawals("Alice"));
+		assertEquals(LedgerStatus.VELOCITY_LIMIT, limiter.tryReserve("Alice", 10));
+		now += WINDOW / 2 + SLICE;
+		assertEquals(3, limiter.getRemainingWithdrawals("Alice"));
+		assertEquals(LedgerStatus.OK, limiter.tryReserve("Alice", 10));
+	}
+
+	/**
+	 * Determines if withdrawals beyond the amount limit are refused, and a single
+	 * withdrawal larger than the limit never passes.
+	 */
+	@Test
+	void amountLimit() {
+		assertEquals(LedgerStatus.OK, limiter.tryReserve("Alice", 400));
+		assertEquals(LedgerStatus.VELOCITY_LIMIT, limiter.tryReserve("Alice", 200));
+		assertEquals(LedgerStatus.OK, limiter.tryReserve("Alice", 100));
+		assertEquals(0, limiter.getRemainingAmount("Alice"));
+		now += WINDOW / 2;
+		assertEquals(0, limiter.getRemainingAmount("Alice"));
+		now += WINDOW / 2 + SLICE;
+		assertEquals(500, limiter.getRemainingAmount("Alice"));
+		assertEquals(LedgerStatus.VELOCITY_LIMIT, limiter.tryReserve("Bob", 501));
+		assertEquals(500, limiter.getRemainingAmount("Bob"));
+	}
+
+	/**
+	 * Determines if no window of the limiter's length ever holds more than the limits,
+	 * with withdrawals tried all the way across window boundaries.
+	 */
+	@Test
+	void limitsHoldAcrossWindowBoundary() {
+		now = 0;
+		for (int i = 0; i < 3; i++) {
+			assertEquals(LedgerStatus.OK, limiter.tryReserve("Alice", 100));
+		}
+		now = WINDOW - 1;
+		assertEquals(LedgerStatus.VELOCITY_LIMIT, limiter.tryReserve("Alice", 1));
+
+		List<Long> passed = new ArrayList<>();
+		List<Double> amounts = new ArrayList<>();
+		for (now = 0; now < 4 * WINDOW; now += WINDOW / 100) {
+			double amount = 90 + now % 70;
+			if (limiter.tryReserve("Bob", amount) == LedgerStatus.OK) {
+				passed.add(now);
+				amounts.add(amount);
+			}
+		}
+		assertTrue(passed.size() >= 9, "Passed " + passed.size());
+		for (int i = 0; i < passed.size(); i++) {
+			int count = 0;
+			double total = 0;
+			for (int j = 0; j <= i; j++) {
+				if (passed.get(j) > passed.get(i) - WINDOW) {
+					count++;
+					total += amounts.get(j);
+				}
+			}
+			assertTrue(count <= 3, count + " withdrawals in the window ending " + passed.get(i));
+			assertTrue(total <= 500, total + " withdrawn in the window ending " + passed.get(i));
+		}
+	}
+
+	/**
+	 * Determines if a released withdrawal is handed back, but never beyond the limits.
+	 */
+	@Test
+	void releaseHandsBack() {
+		limiter.tryReserve("Alice", 300);
+		limiter.release("Alice", 300);
+		assertEquals(3, limiter.getRemainingWithdrawals("Alice"));
+		assertEquals(500, limiter.getRemainingAmount("Alice"));
+		limiter.release("Alice", 300);
+		limiter.release("Nobody", 300);
+		assertEquals(3, limiter.getRemainingWithdrawals("Alice"));
+		assertEquals(500, limiter.getRemainingAmount("Alice"));
+	}
+
+	/**
+	 * Determines if account holders idle for a whole window and slice are dropped as new
+	 * ones arrive, instead of the table growing.
+	 */
+	@Test
+	void idleHoldersExpire() {
+		for (int i = 0; i < 1000; i++) {
+			limiter.tryReserve("Holder" + i, 1);
+		}
+		assertEquals(1000, limiter.getTrackedCount());
+		limiter.tryReserve("Holder0", 1);
+		limiter.tryReserve("Holder0", 1);
+		now += WINDOW + SLICE;
+		for (int i = 1000; i < 2000; i++) {
+			limiter.tryReserve("Holder" + i, 1);
+		}
+		assertTrue(limiter.getTrackedCount() < 1500, "Tracked " + limiter.getTrackedCount());
+		assertEquals(3, limiter.getRemainingWithdrawals("Holder0"));
+		assertEquals(2, limiter.getRemainingWithdrawals("Holder1999"));
+	}
+
+	/**
+	 * Determines if the manager refuses withdrawals the limiter refuses, and hands back
+	 * withdrawals refused by the account, through both APIs and from several threads.
+	 *
+	 * @throws InterruptedException if a worker is interrupted
+	 */
+	@Test
+	void managerChecksWithdrawals() throws InterruptedException {
+		AccountManager accountManager = new AccountManager();
+		accountManager.setWithdrawalCheck(limiter);
+		accountManager.addAccount("Alice", 1000);
+		accountManager.addAccount("Bob", 100);
+		assertEquals(LedgerStatus.INSUFFICIENT_FUNDS, accountManager.tryWithdraw("Bob", 200));
+		assertEquals(3, limiter.getRemainingWithdrawals("Bob"));
+		assertEquals(LedgerStatus.NOT_FOUND, accountManager.tryWithdraw("Nobody", 10));
+		assertEquals(LedgerStatus.VELOCITY_LIMIT, accountManager.tryWithdraw("Alice", 600));
+		assertTrue(accountManager.withdraw("Alice", 100));
+		assertTrue(accountManager.withdraw("Alice", 100));
+		assertEquals(LedgerStatus.OK, accountManager.tryWithdraw("Alice", 100));
+		assertFalse(accountManager.withdraw("Alice", 100));
+		assertEquals(700, accountManager.getBalance("Alice"));
+		assertEquals(800, accountManager.getTotalDeposits());
+		assertEquals("VELOCITY_LIMIT", LedgerStatus.name(LedgerStatus.VELOCITY_LIMIT));
+
+		now += WINDOW + SLICE;
+		AtomicInteger passed = new AtomicInteger();
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] = new Thread(() -> {
+				for (int i = 0; i < 100; i++) {
+					if (accountManager.tryWithdraw("Alice", 1) == LedgerStatus.OK) {
+						passed.incrementAndGet();
+					}
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(3, passed.get());
+		assertEquals(697, accountManager.getBalance("Alice"));
+		accountManager.setWithdrawalCheck(null);
+		assertEquals(LedgerStatus.OK, accountManager.tryWithdraw("Alice", 600));
+	}
+
+	/**
+	 * Determines if invalid settings are rejected.
+	 */
+	@Test
+	void invalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> new VelocityLimiter(0, 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> new VelocityLimiter(1, 0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new VelocityLimiter(1, 1, 0));
+		assertThrows(IllegalArgumentException.class, () -> new VelocityLimiter(1, 1, 1, 0, System::nanoTime));
+		assertThrows(IllegalArgumentException.class, () -> new VelocityLimiter(1, 1, 1, 1, null));
+	}
+}
@@ -0,0 +1,170 @@
+package ie.ronanodea.unitTesting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test class provides methods to ascertain if generated workloads are repeatable,
+ * survive being recorded and read back, and replay to the same ledger state every time.
+ */
+class WorkloadTest {
+
+	/**
+	 * Determines if the same seed and settings generate the same trace.
+	 */
+	@Test
+	void sameSeedSameTrace() {
+		WorkloadTrace first = new WorkloadGenerator(42, 100).generate(5000);
+		WorkloadTrace second = new WorkloadGenerator(42, 100).generate(5000);
+		assertEquals(5000, first.size());
+		for (int i = 0; i < first.size(); i++) {
+			assertEquals(first.getOperation(i), second.getOperation(i));
+			assertEquals(first.getHolder(i), second.getHolder(i));
+			assertEquals(first.getAmount(i), second.getAmount(i));
+			assertEquals(first.getArrivalNanos(i), second.getArrivalNanos(i));
+		}
+	}
+
+	/**
+	 * Determines if a trace written to a stream reads back unchanged.
+	 *
+	 * @throws IOException if the in-memory stream fails
+	 */
+	@Test
+	void recordAndReadBack() throws IOException {
+		WorkloadGenerator generator = new WorkloadGenerator(7, 50);
+		generator.setBursts(10, 1_000_000, 0.2);
+		WorkloadTrace trace = generator.generate(2000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		trace.write(out);
+		WorkloadTrace copy = WorkloadTrace.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(trace.size(), copy.size());
+		assertEquals(trace.getAccounts(), copy.getAccounts());
+		assertEquals(trace.getOpeningBalance(), copy.getOpeningBalance());
+		assertEquals(trace.holderName(3), copy.holderName(3));
+		for (int i = 0; i < trace.size(); i++) {
+			assertEquals(trace.getOperation(i), copy.getOperation(i));
+			assertEquals(trace.getHolder(i), copy.getHolder(i));
+			assertEquals(trace.getAmount(i), copy.getAmount(i));
+			assertEquals(trace.getArrivalNanos(i), copy.getArrivalNanos(i));
+		}
+	}
+
+	/**
+	 * Determines if reading something that isn't a trace fails cleanly.
+	 */
+	@Test
+	void readRejectsOtherData() {
+		assertThrows(IOException.class, () -> WorkloadTrace.read(new ByteArrayInputStream(new byte[16])));
+	}
+
+	/**
+	 * Determines if replaying a trace against fresh managers, with and without a balance
+	 * cache, ends in the same ledger state.
+	 */
+	@Test
+	void replayIsDeterministic() {
+		WorkloadTrace trace = new WorkloadGenerator(99, 200).generate(20_000);
+		ReplayReport plain = new WorkloadReplayer(new AccountManager()).replay(trace);
+		AccountManager cached = new AccountManager();
+		cached.setBalanceCache(BalanceCache.ofEntries(50));
+		ReplayReport withCache = new WorkloadReplayer(cached).replay(trace);
+		assertEquals(plain.getChecksum(), withCache.getChecksum());
+		assertEquals(plain.getSucceeded(), withCache.getSucceeded());
+		assertEquals(20_000, plain.getOperations());
+		assertTrue(plain.getSucceeded() > 0);
+		assertTrue(plain.getLatency(50) <= plain.getLatency(99));
+		assertTrue(plain.getLatency(99) <= plain.getMaxLatency());
+	}
+
+	/**
+	 * Determines if the Zipfian skew makes the first account holder the busiest.
+	 */
+	@Test
+	void skewFavoursFirstHolder() {
+		WorkloadTrace trace = new WorkloadGenerator(1, 100).generate(10_000);
+		int[] counts = new int[100];
+		for (int i = 0; i < trace.size(); i++) {
+			counts[trace.getHolder(i)]++;
+		}
+		for (int i = 1; i < counts.length; i++) {
+			assertTrue(counts[0] > counts[i]);
+		}
+	}
+
+	/**
+	 * Determines if an operation mix of only reads generates only reads, and invalid
+	 * settings are rejected.
+	 */
+	@Test
+	void operationMix() {
+		WorkloadGenerator generator = new WorkloadGenerator(3, 10);
+		generator.setOperationMix(0, 0, 0, 0, 1);
+		WorkloadTrace trace = generator.generate(500);
+		for (int i = 0; i < trace.size(); i++) {
+			assertEquals(WorkloadTrace.GET_BALANCE, trace.getOperation(i));
+		}
+		assertThrows(IllegalArgumentException.class, () -> generator.setOperationMix(0, 0, 0, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> generator.setOperationMix(-1, 1, 1, 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> new WorkloadGenerator(3, 0));
+	}
+
+	/**
+	 * Determines if burst settings that would stall or break arrivals are rejected.
+	 */
+	@Test
+	void burstsRejectInvalidSettings() {
+		WorkloadGenerator generator = new WorkloadGenerator(3, 10);
+		assertThrows(IllegalArgumentException.class, () -> generator.setBursts(10, 0, 0.2));
+		assertThrows(IllegalArgumentException.class, () -> generator.setBursts(10, -1, 0.2));
+		assertThrows(IllegalArgumentException.class, () -> generator.setBursts(0, 1_000_000, 0.2));
+		assertThrows(IllegalArgumentException.class, () -> generator.setBursts(-2, 1_000_000, 0.2));
+		assertThrows(IllegalArgumentException.class, () -> generator.setBursts(10, 1_000_000, -0.1));
+		assertThrows(IllegalArgumentException.class, () -> generator.setBursts(10, 1_000_000, 1.5));
+		assertThrows(IllegalArgumentException.class, () -> generator.setBursts(10, 1_000_000, Double.NaN));
+		generator.setBursts(10, 1_000_000, 1);
+		assertEquals(100, generator.generate(100).size());
+	}
+
+	/**
+	 * Determines if skew and amount settings that would fail later, or open no accounts,
+	 * are rejected when set.
+	 */
+	@Test
+	void skewAndAmountsRejectInvalidSettings() {
+		WorkloadGenerator generator = new WorkloadGenerator(3, 10);
+		assertThrows(IllegalArgumentException.class, () -> generator.setZipfTheta(1));
+		assertThrows(IllegalArgumentException.class, () -> generator.setZipfTheta(-0.1));
+		assertThrows(IllegalArgumentException.class, () -> generator.setZipfTheta(Double.NaN));
+		assertThrows(IllegalArgumentException.class, () -> generator.setMaxAmount(0));
+		assertThrows(IllegalArgumentException.class, () -> generator.setMaxAmount(-5));
+		assertThrows(IllegalArgumentException.class, () -> generator.setMaxAmount(Double.POSITIVE_INFINITY));
+		assertThrows(IllegalArgumentException.class, () -> generator.setOpeningBalance(0));
+		assertThrows(IllegalArgumentException.class, () -> generator.setOpeningBalance(-100));
+		generator.setZipfTheta(0);
+		generator.setMaxAmount(0.5);
+		generator.setOpeningBalance(1);
+		assertEquals(100, generator.generate(100).size());
+	}
+
+	/**
+	 * Determines if histogram percentiles stay within the bucket error of the true values.
+	 */
+	@Test
+	void latencyHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10_000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(10_000, histogram.getCount());
+		assertEquals(10_000_000, histogram.getMax());
+		assertEquals(5_000_000, histogram.getPercentile(50), 5_000_000 * 0.07);
+		assertEquals(9_900_000, histogram.getPercentile(99), 9_900_000 * 0.07);
+		assertEquals(10_000_000, histogram.getPercentile(100));
+	}
+}